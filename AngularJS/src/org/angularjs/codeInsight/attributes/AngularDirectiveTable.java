@@ -0,0 +1,242 @@
+package org.angularjs.codeInsight.attributes;
+
+import com.intellij.lang.javascript.psi.JSImplicitElementProvider;
+import com.intellij.lang.javascript.psi.stubs.JSImplicitElement;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootModificationTracker;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiUtilCore;
+import com.intellij.psi.xml.XmlTag;
+import com.intellij.util.containers.MultiMap;
+import org.angularjs.index.AngularDirectivesDocIndex;
+import org.angularjs.index.AngularDirectivesIndex;
+import org.angularjs.index.AngularIndexKeysCache;
+import org.angularjs.index.AngularIndexUtil;
+import org.angularjs.index.AngularJSIndexingHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Directives usable as attributes grouped by the tag they are restricted to. Like in the resolve of a single directive,
+ * the first definition decides whether a directive applies to a tag, and the last applicable definition is used then.
+ * Restrictions are parsed once per modification of JavaScript/HTML files instead of once per tag.
+ */
+class AngularDirectiveTable {
+  private final Map<String, Directive> myDocDirectives;
+  private final Map<String, Directive> myDirectives;
+
+  private final List<Directive> myAnyTagDirectives = new ArrayList<>();
+  private final MultiMap<String, Directive> myTagDirectives = MultiMap.createSmart();
+  private final List<Directive> myFormInputDirectives = new ArrayList<>();
+
+  @NotNull
+  static AngularDirectiveTable getInstance(@NotNull Project project) {
+    return CachedValuesManager.getManager(project).getCachedValue(project, () -> CachedValueProvider.Result
+      .create(new AngularDirectiveTable(project), AngularIndexKeysCache.getInstance(project).getModificationTracker(),
+              ProjectRootModificationTracker.getInstance(project)));
+  }
+
+  private AngularDirectiveTable(@NotNull Project project) {
+    myDocDirectives = collectDirectives(project, AngularDirectivesDocIndex.KEY);
+    myDirectives = collectDirectives(project, AngularDirectivesIndex.KEY);
+
+    int order = 0;
+    for (Directive directive : myDocDirectives.values()) {
+      register(directive, order++);
+    }
+    for (Directive directive : myDirectives.values()) {
+      if (!myDocDirectives.containsKey(directive.myName)) {
+        register(directive, order++);
+      }
+    }
+  }
+
+  private static Map<String, Directive> collectDirectives(Project project, StubIndexKey<String, JSImplicitElementProvider> index) {
+    final Map<String, Directive> result = new LinkedHashMap<>();
+    for (String name : AngularIndexUtil.getAllKeys(index, project)) {
+      final List<Definition> definitions = new ArrayList<>();
+      AngularIndexUtil.multiResolve(project, index, name, element -> {
+        if (element != null) {
+          definitions.add(new Definition(element));
+        }
+        return true;
+      });
+      if (!definitions.isEmpty()) {
+        result.put(name, new Directive(name, definitions));
+      }
+    }
+    return result;
+  }
+
+  private void register(Directive directive, int order) {
+    directive.myOrder = order;
+    final Definition first = directive.getFirst();
+    if (!first.myAttribute) return;
+
+    if (first.myRequiredTags == null) {
+      myAnyTagDirectives.add(directive);
+      return;
+    }
+    for (String tag : first.myRequiredTags) {
+      myTagDirectives.putValue(tag, directive);
+    }
+    if (first.myFormInput) {
+      myFormInputDirectives.add(directive);
+    }
+  }
+
+  /**
+   * @return declarations of the directives applicable as attributes of the tag by directive name, documented ones first
+   */
+  @NotNull
+  Map<String, JSImplicitElement> getAttributeDirectives(@NotNull XmlTag tag) {
+    final TagContext context = new TagContext(tag);
+    final Collection<Directive> tagDirectives = myTagDirectives.get(context.myName);
+    final boolean formInput = !myFormInputDirectives.isEmpty() && context.isInForm();
+
+    final List<Directive> directives;
+    if (tagDirectives.isEmpty() && !formInput) {
+      directives = myAnyTagDirectives;
+    }
+    else {
+      final Set<Directive> applicable = new HashSet<>(myAnyTagDirectives);
+      applicable.addAll(tagDirectives);
+      if (formInput) {
+        applicable.addAll(myFormInputDirectives);
+      }
+      directives = new ArrayList<>(applicable);
+      Collections.sort(directives, (d1, d2) -> d1.myOrder - d2.myOrder);
+    }
+
+    final Map<String, JSImplicitElement> result = new LinkedHashMap<>();
+    for (Directive directive : directives) {
+      result.put(directive.myName, directive.getElement(context));
+    }
+    return Collections.unmodifiableMap(result);
+  }
+
+  /**
+   * @return the declaration if the directive applies to the tag as an attribute, {@code null} if it doesn't,
+   * {@link PsiUtilCore#NULL_PSI_ELEMENT} if the directive is unknown
+   */
+  @Nullable
+  PsiElement resolve(@NotNull String name, @NotNull XmlTag tag, boolean documented) {
+    final Directive directive = (documented ? myDocDirectives : myDirectives).get(name);
+    if (directive == null) return PsiUtilCore.NULL_PSI_ELEMENT;
+    final TagContext context = new TagContext(tag);
+    return directive.getFirst().appliesTo(context) ? directive.getElement(context) : null;
+  }
+
+  private static boolean isInForm(XmlTag tag) {
+    PsiElement parent = tag;
+    while (parent != null) {
+      parent = parent.getParent();
+      if (parent instanceof XmlTag && isForm((XmlTag)parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isForm(XmlTag parent) {
+    final String name = parent.getName();
+    return "form".equalsIgnoreCase(name) || "ng-form".equalsIgnoreCase(name);
+  }
+
+  /**
+   * The tag a directive is checked for, its form ancestor is looked up at most once.
+   */
+  private static class TagContext {
+    private final XmlTag myTag;
+    private final String myName;
+    private Boolean myInForm;
+
+    private TagContext(XmlTag tag) {
+      myTag = tag;
+      myName = StringUtil.toLowerCase(tag.getName());
+    }
+
+    private boolean isInForm() {
+      if (myInForm == null) {
+        myInForm = AngularDirectiveTable.isInForm(myTag);
+      }
+      return myInForm;
+    }
+  }
+
+  private static class Directive {
+    private final String myName;
+    private final List<Definition> myDefinitions;
+    private int myOrder;
+
+    private Directive(String name, List<Definition> definitions) {
+      myName = name;
+      myDefinitions = definitions;
+    }
+
+    private Definition getFirst() {
+      return myDefinitions.get(0);
+    }
+
+    /**
+     * @return the last definition applicable to a tag the first definition applies to
+     */
+    private JSImplicitElement getElement(TagContext context) {
+      for (int i = myDefinitions.size() - 1; i > 0; i--) {
+        final Definition definition = myDefinitions.get(i);
+        if (definition.appliesTo(context)) {
+          return definition.myElement;
+        }
+      }
+      return getFirst().myElement;
+    }
+  }
+
+  private static class Definition {
+    private final JSImplicitElement myElement;
+    private final boolean myAttribute;
+    @Nullable private final Set<String> myRequiredTags;
+    private final boolean myFormInput;
+
+    private Definition(JSImplicitElement element) {
+      myElement = element;
+
+      final String restrictions = element.getTypeString();
+      if (restrictions == null) {
+        myAttribute = true;
+        myRequiredTags = null;
+        myFormInput = false;
+        return;
+      }
+
+      final String[] split = restrictions.split(";", -1);
+      final String restrict = split[0];
+      final String requiredTag = split[1];
+      // default restrictions always include attributes, see AngularIndexUtil.convertRestrictions()
+      myAttribute = StringUtil.isEmpty(restrict) || AngularJSIndexingHandler.DEFAULT_RESTRICTIONS.equals(restrict) ||
+                    StringUtil.containsIgnoreCase(restrict, "A");
+      if (StringUtil.isEmpty(requiredTag) || StringUtil.equalsIgnoreCase(requiredTag, "ANY")) {
+        myRequiredTags = null;
+      }
+      else {
+        myRequiredTags = new HashSet<>();
+        for (String tag : requiredTag.split(",")) {
+          myRequiredTags.add(StringUtil.toLowerCase(tag.trim()));
+        }
+      }
+      myFormInput = "input".equalsIgnoreCase(requiredTag);
+    }
+
+    private boolean appliesTo(TagContext context) {
+      if (!myAttribute) return false;
+      if (myRequiredTags == null || myRequiredTags.contains(context.myName)) return true;
+      return myFormInput && context.isInForm();
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package org.angularjs.codeInsight.attributes;
 
 import com.intellij.lang.javascript.modules.diagramm.JSModuleConnectionProvider;
-import com.intellij.lang.javascript.psi.JSCallExpression;
 import com.intellij.lang.javascript.psi.JSFile;
 import com.intellij.lang.javascript.psi.stubs.JSImplicitElement;
 import com.intellij.openapi.project.Project;
@@ -9,7 +8,6 @@ import com.intellij.psi.PsiFile;
 import com.intellij.psi.SmartPointerManager;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.stubs.StubIndex;
-import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.CommonProcessors;
 import com.intellij.util.indexing.FileBasedIndex;
 import com.intellij.util.indexing.IdFilter;
@@ -60,19 +58,12 @@ public class AngularModulesProvider implements JSModuleConnectionProvider {
       AngularIndexUtil.multiResolve(project, AngularModuleIndex.KEY, key,
                                     element -> {
         if (!file.equals(element.getContainingFile())) return true;
-        // todo whether it would blink
-                                      final JSCallExpression expression = PsiTreeUtil.getParentOfType(element, JSCallExpression.class);
-                                      if (expression != null) {
-                                        final List<String> dependencies = AngularModuleIndex.findDependenciesInModuleDeclaration(expression);
-                                        if (dependencies != null) {
-                                          for (String dependency : dependencies) {
-                                            final JSImplicitElement resolve = AngularIndexUtil.resolve(project, AngularModuleIndex.KEY, dependency);
-                                            if (resolve != null) {
-                                              result.add(new Link(spm.createSmartPsiElementPointer(element.getNavigationElement()),
-                                                                  spm.createSmartPsiElementPointer(resolve.getNavigationElement()), key, resolve.getName(),
-                                                                  AngularJSIcons.AngularJS));
-                                            }
-                                          }
+                                      for (String dependency : AngularModuleIndex.getDependencies(element)) {
+                                        final JSImplicitElement resolve = AngularIndexUtil.resolve(project, AngularModuleIndex.KEY, dependency);
+                                        if (resolve != null) {
+                                          result.add(new Link(spm.createSmartPsiElementPointer(element.getNavigationElement()),
+                                                              spm.createSmartPsiElementPointer(resolve.getNavigationElement()), key, resolve.getName(),
+                                                              AngularJSIcons.AngularJS));
                                         }
                                       }
                                       return true;
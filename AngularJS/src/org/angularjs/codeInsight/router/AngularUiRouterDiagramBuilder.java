@@ -10,16 +10,22 @@ import com.intellij.lang.javascript.psi.stubs.impl.JSImplicitElementImpl;
 import com.intellij.lang.javascript.psi.util.JSStubBasedPsiTreeUtil;
 import com.intellij.openapi.fileTypes.LanguageFileType;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootModificationTracker;
 import com.intellij.openapi.util.Comparing;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.include.FileIncludeManager;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.tree.TokenSet;
-import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.*;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.CommonProcessors;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.ObjectUtils;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.indexing.FileBasedIndex;
@@ -30,9 +36,33 @@ import org.jetbrains.annotations.Nullable;
 import java.util.*;
 
 /**
+ * States found in the same file are parsed together and cached on the file until it or one of the templates
+ * it refers to changes, so rebuilding the diagram only re-parses the changed states; templates and root pages are
+ * cached as well.
+ *
  * @author Irina.Chernushina on 3/8/2016.
  */
 public class AngularUiRouterDiagramBuilder {
+  private static final Key<ParameterizedCachedValue<FileStates, List<JSImplicitElement>>> FILE_STATES_KEY =
+    Key.create("angularjs.ui.router.file.states");
+  private static final Key<CachedValue<Map<String, Template>>> TEMPLATES_KEY = Key.create("angularjs.ui.router.templates");
+  private static final Key<CachedValue<Map<VirtualFile, RootTemplate>>> ROOT_TEMPLATES_KEY =
+    Key.create("angularjs.ui.router.root.templates");
+
+  private static final ParameterizedCachedValueProvider<FileStates, List<JSImplicitElement>> FILE_STATES_PROVIDER = elements -> {
+    final PsiFile file = elements.get(0).getContainingFile();
+    final FileStates fileStates = new AngularUiRouterDiagramBuilder(file.getProject()).parseFileStates(elements);
+    final List<Object> dependencies = new ArrayList<>();
+    dependencies.add(file);
+    final PsiManager psiManager = PsiManager.getInstance(file.getProject());
+    for (VirtualFile templateFile : fileStates.myTemplates.keySet()) {
+      ContainerUtil.addIfNotNull(dependencies, templateFile.isValid() ? psiManager.findFile(templateFile) : null);
+    }
+    dependencies.add(VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+    dependencies.add(ProjectRootModificationTracker.getInstance(file.getProject()));
+    return CachedValueProvider.Result.create(fileStates, ArrayUtil.toObjectArray(dependencies));
+  };
+
   private final List<UiRouterState> myStates;
   private final Map<VirtualFile, Template> myTemplatesMap;
   private final Map<VirtualFile, RootTemplate> myRootTemplates;
@@ -61,43 +91,83 @@ public class AngularUiRouterDiagramBuilder {
 
   private void addStatesFromIndex() {
     final Collection<String> stateIds = AngularIndexUtil.getAllKeys(AngularUiRouterStatesIndex.KEY, myProject);
+    final Map<PsiFile, List<JSImplicitElement>> elementsByFile = new LinkedHashMap<>();
+    final List<Pair<PsiFile, Integer>> order = new ArrayList<>();
     for (String id : stateIds) {
       if (id.startsWith(".")) continue;
       final CommonProcessors.CollectProcessor<JSImplicitElement> processor = new CommonProcessors.CollectProcessor<>();
       AngularIndexUtil.multiResolve(myProject, AngularUiRouterStatesIndex.KEY, id, processor);
       for (JSImplicitElement element : processor.getResults()) {
-        final UiRouterState state = new UiRouterState(id, element.getContainingFile().getVirtualFile());
-        if (!element.getContainingFile().getLanguage().isKindOf(JavascriptLanguage.INSTANCE)
-            && PsiTreeUtil.getParentOfType(element, JSEmbeddedContent.class) != null) {
-          createRootTemplatesForEmbedded(element.getContainingFile());
-        }
+        final List<JSImplicitElement> elements = elementsByFile.computeIfAbsent(element.getContainingFile(), file -> new ArrayList<>());
+        order.add(Pair.create(element.getContainingFile(), elements.size()));
+        elements.add(element);
+      }
+    }
+
+    final Map<PsiFile, FileStates> statesByFile = new HashMap<>();
+    for (Map.Entry<PsiFile, List<JSImplicitElement>> entry : elementsByFile.entrySet()) {
+      final FileStates fileStates = getFileStates(entry.getKey(), entry.getValue());
+      statesByFile.put(entry.getKey(), fileStates);
+      for (Map.Entry<VirtualFile, Template> templateEntry : fileStates.myTemplates.entrySet()) {
+        if (!myTemplatesMap.containsKey(templateEntry.getKey())) myTemplatesMap.put(templateEntry.getKey(), templateEntry.getValue());
+      }
+      myRootTemplates.putAll(fileStates.myEmbeddedRootTemplates);
+    }
+    // keep the index order, states are grouped by it; copies, since grouping records duplicates in the states
+    for (Pair<PsiFile, Integer> pair : order) {
+      myStates.add(new UiRouterState(statesByFile.get(pair.getFirst()).myStates.get(pair.getSecond())));
+    }
+  }
+
+  @NotNull
+  private FileStates getFileStates(@NotNull final PsiFile file, @NotNull final List<JSImplicitElement> elements) {
+    final FileStates fileStates = CachedValuesManager.getManager(myProject)
+      .getParameterizedCachedValue(file, FILE_STATES_KEY, FILE_STATES_PROVIDER, false, elements);
+    // the index and the cached value can disagree only while the file is being changed
+    return fileStates.myStates.size() == elements.size() ? fileStates : parseFileStates(elements);
+  }
+
+  @NotNull
+  private FileStates parseFileStates(@NotNull final List<JSImplicitElement> elements) {
+    final List<UiRouterState> states = new ArrayList<>();
+    for (JSImplicitElement element : elements) {
+      states.add(parseState(element));
+    }
+    return new FileStates(states, myTemplatesMap, myRootTemplates);
+  }
 
-        final JSCallExpression call = findWrappingCallExpression(element);
-        if (call != null) {
-          final JSReferenceExpression methodExpression = ObjectUtils.tryCast(call.getMethodExpression(), JSReferenceExpression.class);
-          if (methodExpression != null &&
-              methodExpression.getQualifier() != null &&
-              "state".equals(methodExpression.getReferenceName())) {
-            final JSExpression[] arguments = call.getArguments();
-            if (arguments.length > 0 && PsiTreeUtil.isAncestor(arguments[0], element.getNavigationElement(), false)) {
-              state.setPointer(mySmartPointerManager.createSmartPsiElementPointer(arguments[0]));
-
-              if (arguments.length > 1 && arguments[1] instanceof JSObjectLiteralExpression) {
-                final JSObjectLiteralExpression object = (JSObjectLiteralExpression)arguments[1];
-                fillStateParameters(state, object);
-              } else if (arguments[0] instanceof JSObjectLiteralExpression) {
-                final JSObjectLiteralExpression object = (JSObjectLiteralExpression)arguments[0];
-                final JSProperty name = object.findProperty("name");
-                if (name != null && PsiTreeUtil.isAncestor(name, element.getNavigationElement(), false)) {
-                  fillStateParameters(state, object);
-                }
-              }
+  @NotNull
+  private UiRouterState parseState(@NotNull final JSImplicitElement element) {
+    final UiRouterState state = new UiRouterState(element.getQualifiedName(), element.getContainingFile().getVirtualFile());
+    if (!element.getContainingFile().getLanguage().isKindOf(JavascriptLanguage.INSTANCE)
+        && PsiTreeUtil.getParentOfType(element, JSEmbeddedContent.class) != null) {
+      createRootTemplatesForEmbedded(element.getContainingFile());
+    }
+
+    final JSCallExpression call = findWrappingCallExpression(element);
+    if (call != null) {
+      final JSReferenceExpression methodExpression = ObjectUtils.tryCast(call.getMethodExpression(), JSReferenceExpression.class);
+      if (methodExpression != null &&
+          methodExpression.getQualifier() != null &&
+          "state".equals(methodExpression.getReferenceName())) {
+        final JSExpression[] arguments = call.getArguments();
+        if (arguments.length > 0 && PsiTreeUtil.isAncestor(arguments[0], element.getNavigationElement(), false)) {
+          state.setPointer(mySmartPointerManager.createSmartPsiElementPointer(arguments[0]));
+
+          if (arguments.length > 1 && arguments[1] instanceof JSObjectLiteralExpression) {
+            final JSObjectLiteralExpression object = (JSObjectLiteralExpression)arguments[1];
+            fillStateParameters(state, object);
+          } else if (arguments[0] instanceof JSObjectLiteralExpression) {
+            final JSObjectLiteralExpression object = (JSObjectLiteralExpression)arguments[0];
+            final JSProperty name = object.findProperty("name");
+            if (name != null && PsiTreeUtil.isAncestor(name, element.getNavigationElement(), false)) {
+              fillStateParameters(state, object);
             }
           }
         }
-        myStates.add(state);
       }
     }
+    return state;
   }
 
   private void addGenericStates() {
@@ -160,13 +230,24 @@ public class AngularUiRouterDiagramBuilder {
   }
 
   private void getRootPages() {
+    final Project project = myProject;
+    myRootTemplates.putAll(CachedValuesManager.getManager(myProject).getCachedValue(myProject, ROOT_TEMPLATES_KEY, () -> {
+      final Map<VirtualFile, RootTemplate> rootTemplates = new AngularUiRouterDiagramBuilder(project).computeRootPages();
+      return CachedValueProvider.Result.create(rootTemplates, AngularIndexKeysCache.getInstance(project).getModificationTracker(),
+                                               VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS,
+                                               ProjectRootModificationTracker.getInstance(project));
+    }, false));
+  }
+
+  @NotNull
+  private Map<VirtualFile, RootTemplate> computeRootPages() {
     final List<VirtualFile> roots = new ArrayList<>();
     Collections.sort(roots, (o1, o2) -> Integer.compare(o2.getUrl().length(), o1.getUrl().length()));
 
     final Map<PsiFile, AngularNamedItemDefinition> files = new HashMap<>();
     final FileBasedIndex instance = FileBasedIndex.getInstance();
     final Collection<String> keys = instance.getAllKeys(AngularAppIndex.ANGULAR_APP_INDEX, myProject);
-    if (keys.isEmpty()) return;
+    if (keys.isEmpty()) return myRootTemplates;
 
     final PsiManager psiManager = PsiManager.getInstance(myProject);
     final GlobalSearchScope projectScope = GlobalSearchScope.projectScope(myProject);
@@ -184,7 +265,7 @@ public class AngularUiRouterDiagramBuilder {
       final String relativeUrl = findPossibleRelativeUrl(roots, file.getVirtualFile());
       // not clear how then it can be part of application
       if (relativeUrl == null) continue;
-      final Template template = readTemplateFromFile(myProject, relativeUrl, file);
+      final Template template = getFileTemplate(myProject, relativeUrl, file);
 
       final String mainModule = entry.getValue().getName();
       final Set<VirtualFile> moduleFiles = getModuleFiles(file, mainModule);
@@ -193,10 +274,11 @@ public class AngularUiRouterDiagramBuilder {
                                                          relativeUrl, template, moduleFiles);
       myRootTemplates.put(file.getVirtualFile(), rootTemplate);
     }
+    return myRootTemplates;
   }
 
   private void createRootTemplatesForEmbedded(@NotNull PsiFile containingFile) {
-    final Template template = readTemplateFromFile(myProject, "/", containingFile);
+    final Template template = getFileTemplate(myProject, "/", containingFile);
     final RootTemplate rootTemplate = new RootTemplate(mySmartPointerManager.createSmartPsiElementPointer(containingFile),
                                                        "/", template, Collections.singleton(containingFile.getVirtualFile()));
     myRootTemplates.put(containingFile.getVirtualFile(), rootTemplate);
@@ -241,7 +323,6 @@ public class AngularUiRouterDiagramBuilder {
     Set<VirtualFile> moduleFiles = myModuleRecursiveDependencies.get(file);
     if (moduleFiles != null) return moduleFiles;
 
-    final NonCyclicQueue<String> modulesQueue = new NonCyclicQueue<>();
     final NonCyclicQueue<VirtualFile> filesQueue = new NonCyclicQueue<VirtualFile>() {
       @Override
       protected boolean check(VirtualFile file) {
@@ -250,14 +331,12 @@ public class AngularUiRouterDiagramBuilder {
       }
     };
 
-    if (!StringUtil.isEmptyOrSpaces(mainModule)) {
-      modulesQueue.add(mainModule);
-    }
     filesQueue.add(file.getVirtualFile());
-
-    while (!modulesQueue.isEmpty()) {
-      final String moduleName = modulesQueue.removeNext();
-      moduleDependenciesStep(moduleName, filesQueue, modulesQueue);
+    if (!StringUtil.isEmptyOrSpaces(mainModule)) {
+      addContainingFile(filesQueue, mainModule);
+      for (String module : AngularModuleIndex.getDependenciesClosure(myProject, mainModule)) {
+        addContainingFile(filesQueue, module);
+      }
     }
     while (!filesQueue.isEmpty()) {
       final VirtualFile moduleFile = filesQueue.removeNext();
@@ -274,24 +353,6 @@ public class AngularUiRouterDiagramBuilder {
     return processed;
   }
 
-  private void moduleDependenciesStep(String mainModule, NonCyclicQueue<VirtualFile> filesQueue, NonCyclicQueue<String> modulesQueue) {
-    addContainingFile(filesQueue, mainModule);
-    if (!StringUtil.isEmptyOrSpaces(mainModule)) {
-      final JSImplicitElement element = AngularIndexUtil.resolve(myProject, AngularModuleIndex.KEY, mainModule);
-      if (element != null) {
-        final JSCallExpression callExpression = PsiTreeUtil.getParentOfType(element, JSCallExpression.class);
-        if (callExpression == null) return;
-        final List<String> dependenciesInModuleDeclaration = AngularModuleIndex.findDependenciesInModuleDeclaration(callExpression);
-        if (dependenciesInModuleDeclaration != null) {
-          for (String module : dependenciesInModuleDeclaration) {
-            modulesQueue.add(module);
-            addContainingFile(filesQueue, module);
-          }
-        }
-      }
-    }
-  }
-
   private void addContainingFile(@NotNull final NonCyclicQueue<VirtualFile> filesQueue, @NotNull final String module) {
     final CommonProcessors.CollectProcessor<JSImplicitElement> collectProcessor = new CommonProcessors.CollectProcessor<>();
 
@@ -406,7 +467,7 @@ public class AngularUiRouterDiagramBuilder {
         if (templateFileElement != null && templateFileElement.isValid()) {
           templateFile = templateFileElement.getContainingFile();
           if (myTemplatesMap.containsKey(templateFile.getVirtualFile())) return templateFile.getVirtualFile();
-          template = readTemplateFromFile(urlProperty.getProject(), url, templateFile);
+          template = getFileTemplate(urlProperty.getProject(), url, templateFile);
           myTemplatesMap.put(templateFile.getVirtualFile(), template);
           return templateFile.getVirtualFile();
         }
@@ -415,6 +476,14 @@ public class AngularUiRouterDiagramBuilder {
     return null;
   }
 
+  @NotNull
+  private static Template getFileTemplate(@NotNull Project project, @NotNull String url, @NotNull PsiFile templateFile) {
+    final Map<String, Template> templates = CachedValuesManager.getCachedValue(templateFile, TEMPLATES_KEY, () ->
+      CachedValueProvider.Result.create(ContainerUtil.newConcurrentMap(), templateFile));
+    final Template template = templates.get(url);
+    return template != null ? template : ConcurrencyUtil.cacheOrGet(templates, url, readTemplateFromFile(project, url, templateFile));
+  }
+
   @NotNull
   static Template readTemplateFromFile(@NotNull Project project, @NotNull String url, PsiElement templateElement) {
     final PsiFile templateFile = templateElement.getContainingFile();
@@ -483,6 +552,20 @@ public class AngularUiRouterDiagramBuilder {
     return null;
   }
 
+  private static class FileStates {
+    private final List<UiRouterState> myStates;
+    private final Map<VirtualFile, Template> myTemplates;
+    private final Map<VirtualFile, RootTemplate> myEmbeddedRootTemplates;
+
+    private FileStates(@NotNull List<UiRouterState> states,
+                       @NotNull Map<VirtualFile, Template> templates,
+                       @NotNull Map<VirtualFile, RootTemplate> embeddedRootTemplates) {
+      myStates = states;
+      myTemplates = templates;
+      myEmbeddedRootTemplates = embeddedRootTemplates;
+    }
+  }
+
   public Map<VirtualFile, Template> getTemplatesMap() {
     return myTemplatesMap;
   }
@@ -34,6 +34,24 @@ public class UiRouterState {
     myFile = file;
   }
 
+  /**
+   * Copies the state definition, duplicate definitions are not copied.
+   */
+  public UiRouterState(@NotNull UiRouterState state) {
+    myName = state.myName;
+    myFile = state.myFile;
+    myUrl = state.myUrl;
+    myTemplateUrl = state.myTemplateUrl;
+    myHasTemplateDefined = state.myHasTemplateDefined;
+    myParentName = state.myParentName;
+    myViews = state.myViews;
+    myPointer = state.myPointer;
+    myIsAbstract = state.myIsAbstract;
+    myTemplateFile = state.myTemplateFile;
+    myTemplatePointer = state.myTemplatePointer;
+    myGeneric = state.myGeneric;
+  }
+
   @NotNull
   public String getName() {
     return myName;
@@ -0,0 +1,317 @@
+package org.angularjs.index;
+
+import com.intellij.lang.Language;
+import com.intellij.lang.html.HTMLLanguage;
+import com.intellij.lang.javascript.JavascriptLanguage;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.LanguageFileType;
+import com.intellij.openapi.fileTypes.StdFileTypes;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootModificationTracker;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.SimpleModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the keys of Angular indices which still have values. A key set is computed once and then updated from the
+ * files changed since: only keys found in those files, new keys and keys without values are checked again.
+ * <p/>
+ * Only changes of JavaScript and HTML files are tracked, see {@link #getModificationTracker()}. Root changes and
+ * re-indexing reset all key sets.
+ */
+public class AngularIndexKeysCache {
+  private final Project myProject;
+  private final SimpleModificationTracker myModificationTracker = new SimpleModificationTracker();
+  private final ConcurrentMap<String, IndexKeys> myIndexKeys = ContainerUtil.newConcurrentMap();
+
+  public static AngularIndexKeysCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, AngularIndexKeysCache.class);
+  }
+
+  public AngularIndexKeysCache(@NotNull Project project) {
+    myProject = project;
+
+    PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+      @Override
+      public void childAdded(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+
+      @Override
+      public void childRemoved(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+
+      @Override
+      public void childReplaced(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+
+      @Override
+      public void childrenChanged(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+
+      @Override
+      public void childMoved(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+
+      @Override
+      public void propertyChanged(@NotNull PsiTreeChangeEvent event) {
+        psiChanged(event);
+      }
+    }, project);
+
+    final MessageBusConnection connection = project.getMessageBus().connect(project);
+    connection.subscribe(VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+      @Override
+      public void after(@NotNull List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+          fileChanged(event.getFile());
+        }
+      }
+    });
+    connection.subscribe(DumbService.DUMB_MODE, new DumbService.DumbModeListener() {
+      @Override
+      public void enteredDumbMode() {
+      }
+
+      @Override
+      public void exitDumbMode() {
+        reset();
+      }
+    });
+  }
+
+  /**
+   * @return tracker incremented on changes of JavaScript and HTML files only, unlike the PSI modification count
+   */
+  @NotNull
+  public ModificationTracker getModificationTracker() {
+    return myModificationTracker;
+  }
+
+  @NotNull
+  public Collection<String> getAllKeys(@NotNull ID<String, ?> index) {
+    IndexKeys keys = myIndexKeys.get(index.getName());
+    if (keys == null) {
+      keys = ConcurrencyUtil.cacheOrGet(myIndexKeys, index.getName(), new IndexKeys(index));
+    }
+    return keys.getKeys();
+  }
+
+  private void psiChanged(@NotNull PsiTreeChangeEvent event) {
+    PsiFile file = event.getFile();
+    if (file == null && event.getElement() instanceof PsiFile) {
+      file = (PsiFile)event.getElement();
+    }
+    if (file == null && event.getChild() instanceof PsiFile) {
+      file = (PsiFile)event.getChild();
+    }
+
+    if (file != null) {
+      if (file.getViewProvider().isPhysical()) {
+        fileChanged(file.getViewProvider().getVirtualFile());
+      }
+    }
+    else if (event.getChild() instanceof PsiDirectory || event.getElement() instanceof PsiDirectory) {
+      reset();
+    }
+  }
+
+  private void fileChanged(VirtualFile file) {
+    if (file == null) return;
+    if (file.isDirectory()) {
+      reset();
+      return;
+    }
+    if (!isRelevant(file)) return;
+
+    for (IndexKeys keys : myIndexKeys.values()) {
+      keys.myDirtyFiles.add(file);
+    }
+    myModificationTracker.incModificationCount();
+  }
+
+  private void reset() {
+    for (IndexKeys keys : myIndexKeys.values()) {
+      keys.reset();
+    }
+    myModificationTracker.incModificationCount();
+  }
+
+  private static boolean isRelevant(@NotNull VirtualFile file) {
+    final FileType fileType = file.getFileType();
+    if (fileType == StdFileTypes.HTML || fileType == StdFileTypes.XHTML) return true;
+    if (!(fileType instanceof LanguageFileType)) return false;
+    final Language language = ((LanguageFileType)fileType).getLanguage();
+    return language.isKindOf(JavascriptLanguage.INSTANCE) || language.isKindOf(HTMLLanguage.INSTANCE);
+  }
+
+  private class IndexKeys {
+    private final ID<String, ?> myIndex;
+    private final Set<VirtualFile> myDirtyFiles = ContainerUtil.newConcurrentSet();
+    private final AtomicLong myResetCount = new AtomicLong();
+    private final AtomicReference<KeysState> myState = new AtomicReference<>();
+
+    private IndexKeys(ID<String, ?> index) {
+      myIndex = index;
+    }
+
+    private void reset() {
+      myResetCount.incrementAndGet();
+    }
+
+    /**
+     * Computes the new state without locking and publishes it unless another thread did so meanwhile.
+     */
+    private Collection<String> getKeys() {
+      final long modificationCount = myModificationTracker.getModificationCount();
+      final long rootsModificationCount = ProjectRootModificationTracker.getInstance(myProject).getModificationCount();
+      final long resetCount = myResetCount.get();
+      final KeysState state = myState.get();
+      if (state != null && state.myModificationCount == modificationCount &&
+          state.myRootsModificationCount == rootsModificationCount && state.myResetCount == resetCount) {
+        return state.myKeys;
+      }
+
+      final KeysState base = state != null && state.myRootsModificationCount == rootsModificationCount &&
+                             state.myResetCount == resetCount ? state : null;
+      final List<VirtualFile> dirtyFiles = new ArrayList<>(myDirtyFiles);
+      myDirtyFiles.removeAll(dirtyFiles);
+      final KeysState newState;
+      try {
+        newState = computeState(base, base != null ? new HashSet<>(dirtyFiles) : Collections.emptySet(),
+                                modificationCount, rootsModificationCount, resetCount);
+      }
+      catch (RuntimeException e) {
+        // cancelled or index not ready: check the same files next time
+        myDirtyFiles.addAll(dirtyFiles);
+        throw e;
+      }
+
+      if (!myState.compareAndSet(state, newState)) {
+        // the published state may not include these files, check them again
+        myDirtyFiles.addAll(dirtyFiles);
+        myModificationTracker.incModificationCount();
+      }
+      return newState.myKeys;
+    }
+
+    /**
+     * @param base previous state to update, null to check all keys
+     */
+    @NotNull
+    private KeysState computeState(KeysState base, Set<VirtualFile> dirtyFiles,
+                                   long modificationCount, long rootsModificationCount, long resetCount) {
+      final Collection<String> allKeys = getIndexKeys();
+      final Map<String, VirtualFile> keyFiles = new HashMap<>();
+      final Set<String> keysWithoutValues = new HashSet<>();
+      for (String key : allKeys) {
+        if (base != null) {
+          if (base.myKeyFiles.containsKey(key)) {
+            // a key is valid while the file it was found in is unchanged, a key found without file is checked on any change
+            final VirtualFile file = base.myKeyFiles.get(key);
+            if (file != null ? !dirtyFiles.contains(file) : dirtyFiles.isEmpty()) {
+              keyFiles.put(key, file);
+              continue;
+            }
+          }
+          else if (base.myKeysWithoutValues.contains(key) && dirtyFiles.isEmpty()) {
+            keysWithoutValues.add(key);
+            continue;
+          }
+        }
+
+        final Ref<VirtualFile> file = Ref.create();
+        if (findFile(key, file)) {
+          keyFiles.put(key, file.get());
+        }
+        else {
+          keysWithoutValues.add(key);
+        }
+      }
+
+      final Collection<String> keys = Collections.unmodifiableList(ContainerUtil.filter(allKeys, keyFiles::containsKey));
+      return new KeysState(keyFiles, keysWithoutValues, keys, modificationCount, rootsModificationCount, resetCount);
+    }
+
+    private Collection<String> getIndexKeys() {
+      return myIndex instanceof StubIndexKey ?
+             StubIndex.getInstance().getAllKeys((StubIndexKey<String, ?>)myIndex, myProject) :
+             FileBasedIndex.getInstance().getAllKeys(myIndex, myProject);
+    }
+
+    /**
+     * Stops at the first value of the key.
+     *
+     * @return whether the key has any values, {@code file} receives the file defining the first one
+     */
+    @SuppressWarnings("unchecked")
+    private boolean findFile(String key, Ref<VirtualFile> file) {
+      final GlobalSearchScope scope = GlobalSearchScope.allScope(myProject);
+      final boolean[] hasValues = new boolean[1];
+      if (myIndex instanceof StubIndexKey) {
+        StubIndex.getInstance().processElements((StubIndexKey<String, PsiElement>)myIndex, key, myProject, scope, PsiElement.class,
+                                                element -> {
+                                                  hasValues[0] = true;
+                                                  final PsiFile psiFile = element.getContainingFile();
+                                                  file.set(psiFile != null ? psiFile.getVirtualFile() : null);
+                                                  return false;
+                                                });
+      }
+      else {
+        FileBasedIndex.getInstance().processValues(myIndex, key, null, (virtualFile, value) -> {
+          hasValues[0] = true;
+          file.set(virtualFile);
+          return false;
+        }, scope);
+      }
+      return hasValues[0];
+    }
+  }
+
+  /**
+   * Keys of an index with the file each one was found in, never modified once published.
+   */
+  private static class KeysState {
+    private final Map<String, VirtualFile> myKeyFiles;
+    private final Set<String> myKeysWithoutValues;
+    private final Collection<String> myKeys;
+    private final long myModificationCount;
+    private final long myRootsModificationCount;
+    private final long myResetCount;
+
+    private KeysState(Map<String, VirtualFile> keyFiles, Set<String> keysWithoutValues, Collection<String> keys,
+                      long modificationCount, long rootsModificationCount, long resetCount) {
+      myKeyFiles = keyFiles;
+      myKeysWithoutValues = keysWithoutValues;
+      myKeys = keys;
+      myModificationCount = modificationCount;
+      myRootsModificationCount = rootsModificationCount;
+      myResetCount = resetCount;
+    }
+  }
+}
@@ -105,6 +105,7 @@ public class AngularJSIndexingHandler extends FrameworkIndexingHandler {
 
     INDEXERS.put(CONTROLLER, AngularControllerIndex.KEY);
     INDEXERS.put(MODULE, AngularModuleIndex.KEY);
+    DATA_CALCULATORS.put(MODULE, AngularJSIndexingHandler::calculateModuleDependencies);
     INDEXERS.put(FILTER, AngularFilterIndex.KEY);
     INDEXERS.put(STATE, AngularUiRouterStatesIndex.KEY);
 
@@ -472,6 +473,14 @@ public class AngularJSIndexingHandler extends FrameworkIndexingHandler {
     }
   }
 
+  @Nullable
+  private static String calculateModuleDependencies(PsiElement element) {
+    final JSCallExpression call = PsiTreeUtil.getParentOfType(element, JSCallExpression.class);
+    final List<String> dependencies = call != null ? AngularModuleIndex.findDependenciesInModuleDeclaration(call) : null;
+    if (dependencies == null) return null;
+    return StringUtil.join(dependencies, AngularModuleIndex.DEPENDENCIES_SEPARATOR);
+  }
+
   private static String calculateRestrictions(PsiElement element, String defaultRestrictions) {
     final Ref<String> restrict = Ref.create(defaultRestrictions);
     final Ref<String> scope = Ref.create("");
@@ -2,20 +2,29 @@ package org.angularjs.index;
 
 import com.intellij.lang.javascript.index.JSSymbolUtil;
 import com.intellij.lang.javascript.psi.*;
+import com.intellij.lang.javascript.psi.stubs.JSImplicitElement;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootModificationTracker;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.stubs.StubIndexKey;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * @author Dennis.Ushakov
  */
 public class AngularModuleIndex extends AngularIndexBase {
   public static final StubIndexKey<String, JSImplicitElementProvider> KEY = StubIndexKey.createIndexKey("angularjs.module.index");
+  static final String DEPENDENCIES_SEPARATOR = ",";
+  private static final Key<CachedValue<Map<String, Set<String>>>> DEPENDENCIES_CLOSURES_KEY =
+    Key.create("angularjs.module.dependencies.closures");
 
   @NotNull
   @Override
@@ -47,4 +56,63 @@ public class AngularModuleIndex extends AngularIndexBase {
     }
     return null;
   }
+
+  /**
+   * @return dependencies of the module declaration in declaration order, as they are stored in the index
+   */
+  @NotNull
+  public static List<String> getDependencies(@NotNull JSImplicitElement module) {
+    final String dependencies = module.getTypeString();
+    return StringUtil.isEmpty(dependencies) ? Collections.emptyList() : StringUtil.split(dependencies, DEPENDENCIES_SEPARATOR);
+  }
+
+  /**
+   * @return modules the module depends on directly or transitively, the module itself is not included.
+   * Closures are cached until JavaScript or HTML files change.
+   */
+  @NotNull
+  public static Set<String> getDependenciesClosure(@NotNull Project project, @NotNull String module) {
+    final Map<String, Set<String>> closures = CachedValuesManager.getManager(project).getCachedValue(project, DEPENDENCIES_CLOSURES_KEY, () ->
+      CachedValueProvider.Result.create(ContainerUtil.newConcurrentMap(), AngularIndexKeysCache.getInstance(project).getModificationTracker(),
+                                        ProjectRootModificationTracker.getInstance(project)), false);
+    final Set<String> closure = closures.get(module);
+    return closure != null ? closure : ConcurrencyUtil.cacheOrGet(closures, module, calculateClosure(project, module, closures));
+  }
+
+  @NotNull
+  private static Set<String> calculateClosure(@NotNull Project project, @NotNull String module, @NotNull Map<String, Set<String>> closures) {
+    final Set<String> result = new LinkedHashSet<>();
+    final Set<String> visited = new HashSet<>();
+    final Deque<String> queue = new ArrayDeque<>();
+    visited.add(module);
+    queue.add(module);
+    while (!queue.isEmpty()) {
+      final String current = queue.remove();
+      for (String dependency : getDirectDependencies(project, current)) {
+        if (!visited.add(dependency)) continue;
+        result.add(dependency);
+        final Set<String> known = closures.get(dependency);
+        if (known != null) {
+          for (String transitive : known) {
+            if (visited.add(transitive)) result.add(transitive);
+          }
+        }
+        else {
+          queue.add(dependency);
+        }
+      }
+    }
+    result.remove(module);
+    return Collections.unmodifiableSet(result);
+  }
+
+  @NotNull
+  private static Set<String> getDirectDependencies(@NotNull Project project, @NotNull String module) {
+    final Set<String> dependencies = new LinkedHashSet<>();
+    AngularIndexUtil.multiResolve(project, KEY, module, element -> {
+      dependencies.addAll(getDependencies(element));
+      return true;
+    });
+    return dependencies;
+  }
 }
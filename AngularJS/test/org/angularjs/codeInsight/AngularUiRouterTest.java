@@ -4,16 +4,21 @@ import com.intellij.lang.javascript.psi.JSLiteralExpression;
 import com.intellij.lang.javascript.psi.JSProperty;
 import com.intellij.lang.javascript.psi.JSPsiNamedElementBase;
 import com.intellij.lang.javascript.psi.impl.JSOffsetBasedImplicitElement;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.*;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlAttributeValue;
 import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
 import org.angularjs.AngularTestUtil;
+import org.angularjs.codeInsight.router.AngularUiRouterDiagramBuilder;
+import org.angularjs.codeInsight.router.UiRouterState;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Irina.Chernushina on 2/12/2016.
@@ -177,6 +182,53 @@ public class AngularUiRouterTest extends LightPlatformCodeInsightFixtureTestCase
     checkNavigation(files[0], ".words", "two.words", "appStateWithNameInObject.js");
   }
 
+  public void testDiagramStatesOfUnchangedFilesReused() {
+    myFixture.configureByFiles("angular.js");
+    final PsiFile first = myFixture.addFileToProject("firstStates.js", statesText("first", "/first"));
+    final PsiFile second = myFixture.addFileToProject("secondStates.js", statesText("second", "/second"));
+
+    final AngularUiRouterDiagramBuilder builder = buildDiagram();
+    final UiRouterState firstState = getDiagramState(builder, first, "first");
+    final UiRouterState secondState = getDiagramState(builder, second, "second");
+    Assert.assertEquals("/first", firstState.getUrl());
+
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      final Document document = PsiDocumentManager.getInstance(getProject()).getDocument(first);
+      Assert.assertNotNull(document);
+      document.setText(statesText("first", "/changed"));
+      PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+    });
+
+    final AngularUiRouterDiagramBuilder updatedBuilder = buildDiagram();
+    final UiRouterState updatedFirstState = getDiagramState(updatedBuilder, first, "first");
+    Assert.assertEquals("/changed", updatedFirstState.getUrl());
+    Assert.assertNotSame(firstState.getPointer(), updatedFirstState.getPointer());
+
+    final UiRouterState updatedSecondState = getDiagramState(updatedBuilder, second, "second");
+    Assert.assertEquals("/second", updatedSecondState.getUrl());
+    Assert.assertSame(secondState.getPointer(), updatedSecondState.getPointer());
+  }
+
+  private AngularUiRouterDiagramBuilder buildDiagram() {
+    final AngularUiRouterDiagramBuilder builder = new AngularUiRouterDiagramBuilder(getProject());
+    builder.build();
+    return builder;
+  }
+
+  private static UiRouterState getDiagramState(AngularUiRouterDiagramBuilder builder, PsiFile file, String name) {
+    final Map<String, UiRouterState> states = builder.getDefiningFiles2States().get(file.getVirtualFile());
+    Assert.assertNotNull(states);
+    final UiRouterState state = states.get(name);
+    Assert.assertNotNull(state);
+    return state;
+  }
+
+  private static String statesText(String state, String url) {
+    return "angular.module('" + state + "', ['ui.router']).config(['$stateProvider', function ($stateProvider) {\n" +
+           "  $stateProvider.state('" + state + "', {url: '" + url + "'});\n" +
+           "}]);\n";
+  }
+
   private void checkNavigation(PsiFile file, String state, String referencedTextExpected, String appStatesFileName) {
     referencedTextExpected = referencedTextExpected == null ? state : referencedTextExpected;
     final PsiElement inObj = getElement(file, "ui-sref=\"" + state + "\"");
@@ -18,10 +18,16 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlTag;
 import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
 import com.intellij.util.ThrowableRunnable;
+import com.intellij.xml.XmlAttributeDescriptor;
 import com.intellij.xml.util.XmlInvalidIdInspection;
 import org.angularjs.AngularTestUtil;
+import org.angularjs.codeInsight.attributes.AngularJSAttributeDescriptorsProvider;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Dennis.Ushakov
@@ -160,6 +166,36 @@ public class AttributesTest extends LightPlatformCodeInsightFixtureTestCase {
     assertEquals("'myCustomer'", getDirectiveDefinitionText(resolve));
   }
 
+  public void testOverloadedDirectives() {
+    final PsiFile[] files = myFixture.configureByFiles("overloaded.html", "overloaded.js");
+    XmlTag tag = null;
+    for (XmlTag child : PsiTreeUtil.findChildrenOfType(files[0], XmlTag.class)) {
+      if ("div".equals(child.getName())) tag = child;
+    }
+    assertNotNull(tag);
+    final AngularJSAttributeDescriptorsProvider provider = new AngularJSAttributeDescriptorsProvider();
+
+    // the first definition applies, the last applicable one is used
+    final XmlAttributeDescriptor overloaded = provider.getAttributeDescriptor("my-overloaded", tag);
+    assertNotNull(overloaded);
+    final PsiElement declaration = overloaded.getDeclaration();
+    assertNotNull(declaration);
+    assertEquals(files[1].getText().lastIndexOf("'myOverloaded'"), declaration.getParent().getTextRange().getStartOffset());
+
+    // the first definition doesn't apply
+    assertNull(provider.getAttributeDescriptor("my-restricted", tag));
+
+    final List<String> names = new ArrayList<>();
+    for (XmlAttributeDescriptor descriptor : provider.getAttributeDescriptors(tag)) {
+      names.add(descriptor.getName());
+      if ("my-overloaded".equals(descriptor.getName())) {
+        assertEquals(declaration, descriptor.getDeclaration());
+      }
+    }
+    assertTrue(names.contains("my-overloaded"));
+    assertFalse(names.contains("my-restricted"));
+  }
+
   public void testCustomAttributesResolve20TypeScript() throws Exception {
     JSTestUtils.testWithinLanguageLevel(JSLanguageLevel.ES6, myFixture.getProject(), (ThrowableRunnable<Exception>)() -> {
       myFixture.configureByFiles("custom2.after.html", "custom.ts");
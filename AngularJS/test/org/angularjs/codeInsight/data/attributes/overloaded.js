@@ -0,0 +1,31 @@
+angular.module('overloaded', [])
+    .directive('myOverloaded', function() {
+        return {
+            restrict: 'A',
+            template: 'first'
+        };
+    })
+    .directive('myOverloaded', function() {
+        return {
+            restrict: 'E',
+            template: 'element'
+        };
+    })
+    .directive('myOverloaded', function() {
+        return {
+            restrict: 'A',
+            template: 'last'
+        };
+    })
+    .directive('myRestricted', function() {
+        return {
+            restrict: 'E',
+            template: 'element'
+        };
+    })
+    .directive('myRestricted', function() {
+        return {
+            restrict: 'A',
+            template: 'attribute'
+        };
+    });
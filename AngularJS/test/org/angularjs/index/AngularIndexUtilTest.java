@@ -1,9 +1,13 @@
 package org.angularjs.index;
 
+import com.intellij.lang.javascript.psi.stubs.JSImplicitElement;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
 import org.angularjs.AngularTestUtil;
 import org.junit.Assert;
 
+import java.util.Arrays;
+
 public class AngularIndexUtilTest extends LightPlatformCodeInsightFixtureTestCase {
 
   @Override
@@ -17,4 +21,45 @@ public class AngularIndexUtilTest extends LightPlatformCodeInsightFixtureTestCas
                                            "];");
     Assert.assertTrue(AngularIndexUtil.hasAngularJS2(myFixture.getProject()));
   }
+
+  public void testAllKeysUpdatedOnChange() {
+    myFixture.configureByText("controllers.js", "angular.module('app').controller('FirstCtrl', function() {});\n" +
+                                                "angular.module('app').controller('Second<caret>Ctrl', function() {});");
+    assertSameElements(AngularIndexUtil.getAllKeys(AngularControllerIndex.KEY, getProject()), "FirstCtrl", "SecondCtrl");
+
+    myFixture.type("Renamed");
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    assertSameElements(AngularIndexUtil.getAllKeys(AngularControllerIndex.KEY, getProject()), "FirstCtrl", "SecondRenamedCtrl");
+  }
+
+  public void testUnrelatedChangesAreNotTracked() {
+    final AngularIndexKeysCache cache = AngularIndexKeysCache.getInstance(getProject());
+    myFixture.configureByText("notes.txt", "some <caret>text");
+    final long modificationCount = cache.getModificationTracker().getModificationCount();
+
+    myFixture.type("more ");
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    assertEquals(modificationCount, cache.getModificationTracker().getModificationCount());
+  }
+
+  public void testModuleDependenciesClosure() {
+    myFixture.configureByText("modules.js", "angular.module('app', ['core', 'ui']);\n" +
+                                            "angular.module('core', ['util']);\n" +
+                                            "angular.module('ui', ['core', 'app']);\n" +
+                                            "angular.module('util', [<caret>]);");
+    assertSameElements(AngularModuleIndex.getDependenciesClosure(getProject(), "app"), "core", "ui", "util");
+    assertSameElements(AngularModuleIndex.getDependenciesClosure(getProject(), "ui"), "core", "app", "util");
+    assertEmpty(AngularModuleIndex.getDependenciesClosure(getProject(), "util"));
+
+    myFixture.type("'extra'");
+    PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+    assertSameElements(AngularModuleIndex.getDependenciesClosure(getProject(), "app"), "core", "ui", "util", "extra");
+  }
+
+  public void testModuleDependenciesInDeclarationOrder() {
+    myFixture.configureByText("modules.js", "angular.module('app', ['ui', 'core', 'app.util']);");
+    final JSImplicitElement module = AngularIndexUtil.resolve(getProject(), AngularModuleIndex.KEY, "app");
+    assertNotNull(module);
+    assertEquals(Arrays.asList("ui", "core", "app.util"), AngularModuleIndex.getDependencies(module));
+  }
 }
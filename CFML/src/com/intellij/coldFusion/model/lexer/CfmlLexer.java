@@ -16,24 +16,39 @@
 package com.intellij.coldFusion.model.lexer;
 
 import com.intellij.coldFusion.model.parsers.CfmlElementTypes;
-import com.intellij.lexer.FlexAdapter;
-import com.intellij.lexer.Lexer;
 import com.intellij.lexer.MergingLexerAdapter;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.tree.IElementType;
 import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.ArrayUtil;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Created by Lera Nikolaenko
  * Date: 06.10.2008
+ * <p/>
+ * The state of a token carries the configuration of the generated lexers: for tokens where
+ * {@link #isRestartableState} holds, {@link #getState()} passed to {@link #start} together with the token start offset
+ * reproduces the rest of the token stream. Outside of script blocks the state is the packed state of the CFML lexer
+ * ({@link #OUTER_STATE_BITS} bits); inside script blocks it additionally carries {@link #SCRIPT_REGION} and the packed
+ * state of the embedded {@link CfscriptLexer}.
+ * <p/>
+ * The editor highlighter only keeps whether a token has the initial state, so it still restarts at the initial state.
  */
 public class CfmlLexer extends MergingLexerAdapter {
-  private static final int LEXER_STATE_LIMIT = 0xFFFF;
-  private Lexer myCfscriptLexer = null;
+  static final int OUTER_STATE_BITS = 11;
+  static final int SCRIPT_REGION = 1 << OUTER_STATE_BITS;
+  private static final int OUTER_STATE_MASK = SCRIPT_REGION - 1;
+  private static final int SCRIPT_STATE_SHIFT = OUTER_STATE_BITS + 1;
+
+  private CfscriptLexer myCfscriptLexer = null;
   private int myStartPosition = 0;
+  // outer state to restart the CFML lexer with from any position inside the current script region
+  private int myScriptRegionState = 0;
+  // cfscript state to resume the first script region with after a restart inside a script region
+  private int myPendingScriptState = 0;
   private Project myProject;
-  private final _CfmlLexer.CfmlLexerConfiguration myConfiguration;
+  private final CfmlFlexAdapter myFlexAdapter;
 
   private static final TokenSet TOKENS_TO_MERGE =
     TokenSet.create(CfmlTokenTypes.COMMENT,
@@ -41,31 +56,41 @@ public class CfmlLexer extends MergingLexerAdapter {
                     CfmlTokenTypes.SCRIPT_EXPRESSION, CfmlElementTypes.TEMPLATE_TEXT);
 
   public CfmlLexer(boolean highlightingMode, Project project) {
-    super(new FlexAdapter(new _CfmlLexer(project)), TOKENS_TO_MERGE);
+    super(new CfmlFlexAdapter(new _CfmlLexer(project)), TOKENS_TO_MERGE);
     myProject = project;
-    myConfiguration = ((_CfmlLexer)((FlexAdapter)getDelegate()).getFlex()).myCurrentConfiguration;
+    myFlexAdapter = (CfmlFlexAdapter)getDelegate();
   }
 
   @Override
   public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
     myCfscriptLexer = null;
-    super.start(buffer, startOffset, endOffset, initialState);
+    if ((initialState & SCRIPT_REGION) != 0) {
+      myPendingScriptState = initialState >>> SCRIPT_STATE_SHIFT;
+      super.start(buffer, startOffset, endOffset, initialState & OUTER_STATE_MASK);
+    }
+    else {
+      myPendingScriptState = 0;
+      super.start(buffer, startOffset, endOffset, initialState);
+    }
   }
 
   @Override
   public int getState() {
     if (myCfscriptLexer != null) {
-      int modifiedState = (myCfscriptLexer.getState() << 16) + LEXER_STATE_LIMIT;
-      assert modifiedState != 0;
-      return modifiedState;
+      return myScriptRegionState | SCRIPT_REGION | myCfscriptLexer.getState() << SCRIPT_STATE_SHIFT;
     }
-    int state = doGetState();
-    assert state >= 0 && state < LEXER_STATE_LIMIT;
+    int state = super.getState();
+    assert state >= 0 && state < SCRIPT_REGION;
     return state;
   }
 
-  private int doGetState() {
-    return super.getState() + myConfiguration.getExtraState();
+  /**
+   * @return false if the lexer configuration at a token with the given state could not be packed into the state,
+   * so that restarting from that token may produce a different token stream
+   */
+  public boolean isRestartableState(int state) {
+    if (!myFlexAdapter.isRestartable(state & OUTER_STATE_MASK)) return false;
+    return (state & SCRIPT_REGION) == 0 || CfscriptLexer.isRestartableState(state >>> SCRIPT_STATE_SHIFT);
   }
 
   @Override
@@ -89,6 +114,7 @@ public class CfmlLexer extends MergingLexerAdapter {
     }
     if (super.getTokenType() == CfmlElementTypes.CF_SCRIPT ||
         super.getTokenType() == CfmlTokenTypes.SCRIPT_EXPRESSION) {
+      myScriptRegionState = getScriptRegionState(super.getTokenType(), super.getState());
       final int startPosition = super.getTokenStart();
       myStartPosition = startPosition;
       int endPosition = super.getTokenEnd();
@@ -99,12 +125,32 @@ public class CfmlLexer extends MergingLexerAdapter {
       }
       myCfscriptLexer = new CfscriptLexer(myProject);
       myCfscriptLexer.start(super.getBufferSequence().subSequence(startPosition, endPosition),
-                            0, endPosition - startPosition, myCfscriptLexer.getState());
+                            0, endPosition - startPosition, myPendingScriptState);
+      myPendingScriptState = 0;
       return myCfscriptLexer.getTokenType();
     }
     return super.getTokenType();
   }
 
+  /**
+   * Script regions are either a whole-file script component, the body of a &lt;cfscript&gt; tag or an expression
+   * inside a tag. In the first two cases the CFML lexer can be restarted at any offset of the region
+   * with the returned state; expressions inside tags depend on the tag and are marked as not restartable.
+   */
+  private int getScriptRegionState(IElementType firstTokenType, int firstTokenState) {
+    int lexicalState = myFlexAdapter.getLexicalState(firstTokenState);
+    if (firstTokenType == CfmlElementTypes.CF_SCRIPT &&
+        (lexicalState == _CfmlLexer.YYINITIAL || lexicalState == _CfmlLexer.EAT_TEST_AS_SCRIPT)) {
+      return myFlexAdapter.packState(_CfmlLexer.EAT_TEST_AS_SCRIPT, 0);
+    }
+    if (firstTokenType == CfmlTokenTypes.SCRIPT_EXPRESSION &&
+        lexicalState == _CfmlLexer.YYINITIAL &&
+        CfmlFlexAdapter.isScriptBlockConfiguration(firstTokenState >>> CfmlFlexAdapter.LEXICAL_STATE_BITS)) {
+      return firstTokenState;
+    }
+    return firstTokenState | CfmlFlexAdapter.NOT_RESTARTABLE << CfmlFlexAdapter.LEXICAL_STATE_BITS;
+  }
+
   @Override
   public int getTokenStart() {
     if (myCfscriptLexer != null) {
@@ -120,4 +166,62 @@ public class CfmlLexer extends MergingLexerAdapter {
     }
     return super.getTokenEnd();
   }
+
+  /**
+   * State layout: lexical state (5 bits), block type (2 bits), "start expression" flag, pounds evaluation depth
+   * (2 bits) and the "not restartable" flag. The return stack, sharp and comment counters and the name of the
+   * currently open tag are not packed: states where they matter are marked as not restartable.
+   */
+  private static class CfmlFlexAdapter extends RestartableFlexAdapter {
+    private static final int LEXICAL_STATE_BITS = 5;
+    private static final int POUNDS_LIMIT = 3;
+    private static final int NOT_RESTARTABLE = 1 << (OUTER_STATE_BITS - LEXICAL_STATE_BITS - 1);
+    private static final IElementType[] BLOCK_TYPES =
+      {CfmlElementTypes.TEMPLATE_TEXT, CfmlElementTypes.SQL, CfmlTokenTypes.SCRIPT_EXPRESSION};
+    private static final String DEFAULT_TAG = "cfelse";
+
+    CfmlFlexAdapter(_CfmlLexer flex) {
+      super(flex, LEXICAL_STATE_BITS);
+    }
+
+    @Override
+    int packConfiguration() {
+      _CfmlLexer flex = (_CfmlLexer)getFlex();
+      _CfmlLexer.CfmlLexerConfiguration configuration = flex.myCurrentConfiguration;
+      int blockType = ArrayUtil.indexOf(BLOCK_TYPES, configuration.myBlockType);
+      int pounds = configuration.myArePoundsEvaluated;
+      int lexicalState = flex.yystate();
+      boolean restartable = blockType >= 0 &&
+                            pounds >= 0 && pounds <= POUNDS_LIMIT &&
+                            configuration.myReturnStack.isEmpty() &&
+                            configuration.mySharpCounter == 0 &&
+                            configuration.myCommentCounter == 0 &&
+                            !configuration.myIfReturnExpression &&
+                            (lexicalState == _CfmlLexer.YYINITIAL ||
+                             lexicalState == _CfmlLexer.TEXT ||
+                             DEFAULT_TAG.equals(configuration.myCurrentTag));
+      int result = Math.max(blockType, 0) |
+                   (configuration.myStartExpression ? 0 : 1) << 2 |
+                   Math.max(0, Math.min(pounds, POUNDS_LIMIT)) << 3;
+      return restartable ? result : result | NOT_RESTARTABLE;
+    }
+
+    @Override
+    void restoreConfiguration(int configurationState) {
+      _CfmlLexer.CfmlLexerConfiguration configuration = ((_CfmlLexer)getFlex()).myCurrentConfiguration;
+      configuration.myBlockType = BLOCK_TYPES[Math.min(configurationState & 3, BLOCK_TYPES.length - 1)];
+      configuration.myStartExpression = (configurationState & 1 << 2) == 0;
+      configuration.myArePoundsEvaluated = (configurationState >> 3) & POUNDS_LIMIT;
+    }
+
+    @Override
+    int getNotRestartableFlag() {
+      return NOT_RESTARTABLE;
+    }
+
+    static boolean isScriptBlockConfiguration(int configurationState) {
+      return (configurationState & NOT_RESTARTABLE) == 0 &&
+             BLOCK_TYPES[Math.min(configurationState & 3, BLOCK_TYPES.length - 1)] == CfmlTokenTypes.SCRIPT_EXPRESSION;
+    }
+  }
 }
@@ -17,24 +17,102 @@ package com.intellij.coldFusion.model.lexer;
 
 import com.intellij.coldFusion.model.CfmlLanguage;
 import com.intellij.coldFusion.model.info.CfmlLangInfo;
-import com.intellij.lexer.FlexAdapter;
 import com.intellij.lexer.FlexLexer;
 import com.intellij.lexer.MergingLexerAdapter;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.tree.TokenSet;
+import com.intellij.util.containers.Stack;
 
 /**
  * Created by Lera Nikolaenko
  * Date: 20.11.2008
  */
 public class CfscriptLexer extends MergingLexerAdapter {
+  /**
+   * Number of bits occupied by a cfscript lexer state, see {@link CfscriptFlexAdapter} for the layout.
+   */
+  static final int STATE_BITS = 19;
 
   public CfscriptLexer(Project project) {
-    super(new FlexAdapter(getFlexLexer(project)), TokenSet.EMPTY);
+    super(new CfscriptFlexAdapter(getFlexLexer(project)), TokenSet.EMPTY);
+  }
+
+  /**
+   * @return false if the lexer configuration at a token with the given state could not be packed into the state,
+   * so that restarting from that token may produce a different token stream
+   */
+  public static boolean isRestartableState(int state) {
+    return (state & 1 << (STATE_BITS - 1)) == 0;
   }
 
   private static FlexLexer getFlexLexer(Project project) {
     final String projectLangLevel = project == null ? CfmlLanguage.CF10 : CfmlLangInfo.getInstance(project).getLanguageLevel();
     return CfmlLanguage.CF8.equals(projectLangLevel) ? new _CfscriptLexer8(project) : new _CfscriptLexer(project);
   }
-}
\ No newline at end of file
+
+  /**
+   * State layout: lexical state (4 bits), sharp counter (2 bits), comment counter (2 bits),
+   * return stack depth (2 bits), two return stack entries (4 bits each) and the "not restartable" flag.
+   */
+  private static class CfscriptFlexAdapter extends RestartableFlexAdapter {
+    private static final int LEXICAL_STATE_BITS = 4;
+    private static final int TWO_BITS = 3;
+    private static final int COUNTER_LIMIT = 3;
+    private static final int STACK_DEPTH_LIMIT = 2;
+    private static final int STACK_ENTRY_BITS = 4;
+    private static final int NOT_RESTARTABLE = 1 << (STATE_BITS - LEXICAL_STATE_BITS - 1);
+
+    CfscriptFlexAdapter(FlexLexer flex) {
+      super(flex, LEXICAL_STATE_BITS);
+    }
+
+    @Override
+    int packConfiguration() {
+      FlexLexer flex = getFlex();
+      if (flex instanceof _CfscriptLexer8) {
+        _CfscriptLexer8.CfscriptLexerConfiguration configuration = ((_CfscriptLexer8)flex).myCurrentConfiguration;
+        return pack(configuration.mySharpCounter, configuration.myCommentCounter, configuration.myReturnStack);
+      }
+      _CfscriptLexer.CfscriptLexerConfiguration configuration = ((_CfscriptLexer)flex).myCurrentConfiguration;
+      return pack(configuration.mySharpCounter, configuration.myCommentCounter, configuration.myReturnStack);
+    }
+
+    @Override
+    void restoreConfiguration(int configurationState) {
+      int sharpCounter = configurationState & TWO_BITS;
+      int commentCounter = (configurationState >> 2) & TWO_BITS;
+      int depth = (configurationState >> 4) & TWO_BITS;
+      int packedStack = (configurationState >> 6) & ((1 << STACK_DEPTH_LIMIT * STACK_ENTRY_BITS) - 1);
+
+      FlexLexer flex = getFlex();
+      if (flex instanceof _CfscriptLexer8) {
+        _CfscriptLexer8.CfscriptLexerConfiguration configuration = ((_CfscriptLexer8)flex).myCurrentConfiguration;
+        configuration.mySharpCounter = sharpCounter;
+        configuration.myCommentCounter = commentCounter;
+        restoreStack(configuration.myReturnStack, packedStack, depth, STACK_ENTRY_BITS);
+      }
+      else {
+        _CfscriptLexer.CfscriptLexerConfiguration configuration = ((_CfscriptLexer)flex).myCurrentConfiguration;
+        configuration.mySharpCounter = sharpCounter;
+        configuration.myCommentCounter = commentCounter;
+        restoreStack(configuration.myReturnStack, packedStack, depth, STACK_ENTRY_BITS);
+      }
+    }
+
+    @Override
+    int getNotRestartableFlag() {
+      return NOT_RESTARTABLE;
+    }
+
+    private static int pack(int sharpCounter, int commentCounter, Stack<Integer> returnStack) {
+      boolean restartable = sharpCounter >= 0 && sharpCounter <= COUNTER_LIMIT &&
+                            commentCounter >= 0 && commentCounter <= COUNTER_LIMIT &&
+                            returnStack.size() <= STACK_DEPTH_LIMIT;
+      int result = (sharpCounter & TWO_BITS) |
+                   (commentCounter & TWO_BITS) << 2 |
+                   Math.min(returnStack.size(), STACK_DEPTH_LIMIT) << 4 |
+                   packStack(returnStack, STACK_DEPTH_LIMIT, STACK_ENTRY_BITS) << 6;
+      return restartable ? result : result | NOT_RESTARTABLE;
+    }
+  }
+}
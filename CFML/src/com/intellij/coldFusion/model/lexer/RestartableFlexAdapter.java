@@ -0,0 +1,96 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion.model.lexer;
+
+import com.intellij.lexer.FlexAdapter;
+import com.intellij.lexer.FlexLexer;
+import com.intellij.util.containers.Stack;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Flex adapter which folds the configuration of a generated CFML lexer (counters, return stack, block type)
+ * into the lexer state, so that {@link #start(CharSequence, int, int, int)} with a state obtained from
+ * {@link #getState()} at a token boundary continues exactly as the uninterrupted lexer would, unless the state is
+ * marked as not restartable.
+ * <p/>
+ * The lowest {@code lexicalStateBits} bits hold the JFlex lexical state (JFlex states are always even),
+ * the configuration bits follow. Configurations which do not fit into the packed form are marked with the
+ * subclass-specific "not restartable" bit, see {@link #isRestartable(int)}.
+ */
+abstract class RestartableFlexAdapter extends FlexAdapter {
+  private final int myLexicalStateBits;
+  private int myConfigurationState;
+
+  RestartableFlexAdapter(@NotNull FlexLexer flex, int lexicalStateBits) {
+    super(flex);
+    myLexicalStateBits = lexicalStateBits;
+  }
+
+  @Override
+  public void start(@NotNull CharSequence buffer, int startOffset, int endOffset, int initialState) {
+    super.start(buffer, startOffset, endOffset, (initialState & ((1 << myLexicalStateBits) - 1)) << 1);
+    myConfigurationState = initialState >>> myLexicalStateBits;
+    restoreConfiguration(myConfigurationState);
+  }
+
+  @Override
+  public int getState() {
+    return (super.getState() >> 1) | (myConfigurationState << myLexicalStateBits);
+  }
+
+  @Override
+  public void advance() {
+    super.advance();
+    // the configuration now describes the lexer right before the next token is located
+    myConfigurationState = packConfiguration();
+  }
+
+  boolean isRestartable(int state) {
+    return (state >>> myLexicalStateBits & getNotRestartableFlag()) == 0;
+  }
+
+  int getLexicalState(int state) {
+    return (state & ((1 << myLexicalStateBits) - 1)) << 1;
+  }
+
+  int packState(int lexicalState, int configurationState) {
+    return (lexicalState >> 1) | (configurationState << myLexicalStateBits);
+  }
+
+  /**
+   * @return the configuration of the underlying flex lexer in its current position, packed into an int
+   */
+  abstract int packConfiguration();
+
+  abstract void restoreConfiguration(int configurationState);
+
+  abstract int getNotRestartableFlag();
+
+  static int packStack(@NotNull Stack<Integer> stack, int maxDepth, int entryBits) {
+    int result = 0;
+    for (int i = 0; i < Math.min(stack.size(), maxDepth); i++) {
+      result |= (stack.get(i) >> 1) << (i * entryBits);
+    }
+    return result;
+  }
+
+  static void restoreStack(@NotNull Stack<Integer> stack, int packedStack, int depth, int entryBits) {
+    stack.clear();
+    for (int i = 0; i < depth; i++) {
+      stack.push(((packedStack >>> (i * entryBits)) & ((1 << entryBits) - 1)) << 1);
+    }
+  }
+}
@@ -24,20 +24,25 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.ResourceUtil;
 import com.intellij.util.SystemProperties;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.methods.GetMethod;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class CfmlUnitRemoteTestsRunner {
   private static final Logger LOG = Logger.getInstance(CfmlUnitRemoteTestsRunner.class.getName());
+  // prefix of the lines listing the test components of a directory, see listTests in mxunit-launcher.cfc
+  private static final String TEST_COMPONENT_PREFIX = "mxunit-test:";
 
   public static String getLauncherText(String resourcePath) {
     try {
@@ -114,6 +119,46 @@ public class CfmlUnitRemoteTestsRunner {
            ".cfc";
   }
 
+  /**
+   * A directory is split into its test components, so that they can be run by separate (possibly simultaneous) requests
+   * and their results reported as soon as each component is finished.
+   */
+  private static List<String> getAgentUrls(CfmlUnitRunnerParameters params,
+                                           VirtualFile componentFile,
+                                           String agentPath,
+                                           CfmlUnitResultsStreamer streamer) {
+    if (params.getScope() == CfmlUnitRunnerParameters.Scope.Directory) {
+      String listUrl = agentPath + "?method=listTests&directoryName=" + encode(componentFile.getName());
+      List<String> urls = new ArrayList<>();
+      for (String line : streamer.readLines(listUrl)) {
+        String componentName = StringUtil.trimStart(line.trim(), TEST_COMPONENT_PREFIX);
+        if (componentName.length() < line.trim().length()) {
+          urls.add(agentPath + "?method=executeComponent&componentName=" + encode(componentName));
+        }
+      }
+      if (urls.isEmpty()) {
+        // fallback to the single request running the whole directory
+        urls.add(agentPath + "?method=executeDirectory&directoryName=" + encode(componentFile.getName()));
+      }
+      return urls;
+    }
+
+    String agentUrl = agentPath + "?method=executeTestCase&componentName=" + encode(componentFile.getNameWithoutExtension());
+    if (params.getScope() == CfmlUnitRunnerParameters.Scope.Method) {
+      agentUrl += "&methodName=" + encode(params.getMethod());
+    }
+    return Collections.singletonList(agentUrl);
+  }
+
+  private static String encode(String parameter) {
+    try {
+      return URLEncoder.encode(parameter, CharsetToolkit.UTF8);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   public static void executeScript(final CfmlUnitRunnerParameters params,
                                    final ProcessHandler processHandler/*final String webPath,
                                    final String componentFilePath,
@@ -149,59 +194,15 @@ public class CfmlUnitRemoteTestsRunner {
         }
         String agentPath = webPath.substring(0, webPath.lastIndexOf('/')) + "/" + launcherFileName;
         LOG.debug("Retrieving data from coldfusion server by " + agentPath + " URL");
-        BufferedReader reader = null;
-        String agentUrl;
-        if (params.getScope() == CfmlUnitRunnerParameters.Scope.Directory) {
-          agentUrl = agentPath + "?method=executeDirectory&directoryName=" + componentFile.getName();
-        }
-        else {
-          agentUrl = agentPath + "?method=executeTestCase&componentName=" + componentFile.getNameWithoutExtension();
-          if (params.getScope() == CfmlUnitRunnerParameters.Scope.Method) {
-            agentUrl += "&methodName=" + params.getMethod();
-          }
-        }
-        HttpMethod method = null;
+        CfmlUnitResultsStreamer streamer =
+          new CfmlUnitResultsStreamer(params.getParallelRequests(),
+                                      line -> processHandler.notifyTextAvailable(line + "\n", ProcessOutputTypes.SYSTEM),
+                                      () -> processHandler.isProcessTerminating() || processHandler.isProcessTerminated());
         try {
-          LOG.debug("Retrieving test results from: " + agentUrl);
-          /*
-          final FileObject httpFile = getManager().resolveFile(agentUrl);
-
-          reader = new BufferedReader(new InputStreamReader(httpFile.getContent().getInputStream()));
-          */
-          HttpClient client = new HttpClient();
-          method = new GetMethod(agentUrl);
-          int statusCode = client.executeMethod(method);
-          if (statusCode != HttpStatus.SC_OK) {
-            LOG.debug("Http request failed: " + method.getStatusLine());
-            processHandler.notifyTextAvailable("Http request failed: " + method.getStatusLine(), ProcessOutputTypes.SYSTEM);
-          }
-          final InputStream responseStream = method.getResponseBodyAsStream();
-          reader = new BufferedReader(new InputStreamReader(responseStream));
-          String line;
-          while (!processHandler.isProcessTerminating() && !processHandler.isProcessTerminated() && (line = reader.readLine()) != null) {
-            if (!StringUtil.isEmptyOrSpaces(line)) {
-              LOG.debug("MXUnit: " + line);
-              processHandler.notifyTextAvailable(line + "\n", ProcessOutputTypes.SYSTEM);
-            }
-          }
-        }
-        catch (IOException e) {
-          LOG.warn(e);
-          processHandler
-            .notifyTextAvailable("Failed to retrieve test results from the server at " + agentUrl + "\n", ProcessOutputTypes.SYSTEM);
+          streamer.stream(getAgentUrls(params, componentFile, agentPath, streamer));
         }
         finally {
-          if (method != null) {
-            method.releaseConnection();
-          }
-          if (reader != null) {
-            try {
-              reader.close();
-            }
-            catch (IOException e) {
-              // ignore
-            }
-          }
+          streamer.shutdown();
         }
         LOG.debug("Cleaning temporary files");
         deleteFile(project, directory.findChild(launcherFileName));
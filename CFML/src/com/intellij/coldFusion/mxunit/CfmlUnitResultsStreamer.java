@@ -0,0 +1,177 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion.mxunit;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ConcurrencyUtil;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Reads test results produced by the MXUnit agent component line by line while the tests are running.
+ * <p/>
+ * Several agent URLs (one per test component) are requested simultaneously, at most {@code parallelRequests} at a time.
+ * Lines of the component whose results are currently reported are passed on as soon as they arrive, lines of the
+ * components running ahead of it are queued and reported as soon as all previous components are finished,
+ * so that the service messages of different test suites never interleave.
+ */
+public class CfmlUnitResultsStreamer {
+  private static final Logger LOG = Logger.getInstance(CfmlUnitResultsStreamer.class.getName());
+  private static final Object END_OF_RESULTS = new Object();
+  private static final long CANCEL_CHECK_INTERVAL_MS = 100;
+
+  private final int myParallelRequests;
+  private final Consumer<String> myOutput;
+  private final BooleanSupplier myCancelled;
+  private final MultiThreadedHttpConnectionManager myConnectionManager;
+  private final HttpClient myClient;
+  private final Set<HttpMethod> myRunningMethods = ConcurrentHashMap.newKeySet();
+
+  public CfmlUnitResultsStreamer(int parallelRequests, @NotNull Consumer<String> output, @NotNull BooleanSupplier cancelled) {
+    myParallelRequests = Math.max(1, parallelRequests);
+    myOutput = output;
+    myCancelled = cancelled;
+    myConnectionManager = new MultiThreadedHttpConnectionManager();
+    myConnectionManager.getParams().setDefaultMaxConnectionsPerHost(myParallelRequests);
+    myConnectionManager.getParams().setMaxTotalConnections(myParallelRequests);
+    myClient = new HttpClient(myConnectionManager);
+  }
+
+  public void shutdown() {
+    myConnectionManager.shutdown();
+  }
+
+  /**
+   * Synchronously reads the whole response of the given URL, e.g. the list of test components of a directory.
+   */
+  @NotNull
+  public List<String> readLines(@NotNull String url) {
+    List<String> result = new ArrayList<>();
+    read(url, result::add);
+    return result;
+  }
+
+  /**
+   * Requests all URLs and reports their non-empty lines in the order of the URLs, returns when all results are reported
+   * or the run is cancelled.
+   */
+  public void stream(@NotNull List<String> urls) {
+    if (urls.size() == 1) {
+      read(urls.get(0), myOutput);
+      return;
+    }
+
+    ExecutorService executor =
+      Executors.newFixedThreadPool(Math.min(myParallelRequests, urls.size()), ConcurrencyUtil.newNamedThreadFactory("MXUnit results"));
+    List<BlockingQueue<Object>> results = new ArrayList<>(urls.size());
+    try {
+      for (String url : urls) {
+        BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        results.add(queue);
+        executor.execute(() -> {
+          try {
+            read(url, queue::add);
+          }
+          finally {
+            queue.add(END_OF_RESULTS);
+          }
+        });
+      }
+      for (BlockingQueue<Object> queue : results) {
+        while (true) {
+          if (isCancelled()) return;
+          Object line = queue.poll(CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          if (line == END_OF_RESULTS) break;
+          if (line != null) {
+            myOutput.accept((String)line);
+          }
+        }
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      executor.shutdownNow();
+      for (HttpMethod method : myRunningMethods) {
+        method.abort();
+      }
+    }
+  }
+
+  private boolean isCancelled() {
+    return myCancelled.getAsBoolean();
+  }
+
+  private void read(@NotNull String url, @NotNull Consumer<String> lineConsumer) {
+    if (isCancelled()) return;
+    GetMethod method = new GetMethod(url);
+    myRunningMethods.add(method);
+    BufferedReader reader = null;
+    try {
+      LOG.debug("Retrieving test results from: " + url);
+      int statusCode = myClient.executeMethod(method);
+      if (statusCode != HttpStatus.SC_OK) {
+        LOG.debug("Http request failed: " + method.getStatusLine());
+        lineConsumer.accept("Http request failed: " + method.getStatusLine());
+      }
+      InputStream responseStream = method.getResponseBodyAsStream();
+      if (responseStream == null) return;
+      reader = new BufferedReader(new InputStreamReader(responseStream, method.getResponseCharSet()));
+      String line;
+      while (!isCancelled() && (line = reader.readLine()) != null) {
+        if (!StringUtil.isEmptyOrSpaces(line)) {
+          LOG.debug("MXUnit: " + line);
+          lineConsumer.accept(line);
+        }
+      }
+    }
+    catch (IOException e) {
+      if (!isCancelled()) {
+        LOG.warn(e);
+        lineConsumer.accept("Failed to retrieve test results from the server at " + url);
+      }
+    }
+    finally {
+      myRunningMethods.remove(method);
+      method.releaseConnection();
+      if (reader != null) {
+        try {
+          reader.close();
+        }
+        catch (IOException e) {
+          // ignore
+        }
+      }
+    }
+  }
+}
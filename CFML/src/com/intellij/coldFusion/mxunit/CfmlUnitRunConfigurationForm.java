@@ -41,6 +41,8 @@ public class CfmlUnitRunConfigurationForm extends SettingsEditor<CfmlUnitRunConf
   private JLabel myMethodLabel;
   private JTextField myWebPathTextField;
   private JPanel myPanel;
+  private JPanel myParallelRequestsPanel;
+  private JSpinner myParallelRequestsSpinner;
   private ChangeListener myScopeChangeListener = new ChangeListener() {
     public void stateChanged(ChangeEvent e) {
       updateOnScopeChange();
@@ -56,6 +58,8 @@ public class CfmlUnitRunConfigurationForm extends SettingsEditor<CfmlUnitRunConf
     myProject = project;
 
     myMethodPanel.setVisible(false);
+    myParallelRequestsPanel.setVisible(false);
+    myParallelRequestsSpinner.setModel(new SpinnerNumberModel(1, 1, CfmlUnitRunnerParameters.MAX_PARALLEL_REQUESTS, 1));
 
     myFileChooser = new ComponentWithBrowseButton.BrowseFolderActionListener<>(null, null, myDirectoryOrFileField, project,
                                                                                FileChooserDescriptorFactory
@@ -78,6 +82,7 @@ public class CfmlUnitRunConfigurationForm extends SettingsEditor<CfmlUnitRunConf
 
   protected void updateOnScopeChange() {
     removeActionListeners();
+    myParallelRequestsPanel.setVisible(myDirectoryRadioButton.isSelected());
     if (myDirectoryRadioButton.isSelected()) {
       myMethodPanel.setVisible(false);
       myDirectoryOrFileField.addActionListener(myDirectoryChooser);
@@ -107,6 +112,7 @@ public class CfmlUnitRunConfigurationForm extends SettingsEditor<CfmlUnitRunConf
     myDirectoryOrFileField.setText(parameters.getPath());
     myWebPathTextField.setText(parameters.getWebPath());
     myMethodField.setText(parameters.getMethod());
+    myParallelRequestsSpinner.setValue(parameters.getParallelRequests());
   }
 
   @Override
@@ -125,6 +131,7 @@ public class CfmlUnitRunConfigurationForm extends SettingsEditor<CfmlUnitRunConf
     parameters.setWebPath(myWebPathTextField.getText());
     parameters.setMethod(myMethodField.getText());
     parameters.setPath(myDirectoryOrFileField.getText());
+    parameters.setParallelRequests((Integer)myParallelRequestsSpinner.getValue());
   }
 
   @NotNull
@@ -32,6 +32,9 @@ public class CfmlUnitRunnerParameters implements Cloneable {
   private static final Scope DEFAULT_SCOPE = Scope.Component;
   private @NotNull Scope myScope = DEFAULT_SCOPE;
 
+  public static final int MAX_PARALLEL_REQUESTS = 32;
+  private int myParallelRequests = 1;
+
   @Attribute("webpath")
   public String getWebPath() {
     return myWebPath;
@@ -71,6 +74,18 @@ public class CfmlUnitRunnerParameters implements Cloneable {
     myScope = scope != null ? scope : DEFAULT_SCOPE;
   }
 
+  /**
+   * Number of test components of a directory which are run against the server simultaneously
+   */
+  @Attribute("parallel-requests")
+  public int getParallelRequests() {
+    return myParallelRequests;
+  }
+
+  public void setParallelRequests(int parallelRequests) {
+    myParallelRequests = Math.max(1, Math.min(parallelRequests, MAX_PARALLEL_REQUESTS));
+  }
+
   @Override
   public CfmlUnitRunnerParameters clone() {
     try {
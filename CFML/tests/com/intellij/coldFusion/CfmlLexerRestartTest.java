@@ -0,0 +1,138 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.coldFusion.model.lexer.CfmlLexer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.testFramework.UsefulTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that {@link CfmlLexer} restarted at a token boundary with the restartable state reported for that token
+ * produces the same tokens as the uninterrupted lexer.
+ */
+public class CfmlLexerRestartTest extends UsefulTestCase {
+
+  public void testCfmlLexerTestData() throws IOException {
+    doTestDirectory(CfmlTestUtil.BASE_TEST_DATA_PATH + "/lexer");
+  }
+
+  public void testCfscriptLexerTestData() throws IOException {
+    doTestDirectory(CfmlTestUtil.BASE_TEST_DATA_PATH + "/cfscript/lexer");
+  }
+
+  public void testScriptBlocksInTemplate() {
+    doTest("<cfset x = 1>\n" +
+           "<cfscript>\n" +
+           "  var s = \"a#b#c\";\n" +
+           "  /* comment */\n" +
+           "  function foo(a) { return a + 'x' & \"y\"; }\n" +
+           "</cfscript>\n" +
+           "<cfoutput>#x# text <cfif x gt 1>more</cfif></cfoutput>\n" +
+           "<cfscript>writeOutput(\"#foo('#x#')#\");</cfscript>\n");
+  }
+
+  public void testScriptComponent() {
+    doTest("component name=\"Foo\" {\n" +
+           "  property name=\"bar\";\n" +
+           "  function baz() { return \"#bar#\"; }\n" +
+           "}\n");
+  }
+
+  public void testQueryAndOutput() {
+    doTest("<cfquery name=\"q\">select * from t where id = #id#</cfquery>\n" +
+           "<cfoutput query=\"q\"><cfoutput>#q.id#</cfoutput></cfoutput>\n" +
+           "<!--- <cfscript>x = 1;</cfscript> --->\n");
+  }
+
+  public void testGeneratedMixedTemplate() {
+    doTest(generateMixedTemplate(20));
+  }
+
+  static String generateMixedTemplate(int blocks) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < blocks; i++) {
+      builder.append("<cfset var").append(i).append(" = \"value").append(i).append("\">\n")
+        .append("<div class=\"block").append(i).append("\"><cfoutput>#var").append(i).append("#</cfoutput></div>\n")
+        .append("<cfscript>\n")
+        .append("  function f").append(i).append("(arg) {\n")
+        .append("    var s = \"#arg# and 'quoted' text\";\n")
+        .append("    // line comment\n")
+        .append("    return s & '").append(i).append("';\n")
+        .append("  }\n")
+        .append("</cfscript>\n");
+    }
+    return builder.toString();
+  }
+
+  private void doTestDirectory(String path) throws IOException {
+    File[] files = new File(path).listFiles((dir, name) -> name.endsWith(".cfml"));
+    assertNotNull(files);
+    for (File file : files) {
+      doTest(FileUtil.loadFile(file));
+    }
+  }
+
+  private static void doTest(String text) {
+    CfmlLexer lexer = new CfmlLexer(true, null);
+    List<Token> tokens = lex(lexer, text, 0, 0);
+    int restartable = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      if (!lexer.isRestartableState(token.state)) continue;
+      restartable++;
+      List<Token> restarted = lex(new CfmlLexer(true, null), text, token.start, token.state);
+      assertEquals("Restart at offset " + token.start + " with state " + token.state,
+                   tokens.subList(i, tokens.size()).toString(), restarted.toString());
+    }
+    assertTrue("No restartable tokens found", tokens.isEmpty() || restartable > 0);
+  }
+
+  private static List<Token> lex(CfmlLexer lexer, String text, int startOffset, int initialState) {
+    lexer.start(text, startOffset, text.length(), initialState);
+    List<Token> result = new ArrayList<>();
+    IElementType tokenType;
+    while ((tokenType = lexer.getTokenType()) != null) {
+      result.add(new Token(tokenType, lexer.getTokenStart(), lexer.getTokenEnd(), lexer.getState()));
+      lexer.advance();
+    }
+    return result;
+  }
+
+  private static class Token {
+    private final IElementType type;
+    private final int start;
+    private final int end;
+    private final int state;
+
+    private Token(IElementType type, int start, int end, int state) {
+      this.type = type;
+      this.start = start;
+      this.end = end;
+      this.state = state;
+    }
+
+    @Override
+    public String toString() {
+      return type + "[" + start + "," + end + "]:" + state;
+    }
+  }
+}
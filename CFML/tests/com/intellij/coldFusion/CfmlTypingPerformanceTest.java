@@ -0,0 +1,74 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.coldFusion.model.files.CfmlFileType;
+import com.intellij.ide.highlighter.HighlighterFactory;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.impl.DocumentImpl;
+
+import java.util.List;
+
+import static com.intellij.testFramework.EditorTestUtil.getAllTokens;
+
+/**
+ * Typing latency of the editor highlighter on a large template mixing tags and script blocks.
+ */
+public class CfmlTypingPerformanceTest extends CfmlCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(CfmlTypingPerformanceTest.class);
+
+  public void testTypingInScriptBlockOfLargeTemplate() {
+    String text = CfmlLexerRestartTest.generateMixedTemplate(400);
+    int offset = text.lastIndexOf("return s & '") + "return s & '".length();
+    doTest(text, offset);
+  }
+
+  public void testTypingInTemplateTextOfLargeTemplate() {
+    String text = CfmlLexerRestartTest.generateMixedTemplate(400);
+    int offset = text.indexOf("<div class=\"block200\">") + "<div class=\"".length();
+    doTest(text, offset);
+  }
+
+  private void doTest(String text, int offset) {
+    final Document doc = new DocumentImpl(text);
+    EditorEx editor = (EditorEx)EditorFactory.getInstance().createEditor(doc);
+    try {
+      EditorHighlighter highlighter = HighlighterFactory.createHighlighter(getProject(), CfmlFileType.INSTANCE);
+      editor.setHighlighter(highlighter);
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < 50; i++) {
+        final int position = offset + i;
+        CommandProcessor.getInstance().executeCommand(getProject(), () -> ApplicationManager.getApplication().runWriteAction(
+          () -> doc.insertString(position, "x")), "", null);
+      }
+      LOG.info(getTestName(false) + ": 50 characters typed in " + (System.currentTimeMillis() - start) + "ms");
+
+      List tokensAfterUpdate = getAllTokens(highlighter);
+      highlighter = HighlighterFactory.createHighlighter(getProject(), CfmlFileType.INSTANCE);
+      editor.setHighlighter(highlighter);
+      assertEquals(getAllTokens(highlighter), tokensAfterUpdate);
+    }
+    finally {
+      EditorFactory.getInstance().releaseEditor(editor);
+    }
+  }
+}
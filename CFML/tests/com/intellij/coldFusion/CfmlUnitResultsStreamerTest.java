@@ -0,0 +1,210 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.coldFusion;
+
+import com.intellij.coldFusion.mxunit.CfmlUnitResultsStreamer;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.testFramework.UsefulTestCase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link CfmlUnitResultsStreamer} against a stub HTTP server standing in for the ColdFusion server with the MXUnit agent.
+ */
+public class CfmlUnitResultsStreamerTest extends UsefulTestCase {
+  private static final Logger LOG = Logger.getInstance(CfmlUnitResultsStreamerTest.class);
+
+  private HttpServer myServer;
+  private final AtomicInteger myRunningRequests = new AtomicInteger();
+  private final AtomicInteger myMaxRunningRequests = new AtomicInteger();
+  private final CountDownLatch myFirstLineReported = new CountDownLatch(1);
+  private final AtomicBoolean myReportedBeforeFinish = new AtomicBoolean();
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    myServer.createContext("/mxunit-launcher.cfc", this::handle);
+    myServer.setExecutor(Executors.newCachedThreadPool());
+    myServer.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    try {
+      myServer.stop(0);
+    }
+    finally {
+      super.tearDown();
+    }
+  }
+
+  public void testResultsAreReportedWhileTestsAreRunning() {
+    List<String> output = Collections.synchronizedList(new ArrayList<>());
+    CfmlUnitResultsStreamer streamer = new CfmlUnitResultsStreamer(1, line -> {
+      output.add(line);
+      myFirstLineReported.countDown();
+    }, () -> false);
+    try {
+      // the stub doesn't finish the response until the first line is reported
+      streamer.stream(Collections.singletonList(agentUrl("executeTestCase&componentName=Waiting")));
+    }
+    finally {
+      streamer.shutdown();
+    }
+    assertTrue("the first line should be reported before the response is finished", myReportedBeforeFinish.get());
+    assertEquals(Arrays.asList(started("Waiting"), "##teamcity[testStarted name='testOne']", finished("Waiting")), output);
+  }
+
+  public void testParallelComponentsAreReportedInOrder() {
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      // later components finish first
+      urls.add(agentUrl("executeComponent&componentName=Test" + i + "&delay=" + (8 - i) * 50));
+    }
+    List<String> output = Collections.synchronizedList(new ArrayList<>());
+    CfmlUnitResultsStreamer streamer = new CfmlUnitResultsStreamer(4, output::add, () -> false);
+    try {
+      streamer.stream(urls);
+    }
+    finally {
+      streamer.shutdown();
+    }
+
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      expected.add(started("Test" + i));
+      expected.add(finished("Test" + i));
+    }
+    assertEquals(expected, output);
+    assertEquals(4, myMaxRunningRequests.get());
+  }
+
+  public void testParallelRequests() {
+    List<String> urls = new ArrayList<>();
+    for (int i = 0; i < 16; i++) {
+      urls.add(agentUrl("executeComponent&componentName=Test" + i + "&delay=100"));
+    }
+    long sequential = measure(urls, 1);
+    assertEquals(1, myMaxRunningRequests.getAndSet(0));
+    long parallel = measure(urls, 8);
+    assertEquals(8, myMaxRunningRequests.get());
+    LOG.info(urls.size() + " components: sequential " + sequential + "ms, parallel " + parallel + "ms");
+  }
+
+  public void testListTests() {
+    CfmlUnitResultsStreamer streamer = new CfmlUnitResultsStreamer(1, line -> {}, () -> false);
+    try {
+      assertEquals(Arrays.asList("mxunit-test:tests.FooTest", "mxunit-test:tests.sub.BarTest"),
+                   streamer.readLines(agentUrl("listTests&directoryName=tests")));
+    }
+    finally {
+      streamer.shutdown();
+    }
+  }
+
+  public void testCancel() {
+    List<String> output = Collections.synchronizedList(new ArrayList<>());
+    CfmlUnitResultsStreamer streamer = new CfmlUnitResultsStreamer(2, output::add, () -> !output.isEmpty());
+    try {
+      streamer.stream(Arrays.asList(agentUrl("executeTestCase&componentName=Test0&delay=10000"),
+                                    agentUrl("executeTestCase&componentName=Test1&delay=10000")));
+    }
+    finally {
+      streamer.shutdown();
+    }
+    assertEquals(Collections.singletonList(started("Test0")), output);
+  }
+
+  private long measure(List<String> urls, int parallelRequests) {
+    CfmlUnitResultsStreamer streamer = new CfmlUnitResultsStreamer(parallelRequests, line -> {}, () -> false);
+    long start = System.currentTimeMillis();
+    try {
+      streamer.stream(urls);
+    }
+    finally {
+      streamer.shutdown();
+    }
+    return System.currentTimeMillis() - start;
+  }
+
+  private String agentUrl(String query) {
+    return "http://127.0.0.1:" + myServer.getAddress().getPort() + "/mxunit-launcher.cfc?method=" + query;
+  }
+
+  private static String started(String name) {
+    return "##teamcity[testSuiteStarted name='" + name + "']";
+  }
+
+  private static String finished(String name) {
+    return "##teamcity[testSuiteFinished name='" + name + "']";
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = new HashMap<>();
+    for (String parameter : exchange.getRequestURI().getQuery().split("&")) {
+      int eq = parameter.indexOf('=');
+      parameters.put(parameter.substring(0, eq), parameter.substring(eq + 1));
+    }
+    int running = myRunningRequests.incrementAndGet();
+    myMaxRunningRequests.accumulateAndGet(running, Math::max);
+    // chunked response, as produced by <cfflush>
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      if ("listTests".equals(parameters.get("method"))) {
+        write(out, "mxunit-test:tests.FooTest\n\nmxunit-test:tests.sub.BarTest\n");
+        return;
+      }
+      String componentName = parameters.get("componentName");
+      write(out, started(componentName) + "\n");
+      if ("Waiting".equals(componentName)) {
+        // asserted by the test, a failure here would not reach JUnit
+        myReportedBeforeFinish.set(myFirstLineReported.await(10, TimeUnit.SECONDS));
+        write(out, "##teamcity[testStarted name='testOne']\n");
+      }
+      String delay = parameters.get("delay");
+      if (delay != null) {
+        Thread.sleep(Integer.parseInt(delay));
+      }
+      write(out, finished(componentName) + "\n");
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException ignored) {
+      // the client has gone away
+    }
+    finally {
+      myRunningRequests.decrementAndGet();
+    }
+  }
+
+  private static void write(OutputStream out, String text) throws IOException {
+    out.write(text.getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+}
@@ -23,6 +23,7 @@ import jetbrains.communicator.core.transport.Transport;
 import jetbrains.communicator.core.users.User;
 import jetbrains.communicator.core.vfs.ProjectsData;
 import jetbrains.communicator.core.vfs.VFile;
+import jetbrains.communicator.core.vfs.VFileContentsCache;
 import jetbrains.communicator.ide.CanceledException;
 import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.StringUtil;
@@ -78,30 +79,21 @@ public class Helper {
             new Runnable() {
               @Override
               public void run() {
-
-                final Semaphore semaphore = new Semaphore(1);
-                try {
-                  semaphore.acquire();
-
-                  transport.sendXmlMessage(user, new GetVFileContentsXmlMessage(vFile) {
-                    @Override
-                    public void processResponse(Element responseElement) {
-                      super.processResponse(responseElement);
-                      semaphore.release();
-                    }
-                  });
-
-                  semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS);
-
-                } catch (InterruptedException ignored) {
-                  // noop
+                String baseContents = getBaseContents(user, vFile, ideFacade);
+                GetVFileContentsXmlMessage message = requestVFileContent(transport, user, vFile, baseContents);
+                if (message != null && message.isDeltaFailed()) {
+                  LOG.info("Delta of " + vFile + " doesn't match, requesting full contents");
+                  requestVFileContent(transport, user, vFile, null);
                 }
               }
             });
       } catch (CanceledException e) {
         LOG.info(e.getMessage(), e);
       }
-      if (vFile.getContents() == null) {
+      if (vFile.getContents() != null) {
+        VFileContentsCache.getInstance().putContents(user.getName(), vFile, vFile.getContents());
+      }
+      else {
         String secondParamForFailMessage = user.getDisplayName();
         String address = transport.getAddressString(user);
         if (!com.intellij.openapi.util.text.StringUtil.isEmptyOrSpaces(address)) {
@@ -115,6 +107,40 @@ public class Helper {
     }
   }
 
+  /**
+   * @return the version of the file known to us: received from the user earlier or the local copy of the file
+   */
+  private static String getBaseContents(User user, VFile vFile, IDEFacade ideFacade) {
+    String cached = VFileContentsCache.getInstance().getContents(user.getName(), vFile);
+    if (cached != null) return cached;
+
+    VFile localFile = (VFile)vFile.clone();
+    ideFacade.fillFileContents(localFile);
+    return localFile.getContents();
+  }
+
+  private static GetVFileContentsXmlMessage requestVFileContent(Transport transport, User user, VFile vFile, String baseContents) {
+    final Semaphore semaphore = new Semaphore(1);
+    try {
+      semaphore.acquire();
+
+      GetVFileContentsXmlMessage message = new GetVFileContentsXmlMessage(vFile, baseContents) {
+        @Override
+        public void processResponse(Element responseElement) {
+          super.processResponse(responseElement);
+          semaphore.release();
+        }
+      };
+      transport.sendXmlMessage(user, message);
+
+      semaphore.tryAcquire(getWaitTimeout(), TimeUnit.MILLISECONDS);
+      return message;
+    } catch (InterruptedException ignored) {
+      // noop
+      return null;
+    }
+  }
+
   private static int getWaitTimeout() {
     return Pico.isUnitTest() ? 2000 : 120 * 1000;
   }
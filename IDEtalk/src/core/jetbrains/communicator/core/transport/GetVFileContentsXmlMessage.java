@@ -16,8 +16,10 @@
 
 package jetbrains.communicator.core.transport;
 
+import jetbrains.communicator.core.vfs.ContentDelta;
 import jetbrains.communicator.core.vfs.VFile;
 import org.jdom.Element;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * @author Kir
@@ -25,9 +27,20 @@ import org.jdom.Element;
 public class GetVFileContentsXmlMessage implements XmlMessage {
   public static final String TAG = "fillContents";
   private final VFile myFile;
+  private final String myBaseContents;
+  private boolean myDeltaFailed;
 
   public GetVFileContentsXmlMessage(VFile file) {
+    this(file, null);
+  }
+
+  /**
+   * @param baseContents an earlier version of the file known to the requester, if it is given,
+   *                     the remote side sends only the difference from it (see {@link ContentDelta})
+   */
+  public GetVFileContentsXmlMessage(VFile file, @Nullable String baseContents) {
     myFile = file;
+    myBaseContents = baseContents;
   }
 
   public String getTagName() {
@@ -44,12 +57,31 @@ public class GetVFileContentsXmlMessage implements XmlMessage {
 
   public void fillRequest(Element element) {
     myFile.saveTo(element);
+    Element base = ContentDelta.createBaseElement(myBaseContents);
+    if (base != null) {
+      element.addContent(base);
+    }
   }
 
   public void processResponse(Element responseElement) {
     VFile from = VFile.createFrom(responseElement);
-    if (from != null) {
+    if (from == null) return;
+
+    Element delta = responseElement.getChild(ContentDelta.DELTA_ELEMENT);
+    if (delta != null && myBaseContents != null) {
+      String contents = ContentDelta.applyDelta(myBaseContents, delta);
+      myDeltaFailed = contents == null;
+      if (contents != null) {
+        myFile.setContents(contents);
+      }
+    }
+    else {
       myFile.setContents(from.getContents());
     }
   }
+
+  /** @return true if the response was a delta which didn't match the base contents, the full contents should be requested */
+  public boolean isDeltaFailed() {
+    return myDeltaFailed;
+  }
 }
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import com.intellij.openapi.vfs.CharsetToolkit;
+import jetbrains.communicator.util.StringUtil;
+import org.jdom.Element;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * rsync-like exchange of file contents: the side which has an older version of the file ("base") sends
+ * the checksums of its blocks, the other side replies with references to the unchanged blocks and the changed text only.
+ * <p/>
+ * Every block of the base is described by a weak rolling checksum and a strong one, the text to send is scanned with
+ * the rolling checksum, so blocks are found at any offset, not only at the block boundaries.
+ * The hash of the whole resulting text is sent along, so the reconstructed text is verified.
+ */
+public class ContentDelta {
+  @NonNls public static final String BASE_ELEMENT = "base";
+  @NonNls public static final String DELTA_ELEMENT = "delta";
+  @NonNls private static final String BLOCK_SIZE_ATTR = "blockSize";
+  @NonNls private static final String LENGTH_ATTR = "length";
+  @NonNls private static final String HASH_ATTR = "hash";
+  @NonNls private static final String UNCHANGED_ATTR = "unchanged";
+  @NonNls private static final String COPY_ELEMENT = "copy";
+  @NonNls private static final String BLOCK_ATTR = "block";
+  @NonNls private static final String COUNT_ATTR = "count";
+  @NonNls private static final String INSERT_ELEMENT = "insert";
+
+  /** Files shorter than this are always sent completely */
+  public static final int MIN_DELTA_LENGTH = 4096;
+  private static final int MIN_BLOCK_SIZE = 256;
+  private static final int MAX_BLOCK_SIZE = 16 * 1024;
+  private static final int SIGNATURE_ENTRY_LENGTH = 8 + 16;
+  /** Longer texts announced by a delta are rejected */
+  private static final int MAX_TEXT_LENGTH = 8 * 1024 * 1024;
+
+  private ContentDelta() {
+  }
+
+  /** MD5 of the text, hex-encoded */
+  public static String hash(String text) {
+    return toHex(md5(text, 0, text.length()), 16);
+  }
+
+  static int getBlockSize(int length) {
+    return Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, (int)Math.sqrt(length) * 2));
+  }
+
+  /**
+   * @return the description of the base text to be sent with the request, null if the text is too short for the delta exchange
+   */
+  @Nullable
+  public static Element createBaseElement(@Nullable String base) {
+    if (base == null || base.length() < MIN_DELTA_LENGTH) return null;
+
+    int blockSize = getBlockSize(base.length());
+    Element result = new Element(BASE_ELEMENT);
+    result.setAttribute(BLOCK_SIZE_ATTR, String.valueOf(blockSize));
+    result.setAttribute(LENGTH_ATTR, String.valueOf(base.length()));
+    result.setAttribute(HASH_ATTR, hash(base));
+
+    StringBuilder signature = new StringBuilder((base.length() / blockSize + 1) * SIGNATURE_ENTRY_LENGTH);
+    for (int start = 0; start < base.length(); start += blockSize) {
+      int end = Math.min(base.length(), start + blockSize);
+      signature.append(toHex(weakChecksum(base, start, end), 8));
+      signature.append(toHex(strongChecksum(base, start, end), 16));
+    }
+    result.setText(signature.toString());
+    return result;
+  }
+
+  /**
+   * @param baseElement the description of the requester's base text, created by {@link #createBaseElement(String)}
+   * @return the delta which turns the requester's base into {@code contents}, null if the base description is malformed
+   */
+  @Nullable
+  public static Element createDeltaElement(Element baseElement, String contents) {
+    int blockSize;
+    int baseLength;
+    try {
+      blockSize = Integer.parseInt(baseElement.getAttributeValue(BLOCK_SIZE_ATTR));
+      baseLength = Integer.parseInt(baseElement.getAttributeValue(LENGTH_ATTR));
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+    String signature = baseElement.getTextTrim();
+    int blockCount = (baseLength + blockSize - 1) / blockSize;
+    if (blockSize <= 0 || baseLength < 0 || signature.length() != blockCount * SIGNATURE_ENTRY_LENGTH) return null;
+
+    String hash = hash(contents);
+    Element result = new Element(DELTA_ELEMENT);
+    result.setAttribute(HASH_ATTR, hash);
+    result.setAttribute(LENGTH_ATTR, String.valueOf(contents.length()));
+    if (hash.equals(baseElement.getAttributeValue(HASH_ATTR)) && baseLength == contents.length()) {
+      result.setAttribute(UNCHANGED_ATTR, "true");
+      return result;
+    }
+
+    Map<Integer, Object> weakToBlocks = new HashMap<>();
+    long[] strong = new long[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      int offset = i * SIGNATURE_ENTRY_LENGTH;
+      int weak = (int)Long.parseLong(signature.substring(offset, offset + 8), 16);
+      strong[i] = Long.parseUnsignedLong(signature.substring(offset + 8, offset + SIGNATURE_ENTRY_LENGTH), 16);
+      Object blocks = weakToBlocks.get(weak);
+      if (blocks == null) {
+        weakToBlocks.put(weak, i);
+      }
+      else if (blocks instanceof Integer) {
+        weakToBlocks.put(weak, new int[]{(Integer)blocks, i});
+      }
+      else {
+        int[] old = (int[])blocks;
+        int[] extended = new int[old.length + 1];
+        System.arraycopy(old, 0, extended, 0, old.length);
+        extended[old.length] = i;
+        weakToBlocks.put(weak, extended);
+      }
+    }
+    int lastBlockLength = baseLength - (blockCount - 1) * blockSize;
+
+    DeltaBuilder builder = new DeltaBuilder(result, contents);
+    int length = contents.length();
+    int position = 0;
+    int literalStart = 0;
+    int a = 0;
+    int b = 0;
+    boolean checksumValid = false;
+    while (position + blockSize <= length) {
+      int end = position + blockSize;
+      if (!checksumValid) {
+        int checksum = weakChecksum(contents, position, end);
+        a = checksum & 0xffff;
+        b = checksum >>> 16;
+        checksumValid = true;
+      }
+
+      int block = findBlock(weakToBlocks, strong, a | (b << 16), contents, position, end, blockCount, lastBlockLength, blockSize);
+      if (block >= 0) {
+        builder.insert(literalStart, position);
+        builder.copy(block);
+        position = end;
+        literalStart = position;
+        checksumValid = false;
+        continue;
+      }
+
+      if (end < length) {
+        // roll the window one char forward
+        char out = contents.charAt(position);
+        char in = contents.charAt(end);
+        a = (a - out + in) & 0xffff;
+        b = (b - blockSize * out + a) & 0xffff;
+      }
+      position++;
+    }
+
+    // the last block of the base may be shorter than the others
+    if (lastBlockLength < blockSize && length - literalStart >= lastBlockLength) {
+      int start = length - lastBlockLength;
+      int lastBlock = blockCount - 1;
+      if (weakChecksum(contents, start, length) == (int)Long.parseLong(signature.substring(lastBlock * SIGNATURE_ENTRY_LENGTH, lastBlock * SIGNATURE_ENTRY_LENGTH + 8), 16) &&
+          strongChecksum(contents, start, length) == strong[lastBlock]) {
+        builder.insert(literalStart, start);
+        builder.copy(lastBlock);
+        literalStart = length;
+      }
+    }
+    builder.insert(literalStart, length);
+    builder.flushCopy();
+    return result;
+  }
+
+  private static int findBlock(Map<Integer, Object> weakToBlocks, long[] strong, int weak,
+                               String contents, int start, int end, int blockCount, int lastBlockLength, int blockSize) {
+    Object blocks = weakToBlocks.get(weak);
+    if (blocks == null) return -1;
+
+    long strongChecksum = strongChecksum(contents, start, end);
+    int[] candidates = blocks instanceof Integer ? new int[]{(Integer)blocks} : (int[])blocks;
+    for (int block : candidates) {
+      boolean fullBlock = block < blockCount - 1 || lastBlockLength == blockSize;
+      if (fullBlock && strong[block] == strongChecksum) {
+        return block;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the text described by the delta, or null if the delta doesn't match the base
+   */
+  @Nullable
+  public static String applyDelta(String base, Element deltaElement) {
+    String expectedHash = deltaElement.getAttributeValue(HASH_ATTR);
+    if ("true".equals(deltaElement.getAttributeValue(UNCHANGED_ATTR))) {
+      return hash(base).equals(expectedHash) ? base : null;
+    }
+
+    int blockSize = getBlockSize(base.length());
+    StringBuilder result = new StringBuilder();
+    try {
+      int length = Integer.parseInt(deltaElement.getAttributeValue(LENGTH_ATTR));
+      if (length < 0 || length > MAX_TEXT_LENGTH) return null;
+      result.ensureCapacity(length);
+      for (Element element : deltaElement.getChildren()) {
+        if (result.length() > length) return null;
+        if (COPY_ELEMENT.equals(element.getName())) {
+          int block = Integer.parseInt(element.getAttributeValue(BLOCK_ATTR));
+          int count = Integer.parseInt(element.getAttributeValue(COUNT_ATTR));
+          int start = block * blockSize;
+          int end = Math.min(base.length(), (block + count) * blockSize);
+          if (block < 0 || count <= 0 || start >= end) return null;
+          result.append(base, start, end);
+        }
+        else if (INSERT_ELEMENT.equals(element.getName())) {
+          result.append(StringUtil.fromXMLSafeString(element.getText()));
+        }
+      }
+    }
+    catch (NumberFormatException e) {
+      return null;
+    }
+
+    if (result.length() != length) return null;
+    String text = result.toString();
+    return hash(text).equals(expectedHash) ? text : null;
+  }
+
+  static int weakChecksum(CharSequence text, int start, int end) {
+    int a = 0;
+    int b = 0;
+    int length = end - start;
+    for (int i = start; i < end; i++) {
+      char c = text.charAt(i);
+      a += c;
+      b += (length - (i - start)) * c;
+    }
+    return (a & 0xffff) | (b & 0xffff) << 16;
+  }
+
+  private static long strongChecksum(String text, int start, int end) {
+    byte[] digest = md5(text, start, end);
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result = (result << 8) | (digest[i] & 0xff);
+    }
+    return result;
+  }
+
+  private static byte[] md5(String text, int start, int end) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      digest.update(text.substring(start, end).getBytes(CharsetToolkit.UTF8_CHARSET));
+      return digest.digest();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String toHex(long value, int digits) {
+    StringBuilder result = new StringBuilder(Long.toHexString(value));
+    if (result.length() > digits) {
+      result.delete(0, result.length() - digits);
+    }
+    while (result.length() < digits) {
+      result.insert(0, '0');
+    }
+    return result.toString();
+  }
+
+  private static String toHex(byte[] bytes, int count) {
+    StringBuilder result = new StringBuilder(count * 2);
+    for (int i = 0; i < count; i++) {
+      result.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+      result.append(Character.forDigit(bytes[i] & 0xf, 16));
+    }
+    return result.toString();
+  }
+
+  /** Merges runs of consecutive blocks into a single copy element */
+  private static class DeltaBuilder {
+    private final Element myDelta;
+    private final String myContents;
+    private int myCopyStart = -1;
+    private int myCopyCount;
+
+    DeltaBuilder(Element delta, String contents) {
+      myDelta = delta;
+      myContents = contents;
+    }
+
+    void copy(int block) {
+      if (myCopyStart >= 0 && myCopyStart + myCopyCount == block) {
+        myCopyCount++;
+        return;
+      }
+      flushCopy();
+      myCopyStart = block;
+      myCopyCount = 1;
+    }
+
+    void insert(int start, int end) {
+      if (start >= end) return;
+      flushCopy();
+      Element insert = new Element(INSERT_ELEMENT);
+      insert.setText(StringUtil.toXMLSafeString(myContents.substring(start, end)));
+      myDelta.addContent(insert);
+    }
+
+    void flushCopy() {
+      if (myCopyStart < 0) return;
+      Element copy = new Element(COPY_ELEMENT);
+      copy.setAttribute(BLOCK_ATTR, String.valueOf(myCopyStart));
+      copy.setAttribute(COUNT_ATTR, String.valueOf(myCopyCount));
+      myDelta.addContent(copy);
+      myCopyStart = -1;
+    }
+  }
+}
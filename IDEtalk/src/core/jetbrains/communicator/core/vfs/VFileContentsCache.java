@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contents of remote files received recently. They serve as the base for the delta exchange ({@link ContentDelta})
+ * when the same file is requested again, an unchanged file is not transferred at all.
+ * <p/>
+ * Files are mapped to the hash of their last known contents by user and path, the contents are stored once per hash,
+ * so identical versions of a file received from several users share one entry. The least recently used contents
+ * are dropped when their total size exceeds the limit, the least recently used paths when there are too many of them.
+ */
+public class VFileContentsCache {
+  private static final int MAX_TOTAL_LENGTH = 16 * 1024 * 1024;
+  private static final int MAX_PATHS = 4096;
+  private static final VFileContentsCache ourInstance = new VFileContentsCache(MAX_TOTAL_LENGTH, MAX_PATHS);
+
+  private final int myMaxTotalLength;
+  private final Map<String, String> myPathToHash;
+  private final Map<String, String> myHashToContents = new LinkedHashMap<>(16, 0.75f, true);
+  private long myTotalLength;
+
+  VFileContentsCache(int maxTotalLength, final int maxPaths) {
+    myMaxTotalLength = maxTotalLength;
+    myPathToHash = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > maxPaths;
+      }
+    };
+  }
+
+  public static VFileContentsCache getInstance() {
+    return ourInstance;
+  }
+
+  @Nullable
+  public synchronized String getContents(String userName, VFile file) {
+    String key = getKey(userName, file);
+    String hash = myPathToHash.get(key);
+    if (hash == null) return null;
+
+    String contents = myHashToContents.get(hash);
+    if (contents == null) {
+      myPathToHash.remove(key);
+    }
+    return contents;
+  }
+
+  public synchronized void putContents(String userName, VFile file, String contents) {
+    if (contents.length() > myMaxTotalLength) return;
+
+    String hash = ContentDelta.hash(contents);
+    myPathToHash.put(getKey(userName, file), hash);
+    if (myHashToContents.put(hash, contents) == null) {
+      myTotalLength += contents.length();
+    }
+
+    for (Iterator<String> it = myHashToContents.values().iterator(); it.hasNext() && myTotalLength > myMaxTotalLength; ) {
+      myTotalLength -= it.next().length();
+      it.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    myPathToHash.clear();
+    myHashToContents.clear();
+    myTotalLength = 0;
+  }
+
+  private static String getKey(String userName, VFile file) {
+    return userName + '\n' + file.getProjectName() + '\n' + file.getFullPath();
+  }
+}
@@ -31,6 +31,8 @@ import org.picocontainer.Disposable;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * @author Kir
@@ -39,23 +41,31 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   private static final Logger LOG = Logger.getLogger(AbstractMessageDispatcher.class);
   private XStream myXStream;
 
-  private final File myDataDir;
   private final MyEventListener myEventListener;
 
   private final Object myUser2MessagesLock = new Object();
   private final Map<User,List<Message>> myUser2Messages = new HashMap<>();
   private final EventBroadcaster myEventBroadcaster;
-  private boolean myDispatching;
+  private final AtomicInteger myDispatchCount = new AtomicInteger();
+  private final MessageOutbox myOutbox;
 
   protected AbstractMessageDispatcher(EventBroadcaster eventBroadcaster, File dataDir) {
-    myDataDir = dataDir;
     myEventListener = new MyEventListener(eventBroadcaster);
     myEventBroadcaster = eventBroadcaster;
+    myOutbox = dataDir == null ? null : new MessageOutbox(new File(dataDir, getEventsFileName()), getXStream());
     load();
   }
 
   public void dispose() {
     myEventListener.dispose();
+    synchronized (myUser2MessagesLock) {
+      if (myOutbox != null) {
+        if (myOutbox.hasLogRecords()) {
+          myOutbox.compact(myUser2Messages);
+        }
+        myOutbox.close();
+      }
+    }
     //noinspection HardCodedStringLiteral
     LOG.debug("Disposed.");
   }
@@ -64,7 +74,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   protected boolean performDispatch(User user, Message message) {
     try {
-      myDispatching = true;
+      myDispatchCount.incrementAndGet();
       if (LOG.isDebugEnabled()) {
         //noinspection HardCodedStringLiteral
         LOG.debug("Start dispatching " + message + " to " + user);
@@ -74,13 +84,18 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       synchronized(myUser2MessagesLock) {
         List<Message> userMessages = getMessages(user);
         if (result) {
-          userMessages.remove(message);
+          int index = userMessages.indexOf(message);
+          if (index >= 0) {
+            userMessages.remove(index);
+            logChange(outbox -> outbox.removed(user, index));
+          }
           if (userMessages.size() == 0) {
             myUser2Messages.remove(user);
           }
         }
         else if (!userMessages.contains(message) ){
           userMessages.add(message);
+          logChange(outbox -> outbox.added(user, message));
         }
       }
 
@@ -90,7 +105,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
       }
       return result;
     } finally {
-      myDispatching = false;
+      myDispatchCount.decrementAndGet();
     }
   }
 
@@ -123,15 +138,11 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
   }
 
   public boolean sendNow(User user, Message message) {
-    boolean result = performDispatch(user, message);
-    if (result) {
-      save();
-    }
-    return result;
+    return performDispatch(user, message);
   }
 
   boolean isMessageDispatchInProgress() {
-    return myDispatching;
+    return myDispatchCount.get() > 0;
   }
 
   protected void addPendingMessage(User user, Message message) {
@@ -145,7 +156,7 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
           LOG.debug("Added pending message " + message + "\nfor user " + user);
         }
         userMessages.add(message);
-        save();
+        logChange(outbox -> outbox.added(user, message));
       }
     }
   }
@@ -154,14 +165,17 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
     synchronized(myUser2MessagesLock) {
       List<Message> userMessages = getMessages(user);
       userMessages.remove(messageIndex);
-      save();
+      logChange(outbox -> outbox.removed(user, messageIndex));
+      if (userMessages.isEmpty()) {
+        myUser2Messages.remove(user);
+      }
     }
   }
 
   protected void clearAll() {
     synchronized (myUser2MessagesLock) {
       myUser2Messages.clear();
-      save();
+      logChange(MessageOutbox::cleared);
     }
   }
 
@@ -178,9 +192,8 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
 
   protected final void load() {
     synchronized (myUser2MessagesLock) {
-      Object pendingEventsStorable = XMLUtil.fromXml(getXStream(), getFileName(), false);
-      if (pendingEventsStorable instanceof MessagesStorable) {
-        loadFromStorableMessages((MessagesStorable) pendingEventsStorable);
+      if (myOutbox != null) {
+        loadFromStorableMessages(new MessagesStorable(myOutbox.load()));
       }
     }
   }
@@ -190,32 +203,42 @@ public abstract class AbstractMessageDispatcher implements MessageDispatcher, Di
     myUser2Messages.putAll(messagesStorable.getUser2Messages());
   }
 
-  private String getFileName() {
-    return new File(myDataDir, getEventsFileName()).getAbsolutePath();
-  }
-
   private void removeUser(User user) {
     synchronized (myUser2MessagesLock) {
-      myUser2Messages.remove(user);
+      if (myUser2Messages.remove(user) != null) {
+        logChange(outbox -> outbox.userRemoved(user));
+      }
+    }
+  }
+
+  /**
+   * Appends the change of pending messages to the outbox log, compacts the outbox when the log becomes too long.
+   * Should be called under {@link #myUser2MessagesLock} right after the change is made.
+   */
+  private void logChange(Consumer<MessageOutbox> change) {
+    if (myOutbox == null) return;
+
+    change.accept(myOutbox);
+    if (myOutbox.isCompactionNeeded()) {
       save();
     }
   }
 
+  /**
+   * Writes all pending messages to the snapshot file and truncates the outbox log.
+   * Not required for persistence, every change is logged as soon as it is made.
+   */
   @SuppressWarnings({"HardCodedStringLiteral"})
   protected void save() {
-    if (myDataDir == null || !myDataDir.exists()) return;
+    if (myOutbox == null) return;
 
     LOG.debug("Save start");
     synchronized(myUser2MessagesLock) {
-      XMLUtil.toXml(getXStream(), getFileName(), createStorableMessages());
+      myOutbox.compact(myUser2Messages);
     }
     LOG.debug("Save finish");
   }
 
-  protected MessagesStorable createStorableMessages() {
-    return new MessagesStorable(myUser2Messages);
-  }
-
   @SuppressWarnings({"HardCodedStringLiteral"})
   private XStream getXStream() {
     if (myXStream == null) {
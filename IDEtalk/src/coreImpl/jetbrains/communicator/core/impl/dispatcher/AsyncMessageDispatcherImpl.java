@@ -27,28 +27,50 @@ import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.util.WaitFor;
 import org.apache.log4j.Logger;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Delivers messages in background. Every user has its own delivery queue, queues of different users
+ * are drained concurrently by at most {@link #MAX_DELIVERY_THREADS} threads, so a slow or unreachable peer
+ * doesn't delay delivery to others. Messages of a single user are still sent one by one, in order.
+ *
  * @author Kir
  */
 public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implements AsyncMessageDispatcher, Runnable {
   private static final Logger LOG = Logger.getLogger(AsyncMessageDispatcherImpl.class);
 
   private static final String FILE_NAME = "pendingNetworkMessages.xml";
+  private static final int MAX_DELIVERY_THREADS = 8;
   private final MyEventListener myEventListener;
   private final IDEFacade myIdeFacade;
 
   private final Object myWorkingThreadLock = new Object();
-  private Thread myWorkingThread;
+  private volatile Thread myWorkingThread;
   private Thread myThread;
 
   private boolean myShouldDeliverNow;
 
+  private final ThreadPoolExecutor myDeliveryExecutor;
+  private final Map<User, UserQueue> myUserQueues = new HashMap<>();
+
   public AsyncMessageDispatcherImpl(EventBroadcaster broadcaster, IDEFacade ideFacade) {
     super(broadcaster, ideFacade.getCacheDir());
 
     myIdeFacade = ideFacade;
     myEventListener = new MyEventListener(broadcaster);
 
+    final AtomicInteger threadCount = new AtomicInteger();
+    myDeliveryExecutor = new ThreadPoolExecutor(MAX_DELIVERY_THREADS, MAX_DELIVERY_THREADS, 30, TimeUnit.SECONDS,
+                                                new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "Network Message Delivery " + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    myDeliveryExecutor.allowCoreThreadTimeOut(true);
+
     start();
   }
 
@@ -100,15 +122,24 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
   }
 
   private void dispatchAllMessages() {
-    User[] usersWithMessages = getUsersWithMessages();
-    for (int i = 0; i < usersWithMessages.length && isRunning(); i++) {
-      User user = usersWithMessages[i];
-      Message[] pendingMessages = getPendingMessages(user);
-      for (int j = 0; j < pendingMessages.length && isRunning(); j++) {
-        performDispatch(user, pendingMessages[j]);
+    for (User user : getUsersWithMessages()) {
+      UserQueue queue;
+      synchronized (myUserQueues) {
+        queue = myUserQueues.get(user);
+        if (queue == null) {
+          queue = new UserQueue(user);
+          myUserQueues.put(user, queue);
+        }
       }
+      queue.schedule();
+    }
+  }
+
+  private void deliverPendingMessages(User user) {
+    Message[] pendingMessages = getPendingMessages(user);
+    for (int i = 0; i < pendingMessages.length && notDisposed(); i++) {
+      performDispatch(user, pendingMessages[i]);
     }
-    save();
   }
 
   public void dispose() {
@@ -118,9 +149,10 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
       myWorkingThread = null;
       myWorkingThreadLock.notifyAll();
     }
+    myDeliveryExecutor.shutdown();
     new WaitFor(10000){
       protected boolean condition() {
-        return !isRunning();
+        return !isRunning() && myDeliveryExecutor.isTerminated();
       }
     };
 
@@ -149,6 +181,61 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
     }
   }
 
+  /**
+   * Delivery queue of a single user: at most one delivery task of the user is running or scheduled at a time.
+   * A delivery requested while the task is running causes one more pass over the pending messages.
+   */
+  private class UserQueue implements Runnable {
+    private final User myUser;
+    private boolean myScheduled;
+    private boolean myRescheduled;
+
+    UserQueue(User user) {
+      myUser = user;
+    }
+
+    void schedule() {
+      synchronized (this) {
+        if (myScheduled) {
+          myRescheduled = true;
+          return;
+        }
+        myScheduled = true;
+      }
+      try {
+        myDeliveryExecutor.execute(this);
+      }
+      catch (RejectedExecutionException e) {
+        // disposed
+        synchronized (this) {
+          myScheduled = false;
+        }
+      }
+    }
+
+    public void run() {
+      while (true) {
+        synchronized (this) {
+          myRescheduled = false;
+        }
+        try {
+          if (notDisposed()) {
+            deliverPendingMessages(myUser);
+          }
+        }
+        catch (RuntimeException e) {
+          LOG.warn(e.getMessage(), e);
+        }
+        synchronized (this) {
+          if (!myRescheduled || !notDisposed()) {
+            myScheduled = false;
+            return;
+          }
+        }
+      }
+    }
+  }
+
   private class MyEventListener extends IDEtalkAdapter {
     private final EventBroadcaster myBroadcaster;
 
@@ -166,6 +253,12 @@ public class AsyncMessageDispatcherImpl extends AbstractMessageDispatcher implem
         @Override public void visitUserOnline(UserEvent.Online online) {
           triggerDelivery();
         }
+
+        @Override public void visitUserRemoved(UserEvent.Removed event) {
+          synchronized (myUserQueues) {
+            myUserQueues.remove(event.getUser());
+          }
+        }
       });
     }
   }
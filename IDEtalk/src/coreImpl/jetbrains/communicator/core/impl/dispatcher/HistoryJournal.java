@@ -0,0 +1,241 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.LocalMessage;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * Append-only binary journal with the message history of a single day.
+ * <p/>
+ * Every record consists of the message time, the user key, and the message serialized by XStream:
+ * <pre>long when | int keyLength | key (UTF-8) | int payloadLength | payload (UTF-8 XML)</pre>
+ * The offset index by user is built by reading the record headers only, payloads are read and deserialized
+ * when the messages are requested.
+ */
+class HistoryJournal {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(HistoryJournal.class);
+
+  private static final int MAGIC = 0x49444a31;
+
+  private final File myFile;
+  private final XStream myXStream;
+
+  private Map<String, List<Entry>> myUserIndex;
+  private long myLength;
+
+  HistoryJournal(File file, XStream xStream) {
+    myFile = file;
+    myXStream = xStream;
+  }
+
+  /**
+   * Appends messages of the day to the end of the journal, existing records are never rewritten.
+   * The index is updated only when all records are written; if writing fails, the journal is truncated back.
+   */
+  void append(String userKey, List<LocalMessage> messages) throws IOException {
+    ensureIndexLoaded();
+
+    long length = myLength;
+    List<Entry> entries = new ArrayList<>(messages.size());
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myFile, true)));
+      try {
+        if (length == 0) {
+          out.writeInt(MAGIC);
+          length = out.size();
+        }
+        for (LocalMessage message : messages) {
+          byte[] key = userKey.getBytes(CharsetToolkit.UTF8_CHARSET);
+          byte[] payload = myXStream.toXML(message).getBytes(CharsetToolkit.UTF8_CHARSET);
+
+          out.writeLong(message.getWhen().getTime());
+          out.writeInt(key.length);
+          out.write(key);
+          out.writeInt(payload.length);
+          out.write(payload);
+
+          length += 8 + 4 + key.length + 4 + payload.length;
+          Entry entry = new Entry(message.getWhen().getTime(), length - payload.length, payload.length);
+          entry.myMessage = new SoftReference<>(message);
+          entries.add(entry);
+        }
+      }
+      finally {
+        out.close();
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      rollback();
+      throw e;
+    }
+
+    myLength = length;
+    getEntries(userKey).addAll(entries);
+  }
+
+  /**
+   * Drops a partially written append: truncates the journal to the indexed length, or reloads the index if that fails.
+   */
+  private void rollback() {
+    try {
+      RandomAccessFile file = new RandomAccessFile(myFile, "rw");
+      try {
+        file.setLength(myLength);
+      }
+      finally {
+        file.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to truncate history journal " + myFile + ", reloading it", e);
+      myUserIndex = null;
+    }
+  }
+
+  /**
+   * Adds messages of the user received after {@code since} (exclusive) to {@code result}.
+   */
+  void readMessages(String userKey, @Nullable Date since, List<LocalMessage> result) throws IOException {
+    ensureIndexLoaded();
+    List<Entry> entries = new ArrayList<>();
+    for (Entry entry : getEntries(userKey)) {
+      if (since == null || entry.myWhen > since.getTime()) {
+        entries.add(entry);
+      }
+    }
+    result.addAll(read(entries));
+  }
+
+  private List<LocalMessage> read(List<Entry> entries) throws IOException {
+    List<LocalMessage> result = new ArrayList<>(entries.size());
+    RandomAccessFile file = null;
+    try {
+      for (Entry entry : entries) {
+        LocalMessage message = entry.myMessage == null ? null : entry.myMessage.get();
+        if (message == null) {
+          if (file == null) {
+            file = new RandomAccessFile(myFile, "r");
+          }
+          byte[] payload = new byte[entry.myLength];
+          file.seek(entry.myOffset);
+          file.readFully(payload);
+          message = (LocalMessage)myXStream.fromXML(new String(payload, CharsetToolkit.UTF8_CHARSET));
+          entry.myMessage = new SoftReference<>(message);
+        }
+        result.add(message);
+      }
+    }
+    finally {
+      if (file != null) {
+        file.close();
+      }
+    }
+    return result;
+  }
+
+  private List<Entry> getEntries(String userKey) {
+    List<Entry> entries = myUserIndex.get(userKey);
+    if (entries == null) {
+      entries = new ArrayList<>();
+      myUserIndex.put(userKey, entries);
+    }
+    return entries;
+  }
+
+  private void ensureIndexLoaded() throws IOException {
+    if (myUserIndex != null) return;
+
+    myUserIndex = new HashMap<>();
+    myLength = 0;
+    if (!myFile.exists()) return;
+
+    long fileLength = myFile.length();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+    long position = 0;
+    try {
+      if (fileLength < 4 || in.readInt() != MAGIC) {
+        LOG.warn("Not a history journal, will be overwritten: " + myFile);
+      }
+      else {
+        position = 4;
+        while (position < fileLength) {
+          long when = in.readLong();
+          int keyLength = in.readInt();
+          if (keyLength < 0 || position + 8 + 4 + keyLength > fileLength) break;
+          byte[] key = new byte[keyLength];
+          in.readFully(key);
+          int length = in.readInt();
+          long payloadOffset = position + 8 + 4 + key.length + 4;
+          if (length < 0 || payloadOffset + length > fileLength) break;
+          skipFully(in, length);
+
+          getEntries(new String(key, CharsetToolkit.UTF8_CHARSET)).add(new Entry(when, payloadOffset, length));
+          position = payloadOffset + length;
+        }
+      }
+    }
+    catch (EOFException ignored) {
+      // incomplete last record
+    }
+    finally {
+      in.close();
+    }
+
+    if (position < fileLength) {
+      LOG.info("Truncating incomplete history journal " + myFile + " at " + position);
+      RandomAccessFile file = new RandomAccessFile(myFile, "rw");
+      try {
+        file.setLength(position);
+      }
+      finally {
+        file.close();
+      }
+    }
+    myLength = position;
+  }
+
+  private static void skipFully(DataInputStream in, int length) throws IOException {
+    int skipped = 0;
+    while (skipped < length) {
+      int n = in.skipBytes(length - skipped);
+      if (n <= 0) throw new EOFException();
+      skipped += n;
+    }
+  }
+
+  private static class Entry {
+    private final long myWhen;
+    private final long myOffset;
+    private final int myLength;
+    private SoftReference<LocalMessage> myMessage;
+
+    private Entry(long when, long offset, int length) {
+      myWhen = when;
+      myOffset = offset;
+      myLength = length;
+    }
+  }
+}
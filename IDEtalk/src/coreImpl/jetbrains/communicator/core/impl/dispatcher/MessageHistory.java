@@ -28,13 +28,17 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.Future;
 
 /**
+ * Message history is stored in an append-only journal per day (see {@link HistoryJournal}).
+ * Saving writes only the messages added since the previous save, reading history reads only the
+ * records of the requested user and days.
+ *
  * @author Kir
  */
 class MessageHistory {
@@ -44,13 +48,24 @@ class MessageHistory {
   public static final long SAVE_TIMEOUT = 300;
   @NonNls
   private static final String HISTORY = "history";
+  @NonNls
+  private static final String JOURNAL_EXTENSION = ".journal";
+  @NonNls
+  private static final String XML_EXTENSION = ".xml";
+
+  private static final Comparator<LocalMessage> BY_TIME = (o1, o2) -> o1.getWhen().compareTo(o2.getWhen());
 
-  private final DayHistory myHistory = new DayHistory();
   @NonNls
   private final XStream myXStream;
   private final UserModel myUserModel;
+  private final UserConverter myUserConverter;
   private final IDEFacade myFacade;
 
+  /** day file name -> journal */
+  private final Map<String, HistoryJournal> myJournals = new HashMap<>();
+  /** messages added since the last save, by user key */
+  private final Map<String, List<LocalMessage>> myUnsavedMessages = new LinkedHashMap<>();
+
   private Future<?> myPendingSave;
 
   @NonNls
@@ -59,13 +74,14 @@ class MessageHistory {
   MessageHistory(IDEFacade facade, UserModel userModel) {
     myFacade = facade;
     myUserModel = userModel;
+    myUserConverter = new UserConverter(myUserModel);
 
     getHistoryDir().mkdir();
 
     myXStream = XMLUtil.createXStream();
     setupXStream();
 
-    loadHistorySince(new Date());
+    convertXmlHistory();
   }
 
   public synchronized void dispose() {
@@ -74,7 +90,7 @@ class MessageHistory {
       myPendingSave = null;
     }
 
-    myHistory.clear();
+    myJournals.clear();
   }
 
   private void setupXStream() {
@@ -82,16 +98,23 @@ class MessageHistory {
     myXStream.alias("dayHistory", DayHistory.class);
     myXStream.aliasField("historyEntries", DayHistory.class, "myData");
 
-    myXStream.registerConverter(new UserConverter(myUserModel));
+    myXStream.registerConverter(myUserConverter);
   }
 
   public synchronized void addMessage(User user, LocalMessage message) {
-    myHistory.addMessage(user, message);
+    String userKey = getUserKey(user);
+    List<LocalMessage> messages = myUnsavedMessages.get(userKey);
+    if (messages == null) {
+      messages = new ArrayList<>();
+      myUnsavedMessages.put(userKey, messages);
+    }
+    messages.add(message);
     triggerSave();
   }
 
   public synchronized void clear() {
-    myHistory.clear();
+    myUnsavedMessages.clear();
+    myJournals.clear();
 
     deleteAllHistoryFiles();
   }
@@ -111,68 +134,103 @@ class MessageHistory {
   }
 
   public synchronized LocalMessage[] getHistory(User user, @Nullable Date since) {
-    loadHistorySince(since);
+    String userKey = getUserKey(user);
+    Date sinceDay = since == null ? null : TimeUtil.getDay(since);
+
+    List<LocalMessage> list = new ArrayList<>();
+    for (String day : getJournalDays()) {
+      if (sinceDay != null && parseDay(day).before(sinceDay)) continue;
+      try {
+        getJournal(day).readMessages(userKey, since, list);
+      }
+      catch (IOException e) {
+        LOG.error("Unable to read history for " + day, e);
+      }
+    }
+    for (LocalMessage message : getUnsavedMessages(userKey)) {
+      if (since == null || message.getWhen().after(since)) {
+        list.add(message);
+      }
+    }
 
-    List<LocalMessage> list = filterHistoryByDate(user, since);
+    Collections.sort(list, BY_TIME);
     return list.toArray(new LocalMessage[list.size()]);
   }
 
-  private List<LocalMessage> filterHistoryByDate(User user, Date since) {
-    List<LocalMessage> list = myHistory.readMessages(user);
-    if (since != null) {
-      List<LocalMessage> result = new ArrayList<>(list.size());
-      for (LocalMessage message : list) {
-        if (message.getWhen().after(since)) {
-          result.add(message);
+  /** Sorted day names of existing journals */
+  private List<String> getJournalDays() {
+    String[] files = getHistoryDir().list((dir, name) -> name.endsWith(JOURNAL_EXTENSION));
+    List<String> result = new ArrayList<>();
+    if (files != null) {
+      for (String file : files) {
+        String day = file.substring(0, file.length() - JOURNAL_EXTENSION.length());
+        if (parseDay(day) != null) {
+          result.add(day);
         }
       }
-      list = result;
     }
-    return list;
+    Collections.sort(result);
+    return result;
   }
 
-  private void loadHistorySince(@Nullable Date since) {
-    if (since != null) {
-      since = TimeUtil.getDay(since);
+  @Nullable
+  private static Date parseDay(String day) {
+    try {
+      synchronized (DATE_FORMAT) {
+        return DATE_FORMAT.parse(day);
+      }
     }
+    catch (ParseException e) {
+      // ignore file of wrong format
+      return null;
+    }
+    catch (NumberFormatException e) {
+      // ignore file of wrong format
+      return null;
+    }
+  }
 
-    if (!myHistory.hasHistorySince(since)) {
-      if (since == null) {
-        doLoadHistorySince(new Date(0));
-        myHistory.setHasFullHistory();
-      }
-      else {
-        doLoadHistorySince(since);
-      }
+  private static String formatDay(Date date) {
+    synchronized (DATE_FORMAT) {
+      return DATE_FORMAT.format(date);
     }
   }
 
-  private void doLoadHistorySince(Date since) {
-    File historyDir = getHistoryDir();
+  private HistoryJournal getJournal(String day) {
+    HistoryJournal journal = myJournals.get(day);
+    if (journal == null) {
+      journal = new HistoryJournal(new File(getHistoryDir(), day + JOURNAL_EXTENSION), myXStream);
+      myJournals.put(day, journal);
+    }
+    return journal;
+  }
 
-    String[] historyFiles = historyDir.list((dir, name) -> name.endsWith(".xml"));
+  /**
+   * History used to be stored as an XStream XML file per day. Such files are converted to journals once.
+   */
+  private void convertXmlHistory() {
+    String[] historyFiles = getHistoryDir().list((dir, name) -> name.endsWith(XML_EXTENSION));
+    if (historyFiles == null) return;
 
-    Arrays.sort(historyFiles);
-    for (int i = historyFiles.length - 1; i >= 0; i--) {
-      String historyFile = historyFiles[i];
-      try {
-        Date date = DATE_FORMAT.parse(historyFile);
-        if (!date.before(since) && !myHistory.hasHistorySince(date)) {
-          DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), false);
-          if (dayHistory != null) {
-            dayHistory.copyTo(myHistory);
+    for (String historyFile : historyFiles) {
+      String day = historyFile.substring(0, historyFile.length() - XML_EXTENSION.length());
+      if (parseDay(day) == null) continue;
+
+      DayHistory dayHistory = (DayHistory)XMLUtil.fromXml(myXStream, getHistoryDir(), historyFile, false);
+      if (dayHistory != null) {
+        dayHistory.resort();
+        try {
+          for (User user : dayHistory.keySet()) {
+            getJournal(day).append(getUserKey(user), dayHistory.get(user));
           }
         }
+        catch (IOException e) {
+          LOG.error("Unable to convert history for " + day, e);
+          continue;
+        }
       }
-      catch (ParseException e) {
-        // ignore file of wrong format
-      }
-      catch (NumberFormatException e) {
-        // ignore file of wrong format
-      }
+      new File(getHistoryDir(), historyFile).delete();
     }
-
-    myHistory.resort();
   }
 
   private void triggerSave() {
@@ -193,48 +251,47 @@ class MessageHistory {
 
   private synchronized void saveHistory() {
     LOG.debug("Start history save");
-    Map<Date, DayHistory> map = getHistory();
-    for (Date date : map.keySet()) {
-      DayHistory dayHistory = map.get(date);
-      try {
-        XMLUtil.toXml(myXStream, myFacade.getCacheDir(), getFileNameForDate(date), dayHistory);
-      } catch (RuntimeException e) {
-        LOG.error("Unable to save dayHistory for " + date + ": " + dayHistory, e);
+    for (Iterator<Map.Entry<String, List<LocalMessage>>> it = myUnsavedMessages.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry<String, List<LocalMessage>> entry = it.next();
+      String userKey = entry.getKey();
+      for (Map.Entry<String, List<LocalMessage>> dayEntry : groupByDay(entry.getValue()).entrySet()) {
+        try {
+          getJournal(dayEntry.getKey()).append(userKey, dayEntry.getValue());
+          entry.getValue().removeAll(dayEntry.getValue());
+        } catch (IOException e) {
+          // the messages stay unsaved until the next save
+          LOG.error("Unable to save history for " + dayEntry.getKey() + ": " + dayEntry.getValue(), e);
+        }
+      }
+      if (entry.getValue().isEmpty()) {
+        it.remove();
       }
     }
 
     LOG.debug("Done history save");
   }
 
-  private synchronized Map<Date, DayHistory> getHistory() {
-    Map<Date, DayHistory> result = new HashMap<>();
-
-    for (User user : myHistory.keySet()) {
-      List<LocalMessage> messages = myHistory.get(user);
-      for (LocalMessage message : messages) {
-        DayHistory dayHistory = getDayHistoryFor(message, result);
-
-        dayHistory.addMessage(user, message);
+  private static Map<String, List<LocalMessage>> groupByDay(List<LocalMessage> messages) {
+    Map<String, List<LocalMessage>> result = new TreeMap<>();
+    for (LocalMessage message : messages) {
+      String day = formatDay(TimeUtil.getDay(message.getWhen()));
+      List<LocalMessage> dayMessages = result.get(day);
+      if (dayMessages == null) {
+        dayMessages = new ArrayList<>();
+        result.put(day, dayMessages);
       }
+      dayMessages.add(message);
     }
-
     return result;
   }
 
-  private DayHistory getDayHistoryFor(LocalMessage message, Map<Date, DayHistory> result) {
-    Date day = TimeUtil.getDay(message.getWhen());
-    DayHistory dayHistory = result.get(day);
-    if (dayHistory == null) {
-      dayHistory = new DayHistory();
-      result.put(day, dayHistory);
-    }
-    return dayHistory;
+  private List<LocalMessage> getUnsavedMessages(String userKey) {
+    List<LocalMessage> messages = myUnsavedMessages.get(userKey);
+    return messages == null ? Collections.emptyList() : messages;
   }
 
-  @NonNls
-  private String getFileNameForDate(Date date) {
-    //noinspection HardCodedStringLiteral
-    return HISTORY + '/' + DATE_FORMAT.format(date) + ".xml";
+  private String getUserKey(User user) {
+    return myUserConverter.toString(user);
   }
 
   public boolean isEmpty() {
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.impl.dispatcher;
+
+import com.intellij.openapi.vfs.CharsetToolkit;
+import com.thoughtworks.xstream.XStream;
+import jetbrains.communicator.core.dispatcher.Message;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.util.XMLUtil;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent storage of pending messages: an XML snapshot written by XStream plus a write-ahead log
+ * with the changes made after the snapshot was written.
+ * <p/>
+ * Every change of the pending messages appends a small record to the log instead of rewriting the whole snapshot:
+ * <pre>byte operation | int userLength | user (UTF-8 XML) | [int messageLength | message (UTF-8 XML)] | [int index]</pre>
+ * When the log grows over {@link #COMPACTION_THRESHOLD} records, the snapshot is rewritten and the log is started anew.
+ * The log header holds the generation of the snapshot it belongs to, so a log left behind by an interrupted
+ * compaction is never replayed over the newer snapshot.
+ */
+class MessageOutbox {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(MessageOutbox.class);
+
+  private static final int MAGIC = 0x49444f31;
+  static final int COMPACTION_THRESHOLD = 500;
+
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+  private static final byte REMOVE_USER = 3;
+  private static final byte CLEAR = 4;
+
+  private final File mySnapshotFile;
+  private final File myLogFile;
+  private final XStream myXStream;
+
+  private long myGeneration;
+  private DataOutputStream myLog;
+  private int myRecordCount;
+
+  MessageOutbox(File snapshotFile, XStream xStream) {
+    mySnapshotFile = snapshotFile;
+    myLogFile = new File(snapshotFile.getPath() + ".log");
+    myXStream = xStream;
+  }
+
+  /**
+   * Reads the snapshot, replays the log over it and compacts the result, so that the log is empty afterwards.
+   */
+  Map<User, List<Message>> load() {
+    close();
+
+    File tempFile = getTempFile();
+    if (!mySnapshotFile.exists() && tempFile.exists() && !tempFile.renameTo(mySnapshotFile)) {
+      LOG.info("Cannot restore " + mySnapshotFile + " from " + tempFile);
+    }
+
+    Map<User, List<Message>> result = new HashMap<>();
+    myGeneration = 0;
+    Object storable = XMLUtil.fromXml(myXStream, mySnapshotFile.getAbsolutePath(), false);
+    if (storable instanceof MessagesStorable) {
+      for (Map.Entry<User, List<Message>> entry : ((MessagesStorable)storable).getUser2Messages().entrySet()) {
+        result.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+      }
+      myGeneration = ((MessagesStorable)storable).getOutboxGeneration();
+    }
+
+    if (myLogFile.exists()) {
+      replay(result);
+      compact(result);
+    }
+    return result;
+  }
+
+  void added(User user, Message message) {
+    write(ADD, user, message, -1);
+  }
+
+  void removed(User user, int index) {
+    write(REMOVE, user, null, index);
+  }
+
+  void userRemoved(User user) {
+    write(REMOVE_USER, user, null, -1);
+  }
+
+  void cleared() {
+    write(CLEAR, null, null, -1);
+  }
+
+  boolean isCompactionNeeded() {
+    return myRecordCount >= COMPACTION_THRESHOLD;
+  }
+
+  boolean hasLogRecords() {
+    return myRecordCount > 0;
+  }
+
+  /**
+   * Writes the snapshot of the given pending messages and starts a new log.
+   */
+  void compact(Map<User, List<Message>> user2Messages) {
+    if (!isEnabled()) return;
+
+    long generation = myGeneration + 1;
+    File tempFile = getTempFile();
+    XMLUtil.toXml(myXStream, tempFile.getAbsolutePath(), new MessagesStorable(user2Messages, generation));
+    if (!tempFile.renameTo(mySnapshotFile)) {
+      //noinspection ResultOfMethodCallIgnored
+      mySnapshotFile.delete();
+      if (!tempFile.renameTo(mySnapshotFile)) {
+        LOG.warn("Cannot write " + mySnapshotFile);
+        return;
+      }
+    }
+
+    close();
+    if (myLogFile.exists() && !myLogFile.delete()) {
+      LOG.warn("Cannot delete " + myLogFile);
+    }
+    myGeneration = generation;
+    myRecordCount = 0;
+  }
+
+  void close() {
+    if (myLog != null) {
+      try {
+        myLog.close();
+      }
+      catch (IOException e) {
+        LOG.info(e.getMessage(), e);
+      }
+      myLog = null;
+    }
+  }
+
+  private boolean isEnabled() {
+    File dir = mySnapshotFile.getParentFile();
+    return dir != null && dir.exists();
+  }
+
+  private File getTempFile() {
+    return new File(mySnapshotFile.getPath() + ".tmp");
+  }
+
+  private void write(byte operation, @Nullable User user, @Nullable Message message, int index) {
+    if (!isEnabled()) return;
+
+    try {
+      if (myLog == null) {
+        boolean isNew = !myLogFile.exists() || myLogFile.length() == 0;
+        myLog = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myLogFile, true)));
+        if (isNew) {
+          myLog.writeInt(MAGIC);
+          myLog.writeLong(myGeneration);
+        }
+      }
+
+      myLog.writeByte(operation);
+      if (operation != CLEAR) {
+        writeBytes(myLog, myXStream.toXML(user));
+      }
+      if (operation == ADD) {
+        writeBytes(myLog, myXStream.toXML(message));
+      }
+      else if (operation == REMOVE) {
+        myLog.writeInt(index);
+      }
+      myLog.flush();
+      myRecordCount++;
+    }
+    catch (IOException e) {
+      LOG.warn("Cannot write " + myLogFile + ": " + e.getMessage(), e);
+      close();
+    }
+  }
+
+  private void replay(Map<User, List<Message>> user2Messages) {
+    DataInputStream in = null;
+    int records = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(myLogFile)));
+      if (in.readInt() != MAGIC) {
+        LOG.warn("Not a message log, ignored: " + myLogFile);
+        return;
+      }
+      long generation = in.readLong();
+      if (generation != myGeneration) {
+        LOG.info("Outdated message log ignored: " + myLogFile);
+        return;
+      }
+
+      while (true) {
+        int operation = in.read();
+        if (operation == -1) break;
+
+        if (operation == CLEAR) {
+          user2Messages.clear();
+        }
+        else {
+          User user = (User)myXStream.fromXML(readString(in));
+          if (operation == ADD) {
+            String message = readString(in);
+            List<Message> messages = user2Messages.get(user);
+            if (messages == null) {
+              messages = new ArrayList<>(5);
+              user2Messages.put(user, messages);
+            }
+            messages.add((Message)myXStream.fromXML(message));
+          }
+          else if (operation == REMOVE) {
+            int index = in.readInt();
+            List<Message> messages = user2Messages.get(user);
+            if (messages != null && index >= 0 && index < messages.size()) {
+              messages.remove(index);
+              if (messages.isEmpty()) {
+                user2Messages.remove(user);
+              }
+            }
+          }
+          else if (operation == REMOVE_USER) {
+            user2Messages.remove(user);
+          }
+          else {
+            throw new IOException("Unknown operation " + operation);
+          }
+        }
+        records++;
+      }
+    }
+    catch (EOFException ignored) {
+      // the last record is incomplete
+    }
+    catch (Exception e) {
+      LOG.info("Error reading " + myLogFile + " after " + records + " records", e);
+    }
+    finally {
+      if (in != null) {
+        try {
+          in.close();
+        }
+        catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  private static void writeBytes(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(CharsetToolkit.UTF8_CHARSET);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0 || length > in.available() + 1024 * 1024) throw new EOFException();
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, CharsetToolkit.UTF8_CHARSET);
+  }
+}
@@ -26,12 +26,23 @@ import java.util.Map;
  */
 public class MessagesStorable {
   private final Map<User, List<Message>> myUser2Messages;
+  private long myOutboxGeneration;
 
   public MessagesStorable(Map<User,List<Message>> user2Messages) {
     myUser2Messages = user2Messages;
   }
 
+  public MessagesStorable(Map<User,List<Message>> user2Messages, long outboxGeneration) {
+    myUser2Messages = user2Messages;
+    myOutboxGeneration = outboxGeneration;
+  }
+
   public Map<User,List<Message>> getUser2Messages() {
     return myUser2Messages;
   }
+
+  /** Generation of the {@link MessageOutbox} log which continues this snapshot, 0 for snapshots written before the log existed */
+  public long getOutboxGeneration() {
+    return myOutboxGeneration;
+  }
 }
@@ -17,6 +17,7 @@ package jetbrains.communicator.core.impl.transport;
 
 import jetbrains.communicator.core.transport.GetVFileContentsXmlMessage;
 import jetbrains.communicator.core.users.UserModel;
+import jetbrains.communicator.core.vfs.ContentDelta;
 import jetbrains.communicator.core.vfs.VFile;
 import jetbrains.communicator.ide.IDEFacade;
 import org.jdom.Element;
@@ -37,6 +38,17 @@ public class GetVFileContentsProvider extends FileAccessProvider {
   protected void doProcess(Element request, Element response) {
     VFile from = VFile.createFrom(request);
     myIdeFacade.fillFileContents(from);
-    from.saveTo(response);
+
+    Element base = request.getChild(ContentDelta.BASE_ELEMENT);
+    Element delta = base == null || from.getContents() == null ? null : ContentDelta.createDeltaElement(base, from.getContents());
+    if (delta != null) {
+      // the requester has an earlier version of the file, send only the difference
+      from.setContents(null);
+      from.saveTo(response);
+      response.addContent(delta);
+    }
+    else {
+      from.saveTo(response);
+    }
   }
 }
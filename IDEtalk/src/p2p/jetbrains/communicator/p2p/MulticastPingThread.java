@@ -15,8 +15,10 @@
  */
 package jetbrains.communicator.p2p;
 
+import jetbrains.communicator.core.users.UserPresence;
 import jetbrains.communicator.ide.IDEFacade;
 import jetbrains.communicator.p2p.commands.AddOnlineUserP2PCommand;
+import jetbrains.communicator.util.StringUtil;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
@@ -25,6 +27,10 @@ import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.SocketException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Kir Maximov
@@ -36,10 +42,21 @@ class MulticastPingThread extends Thread {
 
   public static final int MULTICAST_PORT = 2863;
   static final String PING_MESSAGE = "Is there anybody out there?";
+  static final String HEARTBEAT_MESSAGE = "IDEtalk heartbeat ";
   private static final String MULTICAST_ADORES = "239.203.13.64";
-  private static final int BUFFER_SIZE = PING_MESSAGE.getBytes().length + 6;
+  private static final int BUFFER_SIZE = 64;
   private static final int ALLOWED_FAILURES = 3000;
 
+  /**
+   * The same info is sent to the same requester at most once per this interval.
+   */
+  static final long MIN_REPLY_INTERVAL = 2000;
+  /**
+   * Replies to pings from other hosts are spread over this time, so that the requester is not flooded.
+   */
+  private static final int MAX_REPLY_DELAY = 1000;
+  private static final int REPLY_THREADS = 2;
+
   private volatile boolean myIsRunning;
   private MulticastSocket myDatagramSocket;
   protected boolean myStarted;
@@ -48,6 +65,12 @@ class MulticastPingThread extends Thread {
   private final IDEFacade myIdeFacade;
   private final UserMonitorClient myUserMonitorClient;
 
+  private final RateLimiter myReplyLimiter = new RateLimiter(MIN_REPLY_INTERVAL);
+  private final ScheduledThreadPoolExecutor myReplyExecutor;
+  private final Random myRandom = new Random();
+  private volatile UserMonitorThread myMonitor;
+  private int myLastStateHash;
+
   private int myFailuresCounter;
 
   MulticastPingThread(InetAddress address, IDEFacade ideFacade, UserMonitorClient userMonitorClient) {
@@ -58,19 +81,59 @@ class MulticastPingThread extends Thread {
     mySelfAddress = address;
     myIdeFacade = ideFacade;
     myUserMonitorClient = userMonitorClient;
+    myReplyExecutor = new ScheduledThreadPoolExecutor(REPLY_THREADS, r -> {
+      Thread thread = new Thread(r, address.toString() + " IDEtalk Multicast Reply Thread");
+      thread.setDaemon(true);
+      return thread;
+    });
 
     System.setProperty("sun.net.client.defaultConnectTimeout", "2000");
   }
 
+  void setMonitor(UserMonitorThread monitor) {
+    myMonitor = monitor;
+  }
+
   public void sendMulticastPingRequest() throws IOException {
     if (!myIsRunning) return;
 
+    LOG.debug("Sending Multicast ping request: " + mySelfAddress);
+    sendMessage(PING_MESSAGE + myUserMonitorClient.getPort(), InetAddress.getByName(MULTICAST_ADORES));
+  }
+
+  /**
+   * @param resend send the heartbeat even if own state hasn't changed since the last one
+   */
+  public void sendHeartbeat(boolean resend) {
+    if (!myIsRunning) return;
+
+    int stateHash = UserMonitorThread.getStateHash(StringUtil.getMyUsername(), Arrays.asList(myIdeFacade.getProjects()),
+                                                   myUserMonitorClient.getOwnPresence());
+    if (!resend && stateHash == myLastStateHash) return;
+
+    myLastStateHash = stateHash;
+    try {
+      sendMessage(HEARTBEAT_MESSAGE + myUserMonitorClient.getPort() + ':' + stateHash, InetAddress.getByName(MULTICAST_ADORES));
+    }
+    catch (IOException e) {
+      LOG.debug(e.getMessage(), e);
+    }
+  }
+
+  private void sendPingRequest(InetAddress target) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(getName() + ": Request info from " + target);
+    }
+    sendMessage(PING_MESSAGE + myUserMonitorClient.getPort(), target);
+  }
+
+  private void sendMessage(String msg, InetAddress target) {
     MulticastSocket datagramSocket = null;
     try {
       datagramSocket = new MulticastSocket();
       datagramSocket.setInterface(mySelfAddress);
-      LOG.debug("Sending Multicast ping request: " + mySelfAddress);
-      sendMessage(datagramSocket, PING_MESSAGE + myUserMonitorClient.getPort());
+      byte[] bytes = msg.getBytes();
+      datagramSocket.send(new DatagramPacket(bytes, 0, bytes.length, target, MULTICAST_PORT));
       myFailuresCounter = 0;
     } catch (IOException e) {
 
@@ -87,12 +150,6 @@ class MulticastPingThread extends Thread {
     }
   }
 
-  private static void sendMessage(MulticastSocket datagramSocket, String msg) throws IOException {
-    DatagramPacket packet = new DatagramPacket(msg.getBytes(), 0, msg.getBytes().length,
-            InetAddress.getByName(MULTICAST_ADORES), MULTICAST_PORT);
-    datagramSocket.send(packet);
-  }
-
   @Override
   public void run() {
     LOG.info(getName() + ": Start thread.");
@@ -129,9 +186,12 @@ class MulticastPingThread extends Thread {
             final int targetPort = extractPort(message);
 
             if (shouldAddSelf(datagramPacket, targetPort)) {
-              addSelfInfoTo(remoteAddress, targetPort);
+              scheduleSelfInfoTo(remoteAddress, targetPort);
             }
           }
+          else if (message.startsWith(HEARTBEAT_MESSAGE)) {
+            processHeartbeat(datagramPacket, message);
+          }
         }
         catch(SocketException e) {
           if (!"Socket closed".equalsIgnoreCase(e.getMessage())) {
@@ -155,6 +215,7 @@ class MulticastPingThread extends Thread {
     }
     finally {
       myIsRunning = false;
+      myReplyExecutor.shutdownNow();
       if (myDatagramSocket != null && !myDatagramSocket.isClosed()){
         myDatagramSocket.close();
       }
@@ -165,13 +226,40 @@ class MulticastPingThread extends Thread {
     LOG.error(getName() + " is terminated:\n" + e.getMessage(), e);
   }
 
-  private void addSelfInfoTo(InetAddress remoteAddress, int targetPort) {
-    String[] projects = myIdeFacade.getProjects();
+  private void scheduleSelfInfoTo(final InetAddress remoteAddress, final int targetPort) {
+    final Collection<String> projects = Arrays.asList(myIdeFacade.getProjects());
+    final UserPresence presence = myUserMonitorClient.getOwnPresence();
+
+    int stateHash = UserMonitorThread.getStateHash(StringUtil.getMyUsername(), projects, presence);
+    if (!myReplyLimiter.tryAcquire(remoteAddress.getHostAddress() + ':' + targetPort + ':' + stateHash)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(getName() + ": " + remoteAddress + " already got our info");
+      }
+      return;
+    }
+
+    int delay = NetworkUtil.isOwnAddress(remoteAddress) ? 0 : myRandom.nextInt(MAX_REPLY_DELAY);
+    myReplyExecutor.schedule(() -> addSelfInfoTo(remoteAddress, targetPort, projects, presence), delay, TimeUnit.MILLISECONDS);
+  }
 
+  private void addSelfInfoTo(InetAddress remoteAddress, int targetPort, Collection<String> projects, UserPresence presence) {
     if (LOG.isDebugEnabled()) {
       LOG.debug(getName() + ": Add self to " + remoteAddress);
     }
-    AddOnlineUserP2PCommand.addSelfTo(targetPort, remoteAddress, mySelfAddress, myUserMonitorClient.getPort(), Arrays.asList(projects), myUserMonitorClient.getOwnPresence());
+    AddOnlineUserP2PCommand.addSelfTo(targetPort, remoteAddress, mySelfAddress, myUserMonitorClient.getPort(), projects, presence);
+  }
+
+  private void processHeartbeat(DatagramPacket datagramPacket, String message) {
+    UserMonitorThread monitor = myMonitor;
+    int[] heartbeat = parseHeartbeat(message);
+    if (monitor == null || heartbeat == null) return;
+
+    InetAddress remoteAddress = datagramPacket.getAddress();
+    if (NetworkUtil.isOwnAddress(remoteAddress) && !shouldSendToSelf(datagramPacket, heartbeat[0])) return;
+
+    if (monitor.processHeartbeat(remoteAddress, heartbeat[0], heartbeat[1])) {
+      sendPingRequest(remoteAddress);
+    }
   }
 
   private boolean shouldAddSelf(DatagramPacket datagramPacket, int targetPort) {
@@ -197,6 +285,21 @@ class MulticastPingThread extends Thread {
     return P2PTransport.XML_RPC_PORT;
   }
 
+  /**
+   * @return port and state hash from a heartbeat message, null if the message is malformed
+   */
+  static int[] parseHeartbeat(String message) {
+    String body = message.substring(HEARTBEAT_MESSAGE.length());
+    int separator = body.indexOf(':');
+    try {
+      return new int[]{Integer.parseInt(body.substring(0, separator)), Integer.parseInt(body.substring(separator + 1))};
+    }
+    catch (Exception e) {
+      LOG.debug(e);
+    }
+    return null;
+  }
+
   public void shutdown() {
     if (myDatagramSocket != null) {
       myDatagramSocket.close();
@@ -0,0 +1,432 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A persistent connection to another IDEtalk instance which carries any number of concurrent requests.
+ * <p/>
+ * Every request and response is sent as a frame:
+ * <pre>int requestId | byte flags | int length | payload</pre>
+ * Requests consist of the handler id, the method name and string parameters, exactly like the XML-RPC calls they replace;
+ * responses carry the string result. Responses come back in the order requests are processed, not in the order
+ * they were sent. Payloads larger than {@link #COMPRESSION_THRESHOLD} bytes are deflated.
+ * Frames queued while the previous ones are being written are sent together and flushed once.
+ * <p/>
+ * A failed call is answered with an ERROR frame. A request which is not processed (the peer is too busy) or whose
+ * response exceeds {@link #MAX_FRAME_LENGTH} is answered with a REJECTED frame: like a lost connection, a timeout
+ * or a request exceeding the limit, it makes {@link #call} throw, so that the caller can repeat it over XML-RPC.
+ */
+class P2PChannel {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(P2PChannel.class);
+
+  static final int MAGIC = 0x49445431;
+  static final int COMPRESSION_THRESHOLD = 1024;
+  // enough for the contents of a large source file, the largest payload IDEtalk sends
+  static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
+  private static final int READ_CHUNK = 64 * 1024;
+  private static final int MAX_BATCH = 64;
+
+  private static final byte REQUEST = 1;
+  private static final byte RESPONSE = 2;
+  private static final byte ERROR = 3;
+  private static final byte REJECTED = 4;
+  private static final byte TYPE_MASK = 0x0f;
+  private static final byte COMPRESSED = 0x10;
+
+  private static final Frame CLOSE = new Frame(0, (byte)0, new byte[0]);
+
+  private final Socket mySocket;
+  @Nullable private final RequestHandler myHandler;
+  private final Executor myRequestExecutor;
+
+  private final BlockingQueue<Frame> myOutgoing = new LinkedBlockingQueue<>();
+  private final Map<Integer, CompletableFuture<String>> myPendingRequests = new ConcurrentHashMap<>();
+  private final AtomicInteger myRequestCounter = new AtomicInteger();
+  private volatile boolean myClosed;
+
+  interface RequestHandler {
+    /**
+     * @return the result of the call, null if the call failed
+     */
+    @Nullable
+    String process(String xmlRpcId, String method, List<String> parameters);
+  }
+
+  /**
+   * @param handler processes incoming requests, null if the channel is used to send requests only
+   */
+  P2PChannel(Socket socket, @Nullable RequestHandler handler, Executor requestExecutor) {
+    mySocket = socket;
+    myHandler = handler;
+    myRequestExecutor = requestExecutor;
+  }
+
+  void start(String name) throws IOException {
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(mySocket.getInputStream()));
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(mySocket.getOutputStream()));
+
+    Thread reader = new Thread(() -> readFrames(in), name + " reader");
+    reader.setDaemon(true);
+    reader.start();
+
+    Thread writer = new Thread(() -> writeFrames(out), name + " writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  boolean isClosed() {
+    return myClosed;
+  }
+
+  /**
+   * Sends the request and waits for the response.
+   *
+   * @return the response, null if the call failed on the other side
+   * @throws IOException if the call could not be completed over the channel: the connection is closed or lost, the timeout
+   *                     has elapsed, the request or the response is too large or the peer rejected the request
+   */
+  @Nullable
+  String call(String xmlRpcId, String method, List<String> parameters, long timeoutMillis) throws IOException {
+    if (myClosed) throw new IOException("Connection closed");
+    byte[] payload = encodeRequest(xmlRpcId, method, parameters);
+    if (payload.length > MAX_FRAME_LENGTH) {
+      throw new IOException("Request of " + payload.length + " bytes is too large");
+    }
+
+    int requestId = myRequestCounter.incrementAndGet();
+    CompletableFuture<String> response = new CompletableFuture<>();
+    myPendingRequests.put(requestId, response);
+    try {
+      myOutgoing.add(createFrame(requestId, REQUEST, payload));
+      if (myClosed) {
+        // closed while the request was queued
+        throw new IOException("Connection closed");
+      }
+      return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+    catch (TimeoutException e) {
+      throw new IOException("Timeout waiting for " + xmlRpcId + '.' + method + " from " + mySocket.getRemoteSocketAddress());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException)cause : new IOException(cause);
+    }
+    finally {
+      myPendingRequests.remove(requestId);
+    }
+  }
+
+  synchronized void close() {
+    if (myClosed) return;
+    myClosed = true;
+    try {
+      mySocket.close();
+    }
+    catch (IOException e) {
+      LOG.debug(e.getMessage(), e);
+    }
+    myOutgoing.add(CLOSE);
+    for (CompletableFuture<String> response : myPendingRequests.values()) {
+      response.completeExceptionally(new IOException("Connection closed"));
+    }
+  }
+
+  private void readFrames(DataInputStream in) {
+    try {
+      while (!myClosed) {
+        final int requestId = in.readInt();
+        byte flags = in.readByte();
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+          throw new IOException("Invalid frame length " + length);
+        }
+        byte[] payload = readPayload(in, length);
+        if ((flags & COMPRESSED) != 0) {
+          payload = inflate(payload);
+        }
+
+        switch (flags & TYPE_MASK) {
+          case REQUEST:
+            final List<String> request = decodeStrings(payload);
+            try {
+              myRequestExecutor.execute(() -> processRequest(requestId, request));
+            }
+            catch (RejectedExecutionException e) {
+              // too many requests in progress, the caller falls back to XML-RPC
+              myOutgoing.add(new Frame(requestId, REJECTED, new byte[0]));
+            }
+            break;
+          case RESPONSE:
+            completeRequest(requestId, decodeStrings(payload).get(0));
+            break;
+          case ERROR:
+            completeRequest(requestId, null);
+            break;
+          case REJECTED:
+            failRequest(requestId, "Request rejected by " + mySocket.getRemoteSocketAddress());
+            break;
+          default:
+            throw new IOException("Unknown frame type " + flags);
+        }
+      }
+    }
+    catch (EOFException ignored) {
+      // closed by the other side
+    }
+    catch (IOException e) {
+      if (!myClosed) {
+        LOG.info("Connection to " + mySocket.getRemoteSocketAddress() + " lost: " + e.getMessage());
+      }
+    }
+    finally {
+      close();
+    }
+  }
+
+  /**
+   * Reads the payload in chunks, so that memory is allocated for the bytes actually received rather than the announced length.
+   */
+  private static byte[] readPayload(DataInputStream in, int length) throws IOException {
+    if (length <= READ_CHUNK) {
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      return payload;
+    }
+
+    ByteArrayOutputStream result = new ByteArrayOutputStream(READ_CHUNK);
+    byte[] buffer = new byte[READ_CHUNK];
+    int remaining = length;
+    while (remaining > 0) {
+      int n = Math.min(remaining, buffer.length);
+      in.readFully(buffer, 0, n);
+      result.write(buffer, 0, n);
+      remaining -= n;
+    }
+    return result.toByteArray();
+  }
+
+  private void completeRequest(int requestId, @Nullable String response) {
+    CompletableFuture<String> future = myPendingRequests.get(requestId);
+    if (future != null) {
+      future.complete(response);
+    }
+  }
+
+  private void failRequest(int requestId, String reason) {
+    CompletableFuture<String> future = myPendingRequests.get(requestId);
+    if (future != null) {
+      future.completeExceptionally(new IOException(reason));
+    }
+  }
+
+  private void processRequest(int requestId, List<String> request) {
+    String result = null;
+    try {
+      if (myHandler != null && request.size() >= 2) {
+        result = myHandler.process(request.get(0), request.get(1), request.subList(2, request.size()));
+      }
+    }
+    catch (Throwable e) {
+      LOG.info(e.getMessage(), e);
+    }
+
+    if (myClosed) return;
+    if (result == null) {
+      myOutgoing.add(new Frame(requestId, ERROR, new byte[0]));
+      return;
+    }
+    byte[] payload = encodeStrings(Collections.singletonList(result));
+    if (payload.length > MAX_FRAME_LENGTH) {
+      // the caller falls back to XML-RPC
+      LOG.info("Response of " + payload.length + " bytes is too large for " + mySocket.getRemoteSocketAddress());
+      myOutgoing.add(new Frame(requestId, REJECTED, new byte[0]));
+      return;
+    }
+    myOutgoing.add(createFrame(requestId, RESPONSE, payload));
+  }
+
+  private void writeFrames(DataOutputStream out) {
+    List<Frame> batch = new ArrayList<>();
+    try {
+      while (!myClosed) {
+        batch.add(myOutgoing.take());
+        myOutgoing.drainTo(batch, MAX_BATCH);
+        for (Frame frame : batch) {
+          if (frame == CLOSE) return;
+          out.writeInt(frame.myRequestId);
+          out.writeByte(frame.myFlags);
+          out.writeInt(frame.myPayload.length);
+          out.write(frame.myPayload);
+        }
+        out.flush();
+        batch.clear();
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    catch (IOException e) {
+      if (!myClosed) {
+        LOG.info("Cannot write to " + mySocket.getRemoteSocketAddress() + ": " + e.getMessage());
+      }
+    }
+    finally {
+      close();
+    }
+  }
+
+  static Frame createFrame(int requestId, byte type, byte[] payload) {
+    if (payload.length > COMPRESSION_THRESHOLD) {
+      byte[] compressed = deflate(payload);
+      if (compressed.length < payload.length) {
+        return new Frame(requestId, (byte)(type | COMPRESSED), compressed);
+      }
+    }
+    return new Frame(requestId, type, payload);
+  }
+
+  static byte[] encodeRequest(String xmlRpcId, String method, List<String> parameters) {
+    List<String> strings = new ArrayList<>(parameters.size() + 2);
+    strings.add(xmlRpcId);
+    strings.add(method);
+    strings.addAll(parameters);
+    return encodeStrings(strings);
+  }
+
+  static byte[] encodeStrings(List<String> strings) {
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(strings.size());
+      for (String s : strings) {
+        byte[] b = s.getBytes(CharsetToolkit.UTF8_CHARSET);
+        out.writeInt(b.length);
+        out.write(b);
+      }
+      out.close();
+      return bytes.toByteArray();
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static List<String> decodeStrings(byte[] payload) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    int count = in.readInt();
+    if (count < 0 || count > payload.length) throw new IOException("Invalid frame");
+    List<String> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      int length = in.readInt();
+      if (length < 0 || length > payload.length) throw new IOException("Invalid frame");
+      byte[] b = new byte[length];
+      in.readFully(b);
+      result.add(new String(b, CharsetToolkit.UTF8_CHARSET));
+    }
+    return result;
+  }
+
+  static byte[] deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 16);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(buffer);
+        out.write(buffer, 0, n);
+      }
+      ByteArrayOutputStream result = new ByteArrayOutputStream(out.size() + 4);
+      new DataOutputStream(result).writeInt(data.length);
+      out.writeTo(result);
+      return result.toByteArray();
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    finally {
+      deflater.end();
+    }
+  }
+
+  static byte[] inflate(byte[] data) throws IOException {
+    int length = new DataInputStream(new ByteArrayInputStream(data)).readInt();
+    if (length < 0 || length > MAX_FRAME_LENGTH) throw new IOException("Invalid compressed frame length " + length);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, 4, data.length - 4);
+      byte[] result = new byte[length];
+      int offset = 0;
+      while (offset < length) {
+        int n = inflater.inflate(result, offset, length - offset);
+        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+          throw new IOException("Truncated compressed frame");
+        }
+        offset += n;
+      }
+      return result;
+    }
+    catch (DataFormatException e) {
+      throw new IOException(e.getMessage());
+    }
+    finally {
+      inflater.end();
+    }
+  }
+
+  static class Frame {
+    private final int myRequestId;
+    private final byte myFlags;
+    private final byte[] myPayload;
+
+    Frame(int requestId, byte flags, byte[] payload) {
+      myRequestId = requestId;
+      myFlags = flags;
+      myPayload = payload;
+    }
+
+    boolean isCompressed() {
+      return (myFlags & COMPRESSED) != 0;
+    }
+
+    int getLength() {
+      return myPayload.length;
+    }
+  }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent {@link P2PChannel} connections to other IDEtalk instances: accepts incoming connections on its own port
+ * and keeps one outgoing connection per peer. Incoming requests are passed to the same handlers as XML-RPC calls.
+ * <p/>
+ * Peers which don't accept channel connections (e.g. older IDEtalk versions) are remembered for {@link #RETRY_INTERVAL}
+ * milliseconds, the caller should use XML-RPC for them meanwhile.
+ */
+public class P2PChannels {
+  @NonNls
+  private static final Logger LOG = Logger.getLogger(P2PChannels.class);
+
+  static final long CALL_TIMEOUT = 60 * 1000;
+  static final long RETRY_INTERVAL = 60 * 1000;
+  private static final int CONNECT_TIMEOUT = 2000;
+  private static final int MAX_REQUEST_THREADS = 8;
+  private static final int MAX_QUEUED_REQUESTS = 256;
+
+  private final Map<String, Object> myHandlers;
+  private final int myPort;
+  private final ExecutorService myRequestExecutor;
+  private final P2PChannel.RequestHandler myRequestHandler = this::processRequest;
+
+  private final Object myLock = new Object();
+  private final Map<InetSocketAddress, P2PChannel> myOutgoingChannels = new HashMap<>();
+  private final Map<InetSocketAddress, Long> myUnavailablePeers = new HashMap<>();
+  private final Set<P2PChannel> myIncomingChannels = new HashSet<>();
+  private ServerSocket myServerSocket;
+  private boolean myStarted;
+
+  /**
+   * @param handlers XML-RPC handlers by their ids
+   * @param port     port to accept connections on, 0 to pick any free port
+   */
+  public P2PChannels(Map<String, Object> handlers, int port) {
+    myHandlers = handlers;
+    myPort = port;
+
+    // bounded, as any peer may connect; requests beyond the queue are rejected and answered with an error
+    final AtomicInteger threadCount = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_REQUEST_THREADS, MAX_REQUEST_THREADS, 60, TimeUnit.SECONDS,
+                                                         new ArrayBlockingQueue<>(MAX_QUEUED_REQUESTS), r -> {
+      Thread thread = new Thread(r, "IDEtalk channel request " + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.AbortPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    myRequestExecutor = executor;
+  }
+
+  public void start() {
+    synchronized (myLock) {
+      if (myStarted) return;
+      myStarted = true;
+      try {
+        myServerSocket = new ServerSocket();
+        myServerSocket.setReuseAddress(true);
+        myServerSocket.bind(new InetSocketAddress(myPort));
+      }
+      catch (IOException e) {
+        LOG.info("Cannot accept IDEtalk connections on port " + myPort + ", XML-RPC will be used: " + e.getMessage());
+        myServerSocket = null;
+        return;
+      }
+
+      final ServerSocket serverSocket = myServerSocket;
+      Thread acceptor = new Thread(() -> acceptConnections(serverSocket), "IDEtalk channel server");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+  }
+
+  public void stop() {
+    List<P2PChannel> channels = new ArrayList<>();
+    synchronized (myLock) {
+      myStarted = false;
+      if (myServerSocket != null) {
+        try {
+          myServerSocket.close();
+        }
+        catch (IOException e) {
+          LOG.debug(e.getMessage(), e);
+        }
+        myServerSocket = null;
+      }
+      channels.addAll(myOutgoingChannels.values());
+      channels.addAll(myIncomingChannels);
+      myOutgoingChannels.clear();
+      myIncomingChannels.clear();
+      myUnavailablePeers.clear();
+    }
+    for (P2PChannel channel : channels) {
+      channel.close();
+    }
+  }
+
+  /**
+   * @return port the channel connections are accepted on, -1 if the server is not running
+   */
+  public int getLocalPort() {
+    synchronized (myLock) {
+      return myServerSocket == null ? -1 : myServerSocket.getLocalPort();
+    }
+  }
+
+  /**
+   * @return an open connection to the peer, null if the peer doesn't accept channel connections
+   */
+  @Nullable
+  P2PChannel getChannel(InetAddress address, int port) {
+    InetSocketAddress peer = new InetSocketAddress(address, port);
+    synchronized (myLock) {
+      if (!myStarted) return null;
+
+      P2PChannel channel = myOutgoingChannels.get(peer);
+      if (channel != null && !channel.isClosed()) return channel;
+
+      Long retryTime = myUnavailablePeers.get(peer);
+      if (retryTime != null && retryTime > System.currentTimeMillis()) return null;
+    }
+
+    P2PChannel channel = connect(peer);
+    synchronized (myLock) {
+      if (channel == null) {
+        myUnavailablePeers.put(peer, System.currentTimeMillis() + RETRY_INTERVAL);
+        return null;
+      }
+      myUnavailablePeers.remove(peer);
+
+      P2PChannel existing = myOutgoingChannels.get(peer);
+      if (!myStarted || existing != null && !existing.isClosed()) {
+        // stopped or connected concurrently
+        channel.close();
+        return myStarted ? existing : null;
+      }
+      myOutgoingChannels.put(peer, channel);
+      return channel;
+    }
+  }
+
+  @Nullable
+  private P2PChannel connect(InetSocketAddress peer) {
+    Socket socket = new Socket();
+    try {
+      socket.connect(peer, CONNECT_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(P2PChannel.MAGIC);
+      out.flush();
+
+      P2PChannel channel = new P2PChannel(socket, myRequestHandler, myRequestExecutor);
+      channel.start("IDEtalk channel to " + peer);
+      return channel;
+    }
+    catch (IOException e) {
+      LOG.debug("Cannot connect to " + peer + ": " + e.getMessage());
+      try {
+        socket.close();
+      }
+      catch (IOException ignored) {
+      }
+      return null;
+    }
+  }
+
+  private void acceptConnections(ServerSocket serverSocket) {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      }
+      catch (IOException e) {
+        if (!serverSocket.isClosed()) {
+          LOG.info(e.getMessage(), e);
+        }
+        return;
+      }
+
+      try {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(CONNECT_TIMEOUT);
+        if (new DataInputStream(socket.getInputStream()).readInt() != P2PChannel.MAGIC) {
+          throw new IOException("Not an IDEtalk connection");
+        }
+        socket.setSoTimeout(0);
+
+        P2PChannel channel = new P2PChannel(socket, myRequestHandler, myRequestExecutor);
+        synchronized (myLock) {
+          if (!myStarted) {
+            channel.close();
+            return;
+          }
+          for (Iterator<P2PChannel> it = myIncomingChannels.iterator(); it.hasNext(); ) {
+            if (it.next().isClosed()) it.remove();
+          }
+          myIncomingChannels.add(channel);
+        }
+        channel.start("IDEtalk channel from " + socket.getRemoteSocketAddress());
+      }
+      catch (IOException e) {
+        LOG.info("Rejected connection from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+        try {
+          socket.close();
+        }
+        catch (IOException ignored) {
+        }
+      }
+    }
+  }
+
+  @Nullable
+  private String processRequest(String xmlRpcId, String methodName, List<String> parameters) {
+    Object handler = myHandlers.get(xmlRpcId);
+    if (handler == null) {
+      LOG.info("No handler for " + xmlRpcId);
+      return null;
+    }
+
+    Method method = findMethod(handler.getClass(), methodName, parameters.size());
+    if (method == null) {
+      LOG.info("No method " + xmlRpcId + '.' + methodName + " with " + parameters.size() + " string parameters");
+      return null;
+    }
+
+    try {
+      Object result = method.invoke(handler, parameters.toArray());
+      return result == null ? null : result.toString();
+    }
+    catch (IllegalAccessException e) {
+      LOG.info(e.getMessage(), e);
+    }
+    catch (InvocationTargetException e) {
+      LOG.info(e.getCause().getMessage(), e.getCause());
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Method findMethod(Class<?> handlerClass, String name, int parameterCount) {
+    for (Method method : handlerClass.getMethods()) {
+      if (method.getName().equals(name) && method.getParameterTypes().length == parameterCount) {
+        boolean allStrings = true;
+        for (Class<?> type : method.getParameterTypes()) {
+          allStrings &= type == String.class;
+        }
+        if (allStrings) return method;
+      }
+    }
+    return null;
+  }
+}
@@ -54,6 +54,7 @@ import org.picocontainer.Disposable;
 import org.picocontainer.MutablePicoContainer;
 
 import javax.swing.*;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.*;
 
@@ -66,8 +67,10 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
   static final String CODE = "P2P";
 
   static final int XML_RPC_PORT = MulticastPingThread.MULTICAST_PORT + 1;
+  static final int CHANNEL_PORT_SHIFT = 1;
 
   private final UserMonitorThread myUserMonitorThread;
+  private final P2PChannels myChannels;
 
   private final Object myLock = new Object();
   private final Map<User, OnlineUserInfo> myUserToInfo = new THashMap<>();
@@ -111,6 +114,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }) {
       handlers.put(command.getXmlRpcId(), command);
     }
+    myChannels = new P2PChannels(handlers, XML_RPC_PORT + CHANNEL_PORT_SHIFT);
 
     startup();
 
@@ -172,6 +176,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
 
   private void doStart() {
     BuiltInServerManager.getInstance().waitForStart();
+    myChannels.start();
     myUserMonitorThread.start();
     myUserMonitorThread.triggerFindNow();
     new WaitFor() {
@@ -193,6 +198,7 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     try {
       myEventBroadcaster.removeListener(myUserAddedCallbackListener);
       myUserMonitorThread.shutdown();
+      myChannels.stop();
     }
     catch (Throwable e) {
       LOG.info(e);
@@ -331,6 +337,27 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
     }
   }
 
+  /**
+   * Calls the XML-RPC handler of the remote IDEtalk instance, through the persistent channel connection if the
+   * peer accepts it, otherwise or if the call can't be completed over the channel with a plain XML-RPC call.
+   *
+   * @param port XML-RPC port of the peer, the channel port is derived from it
+   * @return the result of the call, null if the call failed
+   */
+  @Nullable
+  public Object sendMessage(InetAddress address, int port, String xmlRpcId, String method, List<String> parameters) {
+    P2PChannel channel = myChannels.getChannel(address, port + CHANNEL_PORT_SHIFT);
+    if (channel != null) {
+      try {
+        return channel.call(xmlRpcId, method, parameters, P2PChannels.CALL_TIMEOUT);
+      }
+      catch (IOException e) {
+        LOG.info("Calling " + xmlRpcId + '.' + method + " through XML-RPC: " + e.getMessage());
+      }
+    }
+    return NetworkUtil.sendMessage(new XmlRpcTargetImpl(port, address), xmlRpcId, method, ArrayUtil.toObjectArray(parameters));
+  }
+
   @Override
   public UserPresence getOwnPresence() {
     return myOwnPresence;
@@ -404,11 +431,11 @@ public class P2PTransport implements Transport, UserMonitorClient, Disposable {
 
   @Override
   public User createUser(String remoteUsername, @NotNull OnlineUserInfo onlineUserInfo) {
+    User user = myUserModel.createUser(remoteUsername, CODE);
     synchronized (myLock) {
-      User user = myUserModel.createUser(remoteUsername, CODE);
       myUserToInfoNew.put(user, onlineUserInfo);
-      return user;
     }
+    return user;
   }
 
   void flushCurrentUsers() {
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Allows an action for the same key at most once per interval. Used to limit announcements sent to other
+ * IDEtalk instances, so that a burst of requests on a big network segment doesn't turn into a burst of replies.
+ */
+class RateLimiter {
+  private static final int CLEANUP_THRESHOLD = 4096;
+
+  private final long myInterval;
+  private final ConcurrentMap<String, Long> myLastTimes = new ConcurrentHashMap<>();
+
+  RateLimiter(long interval) {
+    myInterval = interval;
+  }
+
+  boolean tryAcquire(String key) {
+    return tryAcquire(key, System.currentTimeMillis());
+  }
+
+  boolean tryAcquire(String key, long now) {
+    if (myLastTimes.size() > CLEANUP_THRESHOLD) {
+      myLastTimes.values().removeIf(time -> now - time >= myInterval);
+    }
+
+    Long last = myLastTimes.get(key);
+    while (true) {
+      if (last == null) {
+        last = myLastTimes.putIfAbsent(key, now);
+        if (last == null) return true;
+      }
+      else if (now - last < myInterval) {
+        return false;
+      }
+      else if (myLastTimes.replace(key, last, now)) {
+        return true;
+      }
+      else {
+        last = myLastTimes.get(key);
+      }
+    }
+  }
+}
@@ -30,12 +30,20 @@ import java.net.InetAddress;
 import java.net.NoRouteToHostException;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Kir Maximov
  *         <p/>
  *         This thread periodically scans the local network via multicast
  *         request and passes obtained users to UserMonitorClient
+ *         <p/>
+ *         Between the scans every instance multicasts a short heartbeat with the hash of its state (user name,
+ *         projects and presence). Known peers are kept alive by heartbeats and expire after
+ *         {@link #MISSED_HEARTBEATS} missed ones, peers with a changed or unknown state are asked for their info
+ *         with a unicast ping. Peers which don't send heartbeats (older versions) have to reply to every scan.
  */
 @SuppressWarnings({"HardCodedStringLiteral"})
 public class UserMonitorThread extends Thread {
@@ -45,15 +53,28 @@ public class UserMonitorThread extends Thread {
   static final String SCAN_TIMEOUT_PROPERTY = "ideTalk.scanTimeout";
   static final long TIMEOUT_BETWEEN_SCANS = 3 * Time.MINUTE;
 
+  static final long HEARTBEAT_INTERVAL = 30 * Time.SECOND;
+  static final int MISSED_HEARTBEATS = 3;
+  /**
+   * How often own state is checked for changes, it is also the minimal interval between info requests to a peer.
+   */
+  static final long HEARTBEAT_CHECK_INTERVAL = 5 * Time.SECOND;
+
   private final MulticastPingThread[] myMulticastThreads;
   private final UserMonitorClient myClient;
   private final long myWaitUserResponsesTimeout;
   private final long myScansTimeout;
+  private final long myHeartbeatInterval;
+  private final long myHeartbeatCheckInterval;
 
-  private final Set<User> myAvailableUsers = Collections.synchronizedSet(new THashSet<User>());
+  private final ConcurrentMap<String, Peer> myPeers = new ConcurrentHashMap<>();
+  private final AtomicBoolean myPeersChanged = new AtomicBoolean();
+  private final RateLimiter myInfoRequestLimiter;
 
   private Thread myThread;
   private long myStartFindingAt;
+  private long myNextScanAt;
+  private long myLastHeartbeatAt;
 
   private final Object myLock = new Object();
 
@@ -62,6 +83,11 @@ public class UserMonitorThread extends Thread {
   }
 
   UserMonitorThread(MulticastPingThread[] multicastPingThread, UserMonitorClient client, long waitUserResponsesTimeout) {
+    this(multicastPingThread, client, waitUserResponsesTimeout, HEARTBEAT_INTERVAL);
+  }
+
+  UserMonitorThread(MulticastPingThread[] multicastPingThread, UserMonitorClient client, long waitUserResponsesTimeout,
+                    long heartbeatInterval) {
     super("User Monitor Thread");
 
     setDaemon(true);
@@ -69,6 +95,9 @@ public class UserMonitorThread extends Thread {
     myClient = client;
     myMulticastThreads = multicastPingThread;
     myWaitUserResponsesTimeout = waitUserResponsesTimeout;
+    myHeartbeatInterval = heartbeatInterval;
+    myHeartbeatCheckInterval = Math.min(HEARTBEAT_CHECK_INTERVAL, heartbeatInterval);
+    myInfoRequestLimiter = new RateLimiter(myHeartbeatCheckInterval);
 
     String timeout = System.getProperty(SCAN_TIMEOUT_PROPERTY);
 
@@ -84,6 +113,10 @@ public class UserMonitorThread extends Thread {
         throw e;
       }
     }
+
+    for (MulticastPingThread multicastThread : myMulticastThreads) {
+      multicastThread.setMonitor(this);
+    }
   }
 
   private static MulticastPingThread[] createMulticastThreads(P2PTransport client) {
@@ -123,15 +156,24 @@ public class UserMonitorThread extends Thread {
 
     startupMulticastThreads();
 
+    synchronized (myLock) {
+      myNextScanAt = System.currentTimeMillis() + myScansTimeout;
+    }
     myThread = Thread.currentThread();
 
     while (isRunning()) {
       try {
-        waitForNextSearch();
+        if (!waitForNextSearch()) {
+          if (isRunning()) {
+            sendHeartbeats();
+            checkPeers();
+          }
+          continue;
+        }
 
-        if (!isRunning()) return;
+        long scanStart;
         synchronized (myLock) {
-          myStartFindingAt = System.currentTimeMillis();
+          scanStart = myStartFindingAt;
           LOG.debug("Start finding users ");
         }
 
@@ -141,11 +183,12 @@ public class UserMonitorThread extends Thread {
           //noinspection BusyWait
           Thread.sleep(myWaitUserResponsesTimeout);
 
-          flushOnlineUsers();
+          flushOnlineUsers(scanStart);
         }
         finally {
           synchronized (myLock) {
             myStartFindingAt = 0;
+            myNextScanAt = System.currentTimeMillis() + myScansTimeout;
             LOG.debug("Done finding users. Timeout for " + myScansTimeout);
           }
         }
@@ -180,6 +223,17 @@ public class UserMonitorThread extends Thread {
     }
   }
 
+  private void sendHeartbeats() {
+    long now = System.currentTimeMillis();
+    boolean resend = now - myLastHeartbeatAt >= myHeartbeatInterval;
+    if (resend) {
+      myLastHeartbeatAt = now;
+    }
+    for (MulticastPingThread thread : getListeningThreads()) {
+      thread.sendHeartbeat(resend);
+    }
+  }
+
   private List<MulticastPingThread> getListeningThreads() {
     List<MulticastPingThread> result = new ArrayList<>();
     for (MulticastPingThread multicastThread : myMulticastThreads) {
@@ -193,7 +247,6 @@ public class UserMonitorThread extends Thread {
   private void startFindingUsers() {
     synchronized (myLock) {
       myStartFindingAt = System.currentTimeMillis();
-      myAvailableUsers.clear();
     }
   }
 
@@ -212,20 +265,28 @@ public class UserMonitorThread extends Thread {
     };
   }
 
-  private void waitForNextSearch() {
-    try {
-      synchronized (myLock) {
-        while (isRunning() && !isFinding()) {
-          myLock.wait(myScansTimeout);
+  /**
+   * @return true if it is time to search for users, false if only heartbeats should be checked
+   */
+  private boolean waitForNextSearch() throws InterruptedException {
+    synchronized (myLock) {
+      if (isRunning() && !isFinding()) {
+        long timeout = myNextScanAt - System.currentTimeMillis();
+        if (timeout > 0) {
+          myLock.wait(Math.min(timeout, myHeartbeatCheckInterval));
+        }
+        if (!isFinding() && System.currentTimeMillis() >= myNextScanAt) {
           startFindingUsers();
         }
       }
-    }
-    catch (InterruptedException ignored) {
-      myThread = null;
+      return isFinding();
     }
   }
 
+  /**
+   * Called for every response to a ping, possibly by many threads at once. Only the peer table is updated here,
+   * the client is notified about the changes later from the monitor thread.
+   */
   public void addOnlineUser(String remoteAddress, String remoteUsername, Integer remotePort, Collection<String> projects, UserPresence presence) {
     try {
       if (LOG.isDebugEnabled()) {
@@ -233,7 +294,14 @@ public class UserMonitorThread extends Thread {
       }
       OnlineUserInfo onlineUserInfo = new OnlineUserInfo(InetAddress.getByName(remoteAddress), remotePort.intValue(), projects, presence);
       if (!onlineUserInfo.getAddress().isLoopbackAddress() || Pico.isUnitTest()) {
-        myAvailableUsers.add(myClient.createUser(remoteUsername, onlineUserInfo));
+        Peer peer = new Peer(remoteUsername, onlineUserInfo);
+        Peer old = myPeers.put(getKey(onlineUserInfo.getAddress(), onlineUserInfo.getPort()), peer);
+        if (old != null) {
+          peer.mySendsHeartbeats = old.mySendsHeartbeats;
+        }
+        if (old == null || old.myStateHash != peer.myStateHash || !old.myUserName.equals(peer.myUserName)) {
+          myPeersChanged.set(true);
+        }
       }
     }
     catch (UnknownHostException ignored) {
@@ -241,6 +309,20 @@ public class UserMonitorThread extends Thread {
     }
   }
 
+  /**
+   * @return true if the peer info is unknown or outdated and should be requested
+   */
+  boolean processHeartbeat(InetAddress address, int port, int stateHash) {
+    String key = getKey(address, port);
+    Peer peer = myPeers.get(key);
+    if (peer != null && peer.myStateHash == stateHash) {
+      peer.myLastSeen = System.currentTimeMillis();
+      peer.mySendsHeartbeats = true;
+      return false;
+    }
+    return myInfoRequestLimiter.tryAcquire(key);
+  }
+
   boolean isFinding() {
     synchronized(myLock) {
       return isRunning() && myStartFindingAt > 0;
@@ -248,9 +330,19 @@ public class UserMonitorThread extends Thread {
   }
 
   void flushOnlineUsers() {
-    Set<User> users;
-    synchronized (myAvailableUsers) {
-      users = new THashSet<>(myAvailableUsers);
+    flushOnlineUsers(0);
+  }
+
+  /**
+   * @param scanStart peers without heartbeats which were not heard of since this time are considered offline
+   */
+  void flushOnlineUsers(long scanStart) {
+    expirePeers(scanStart);
+    myPeersChanged.set(false);
+
+    Set<User> users = new THashSet<>();
+    for (Peer peer : myPeers.values()) {
+      users.add(myClient.createUser(peer.myUserName, peer.myInfo));
     }
     if (LOG.isDebugEnabled()) {
       LOG.debug("Setting online users: \n" + Arrays.toString(users.toArray()));
@@ -258,6 +350,24 @@ public class UserMonitorThread extends Thread {
     myClient.setOnlineUsers(users);
   }
 
+  private void checkPeers() {
+    expirePeers(0);
+    if (myPeersChanged.get()) {
+      flushOnlineUsers();
+    }
+  }
+
+  private void expirePeers(long scanStart) {
+    long heartbeatDeadline = System.currentTimeMillis() - myHeartbeatInterval * MISSED_HEARTBEATS;
+    for (Map.Entry<String, Peer> entry : myPeers.entrySet()) {
+      Peer peer = entry.getValue();
+      if (peer.myLastSeen < (peer.mySendsHeartbeats ? heartbeatDeadline : scanStart) && myPeers.remove(entry.getKey(), peer)) {
+        LOG.debug("Peer expired: " + peer.myUserName + " at " + entry.getKey());
+        myPeersChanged.set(true);
+      }
+    }
+  }
+
   public long getWaitUserResponsesTimeout() {
     return myWaitUserResponsesTimeout;
   }
@@ -297,7 +407,7 @@ public class UserMonitorThread extends Thread {
   }
 
   private void setIndicatorText(ProgressIndicator progressIndicator) {
-    int size = myAvailableUsers.size();
+    int size = myPeers.size();
     progressIndicator.setText(StringUtil.getMsg("p2p.finder.progressText", String.valueOf(size), StringUtil.getText("user", size)));
   }
 
@@ -307,4 +417,30 @@ public class UserMonitorThread extends Thread {
     }
     return super.isAlive();
   }
+
+  /**
+   * Hash of the information a peer sends about itself in reply to a ping, it is compared with the hash from
+   * the peer's heartbeats to find out whether the info has changed.
+   */
+  static int getStateHash(String userName, Collection<String> projects, UserPresence presence) {
+    return (userName + '\n' + projects + '\n' + presence.getPresenceMode()).hashCode();
+  }
+
+  private static String getKey(InetAddress address, int port) {
+    return address.getHostAddress() + ':' + port;
+  }
+
+  private static class Peer {
+    private final String myUserName;
+    private final OnlineUserInfo myInfo;
+    private final int myStateHash;
+    private volatile long myLastSeen = System.currentTimeMillis();
+    private volatile boolean mySendsHeartbeats;
+
+    Peer(String userName, OnlineUserInfo info) {
+      myUserName = userName;
+      myInfo = info;
+      myStateHash = getStateHash(userName, info.getProjects(), info.getPresence());
+    }
+  }
 }
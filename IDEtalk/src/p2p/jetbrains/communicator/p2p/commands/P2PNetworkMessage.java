@@ -18,9 +18,7 @@ package jetbrains.communicator.p2p.commands;
 import com.intellij.util.ArrayUtil;
 import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.users.User;
-import jetbrains.communicator.p2p.NetworkUtil;
 import jetbrains.communicator.p2p.P2PTransport;
-import jetbrains.communicator.p2p.XmlRpcTargetImpl;
 import jetbrains.communicator.util.StringUtil;
 
 import java.util.ArrayList;
@@ -50,11 +48,11 @@ public class P2PNetworkMessage implements Message {
       return false;
     }
     
-    XmlRpcTargetImpl target = new XmlRpcTargetImpl(port, P2PTransport.getInstance().getAddress(user));
+    P2PTransport transport = P2PTransport.getInstance();
     List<String> parameters = new ArrayList<>();
     parameters.add(StringUtil.toXMLSafeString(StringUtil.getMyUsername()));
     parameters.addAll(myCommandParameters);
-    setResponse(NetworkUtil.sendMessage(target, myCommandId, myCommand, ArrayUtil.toObjectArray(parameters)));
+    setResponse(transport.sendMessage(transport.getAddress(user), port, myCommandId, myCommand, parameters));
     return null != myResponse;
   }
 
@@ -23,6 +23,8 @@ import jetbrains.communicator.mock.MockMessage;
 import jetbrains.communicator.mock.MockUser;
 import jetbrains.communicator.p2p.commands.P2PNetworkMessage;
 
+import java.io.File;
+
 /**
  * @author kir
  */
@@ -146,4 +148,42 @@ public class AbstractMessageDispatcherTest extends BaseTestCase {
     dispatcher.dispose();
   }
 
-}
\ No newline at end of file
+  public void testPersistencyWithoutSave() {
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo1", new String[]{"1"}));
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo2", new String[]{"2"}));
+    myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo3", new String[]{"3"}));
+    myDispatcher.removePendingMessage(myUser, 1);
+
+    assertTrue("changes should be logged", getLogFile().exists());
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    Message[] messages = dispatcher.getPendingMessages(myUser);
+    assertEquals("log should be replayed", 2, messages.length);
+    assertEquals("1", ((P2PNetworkMessage) messages[0]).getParameters()[0]);
+    assertEquals("3", ((P2PNetworkMessage) messages[1]).getParameters()[0]);
+    assertFalse("log should be compacted on load", getLogFile().exists());
+
+    dispatcher.dispose();
+  }
+
+  public void testLogCompaction() {
+    for (int i = 0; i < MessageOutbox.COMPACTION_THRESHOLD; i++) {
+      myDispatcher.addPendingMessage(myUser, new P2PNetworkMessage("foo", "foo", new String[]{String.valueOf(i)}));
+    }
+    assertFalse("log should be compacted", getLogFile().exists());
+
+    myDispatcher.removePendingMessage(myUser, 0);
+    assertTrue(getLogFile().exists());
+
+    AbstractMessageDispatcher dispatcher = createDispatcher();
+    Message[] messages = dispatcher.getPendingMessages(myUser);
+    assertEquals(MessageOutbox.COMPACTION_THRESHOLD - 1, messages.length);
+    assertEquals("1", ((P2PNetworkMessage) messages[0]).getParameters()[0]);
+
+    dispatcher.dispose();
+  }
+
+  private File getLogFile() {
+    return new File(myIdeFacade.getCacheDir(), "test.xml.log");
+  }
+}
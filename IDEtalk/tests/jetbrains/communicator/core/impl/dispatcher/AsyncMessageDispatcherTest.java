@@ -122,7 +122,15 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     mockMessage.waitUntilDispatchingStarted();
     myDispatcher.sendLater(user2, new MockMessage(true));
 
-    assertEquals("Messages not delivered yet", 2,
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getPendingMessages(user2).length == 0;
+      }
+    };
+    assertEquals("Slow delivery to user1 should not block delivery to user2", 0,
+        myDispatcher.getPendingMessages(user2).length);
+    assertEquals("Message to user1 not delivered yet", 1,
         myDispatcher.getUsersWithMessages().length);
 
     triggerMessageProcessing(mockMessage);
@@ -137,6 +145,27 @@ public class AsyncMessageDispatcherTest extends BaseTestCase {
     assertEquals("All messages should be delivered", 0, myDispatcher.getUsersWithMessages().length);
   }
 
+  public void testMessagesOfOneUserAreSentInOrder() {
+    NotifyableMessage first = new NotifyableMessage(true, myLog);
+    MockMessage second = new MockMessage(true);
+
+    myDispatcher.sendLater(myUser, first);
+    first.waitUntilDispatchingStarted();
+    myDispatcher.sendLater(myUser, second);
+
+    assertEquals("Second message should wait for the first one", "", second.getLog());
+    triggerMessageProcessing(first);
+
+    new WaitFor(1000) {
+      @Override
+      protected boolean condition() {
+        return myDispatcher.getUsersWithMessages().length == 0;
+      }
+    };
+    assertEquals("sent to " + myUser + ":success", second.getLog());
+    assertEquals(0, myDispatcher.getUsersWithMessages().length);
+  }
+
   private static class NotifyableMessage extends MockMessage {
     private boolean myDispatchingStarted;
     private boolean myProcessed;
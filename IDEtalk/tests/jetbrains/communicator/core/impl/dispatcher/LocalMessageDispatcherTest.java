@@ -15,6 +15,7 @@
  */
 package jetbrains.communicator.core.impl.dispatcher;
 
+import com.intellij.openapi.util.io.FileUtil;
 import jetbrains.communicator.core.dispatcher.LocalMessage;
 import jetbrains.communicator.core.dispatcher.Message;
 import jetbrains.communicator.core.impl.BaseTestCase;
@@ -31,6 +32,7 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Date;
 
 /**
@@ -252,6 +254,72 @@ public class LocalMessageDispatcherTest extends BaseTestCase {
     assertEquals(2, messages.length);
   }
 
+  public void testHistorySaveAppendsNewMessagesOnly() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "first"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    File[] files = new File(myIdeFacade.getCacheDir(), "history").listFiles();
+    assertEquals(1, files.length);
+    byte[] savedBefore = FileUtil.loadFileBytes(files[0]);
+
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "second"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    byte[] savedAfter = FileUtil.loadFileBytes(files[0]);
+    assertTrue(savedAfter.length > savedBefore.length);
+    for (int i = 0; i < savedBefore.length; i++) {
+      assertEquals("Saved records should not be rewritten", savedBefore[i], savedAfter[i]);
+    }
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("second", ((MockMessage) messages[1]).getMessage());
+  }
+
+  public void testIncompleteJournalRecordIsDropped() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "saved"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    File journal = new File(myIdeFacade.getCacheDir(), "history").listFiles()[0];
+    FileOutputStream out = new FileOutputStream(journal, true);
+    try {
+      out.write(new byte[]{0, 0, 1, 2, 3});
+    }
+    finally {
+      out.close();
+    }
+
+    LocalMessageDispatcherImpl localMessageDispatcher = createLocalMessageDispatcher();
+    assertEquals(1, localMessageDispatcher.getHistory(myUser, null).length);
+    localMessageDispatcher.sendNow(myUser, new MockMessage(new Date(), "next"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("next", ((MockMessage) messages[1]).getMessage());
+  }
+
+  public void testFailedSaveKeepsMessages() throws Exception {
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "saved"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    // a directory in place of the journal makes the next save fail
+    File journal = new File(myIdeFacade.getCacheDir(), "history").listFiles()[0];
+    assertTrue(journal.delete());
+    assertTrue(journal.mkdir());
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "failed"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    assertTrue(journal.delete());
+    myDispatcher.sendNow(myUser, new MockMessage(new Date(), "retried"));
+    Thread.sleep(SAVE_WAIT_TIMEOUT);
+
+    LocalMessage[] messages = createLocalMessageDispatcher().getHistory(myUser, null);
+    assertEquals(2, messages.length);
+    assertEquals("failed", ((MockMessage) messages[0]).getMessage());
+    assertEquals("retried", ((MockMessage) messages[1]).getMessage());
+  }
+
   private Date yesterday() {
     return new Date(System.currentTimeMillis() - 1000 * 3600 * 24);
   }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.core.vfs;
+
+import junit.framework.TestCase;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.XMLOutputter;
+
+import java.io.StringReader;
+
+public class ContentDeltaTest extends TestCase {
+  private static final String BASE = createText(200 * 1024, 0);
+
+  public void testUnchanged() throws Exception {
+    Element delta = doTest(BASE, BASE);
+    assertTrue("Unchanged file should not be sent: " + delta.getChildren().size(), delta.getChildren().isEmpty());
+  }
+
+  public void testInsertionInTheMiddle() throws Exception {
+    String text = BASE.substring(0, 100000) + "inserted \u0441\u043e\u0434\u0435\u0440 <&>\r\n\u0000" + BASE.substring(100000);
+    assertSmallDelta(doTest(BASE, text));
+  }
+
+  public void testDeletionAndEdits() throws Exception {
+    StringBuilder text = new StringBuilder(BASE);
+    text.delete(50000, 53000);
+    text.replace(10, 20, "changed");
+    text.insert(text.length() - 3, "at the end");
+    assertSmallDelta(doTest(BASE, text.toString()));
+  }
+
+  public void testAppendAndTruncate() throws Exception {
+    assertSmallDelta(doTest(BASE, BASE + "appended line\n"));
+    assertSmallDelta(doTest(BASE, BASE.substring(0, BASE.length() - 1000)));
+    assertSmallDelta(doTest(BASE, "prepended line\n" + BASE));
+  }
+
+  public void testCompletelyDifferent() throws Exception {
+    String text = createText(10000, 1);
+    Element delta = doTest(BASE, text);
+    assertTrue(delta.getChildren().size() <= 2);
+  }
+
+  public void testSmallBaseIsNotUsed() {
+    assertNull(ContentDelta.createBaseElement("short text"));
+    assertNull(ContentDelta.createBaseElement(null));
+  }
+
+  public void testWrongBaseIsDetected() throws Exception {
+    String text = BASE.substring(0, 100000) + "inserted" + BASE.substring(100000);
+    Element delta = ContentDelta.createDeltaElement(ContentDelta.createBaseElement(BASE), text);
+
+    String otherBase = BASE.substring(0, 5000) + 'x' + BASE.substring(5001);
+    assertNull(ContentDelta.applyDelta(otherBase, roundTrip(delta)));
+  }
+
+  public void testWrongLengthIsRejected() throws Exception {
+    String text = BASE.substring(0, 100000) + "inserted" + BASE.substring(100000);
+    Element delta = roundTrip(ContentDelta.createDeltaElement(ContentDelta.createBaseElement(BASE), text));
+
+    delta.setAttribute("length", String.valueOf(Integer.MAX_VALUE));
+    assertNull(ContentDelta.applyDelta(BASE, delta));
+    delta.setAttribute("length", "-1");
+    assertNull(ContentDelta.applyDelta(BASE, delta));
+    delta.setAttribute("length", String.valueOf(text.length() - 1));
+    assertNull(ContentDelta.applyDelta(BASE, delta));
+    delta.setAttribute("length", String.valueOf(text.length()));
+    assertEquals(text, ContentDelta.applyDelta(BASE, delta));
+  }
+
+  public void testRollingChecksum() {
+    String text = createText(5000, 2);
+    int blockSize = 300;
+    int checksum = ContentDelta.weakChecksum(text, 0, blockSize);
+    int a = checksum & 0xffff;
+    int b = checksum >>> 16;
+    for (int i = 0; i + blockSize < text.length(); i++) {
+      a = (a - text.charAt(i) + text.charAt(i + blockSize)) & 0xffff;
+      b = (b - blockSize * text.charAt(i) + a) & 0xffff;
+      assertEquals(ContentDelta.weakChecksum(text, i + 1, i + 1 + blockSize), a | (b << 16));
+    }
+  }
+
+  public void testContentsCache() {
+    VFileContentsCache cache = new VFileContentsCache(100, 3);
+    VFile file1 = VFile.create("path1");
+    VFile file2 = VFile.create("path2");
+
+    cache.putContents("user", file1, createText(40, 0));
+    cache.putContents("other", file1, createText(40, 0));
+    assertEquals(createText(40, 0), cache.getContents("user", file1));
+    assertEquals(createText(40, 0), cache.getContents("other", file1));
+    assertNull(cache.getContents("user", file2));
+
+    cache.putContents("user", file2, createText(50, 1));
+    assertNotNull("Identical contents should be stored once", cache.getContents("user", file1));
+
+    cache.putContents("user", file1, createText(30, 2));
+    assertEquals(createText(30, 2), cache.getContents("user", file1));
+    assertEquals(createText(40, 0), cache.getContents("other", file1));
+    assertNull("Least recently used contents should be dropped", cache.getContents("user", file2));
+
+    assertEquals(createText(30, 2), cache.getContents("user", file1));
+    cache.putContents("third", file1, createText(30, 2));
+    cache.putContents("fourth", file1, createText(30, 2));
+    assertNull("Least recently used path should be dropped", cache.getContents("other", file1));
+    assertEquals(createText(30, 2), cache.getContents("user", file1));
+    assertEquals(createText(30, 2), cache.getContents("fourth", file1));
+  }
+
+  private static void assertSmallDelta(Element delta) {
+    String xml = new XMLOutputter().outputString(delta);
+    assertTrue("Delta is too big: " + xml.length(), xml.length() < BASE.length() / 10);
+  }
+
+  private static Element doTest(String base, String text) throws Exception {
+    Element baseElement = ContentDelta.createBaseElement(base);
+    assertNotNull(baseElement);
+    Element delta = ContentDelta.createDeltaElement(roundTrip(baseElement), text);
+    assertNotNull(delta);
+    delta = roundTrip(delta);
+    assertEquals(text, ContentDelta.applyDelta(base, delta));
+    return delta;
+  }
+
+  private static Element roundTrip(Element element) throws Exception {
+    String xml = new XMLOutputter().outputString(element);
+    Document document = new SAXBuilder().build(new StringReader(xml));
+    return document.getRootElement();
+  }
+
+  private static String createText(int length, int seed) {
+    StringBuilder result = new StringBuilder(length + 100);
+    for (int line = 0; result.length() < length; line++) {
+      result.append("  void method").append(seed).append('_').append(line).append("() { call(").append(line * 31 % 97).append("); }\n");
+    }
+    result.setLength(length);
+    return result.toString();
+  }
+}
@@ -18,6 +18,7 @@ package jetbrains.communicator.p2p;
 import jetbrains.communicator.core.impl.BaseTestCase;
 
 import java.net.InetAddress;
+import java.util.Arrays;
 
 /**
  * @author Kir
@@ -40,4 +41,12 @@ public class MulticastPingThreadTest extends BaseTestCase {
 
   }
 
+  public void testParseHeartbeat() {
+    final String heartbeat = MulticastPingThread.HEARTBEAT_MESSAGE;
+
+    assertEquals(Arrays.toString(new int[]{2864, -12345}), Arrays.toString(MulticastPingThread.parseHeartbeat(heartbeat + "2864:-12345")));
+    assertNull(MulticastPingThread.parseHeartbeat(heartbeat + "2864"));
+    assertNull(MulticastPingThread.parseHeartbeat(heartbeat + "a:b"));
+  }
+
 }
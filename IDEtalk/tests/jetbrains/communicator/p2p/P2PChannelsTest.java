@@ -0,0 +1,233 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import junit.framework.TestCase;
+import org.apache.log4j.Logger;
+import org.apache.xmlrpc.WebServer;
+import org.apache.xmlrpc.XmlRpcClient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Two channel endpoints talking to each other over loopback in one JVM.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class P2PChannelsTest extends TestCase {
+  private static final Logger LOG = Logger.getLogger(P2PChannelsTest.class);
+  private static final String ID = "Test";
+
+  private P2PChannels myChannels1;
+  private P2PChannels myChannels2;
+  private InetAddress myLoopback;
+  private final CountDownLatch mySlowCallLatch = new CountDownLatch(1);
+  private final List<String> myLog = Collections.synchronizedList(new ArrayList<>());
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myLoopback = InetAddress.getByName("127.0.0.1");
+    myChannels1 = createChannels("1");
+    myChannels2 = createChannels("2");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mySlowCallLatch.countDown();
+    myChannels1.stop();
+    myChannels2.stop();
+    super.tearDown();
+  }
+
+  private P2PChannels createChannels(String name) {
+    Map<String, Object> handlers = new HashMap<>();
+    handlers.put(ID, new Handler(name));
+    P2PChannels channels = new P2PChannels(handlers, 0);
+    channels.start();
+    assertTrue(channels.getLocalPort() > 0);
+    return channels;
+  }
+
+  public void testCallInBothDirections() throws Exception {
+    P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    assertNotNull(channel);
+    assertEquals("2:user:hello", channel.call(ID, "echo", Arrays.asList("user", "hello"), 10000));
+
+    channel = myChannels2.getChannel(myLoopback, myChannels1.getLocalPort());
+    assertNotNull(channel);
+    assertEquals("1:user:hello", channel.call(ID, "echo", Arrays.asList("user", "hello"), 10000));
+  }
+
+  public void testConnectionIsReused() {
+    P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    assertSame(channel, myChannels1.getChannel(myLoopback, myChannels2.getLocalPort()));
+  }
+
+  public void testUnknownMethodFails() throws Exception {
+    P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    assertNull(channel.call(ID, "noSuchMethod", Arrays.asList("user", "hello"), 10000));
+    assertNull(channel.call("NoSuchHandler", "echo", Arrays.asList("user", "hello"), 10000));
+    assertEquals("Connection should survive failed calls", "2:user:x", channel.call(ID, "echo", Arrays.asList("user", "x"), 10000));
+  }
+
+  public void testSlowRequestDoesNotBlockOthers() throws Exception {
+    final P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    Thread slowCall = new Thread(() -> {
+      try {
+        myLog.add(channel.call(ID, "slow", Collections.singletonList("user"), 10000));
+      }
+      catch (IOException e) {
+        myLog.add(e.getMessage());
+      }
+    });
+    slowCall.start();
+
+    assertEquals("2:user:fast", channel.call(ID, "echo", Arrays.asList("user", "fast"), 10000));
+    assertTrue("Slow call should still be running", myLog.isEmpty());
+
+    mySlowCallLatch.countDown();
+    slowCall.join(10000);
+    assertEquals(Collections.singletonList("slow"), myLog);
+  }
+
+  public void testLargePayloadIsCompressed() throws Exception {
+    String text = createFileContent(100 * 1024);
+    byte[] payload = P2PChannel.encodeRequest(ID, "echo", Arrays.asList("user", text));
+    P2PChannel.Frame frame = P2PChannel.createFrame(1, (byte)1, payload);
+    assertTrue(frame.isCompressed());
+    assertTrue("compressed: " + frame.getLength() + ", raw: " + payload.length, frame.getLength() * 4 < payload.length);
+    assertTrue(Arrays.equals(payload, P2PChannel.inflate(P2PChannel.deflate(payload))));
+
+    assertFalse(P2PChannel.createFrame(1, (byte)1, P2PChannel.encodeRequest(ID, "echo", Arrays.asList("user", "short"))).isCompressed());
+
+    P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    assertEquals("2:user:" + text, channel.call(ID, "echo", Arrays.asList("user", text), 10000));
+  }
+
+  public void testOversizedPayloads() throws Exception {
+    P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+    try {
+      channel.call(ID, "echo", Arrays.asList("user", createFileContent(P2PChannel.MAX_FRAME_LENGTH + 1)), 10000);
+      fail("Oversized request should not be sent");
+    }
+    catch (IOException expected) {
+    }
+    assertFalse(channel.isClosed());
+
+    try {
+      channel.call(ID, "large", Arrays.asList("user", String.valueOf(P2PChannel.MAX_FRAME_LENGTH + 1)), 10000);
+      fail("Oversized response should be rejected");
+    }
+    catch (IOException expected) {
+    }
+    assertEquals("Connection should survive oversized payloads", "2:user:x", channel.call(ID, "echo", Arrays.asList("user", "x"), 10000));
+  }
+
+  public void testPeerWithoutChannelServer() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    int port = socket.getLocalPort();
+    socket.close();
+
+    assertNull(myChannels1.getChannel(myLoopback, port));
+    assertNull("Should not retry immediately", myChannels1.getChannel(myLoopback, port));
+  }
+
+  public void testStoppedChannelsFail() {
+    int port = myChannels2.getLocalPort();
+    P2PChannel channel = myChannels1.getChannel(myLoopback, port);
+    myChannels2.stop();
+    try {
+      channel.call(ID, "echo", Arrays.asList("user", "hello"), 10000);
+      fail("Call over a closed connection should fail");
+    }
+    catch (IOException expected) {
+    }
+    assertNull(myChannels1.getChannel(myLoopback, port));
+  }
+
+  public void testLoopbackBenchmark() throws Exception {
+    ServerSocket socket = new ServerSocket(0);
+    int xmlRpcPort = socket.getLocalPort();
+    socket.close();
+    WebServer webServer = new WebServer(xmlRpcPort, myLoopback);
+    webServer.addHandler(ID, new Handler("2"));
+    webServer.start();
+
+    try {
+      String text = createFileContent(16 * 1024);
+      int count = 200;
+      XmlRpcClient client = new XmlRpcClient("http://127.0.0.1:" + xmlRpcPort + "/rpc2");
+      P2PChannel channel = myChannels1.getChannel(myLoopback, myChannels2.getLocalPort());
+
+      // warm up both paths
+      for (int i = 0; i < 10; i++) {
+        client.execute(ID + ".echo", new Vector<Object>(Arrays.asList("user", text)));
+        channel.call(ID, "echo", Arrays.asList("user", text), 10000);
+      }
+
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < count; i++) {
+        assertEquals("2:user:" + text, client.execute(ID + ".echo", new Vector<Object>(Arrays.asList("user", text))));
+      }
+      long xmlRpcTime = System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      for (int i = 0; i < count; i++) {
+        assertEquals("2:user:" + text, channel.call(ID, "echo", Arrays.asList("user", text), 10000));
+      }
+      long channelTime = System.currentTimeMillis() - start;
+
+      LOG.info(count + " calls: XML-RPC " + xmlRpcTime + "ms, channel " + channelTime + "ms");
+    }
+    finally {
+      webServer.shutdown();
+    }
+  }
+
+  private static String createFileContent(int size) {
+    StringBuilder result = new StringBuilder(size + 100);
+    for (int line = 0; result.length() < size; line++) {
+      result.append("  public void method").append(line).append("() { System.out.println(\"line ").append(line).append("\"); }\n");
+    }
+    return result.toString();
+  }
+
+  public class Handler {
+    private final String myName;
+
+    Handler(String name) {
+      myName = name;
+    }
+
+    public String echo(String remoteUser, String text) {
+      return myName + ':' + remoteUser + ':' + text;
+    }
+
+    public String large(String remoteUser, String size) {
+      return createFileContent(Integer.parseInt(size));
+    }
+
+    public String slow(String remoteUser) throws InterruptedException {
+      assertTrue(mySlowCallLatch.await(10, TimeUnit.SECONDS));
+      return "slow";
+    }
+  }
+}
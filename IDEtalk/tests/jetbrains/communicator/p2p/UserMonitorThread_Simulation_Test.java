@@ -0,0 +1,232 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package jetbrains.communicator.p2p;
+
+import jetbrains.communicator.core.impl.BaseTestCase;
+import jetbrains.communicator.core.impl.users.UserImpl;
+import jetbrains.communicator.core.users.PresenceMode;
+import jetbrains.communicator.core.users.User;
+import jetbrains.communicator.core.users.UserPresence;
+import jetbrains.communicator.p2p.commands.AddOnlineUserP2PCommand;
+import org.apache.xmlrpc.WebServer;
+import org.apache.xmlrpc.XmlRpcClient;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Many virtual peers answering pings and sending heartbeats to one monitor over loopback.
+ */
+@SuppressWarnings({"HardCodedStringLiteral"})
+public class UserMonitorThread_Simulation_Test extends BaseTestCase {
+  private static final int PEERS = 500;
+  private static final int FIRST_PEER_PORT = 20000;
+  private static final long HEARTBEAT_INTERVAL = 200;
+
+  private final SimulatedClient myClient = new SimulatedClient();
+  private UserMonitorThread myUserMonitorThread;
+  private WebServer myWebServer;
+  private XmlRpcClient myXmlRpcClient;
+  private ExecutorService myPeersExecutor;
+  private InetAddress myLoopback;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    myLoopback = InetAddress.getByName("127.0.0.1");
+    myUserMonitorThread = new UserMonitorThread(new MulticastPingThread[0], myClient, 0, HEARTBEAT_INTERVAL);
+
+    ServerSocket socket = new ServerSocket(0);
+    int port = socket.getLocalPort();
+    socket.close();
+    myWebServer = new WebServer(port, myLoopback);
+    AddOnlineUserP2PCommand command = new AddOnlineUserP2PCommand(myUserMonitorThread);
+    myWebServer.addHandler(command.getXmlRpcId(), command);
+    myWebServer.start();
+    myXmlRpcClient = new XmlRpcClient("http://127.0.0.1:" + port + "/RPC2");
+
+    myPeersExecutor = Executors.newFixedThreadPool(20);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    myClient.myBlock.countDown();
+    myPeersExecutor.shutdownNow();
+    myWebServer.shutdown();
+    super.tearDown();
+  }
+
+  public void testDiscovery() throws Exception {
+    respond(0, PEERS);
+    myUserMonitorThread.flushOnlineUsers();
+    assertEquals(PEERS, myClient.myOnlineUsers.size());
+    assertTrue(myClient.myOnlineUsers.contains(UserImpl.create(getPeerName(PEERS - 1), P2PTransport.CODE)));
+
+    respond(0, PEERS);
+    myUserMonitorThread.flushOnlineUsers();
+    assertEquals("Repeated responses should not duplicate users", PEERS, myClient.myOnlineUsers.size());
+  }
+
+  public void testResponsesAreNotBlockedByClient() throws Exception {
+    myClient.myBlock = new CountDownLatch(1);
+    Thread flush = new Thread(myUserMonitorThread::flushOnlineUsers);
+    flush.start();
+
+    respond(0, PEERS);
+    assertTrue("Flushing should wait for the client", flush.isAlive());
+
+    myClient.myBlock.countDown();
+    flush.join(10000);
+    myUserMonitorThread.flushOnlineUsers();
+    assertEquals(PEERS, myClient.myOnlineUsers.size());
+  }
+
+  public void testHeartbeatsAndExpiry() throws Exception {
+    respond(0, PEERS);
+    myUserMonitorThread.flushOnlineUsers();
+    assertEquals(PEERS, myClient.myOnlineUsers.size());
+
+    for (int i = 0; i < PEERS / 2; i++) {
+      assertFalse("Known peer should not be asked for info", heartbeat(i, getStateHash(i)));
+    }
+
+    Thread.sleep(10);
+    myUserMonitorThread.flushOnlineUsers(System.currentTimeMillis());
+    assertEquals("Peers without heartbeats should expire after a scan without a response",
+                 PEERS / 2, myClient.myOnlineUsers.size());
+
+    long end = System.currentTimeMillis() + HEARTBEAT_INTERVAL * (UserMonitorThread.MISSED_HEARTBEATS + 2);
+    while (System.currentTimeMillis() < end) {
+      for (int i = 0; i < PEERS / 4; i++) {
+        heartbeat(i, getStateHash(i));
+      }
+      Thread.sleep(HEARTBEAT_INTERVAL / 2);
+    }
+    myUserMonitorThread.flushOnlineUsers();
+    assertEquals("Peers which stopped sending heartbeats should expire", PEERS / 4, myClient.myOnlineUsers.size());
+    assertTrue(myClient.myOnlineUsers.contains(UserImpl.create(getPeerName(0), P2PTransport.CODE)));
+    assertFalse(myClient.myOnlineUsers.contains(UserImpl.create(getPeerName(PEERS / 4), P2PTransport.CODE)));
+  }
+
+  public void testInfoRequestsAreRateLimited() throws Exception {
+    respond(0, PEERS / 2);
+
+    assertTrue("Unknown peer should be asked for info", heartbeat(PEERS - 1, getStateHash(PEERS - 1)));
+    assertFalse(heartbeat(PEERS - 1, getStateHash(PEERS - 1)));
+
+    assertTrue("Peer with changed state should be asked for info", heartbeat(0, getStateHash(0) + 1));
+    assertFalse(heartbeat(0, getStateHash(0) + 1));
+
+    int requests = 0;
+    for (int round = 0; round < 10; round++) {
+      for (int i = PEERS / 2; i < PEERS; i++) {
+        if (heartbeat(i, getStateHash(i))) requests++;
+      }
+    }
+    assertEquals("Each unknown peer should be asked once", PEERS / 2 - 1, requests);
+
+    respond(PEERS / 2, PEERS);
+    for (int i = 0; i < PEERS; i++) {
+      assertFalse(heartbeat(i, getStateHash(i)));
+    }
+  }
+
+  public void testReplyRateLimiter() {
+    RateLimiter limiter = new RateLimiter(MulticastPingThread.MIN_REPLY_INTERVAL);
+    assertTrue(limiter.tryAcquire("a", 1000));
+    assertFalse(limiter.tryAcquire("a", 1001));
+    assertTrue(limiter.tryAcquire("b", 1001));
+    assertTrue(limiter.tryAcquire("a", 1000 + MulticastPingThread.MIN_REPLY_INTERVAL));
+
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(limiter.tryAcquire("peer" + i, 5000));
+    }
+    assertFalse(limiter.tryAcquire("peer0", 5001));
+  }
+
+  private void respond(int from, int to) throws Exception {
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = from; i < to; i++) {
+      final int peer = i;
+      futures.add(myPeersExecutor.submit(() -> {
+        Vector<Object> params = new Vector<>();
+        params.add(myLoopback.getHostAddress());
+        params.add(getPeerName(peer));
+        params.add(FIRST_PEER_PORT + peer);
+        params.add(new Vector<>(getProjects(peer)));
+        params.add(getPresence(peer).toVector());
+        return myXmlRpcClient.execute("AddOnlineUser.addOnlineUser", params);
+      }));
+    }
+    for (Future<?> future : futures) {
+      assertEquals(Boolean.TRUE, future.get(30, TimeUnit.SECONDS));
+    }
+  }
+
+  private boolean heartbeat(int peer, int stateHash) {
+    return myUserMonitorThread.processHeartbeat(myLoopback, FIRST_PEER_PORT + peer, stateHash);
+  }
+
+  private static int getStateHash(int peer) {
+    return UserMonitorThread.getStateHash(getPeerName(peer), getProjects(peer), getPresence(peer));
+  }
+
+  private static String getPeerName(int peer) {
+    return "peer" + peer;
+  }
+
+  private static List<String> getProjects(int peer) {
+    return Arrays.asList("project" + peer % 7, "common");
+  }
+
+  private static UserPresence getPresence(int peer) {
+    return new UserPresence(peer % 3 == 0 ? PresenceMode.AWAY : PresenceMode.AVAILABLE);
+  }
+
+  private static class SimulatedClient implements UserMonitorClient {
+    private volatile Set<User> myOnlineUsers = Collections.emptySet();
+    private volatile CountDownLatch myBlock = new CountDownLatch(0);
+
+    @Override
+    public void setOnlineUsers(Collection<User> onlineUsers) {
+      try {
+        myBlock.await();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      myOnlineUsers = new HashSet<>(onlineUsers);
+    }
+
+    @Override
+    public User createUser(String remoteUsername, OnlineUserInfo onlineUserInfo) {
+      return UserImpl.create(remoteUsername, P2PTransport.CODE);
+    }
+
+    @Override
+    public int getPort() {
+      return 0;
+    }
+
+    @Override
+    public UserPresence getOwnPresence() {
+      return new UserPresence(true);
+    }
+  }
+}
@@ -24,10 +24,11 @@ public abstract class AbstractCucumberExtension implements CucumberJvmExtensionP
     final String stepVariant = getStepVariant(element);
 
     final List<AbstractStepDefinition> stepDefinitions = loadStepsFor(element.getContainingFile(), module);
+    final CucumberStepMatcher matcher = CucumberStepsIndex.getInstance(module.getProject()).getStepMatcher(module, this, stepDefinitions);
     final List<PsiElement> result = new ArrayList<>();
 
-    for (final AbstractStepDefinition stepDefinition : stepDefinitions) {
-      if (stepDefinition.matches(stepVariant) && stepDefinition.supportsStep(element)) {
+    for (final AbstractStepDefinition stepDefinition : matcher.findMatches(stepVariant)) {
+      if (stepDefinition.supportsStep(element)) {
         result.add(stepDefinition.getElement());
         break;
       }
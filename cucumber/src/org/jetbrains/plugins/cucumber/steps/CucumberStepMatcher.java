@@ -0,0 +1,327 @@
+package org.jetbrains.plugins.cucumber.steps;
+
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.containers.IntArrayList;
+import org.apache.oro.text.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Matches step names against a fixed list of step definitions.
+ * <p/>
+ * Literal parts of each definition pattern are extracted once: the literal prefix of an anchored pattern, the literal
+ * strings the step name has to contain, and the whole words it has to contain. Definitions are indexed by their longest
+ * required word, so {@link AbstractStepDefinition#matches} only runs on definitions whose literals all occur in the step
+ * name. This holds for any {@code matches} implementation which accepts only names its pattern finds, be it case
+ * sensitive or not. Results are cached per step name, definitions are returned in their original order.
+ * <p/>
+ * The matcher does not track changes of the definitions, so it should be dropped on any PSI change
+ * (see {@link CucumberStepsIndex#getStepMatcher}).
+ */
+public final class CucumberStepMatcher {
+  private final List<AbstractStepDefinition> myDefinitions;
+  private final long myModificationCount;
+
+  private final Entry[] myEntries;
+  private final Map<String, IntArrayList> myWordIndex = new HashMap<>();
+  private final int[] myUnindexed;
+  private final ConcurrentMap<String, List<AbstractStepDefinition>> myCache = ContainerUtil.newConcurrentMap();
+
+  public CucumberStepMatcher(@NotNull List<AbstractStepDefinition> definitions, long modificationCount) {
+    myDefinitions = definitions;
+    myModificationCount = modificationCount;
+
+    myEntries = new Entry[definitions.size()];
+    IntArrayList unindexed = new IntArrayList();
+    for (int i = 0; i < myEntries.length; i++) {
+      Pattern pattern = definitions.get(i).getPattern();
+      if (pattern == null) continue;
+
+      Entry entry = new Entry(pattern);
+      myEntries[i] = entry;
+      if (entry.myIndexWord != null) {
+        IntArrayList indices = myWordIndex.get(entry.myIndexWord);
+        if (indices == null) {
+          myWordIndex.put(entry.myIndexWord, indices = new IntArrayList());
+        }
+        indices.add(i);
+      }
+      else {
+        unindexed.add(i);
+      }
+    }
+    myUnindexed = unindexed.toArray();
+  }
+
+  /**
+   * Whether the matcher was built for these definitions at this modification count and may be reused.
+   */
+  public boolean isUpToDate(@NotNull List<AbstractStepDefinition> definitions, long modificationCount) {
+    return myModificationCount == modificationCount && myDefinitions.equals(definitions);
+  }
+
+  /**
+   * @return definitions whose pattern matches the step name, in the order they were given
+   */
+  @NotNull
+  public List<AbstractStepDefinition> findMatches(@Nullable String stepName) {
+    if (stepName == null) {
+      return Collections.emptyList();
+    }
+
+    List<AbstractStepDefinition> result = myCache.get(stepName);
+    if (result == null) {
+      result = doFindMatches(stepName);
+      myCache.put(stepName, result);
+    }
+    return result;
+  }
+
+  @NotNull
+  private List<AbstractStepDefinition> doFindMatches(@NotNull String stepName) {
+    String lowerCaseName = toLowerCase(stepName);
+
+    BitSet candidates = new BitSet(myEntries.length);
+    for (int i : myUnindexed) {
+      candidates.set(i);
+    }
+    for (String word : splitWords(lowerCaseName, true, true)) {
+      IntArrayList indices = myWordIndex.get(word);
+      if (indices != null) {
+        for (int i = 0; i < indices.size(); i++) {
+          candidates.set(indices.get(i));
+        }
+      }
+    }
+
+    List<AbstractStepDefinition> result = null;
+    for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+      if (!myEntries[i].accepts(lowerCaseName)) continue;
+
+      AbstractStepDefinition definition = myDefinitions.get(i);
+      if (definition.matches(stepName)) {
+        if (result == null) {
+          result = new ArrayList<>();
+        }
+        result.add(definition);
+      }
+    }
+    return result != null ? Collections.unmodifiableList(result) : Collections.emptyList();
+  }
+
+  /**
+   * Lower case of each character, as the definition patterns are compiled case insensitive.
+   */
+  @NotNull
+  private static String toLowerCase(@NotNull String text) {
+    char[] chars = text.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = Character.toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+
+  /**
+   * @param leftBounded  whether a word at the start of the text is a whole word (i.e. nothing may precede it)
+   * @param rightBounded whether a word at the end of the text is a whole word
+   */
+  @NotNull
+  private static List<String> splitWords(@NotNull String text, boolean leftBounded, boolean rightBounded) {
+    List<String> result = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      if (i < text.length() && isWordChar(text.charAt(i))) {
+        if (start < 0) start = i;
+      }
+      else if (start >= 0) {
+        if ((start > 0 || leftBounded) && (i < text.length() || rightBounded)) {
+          result.add(text.substring(start, i));
+        }
+        start = -1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * A definition pattern with literals every matching step name contains (lower case).
+   */
+  private static final class Entry {
+    private String myPrefix;
+    private final List<String> myLiterals = new ArrayList<>();
+    private String myIndexWord;
+
+    private Entry(@NotNull Pattern pattern) {
+      parse(pattern.getPattern());
+    }
+
+    private boolean accepts(@NotNull String lowerCaseName) {
+      if (myPrefix != null && !lowerCaseName.startsWith(myPrefix)) {
+        return false;
+      }
+      for (String literal : myLiterals) {
+        if (!lowerCaseName.contains(literal)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Splits the pattern into runs of literal characters. Anything else (groups, classes, escapes like {@code \d},
+     * optional characters) ends a run. A pattern with a top level alternative, with the {@code x} inline flag, or with
+     * escapes standing for other characters ({@code \x41}, {@code \u0041}, {@code \0101}, {@code \cA}, {@code \1},
+     * {@code \Q...\E}), has no required literals.
+     */
+    private void parse(@NotNull String regex) {
+      boolean anchored = regex.startsWith("^");
+      int i = anchored ? 1 : 0;
+      int runStart = i;
+      StringBuilder run = new StringBuilder();
+
+      while (i < regex.length()) {
+        char c = regex.charAt(i);
+        int next = i + 1;
+        Character literal = null;
+
+        if (c == '\\') {
+          if (next == regex.length()) break;
+          char escaped = regex.charAt(next++);
+          if (escaped == 'x' || escaped == 'u' || escaped == 'c' || escaped == 'Q' || escaped == 'E' || Character.isDigit(escaped)) {
+            // hex, unicode, control, octal characters, back references and quoting: the literals can't be told without parsing them
+            dropLiterals();
+            return;
+          }
+          if (!Character.isLetterOrDigit(escaped)) {
+            literal = escaped;
+          }
+        }
+        else if (c == '(' && hasCommentsFlag(regex, i)) {
+          // white space and comments are ignored, the pattern's characters are no literals
+          dropLiterals();
+          return;
+        }
+        else if (c == '(' || c == '[') {
+          next = skipGroup(regex, i);
+          if (next < 0) break;
+        }
+        else if (c == '|' || c == ')') {
+          dropLiterals();
+          return;
+        }
+        else if (c == '$' && next == regex.length()) {
+          addLiteral(run.toString(), anchored && runStart == 1, true);
+          return;
+        }
+        else if (".^$?*+{".indexOf(c) < 0) {
+          literal = c;
+        }
+
+        char quantifier = next < regex.length() ? regex.charAt(next) : 0;
+        if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+          // an optional atom
+          literal = null;
+        }
+        if (quantifier == '{') {
+          next = regex.indexOf('}', next);
+          if (next < 0) break;
+        }
+        if (quantifier != 0 && "?*+{".indexOf(quantifier) >= 0) {
+          next++;
+          // lazy or possessive quantifier
+          if (next < regex.length() && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) next++;
+        }
+
+        if (literal != null) {
+          run.append(Character.toLowerCase(literal.charValue()));
+        }
+        if (literal == null || quantifier == '+') {
+          // the run ends here, a repeated character is required once
+          addLiteral(run.toString(), anchored && runStart == 1, false);
+          run.setLength(0);
+          runStart = -1;
+        }
+        i = next;
+      }
+
+      addLiteral(run.toString(), anchored && runStart == 1, false);
+    }
+
+    private void dropLiterals() {
+      myLiterals.clear();
+      myPrefix = null;
+      myIndexWord = null;
+    }
+
+    /**
+     * @return whether the group starting at {@code start} sets inline flags including {@code x}, e.g. {@code (?x)} or {@code (?ix:...)}
+     */
+    private static boolean hasCommentsFlag(@NotNull String regex, int start) {
+      if (!regex.startsWith("(?", start)) return false;
+      int i = start + 2;
+      while (i < regex.length() && (Character.isLetter(regex.charAt(i)) || regex.charAt(i) == '-')) i++;
+      return i < regex.length() && (regex.charAt(i) == ')' || regex.charAt(i) == ':') && regex.substring(start + 2, i).indexOf('x') >= 0;
+    }
+
+    /**
+     * @param prefix       whether the literal starts an anchored pattern
+     * @param rightBounded whether the literal ends an anchored pattern
+     */
+    private void addLiteral(@NotNull String literal, boolean prefix, boolean rightBounded) {
+      if (literal.isEmpty()) return;
+
+      if (prefix) {
+        myPrefix = literal;
+      }
+      else {
+        myLiterals.add(literal);
+      }
+      for (String word : splitWords(literal, prefix, rightBounded)) {
+        if (myIndexWord == null || word.length() > myIndexWord.length()) {
+          myIndexWord = word;
+        }
+      }
+    }
+
+    /**
+     * @return the index after the group or character class starting at {@code start}, -1 if it is not closed
+     */
+    private static int skipGroup(@NotNull String regex, int start) {
+      int depth = 0;
+      boolean inClass = false;
+      for (int i = start; i < regex.length(); i++) {
+        char c = regex.charAt(i);
+        if (c == '\\') {
+          i++;
+        }
+        else if (inClass) {
+          if (c == ']') {
+            inClass = false;
+            if (depth == 0) return i + 1;
+          }
+        }
+        else if (c == '[') {
+          inClass = true;
+          // a closing bracket right after the opening one (or after ^) is a literal
+          if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') i++;
+          if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') i++;
+        }
+        else if (c == '(') {
+          depth++;
+        }
+        else if (c == ')') {
+          depth--;
+          if (depth == 0) return i + 1;
+        }
+      }
+      return -1;
+    }
+  }
+}
@@ -11,6 +11,9 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.HashMap;
 import org.apache.oro.text.regex.Pattern;
 import org.jetbrains.annotations.NotNull;
@@ -22,6 +25,7 @@ import org.jetbrains.plugins.cucumber.psi.GherkinFile;
 import org.jetbrains.plugins.cucumber.psi.GherkinStep;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author yole
@@ -31,6 +35,7 @@ public class CucumberStepsIndex {
 
   private final Map<BDDFrameworkType, CucumberJvmExtensionPoint> myExtensionMap;
   private final Map<CucumberJvmExtensionPoint, Object> myExtensionData;
+  private final ConcurrentMap<Module, Map<Object, CucumberStepMatcher>> myStepMatchers = ContainerUtil.createConcurrentWeakMap();
   private Project myProject;
 
   public static CucumberStepsIndex getInstance(Project project) {
@@ -115,8 +120,8 @@ public class CucumberStepsIndex {
     Map<Class<? extends AbstractStepDefinition>, AbstractStepDefinition> definitionsByClass =
       new java.util.HashMap<>();
     List<AbstractStepDefinition> allSteps = loadStepsFor(featureFile, module);
-    for (AbstractStepDefinition stepDefinition : allSteps) {
-      if (stepDefinition.matches(step.getSubstitutedName()) && stepDefinition.supportsStep(step)) {
+    for (AbstractStepDefinition stepDefinition : getStepMatcher(module, this, allSteps).findMatches(step.getSubstitutedName())) {
+      if (stepDefinition.supportsStep(step)) {
         final Pattern currentLongestPattern = getPatternByDefinition(definitionsByClass.get(stepDefinition.getClass()));
         final Pattern newPattern = getPatternByDefinition(stepDefinition);
         final int newPatternLength = ((newPattern != null) ? newPattern.getPattern().length() : -1);
@@ -128,6 +133,26 @@ public class CucumberStepsIndex {
     return definitionsByClass.values();
   }
 
+  /**
+   * Returns a matcher of the step definitions loaded for the module, reused until they or any PSI change.
+   *
+   * @param owner       who loaded the definitions (the index itself or an extension), each has its own matcher
+   * @param definitions step definitions as loaded for the module
+   */
+  @NotNull
+  public CucumberStepMatcher getStepMatcher(@NotNull final Module module,
+                                            @NotNull final Object owner,
+                                            @NotNull final List<AbstractStepDefinition> definitions) {
+    final long modificationCount = PsiModificationTracker.SERVICE.getInstance(module.getProject()).getModificationCount();
+    final Map<Object, CucumberStepMatcher> matchers = ConcurrencyUtil.cacheOrGet(myStepMatchers, module, ContainerUtil.newConcurrentMap());
+    CucumberStepMatcher matcher = matchers.get(owner);
+    if (matcher == null || !matcher.isUpToDate(definitions, modificationCount)) {
+      matcher = new CucumberStepMatcher(definitions, modificationCount);
+      matchers.put(owner, matcher);
+    }
+    return matcher;
+  }
+
   /**
    * Returns pattern from step definition (if exists)
    *
@@ -208,6 +233,7 @@ public class CucumberStepsIndex {
   }
 
   public void reset() {
+    myStepMatchers.clear();
     for (CucumberJvmExtensionPoint e : myExtensionMap.values()) {
       e.reset(myProject);
     }
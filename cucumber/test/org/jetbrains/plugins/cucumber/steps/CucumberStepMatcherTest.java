@@ -0,0 +1,161 @@
+package org.jetbrains.plugins.cucumber.steps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiElement;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CucumberStepMatcherTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(CucumberStepMatcherTest.class);
+
+  private final AtomicInteger myMatchCount = new AtomicInteger();
+
+  public void testLiterals() {
+    doTest(new String[]{"^I have (\\d+) cukes? in my belly$", "I have (\\d+) cukes", "^I HAVE", "have (\\d+) cukes in", "^cukes$"},
+           "I have 3 cukes in my belly", "i have 3 Cuke in my belly", "I have 3 cukes", "Today I have 3 cukes", "cukes", "I haven't");
+  }
+
+  public void testPartialWords() {
+    doTest(new String[]{"ave (\\d+) cuke", "(\\d+) cukes?", "cuke\\w*", "^I ha+ve\\b", "^I\\s+have", "us\\.er", "(.*)user"},
+           "I have 3 cukes", "I haaave 3 cucumbers", "I    have 1 cuke", "us.er", "username", "a superuser");
+  }
+
+  public void testCharacterEscapes() {
+    doTest(new String[]{"\\x41BC", "\\u0041BC", "\\0101BC", "\\cA", "\\Qa.b\\E", "^(a)\\1b$", "a\\.b", "(?x)a b c", "^(?ix:a\\ b)$"},
+           "ABC", "xabcx", "a.b", "aXb", "aab", "\u0001", "abc", "A B");
+  }
+
+  public void testAlternativesAndGroups() {
+    doTest(new String[]{"^I (?:add|remove) (\\d+) items?$", "^I add|^I remove", "(a|b) cart", "^(\\d+) items\\)$", "[(]items$"},
+           "I add 1 item", "I remove 2 items", "I drop 2 items", "b cart", "3 items)", "(items");
+  }
+
+  public void testCachedPerStep() {
+    CucumberStepMatcher matcher = new CucumberStepMatcher(createDefinitions("^I have (\\d+) cukes$", "cukes"), 0);
+    List<AbstractStepDefinition> matches = matcher.findMatches("I have 3 cukes");
+    assertSize(2, matches);
+    int count = myMatchCount.get();
+    assertSame(matches, matcher.findMatches("I have 3 cukes"));
+    assertEquals(count, myMatchCount.get());
+    assertEmpty(matcher.findMatches(null));
+  }
+
+  /**
+   * A suite of 5 000 step definitions and 50 000 steps: matching with the matcher, compared with running every
+   * definition on a sample of the steps.
+   */
+  public void testMatchingBenchmark() {
+    final int definitionCount = 5000;
+    final int stepCount = 50000;
+    final int sampleCount = 500;
+    final String[] subjects = {"user", "admin", "order", "cart", "invoice"};
+    final List<String> regexes = new ArrayList<>();
+    for (int i = 0; i < definitionCount; i++) {
+      String subject = subjects[i % subjects.length] + i / subjects.length;
+      switch (i % 4) {
+        case 0: regexes.add("^the " + subject + " has (\\d+) items? in the \"([^\"]*)\" list$"); break;
+        case 1: regexes.add("^I open the " + subject + " page$"); break;
+        case 2: regexes.add("^(?:a|the) " + subject + " is (created|deleted)$"); break;
+        default: regexes.add(subject + " should see \"(.*)\""); break;
+      }
+    }
+    final List<AbstractStepDefinition> definitions = createDefinitions(regexes.toArray(new String[0]));
+    final List<String> steps = new ArrayList<>();
+    for (int i = 0; i < stepCount; i++) {
+      String subject = subjects[i % subjects.length] + (i * 7 % (definitionCount / subjects.length + 100));
+      switch (i % 4) {
+        case 0: steps.add("the " + subject + " has " + i % 10 + " items in the \"list" + i % 50 + "\" list"); break;
+        case 1: steps.add("I open the " + subject + " page"); break;
+        case 2: steps.add("the " + subject + " is " + (i % 3 == 0 ? "created" : "deleted")); break;
+        default: steps.add("then the " + subject + " should see \"message " + i % 20 + "\""); break;
+      }
+    }
+
+    long start = System.currentTimeMillis();
+    final CucumberStepMatcher matcher = new CucumberStepMatcher(definitions, 0);
+    final long buildTime = System.currentTimeMillis() - start;
+    myMatchCount.set(0);
+    int matched = 0;
+    for (String step : steps) {
+      matched += matcher.findMatches(step).size();
+    }
+    final long matcherTime = System.currentTimeMillis() - start;
+    final int matcherRuns = myMatchCount.get();
+
+    start = System.currentTimeMillis();
+    for (int i = 0; i < sampleCount; i++) {
+      assertEquals(steps.get(i), findAll(definitions, steps.get(i)), getRegexes(matcher.findMatches(steps.get(i))));
+    }
+    final long bruteForceTime = (System.currentTimeMillis() - start) * stepCount / sampleCount;
+
+    LOG.info(definitionCount + " definitions, " + stepCount + " steps, " + matched + " matches: matcher " + matcherTime + "ms " +
+             "(built in " + buildTime + "ms, " + matcherRuns + " regex runs), all definitions ~" + bruteForceTime + "ms");
+    assertTrue(matched > stepCount / 2);
+    assertTrue("regex runs: " + matcherRuns, matcherRuns < stepCount * 2);
+  }
+
+  private void doTest(String[] regexes, String... steps) {
+    List<AbstractStepDefinition> definitions = createDefinitions(regexes);
+    CucumberStepMatcher matcher = new CucumberStepMatcher(definitions, 0);
+    for (String step : steps) {
+      assertEquals(step, findAll(definitions, step), getRegexes(matcher.findMatches(step)));
+    }
+  }
+
+  private static List<String> findAll(List<AbstractStepDefinition> definitions, String step) {
+    List<String> result = new ArrayList<>();
+    for (AbstractStepDefinition definition : definitions) {
+      if (definition.matches(step)) {
+        result.add(definition.getCucumberRegex());
+      }
+    }
+    return result;
+  }
+
+  private static List<String> getRegexes(List<AbstractStepDefinition> definitions) {
+    List<String> result = new ArrayList<>();
+    for (AbstractStepDefinition definition : definitions) {
+      result.add(definition.getCucumberRegex());
+    }
+    return result;
+  }
+
+  private List<AbstractStepDefinition> createDefinitions(String... regexes) {
+    PsiElement element = myFixture.configureByText("steps.txt", "");
+    List<AbstractStepDefinition> result = new ArrayList<>();
+    for (String regex : regexes) {
+      result.add(new TestStepDefinition(element, regex));
+    }
+    return result;
+  }
+
+  private class TestStepDefinition extends AbstractStepDefinition {
+    private final String myRegex;
+
+    private TestStepDefinition(@NotNull PsiElement element, @NotNull String regex) {
+      super(element);
+      myRegex = regex;
+    }
+
+    @Override
+    public boolean matches(String stepName) {
+      myMatchCount.incrementAndGet();
+      return super.matches(stepName);
+    }
+
+    @Override
+    public List<String> getVariableNames() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    protected String getCucumberRegexFromElement(PsiElement element) {
+      return myRegex;
+    }
+  }
+}
@@ -1,17 +1,28 @@
 package com.dmarcotte.handlebars.completion;
 
+import com.dmarcotte.handlebars.index.HbBlockHelperIndex;
 import com.dmarcotte.handlebars.parsing.HbTokenTypes;
 import com.dmarcotte.handlebars.psi.HbMustacheName;
 import com.intellij.codeInsight.completion.*;
 import com.intellij.codeInsight.lookup.LookupElementBuilder;
 import com.intellij.lang.ASTNode;
+import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.util.ProcessingContext;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 import static com.intellij.patterns.PlatformPatterns.psiElement;
 
+/**
+ * Completes block helper names: the built-in helpers and the ones used in other templates of the project.
+ * Partial names are completed by {@link com.dmarcotte.handlebars.psi.impl.HbPartialReference}.
+ */
 public class HbKeywordCompletionContributor extends CompletionContributor {
   public HbKeywordCompletionContributor() {
     extend(CompletionType.BASIC, psiElement(HbTokenTypes.ID).withSuperParent(2, psiElement(HbTokenTypes.PATH)),
@@ -24,10 +35,12 @@ public class HbKeywordCompletionContributor extends CompletionContributor {
                PsiElement prevSibling = position != null ? position.getPrevSibling() : null;
                ASTNode prevSiblingNode = prevSibling != null ? prevSibling.getNode() : null;
                if (prevSiblingNode != null && prevSiblingNode.getElementType() == HbTokenTypes.OPEN_BLOCK) {
-                 result.addElement(LookupElementBuilder.create("if"));
-                 result.addElement(LookupElementBuilder.create("each"));
-                 result.addElement(LookupElementBuilder.create("unless"));
-                 result.addElement(LookupElementBuilder.create("with"));
+                 final Set<String> helpers = new LinkedHashSet<>(Arrays.asList("if", "each", "unless", "with"));
+                 final Project project = parameters.getPosition().getProject();
+                 helpers.addAll(HbBlockHelperIndex.getHelperNames(GlobalSearchScope.allScope(project)));
+                 for (String helper : helpers) {
+                   result.addElement(LookupElementBuilder.create(helper));
+                 }
                }
              }
            });
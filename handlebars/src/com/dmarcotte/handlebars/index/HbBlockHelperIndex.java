@@ -0,0 +1,109 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.psi.*;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Names of block helpers (<pre>{{#foo.bar baz}}</pre>) with the offsets of the names in the template. Inverse sections,
+ * partial blocks and decorators are not helper calls and are skipped.
+ */
+public class HbBlockHelperIndex extends FileBasedIndexExtension<String, List<Integer>> {
+  public static final ID<String, List<Integer>> NAME = ID.create("handlebars.block.helpers");
+  private final DataIndexer<String, List<Integer>, FileContent> myDataIndexer = new MyDataIndexer();
+
+  @NotNull
+  @Override
+  public ID<String, List<Integer>> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+    return myDataIndexer;
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @NotNull
+  @Override
+  public DataExternalizer<List<Integer>> getValueExternalizer() {
+    return HbIndexUtil.OFFSETS_EXTERNALIZER;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return HbIndexUtil.INPUT_FILTER;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return HbIndexUtil.INDEX_VERSION;
+  }
+
+  /**
+   * Names of the block helpers used in the templates of the scope's project, see
+   * {@link HbPartialFileIndex#getPartialNames(GlobalSearchScope)}
+   */
+  @NotNull
+  public static List<String> getHelperNames(@NotNull GlobalSearchScope scope) {
+    final List<String> result = new ArrayList<>();
+    FileBasedIndex.getInstance().processAllKeys(NAME, new CommonProcessors.CollectProcessor<>(result), scope, null);
+    return result;
+  }
+
+  @NotNull
+  public static List<HbMustacheName> findUsages(@NotNull Project project, @NotNull String helperName, @NotNull GlobalSearchScope scope) {
+    return HbIndexUtil.findElements(project, NAME, helperName, scope, HbMustacheName.class);
+  }
+
+  private static class MyDataIndexer implements DataIndexer<String, List<Integer>, FileContent> {
+    @NotNull
+    @Override
+    public Map<String, List<Integer>> map(@NotNull FileContent inputData) {
+      final PsiFile file = HbIndexUtil.getHbFile(inputData);
+      if (file == null) {
+        return Collections.emptyMap();
+      }
+
+      final Map<String, List<Integer>> result = new THashMap<>();
+      for (HbOpenBlockMustache openBlock : PsiTreeUtil.findChildrenOfType(file, HbOpenBlockMustache.class)) {
+        if (openBlock instanceof HbOpenInverseBlockMustache || openBlock instanceof HbOpenPartialBlockMustache) {
+          continue;
+        }
+        final HbMustacheName name = openBlock.getBlockMustacheName();
+        final PsiElement open = openBlock.getFirstChild();
+        if (name != null && open != null && !open.getText().endsWith("*")) {
+          HbIndexUtil.addOffset(result, name.getName(), name);
+        }
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class HbIndexUtil {
+  static final int INDEX_VERSION = 1;
+
+  static final FileBasedIndex.InputFilter INPUT_FILTER = new DefaultFileTypeSpecificInputFilter(HbFileType.INSTANCE);
+
+  /**
+   * Offsets of the indexed elements in a file, in increasing order
+   */
+  static final DataExternalizer<List<Integer>> OFFSETS_EXTERNALIZER = new DataExternalizer<List<Integer>>() {
+    @Override
+    public void save(@NotNull DataOutput out, List<Integer> value) throws IOException {
+      DataInputOutputUtil.writeINT(out, value.size());
+      int previous = 0;
+      for (int offset : value) {
+        DataInputOutputUtil.writeINT(out, offset - previous);
+        previous = offset;
+      }
+    }
+
+    @Override
+    public List<Integer> read(@NotNull DataInput in) throws IOException {
+      final int size = DataInputOutputUtil.readINT(in);
+      final List<Integer> result = new ArrayList<>(size);
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        offset += DataInputOutputUtil.readINT(in);
+        result.add(offset);
+      }
+      return result;
+    }
+  };
+
+  /**
+   * private constructor since this is a utility class
+   */
+  private HbIndexUtil() {
+  }
+
+  /**
+   * Returns the name a template file is included by, i.e. "user-card" for "user-card.hbs", "_user-card.hbs"
+   * (the Handlebars convention for partials) and "-user-card.hbs" (the Ember one)
+   */
+  @NotNull
+  public static String getPartialName(@NotNull String fileName) {
+    String name = FileTypeManager.getInstance().getFileTypeByFileName(fileName) == HbFileType.INSTANCE
+                  ? FileUtil.getNameWithoutExtension(fileName)
+                  : fileName;
+    if (name.length() > 1 && (name.charAt(0) == '_' || name.charAt(0) == '-')) {
+      name = name.substring(1);
+    }
+    return name;
+  }
+
+  /**
+   * Returns the last segment of a partial path, i.e. "bar" for "foo/bar". Partials are indexed by it since the
+   * directories of a path depend on where the partials are registered from.
+   */
+  @NotNull
+  public static String getShortName(@NotNull String partialPath) {
+    return partialPath.substring(partialPath.lastIndexOf('/') + 1);
+  }
+
+  @Nullable
+  static PsiFile getHbFile(@NotNull FileContent inputData) {
+    return inputData.getPsiFile().getViewProvider().getPsi(HbLanguage.INSTANCE);
+  }
+
+  static void addOffset(@NotNull Map<String, List<Integer>> map, @Nullable String key, @NotNull PsiElement element) {
+    if (!StringUtil.isEmpty(key)) {
+      map.computeIfAbsent(key, k -> new ArrayList<>()).add(element.getTextRange().getStartOffset());
+    }
+  }
+
+  /**
+   * Finds the elements starting at the offsets stored for the key in an offsets index
+   */
+  @NotNull
+  static <T extends PsiElement> List<T> findElements(@NotNull Project project,
+                                                     @NotNull ID<String, List<Integer>> indexId,
+                                                     @NotNull String key,
+                                                     @NotNull GlobalSearchScope scope,
+                                                     @NotNull Class<T> elementClass) {
+    final List<T> result = new ArrayList<>();
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    FileBasedIndex.getInstance().processValues(indexId, key, null, (file, offsets) -> {
+      final PsiFile psiFile = psiManager.findFile(file);
+      final PsiFile hbFile = psiFile != null ? psiFile.getViewProvider().getPsi(HbLanguage.INSTANCE) : null;
+      if (hbFile == null) {
+        return true;
+      }
+      for (int offset : offsets) {
+        final T element = PsiTreeUtil.getParentOfType(hbFile.findElementAt(offset), elementClass, false);
+        if (element != null && element.getTextRange().getStartOffset() == offset) {
+          result.add(element);
+        }
+      }
+      return true;
+    }, scope);
+    return result;
+  }
+}
@@ -0,0 +1,81 @@
+package com.dmarcotte.handlebars.index;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.CommonProcessors;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Templates by the name they are included with as partials, see {@link HbIndexUtil#getPartialName(String)}
+ */
+public class HbPartialFileIndex extends ScalarIndexExtension<String> {
+  public static final ID<String, Void> NAME = ID.create("handlebars.partial.files");
+  private final DataIndexer<String, Void, FileContent> myDataIndexer = new MyDataIndexer();
+
+  @NotNull
+  @Override
+  public ID<String, Void> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, Void, FileContent> getIndexer() {
+    return myDataIndexer;
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return HbIndexUtil.INPUT_FILTER;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return false;
+  }
+
+  @Override
+  public int getVersion() {
+    return HbIndexUtil.INDEX_VERSION;
+  }
+
+  @NotNull
+  public static Collection<VirtualFile> getFiles(@NotNull String partialName, @NotNull GlobalSearchScope scope) {
+    return FileBasedIndex.getInstance().getContainingFiles(NAME, partialName, scope);
+  }
+
+  /**
+   * Names of the templates which can be included as partials. Keys are filtered by the files of the scope's project,
+   * so templates outside a narrower scope may be reported too.
+   */
+  @NotNull
+  public static List<String> getPartialNames(@NotNull GlobalSearchScope scope) {
+    final List<String> result = new ArrayList<>();
+    FileBasedIndex.getInstance().processAllKeys(NAME, new CommonProcessors.CollectProcessor<>(result), scope, null);
+    return result;
+  }
+
+  private static class MyDataIndexer implements DataIndexer<String, Void, FileContent> {
+    @NotNull
+    @Override
+    public Map<String, Void> map(@NotNull FileContent inputData) {
+      return Collections.singletonMap(HbIndexUtil.getPartialName(inputData.getFileName()), null);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.application.QueryExecutorBase;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.util.Processor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Finds the partial staches including a template with {@link HbPartialUsageIndex} instead of a text search
+ * for its name
+ */
+public class HbPartialReferencesSearcher extends QueryExecutorBase<PsiReference, ReferencesSearch.SearchParameters> {
+  public HbPartialReferencesSearcher() {
+    super(true);
+  }
+
+  @Override
+  public void processQuery(@NotNull ReferencesSearch.SearchParameters queryParameters, @NotNull Processor<PsiReference> consumer) {
+    final PsiElement target = queryParameters.getElementToSearch();
+    final SearchScope scope = queryParameters.getEffectiveSearchScope();
+    if (!(target instanceof PsiFile) || ((PsiFile)target).getFileType() != HbFileType.INSTANCE || !(scope instanceof GlobalSearchScope)) {
+      return;
+    }
+
+    for (PsiReference reference : HbPartialUsageIndex.findReferences((PsiFile)target, (GlobalSearchScope)scope)) {
+      if (!consumer.process(reference)) {
+        return;
+      }
+    }
+  }
+}
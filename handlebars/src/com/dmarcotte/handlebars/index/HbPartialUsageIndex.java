@@ -0,0 +1,126 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.psi.HbPartialName;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.dmarcotte.handlebars.psi.impl.HbPartialReference;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import gnu.trove.THashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Partial stache names (<pre>{{> foo/bar}}</pre> and <pre>{{#> foo/bar}}</pre>) by the last segment of the partial path,
+ * with their offsets in the including template. The lookup by partial is the reverse index of which templates
+ * include it.
+ */
+public class HbPartialUsageIndex extends FileBasedIndexExtension<String, List<Integer>> {
+  public static final ID<String, List<Integer>> NAME = ID.create("handlebars.partial.usages");
+  private final DataIndexer<String, List<Integer>, FileContent> myDataIndexer = new MyDataIndexer();
+
+  @NotNull
+  @Override
+  public ID<String, List<Integer>> getName() {
+    return NAME;
+  }
+
+  @NotNull
+  @Override
+  public DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+    return myDataIndexer;
+  }
+
+  @NotNull
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @NotNull
+  @Override
+  public DataExternalizer<List<Integer>> getValueExternalizer() {
+    return HbIndexUtil.OFFSETS_EXTERNALIZER;
+  }
+
+  @NotNull
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return HbIndexUtil.INPUT_FILTER;
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  @Override
+  public int getVersion() {
+    return HbIndexUtil.INDEX_VERSION;
+  }
+
+  /**
+   * Partial names whose last segment is the given name. They don't necessarily refer to the same partial.
+   */
+  @NotNull
+  public static List<HbPartialName> findUsages(@NotNull Project project, @NotNull String shortName, @NotNull GlobalSearchScope scope) {
+    return HbIndexUtil.findElements(project, NAME, shortName, scope, HbPartialName.class);
+  }
+
+  /**
+   * References to the given template from the partial staches of other templates
+   */
+  @NotNull
+  public static List<PsiReference> findReferences(@NotNull PsiFile partial, @NotNull GlobalSearchScope scope) {
+    final List<PsiReference> result = new ArrayList<>();
+    for (HbPartialName usage : findUsages(partial.getProject(), HbIndexUtil.getPartialName(partial.getName()), scope)) {
+      for (PsiReference reference : usage.getReferences()) {
+        if (reference instanceof HbPartialReference && reference.isReferenceTo(partial)) {
+          result.add(reference);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Templates including the given one as a partial
+   */
+  @NotNull
+  public static Set<VirtualFile> findIncludingFiles(@NotNull PsiFile partial, @NotNull GlobalSearchScope scope) {
+    final Set<VirtualFile> result = new LinkedHashSet<>();
+    for (PsiReference reference : findReferences(partial, scope)) {
+      result.add(reference.getElement().getContainingFile().getVirtualFile());
+    }
+    return result;
+  }
+
+  private static class MyDataIndexer implements DataIndexer<String, List<Integer>, FileContent> {
+    @NotNull
+    @Override
+    public Map<String, List<Integer>> map(@NotNull FileContent inputData) {
+      final PsiFile file = HbIndexUtil.getHbFile(inputData);
+      if (file == null) {
+        return Collections.emptyMap();
+      }
+
+      final Map<String, List<Integer>> result = new THashMap<>();
+      for (HbPartialName partialName : PsiTreeUtil.findChildrenOfType(file, HbPartialName.class)) {
+        final TextRange range = HbPsiUtil.getPartialNameRange(partialName);
+        if (range != null) {
+          HbIndexUtil.addOffset(result, HbIndexUtil.getShortName(range.substring(partialName.getText())), partialName);
+        }
+      }
+      return result;
+    }
+  }
+}
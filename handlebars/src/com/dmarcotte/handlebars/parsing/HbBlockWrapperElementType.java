@@ -0,0 +1,79 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.intellij.lang.*;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.tree.IReparseableElementType;
+import com.intellij.util.diff.FlyweightCapableTreeStructure;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Element type of {@link HbTokenTypes#BLOCK_WRAPPER}: an edit inside a block reparses only that block, and the PSI of
+ * the rest of the template (including the block element itself) stays the same.
+ * <p/>
+ * The parser is not aware of this: blocks are built like any other composite during the full parse. On a change the
+ * innermost block containing it is checked with {@link #isParsable}, and its new children are merged into the old ones.
+ */
+class HbBlockWrapperElementType extends IReparseableElementType {
+  public HbBlockWrapperElementType(@NotNull @NonNls String debugName) {
+    super(debugName, HbLanguage.INSTANCE);
+  }
+
+  @Override
+  protected ASTNode doParseContents(@NotNull ASTNode chameleon, @NotNull PsiElement psi) {
+    final PsiBuilder builder =
+      PsiBuilderFactory.getInstance().createBuilder(psi.getProject(), chameleon, new HbLexer(), getLanguage(), chameleon.getChars());
+    final ASTNode root = new HbParser().parse(this, builder);
+
+    // isParsable has checked that the text is parsed as a single block
+    final ASTNode statements = root.getFirstChildNode();
+    assert statements != null && statements.getElementType() == HbTokenTypes.STATEMENTS : chameleon;
+    final ASTNode block = statements.getFirstChildNode();
+    assert block != null && block.getElementType() == HbTokenTypes.BLOCK_WRAPPER : chameleon;
+    return block.getFirstChildNode();
+  }
+
+  /**
+   * The parser handles a block the same way wherever it starts, so the new text can be parsed alone if it is still
+   * one complete block: from its open stache to its close stache, with nothing before or after it. Anything else
+   * (an unbalanced close stache, text typed right after the block, a block split in two) is left to the parent block
+   * or to the full reparse.
+   */
+  @Override
+  public boolean isParsable(@Nullable ASTNode parent, @NotNull CharSequence buffer, @NotNull Language fileLanguage, @NotNull Project project) {
+    if (!StringUtil.startsWith(buffer, "{{") || !StringUtil.endsWith(buffer, "}}")) {
+      return false;
+    }
+
+    final ParserDefinition parserDefinition = LanguageParserDefinitions.INSTANCE.forLanguage(getLanguage());
+    final PsiBuilder builder = PsiBuilderFactory.getInstance().createBuilder(parserDefinition, new HbLexer(), buffer);
+    final PsiBuilder.Marker root = builder.mark();
+    new HbParsing(builder).parse();
+    root.done(this);
+
+    final FlyweightCapableTreeStructure<LighterASTNode> tree = builder.getLightTree();
+    final LighterASTNode statements = getSingleChild(tree, tree.getRoot());
+    final LighterASTNode block = statements != null && statements.getTokenType() == HbTokenTypes.STATEMENTS
+                                 ? getSingleChild(tree, statements)
+                                 : null;
+    return block != null && block.getTokenType() == HbTokenTypes.BLOCK_WRAPPER &&
+           block.getStartOffset() == 0 && block.getEndOffset() == buffer.length();
+  }
+
+  @Nullable
+  private static LighterASTNode getSingleChild(@NotNull FlyweightCapableTreeStructure<LighterASTNode> tree, @NotNull LighterASTNode node) {
+    final Ref<LighterASTNode[]> children = new Ref<>();
+    final int count = tree.getChildren(node, children);
+    try {
+      return count == 1 ? children.get()[0] : null;
+    }
+    finally {
+      tree.disposeChildren(children.get(), count);
+    }
+  }
+}
@@ -1,8 +1,12 @@
 package com.dmarcotte.handlebars.psi;
 
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.util.PsiTreeUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class HbPsiUtil {
 
@@ -49,4 +53,41 @@ public class HbPsiUtil {
     return element instanceof HbStatements
            && statementsParent != null;
   }
+
+  /**
+   * Returns the range of the name of the referenced partial in the given element, i.e. "foo/bar" in
+   * <pre>{{> foo/bar}}</pre>
+   * or
+   * <pre>{{> "foo/bar"}}</pre>
+   * <p/>
+   * Returns null for dynamic partials (<pre>{{> (lookup . 'name')}}</pre>) which can't be resolved statically.
+   */
+  @Nullable
+  public static TextRange getPartialNameRange(@NotNull HbPartialName partialName) {
+    final String text = partialName.getText();
+    if (text.isEmpty() || text.indexOf('(') >= 0) {
+      return null;
+    }
+    if (StringUtil.isQuotedString(text)) {
+      return new TextRange(1, text.length() - 1);
+    }
+    return new TextRange(0, text.length());
+  }
+
+  /**
+   * Returns the name parameter of an inline partial definition, i.e. the element wrapping "foo" in
+   * <pre>{{#*inline "foo"}}</pre>
+   * <p/>
+   * Returns null if the given element doesn't open an inline partial.
+   */
+  @Nullable
+  public static HbParam getInlinePartialName(@NotNull HbOpenBlockMustache openBlock) {
+    final PsiElement open = openBlock.getFirstChild();
+    final HbMustacheName name = openBlock.getBlockMustacheName();
+    if (open == null || !StringUtil.endsWithChar(open.getText(), '*') || name == null || !"inline".equals(name.getName())) {
+      return null;
+    }
+    final HbParam param = PsiTreeUtil.getNextSiblingOfType(name, HbParam.class);
+    return param != null && StringUtil.isQuotedString(param.getText()) ? param : null;
+  }
 }
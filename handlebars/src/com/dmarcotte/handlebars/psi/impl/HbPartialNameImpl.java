@@ -1,7 +1,11 @@
 package com.dmarcotte.handlebars.psi.impl;
 
 import com.dmarcotte.handlebars.psi.HbPartialName;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
 import com.intellij.lang.ASTNode;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiReference;
+import com.intellij.util.ArrayUtil;
 import org.jetbrains.annotations.NotNull;
 
 public class HbPartialNameImpl extends HbPsiElementImpl implements HbPartialName {
@@ -13,4 +17,18 @@ public class HbPartialNameImpl extends HbPsiElementImpl implements HbPartialName
   public String getName() {
     return getText();
   }
+
+  @Override
+  public PsiReference getReference() {
+    final PsiReference[] references = getReferences();
+    return references.length > 0 ? references[0] : null;
+  }
+
+  @NotNull
+  @Override
+  public PsiReference[] getReferences() {
+    final PsiReference[] references = super.getReferences();
+    final TextRange range = HbPsiUtil.getPartialNameRange(this);
+    return range != null ? ArrayUtil.prepend(new HbPartialReference(this, range), references) : references;
+  }
 }
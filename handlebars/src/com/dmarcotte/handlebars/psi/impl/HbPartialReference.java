@@ -0,0 +1,121 @@
+package com.dmarcotte.handlebars.psi.impl;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.index.HbIndexUtil;
+import com.dmarcotte.handlebars.index.HbPartialFileIndex;
+import com.dmarcotte.handlebars.psi.HbOpenBlockMustache;
+import com.dmarcotte.handlebars.psi.HbParam;
+import com.dmarcotte.handlebars.psi.HbPartialName;
+import com.dmarcotte.handlebars.psi.HbPsiUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.IncorrectOperationException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Reference from a partial stache to the inline partial of the same template with that name, or else to the templates
+ * named after the last segment of the partial path (see {@link HbIndexUtil#getPartialName(String)}) which are in
+ * the directories of the path. Partials may also be registered from code, so the reference is soft.
+ */
+public class HbPartialReference extends PsiPolyVariantReferenceBase<HbPartialName> {
+  private static final ResolveCache.PolyVariantResolver<HbPartialReference> RESOLVER =
+    (reference, incompleteCode) -> reference.doResolve();
+
+  public HbPartialReference(@NotNull HbPartialName element, @NotNull TextRange rangeInElement) {
+    super(element, rangeInElement, true);
+  }
+
+  @NotNull
+  @Override
+  public ResolveResult[] multiResolve(boolean incompleteCode) {
+    return ResolveCache.getInstance(getElement().getProject()).resolveWithCaching(this, RESOLVER, false, incompleteCode);
+  }
+
+  @NotNull
+  private ResolveResult[] doResolve() {
+    final String path = getValue();
+    final List<PsiElement> inlinePartials = findInlinePartials(path);
+    if (!inlinePartials.isEmpty()) {
+      return PsiElementResolveResult.createResults(inlinePartials);
+    }
+
+    final Project project = getElement().getProject();
+    final String shortName = HbIndexUtil.getShortName(path);
+    final String directory = path.substring(0, path.length() - shortName.length());
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    final List<PsiElement> result = new ArrayList<>();
+    for (VirtualFile file : HbPartialFileIndex.getFiles(shortName, GlobalSearchScope.allScope(project))) {
+      final VirtualFile parent = file.getParent();
+      if (directory.isEmpty() || parent != null && (parent.getPath() + "/").endsWith("/" + directory)) {
+        final PsiFile psiFile = psiManager.findFile(file);
+        if (psiFile != null) {
+          result.add(psiFile);
+        }
+      }
+    }
+    return PsiElementResolveResult.createResults(result);
+  }
+
+  @NotNull
+  private List<PsiElement> findInlinePartials(@NotNull String name) {
+    final List<PsiElement> result = new ArrayList<>();
+    final PsiFile file = getElement().getContainingFile();
+    for (HbOpenBlockMustache openBlock : PsiTreeUtil.findChildrenOfType(file, HbOpenBlockMustache.class)) {
+      final HbParam inlineName = HbPsiUtil.getInlinePartialName(openBlock);
+      if (inlineName != null && name.equals(StringUtil.unquoteString(inlineName.getText()))) {
+        result.add(inlineName);
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  @Override
+  public Object[] getVariants() {
+    final Set<String> result = new LinkedHashSet<>();
+    final PsiFile file = getElement().getContainingFile();
+    for (HbOpenBlockMustache openBlock : PsiTreeUtil.findChildrenOfType(file, HbOpenBlockMustache.class)) {
+      final HbParam inlineName = HbPsiUtil.getInlinePartialName(openBlock);
+      if (inlineName != null) {
+        result.add(StringUtil.unquoteString(inlineName.getText()));
+      }
+    }
+    final Project project = getElement().getProject();
+    result.addAll(HbPartialFileIndex.getPartialNames(GlobalSearchScope.allScope(project)));
+    return ArrayUtil.toObjectArray(result);
+  }
+
+  /**
+   * Renaming a template renames the last segment of the path in the partial staches including it, renaming an inline
+   * partial replaces the whole name
+   */
+  @Override
+  public PsiElement handleElementRename(String newElementName) throws IncorrectOperationException {
+    final TextRange range = getRangeInElement();
+    final String text = getElement().getText();
+    final boolean inline = !findInlinePartials(getValue()).isEmpty();
+    final int nameStart = inline ? range.getStartOffset() : range.getEndOffset() - HbIndexUtil.getShortName(getValue()).length();
+    final String newName = inline ? newElementName : HbIndexUtil.getPartialName(newElementName);
+    final String newText = text.substring(0, nameStart) + newName + text.substring(range.getEndOffset());
+
+    final PsiFile dummyFile = PsiFileFactory.getInstance(getElement().getProject())
+      .createFileFromText("dummy.hbs", HbLanguage.INSTANCE, "{{> " + newText + "}}");
+    final HbPartialName newName = PsiTreeUtil.findChildOfType(dummyFile, HbPartialName.class);
+    if (newName == null) {
+      throw new IncorrectOperationException("Invalid partial name: " + newText);
+    }
+    return getElement().replace(newName);
+  }
+}
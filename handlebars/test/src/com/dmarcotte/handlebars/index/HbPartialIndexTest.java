@@ -0,0 +1,169 @@
+package com.dmarcotte.handlebars.index;
+
+import com.dmarcotte.handlebars.psi.HbMustacheName;
+import com.dmarcotte.handlebars.psi.HbParam;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+public class HbPartialIndexTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(HbPartialIndexTest.class);
+
+  public void testResolvePartialByPath() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{> partials/part<caret>ial7 title=title}}");
+    final ResolveResult[] results = multiResolve();
+    assertEquals(1, results.length);
+    assertEquals("_partial7.hbs", ((PsiFile)results[0].getElement()).getName());
+  }
+
+  public void testResolvePartialByName() {
+    generateProject(20, 40);
+    myFixture.addFileToProject("other/partial7.hbs", "<p>other</p>");
+    myFixture.configureByText("page.hbs", "{{#> partial<caret>7}}default{{/partial7}}");
+    assertEquals(2, multiResolve().length);
+  }
+
+  public void testResolveQuotedPartial() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{> \"partials/part<caret>ial7\"}}");
+    assertEquals(1, multiResolve().length);
+  }
+
+  public void testInlinePartialShadowsFiles() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{#*inline \"partial7\"}}inline{{/inline}}{{> part<caret>ial7}}");
+    final ResolveResult[] results = multiResolve();
+    assertEquals(1, results.length);
+    assertInstanceOf(results[0].getElement(), HbParam.class);
+  }
+
+  public void testIncludingFiles() {
+    generateProject(20, 40);
+    final Set<VirtualFile> files = HbPartialUsageIndex.findIncludingFiles(findPartial(7), GlobalSearchScope.allScope(getProject()));
+    final List<String> names = new ArrayList<>();
+    for (VirtualFile file : files) {
+      names.add(file.getName());
+    }
+    assertSameElements(names, "page6.hbs", "page7.hbs", "page26.hbs", "page27.hbs");
+  }
+
+  public void testFindUsages() {
+    generateProject(20, 40);
+    myFixture.addFileToProject("other/page.hbs", "{{> other/partial7}}");
+    assertSize(4, myFixture.findUsages(findPartial(7)));
+  }
+
+  public void testRenamePartial() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{> partials/partial7}} {{> \"partial7\" x=1}} {{> partial8}}");
+    myFixture.renameElement(findPartial(7), "_card.hbs");
+    myFixture.checkResult("{{> partials/card}} {{> \"card\" x=1}} {{> partial8}}");
+  }
+
+  public void testRenameInlinePartial() {
+    myFixture.configureByText("page.hbs", "{{#*inline \"row\"}}{{/inline}}{{> r<caret>ow}}");
+    final PsiReference reference = myFixture.getReferenceAtCaretPositionWithAssertion();
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      reference.handleElementRename("_row");
+    });
+    myFixture.checkResult("{{#*inline \"row\"}}{{/inline}}{{> _row}}");
+  }
+
+  public void testPartialCompletion() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{#*inline \"row\"}}{{/inline}}{{> <caret>}}");
+    myFixture.completeBasic();
+    final List<String> strings = myFixture.getLookupElementStrings();
+    assertNotNull(strings);
+    assertContainsElements(strings, "row", "partial0", "partial19", "layout");
+  }
+
+  public void testHelperCompletion() {
+    generateProject(20, 40);
+    myFixture.configureByText("page.hbs", "{{#<caret>}}{{/}}");
+    myFixture.completeBasic();
+    final List<String> strings = myFixture.getLookupElementStrings();
+    assertNotNull(strings);
+    assertContainsElements(strings, "if", "each", "helper0", "helper9");
+    assertDoesntContain(strings, "inline", "layout");
+  }
+
+  public void testHelperUsages() {
+    generateProject(20, 60);
+    final List<HbMustacheName> usages = HbBlockHelperIndex.findUsages(getProject(), "helper3", GlobalSearchScope.allScope(getProject()));
+    assertSize(2, usages);
+    for (HbMustacheName usage : usages) {
+      assertEquals("helper3", usage.getName());
+    }
+  }
+
+  /**
+   * Lookups on a project of a few thousand templates: resolving partial staches, the templates including
+   * a partial and the usages of block helpers.
+   */
+  public void testLookupBenchmark() {
+    final int partials = 500;
+    final int pages = 3000;
+    generateProject(partials, pages);
+    final GlobalSearchScope scope = GlobalSearchScope.allScope(getProject());
+    final PsiFile page = myFixture.configureByText("page.hbs", "{{> partials/partial1}}");
+    final PsiReference reference = page.findReferenceAt(page.getText().indexOf("partial1"));
+    assertNotNull(reference);
+    // the generated pages and the configured one, this also brings the indexes up to date
+    assertSize(13, HbPartialUsageIndex.findIncludingFiles(findPartial(1), scope));
+
+    int count = 0;
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < partials; i++) {
+      final PsiFile partial = findPartial(i);
+      count += HbPartialUsageIndex.findIncludingFiles(partial, scope).size();
+      count += HbBlockHelperIndex.findUsages(getProject(), "helper" + i % 50, scope).size();
+      count += HbPartialFileIndex.getFiles("partial" + i, scope).size();
+    }
+    assertNotNull(((PsiPolyVariantReference)reference).multiResolve(false));
+    assertSize(partials + pages + 2, HbPartialFileIndex.getPartialNames(scope));
+    LOG.info(partials + " partials and " + pages + " pages: " + count + " results, " +
+             (System.currentTimeMillis() - start) * 1000 / (3 * partials) + "us per lookup");
+  }
+
+  private ResolveResult[] multiResolve() {
+    final PsiReference reference = myFixture.getReferenceAtCaretPositionWithAssertion();
+    assertInstanceOf(reference, PsiPolyVariantReference.class);
+    return ((PsiPolyVariantReference)reference).multiResolve(false);
+  }
+
+  private PsiFile findPartial(int i) {
+    final PsiFile file = myFixture.getPsiManager().findFile(myFixture.findFileInTempDir("partials/_partial" + i + ".hbs"));
+    assertNotNull(file);
+    return file;
+  }
+
+  /**
+   * Partials {@code partials/_partial<i>.hbs}, a layout and pages {@code pages/page<i>.hbs} including partials
+   * {@code i % partials} and {@code (i + 1) % partials}, and calling block helper {@code helper<i % 50>}.
+   */
+  private void generateProject(int partials, int pages) {
+    for (int i = 0; i < partials; i++) {
+      myFixture.addFileToProject("partials/_partial" + i + ".hbs", "<p>{{title}} " + i + "</p>\n");
+    }
+    myFixture.addFileToProject("layouts/-layout.hbs", "<main>{{> @partial-block}}</main>\n");
+    for (int i = 0; i < pages; i++) {
+      myFixture.addFileToProject("pages/page" + i + ".hbs",
+                                 "{{#> layout}}\n" +
+                                 "  {{> partials/partial" + i % partials + " title=title}}\n" +
+                                 "  {{#each items as |item|}}\n" +
+                                 "    {{> \"partial" + (i + 1) % partials + "\" item=item}}\n" +
+                                 "  {{/each}}\n" +
+                                 "  {{#helper" + i % 50 + " item}}{{item.name}}{{/helper" + i % 50 + "}}\n" +
+                                 "{{/layout}}\n");
+    }
+  }
+}
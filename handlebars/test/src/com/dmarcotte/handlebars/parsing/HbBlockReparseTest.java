@@ -0,0 +1,194 @@
+package com.dmarcotte.handlebars.parsing;
+
+import com.dmarcotte.handlebars.HbLanguage;
+import com.dmarcotte.handlebars.file.HbFileType;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.intellij.psi.impl.DebugUtil;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Edits inside {@code {{#block}}...{{/block}}} sections, checked against a fresh parse of the changed template.
+ */
+public class HbBlockReparseTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(HbBlockReparseTest.class);
+
+  public void testTypingInBlockKeepsOuterPsi() {
+    final String text = generateTemplate(50);
+    final int offset = text.indexOf("{{item.name}}", text.indexOf("section-25")) + "{{item.".length();
+    final PsiFile file = configure(text);
+    final List<PsiElement> blocks = getTopLevelBlocks(file);
+    final PsiElement editedLeaf = file.findElementAt(offset);
+    assertNotNull(editedLeaf);
+    final List<PsiElement> elements = collectElements(file);
+
+    for (char c : "Typed".toCharArray()) {
+      insert(offset, String.valueOf(c));
+    }
+
+    assertEquals(blocks, getTopLevelBlocks(file));
+    for (PsiElement block : blocks) {
+      assertTrue(block.isValid());
+    }
+    assertFalse(editedLeaf.isValid());
+    assertEquals("Only the edited leaf should be replaced", 1, countInvalid(elements));
+    checkReparsed(file);
+  }
+
+  public void testTypingInNestedBlock() {
+    final String text = generateTemplate(10);
+    final int offset = text.indexOf("No items", text.indexOf("section-5")) + "No".length();
+    final PsiFile file = configure(text);
+    final List<PsiElement> elements = collectElements(file);
+
+    insert(offset, " more");
+    insert(offset, "{{#if loading}}Loading{{/if}}");
+
+    assertEquals("Only the edited content should be replaced", 1, countInvalid(elements));
+    checkReparsed(file);
+  }
+
+  public void testStructuralChanges() {
+    final String text = generateTemplate(10);
+    final int section = text.indexOf("section-5");
+    final int closeEach = text.indexOf("{{/each}}", section);
+    final int closeIf = text.indexOf("{{/if}}", section);
+    final int afterIf = closeIf + "{{/if}}".length();
+    final int items = text.indexOf("{{item.name}}", section);
+
+    doTest(text, closeEach, closeEach + "{{/each}}".length(), "");
+    doTest(text, closeIf, afterIf, "{{/each}}");
+    doTest(text, afterIf, afterIf, "x");
+    doTest(text, afterIf - 2, afterIf, "");
+    doTest(text, section, closeIf, "{{#each}}");
+    for (String inserted : new String[]{"{{/if}}", "{{#if x}}", "{{^}}", "{{else if y}}", "{{!-- unclosed", "{{{{raw}}}}", "\\"}) {
+      doTest(text, items, items, inserted);
+    }
+  }
+
+  /**
+   * Keystroke reparse time and PSI churn on a large Ember-style template, compared with parsing the whole template.
+   */
+  public void testTypingBenchmark() {
+    final String text = generateTemplate(500);
+    final int offset = text.indexOf("{{item.name}}", text.indexOf("section-250")) + "{{item.".length();
+    final int keystrokes = 30;
+    final PsiFile file = configure(text);
+    final List<PsiElement> elements = collectElements(file);
+
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < keystrokes; i++) {
+      insert(offset, "x");
+    }
+    final long incrementalTime = System.currentTimeMillis() - start;
+    final int churn = countInvalid(elements);
+
+    final String typed = myFixture.getEditor().getDocument().getText();
+    start = System.currentTimeMillis();
+    for (int i = 0; i < keystrokes; i++) {
+      for (PsiFile root : createFile(typed).getViewProvider().getAllFiles()) {
+        assertNotNull(root.getNode().getFirstChildNode());
+      }
+    }
+    final long fullTime = System.currentTimeMillis() - start;
+
+    LOG.info(keystrokes + " keystrokes in " + text.length() + " chars, " + elements.size() + " PSI elements: block reparse " +
+             incrementalTime + "ms, full parse " + fullTime + "ms, " + churn + " elements invalidated");
+    assertTrue("block reparse " + incrementalTime + "ms, full parse " + fullTime + "ms", incrementalTime < fullTime);
+    assertEquals(1, churn);
+    checkReparsed(file);
+  }
+
+  private void doTest(String text, int start, int end, String replacement) {
+    final PsiFile file = configure(text);
+    replace(start, end, replacement);
+    checkReparsed(file);
+  }
+
+  private PsiFile configure(String text) {
+    myFixture.configureByText(HbFileType.INSTANCE, text);
+    return myFixture.getFile().getViewProvider().getPsi(HbLanguage.INSTANCE);
+  }
+
+  private void insert(int offset, String text) {
+    replace(offset, offset, text);
+  }
+
+  private void replace(int start, int end, String text) {
+    final Document document = myFixture.getEditor().getDocument();
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> document.replaceString(start, end, text));
+    PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+  }
+
+  private void checkReparsed(PsiFile file) {
+    assertEquals(DebugUtil.psiToString(createFile(file.getText()), false, true), DebugUtil.psiToString(file, false, true));
+  }
+
+  private PsiFile createFile(String text) {
+    return PsiFileFactory.getInstance(getProject()).createFileFromText("fresh.hbs", HbFileType.INSTANCE, text)
+      .getViewProvider().getPsi(HbLanguage.INSTANCE);
+  }
+
+  private static List<PsiElement> getTopLevelBlocks(PsiFile file) {
+    final List<PsiElement> result = new ArrayList<>();
+    final PsiElement statements = file.getFirstChild();
+    assertNotNull(statements);
+    for (PsiElement child = statements.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child.getNode().getElementType() == HbTokenTypes.BLOCK_WRAPPER) {
+        result.add(child);
+      }
+    }
+    return result;
+  }
+
+  private static List<PsiElement> collectElements(PsiFile file) {
+    final List<PsiElement> result = new ArrayList<>();
+    PsiTreeUtil.processElements(file, element -> result.add(element));
+    return result;
+  }
+
+  private static int countInvalid(List<PsiElement> elements) {
+    int result = 0;
+    for (PsiElement element : elements) {
+      if (!element.isValid()) result++;
+    }
+    return result;
+  }
+
+  /**
+   * Sections of nested {@code if}, {@code each} and component blocks, about 20 lines per section.
+   */
+  static String generateTemplate(int sections) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < sections; i++) {
+      result.append("<div class=\"section-").append(i).append("\">\n")
+        .append("  {{#if model.items}}\n")
+        .append("    <ul>\n")
+        .append("    {{#each model.items as |item index|}}\n")
+        .append("      <li {{action \"select\" item}}>{{item.name}} {{format-date item.date format=\"short\"}}</li>\n")
+        .append("    {{else}}\n")
+        .append("      <li>No items</li>\n")
+        .append("    {{/each}}\n")
+        .append("    </ul>\n")
+        .append("  {{else}}\n")
+        .append("    {{> empty-state message=(t \"empty\")}}\n")
+        .append("  {{/if}}\n")
+        .append("  {{#my-component title=title onSave=(action \"save\") as |c|}}\n")
+        .append("    {{!-- component body --}}\n")
+        .append("    {{c.body}}\n")
+        .append("    {{#unless c.collapsed}}{{{c.details}}}{{/unless}}\n")
+        .append("  {{/my-component}}\n")
+        .append("</div>\n");
+    }
+    return result.toString();
+  }
+}
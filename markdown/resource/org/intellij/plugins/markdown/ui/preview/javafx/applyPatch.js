@@ -0,0 +1,69 @@
+if (window.__IntelliJTools === undefined) {
+  window.__IntelliJTools = {}
+}
+
+window.__IntelliJTools.applyPatch = (function () {
+  var blockAttributeName;
+  var srcAttributeName;
+
+  var findBlock = function (key) {
+    for (var child = document.body.firstElementChild; child !== null; child = child.nextElementSibling) {
+      if (child.getAttribute(blockAttributeName) === String(key)) {
+        return child
+      }
+    }
+    return null
+  }
+
+  var shiftSrcPositions = function (element, delta) {
+    var attrValue = element.getAttribute(srcAttributeName);
+    if (attrValue) {
+      var fromTo = attrValue.split('..');
+      element.setAttribute(srcAttributeName, (parseInt(fromTo[0]) + delta) + '..' + (parseInt(fromTo[1]) + delta))
+    }
+    for (var child = element.firstElementChild; child !== null; child = child.nextElementSibling) {
+      shiftSrcPositions(child, delta)
+    }
+  }
+
+  // returns false if the page doesn't contain the blocks the patch was made for, then it should be reloaded
+  var applyPatch = function (operations, length, newBlockAttributeName, newSrcAttributeName) {
+    blockAttributeName = newBlockAttributeName;
+    srcAttributeName = newSrcAttributeName;
+
+    var body = document.body;
+    if (!body) {
+      return false
+    }
+
+    for (var i = 0; i < operations.length; i++) {
+      var operation = operations[i];
+      var block = operation.key === 0 ? null : findBlock(operation.key);
+      if (operation.key !== 0 && block === null) {
+        return false
+      }
+
+      if (operation.kind === 'REMOVE') {
+        body.removeChild(block)
+      }
+      else if (operation.kind === 'INSERT') {
+        if (block !== null) {
+          block.insertAdjacentHTML('afterend', operation.html)
+        }
+        else {
+          body.insertAdjacentHTML('afterbegin', operation.html)
+        }
+      }
+      else if (operation.kind === 'SHIFT') {
+        for (; block !== null; block = block.nextElementSibling) {
+          shiftSrcPositions(block, operation.delta)
+        }
+      }
+    }
+
+    body.setAttribute(srcAttributeName, '0..' + length);
+    return true
+  }
+
+  return applyPatch
+})()
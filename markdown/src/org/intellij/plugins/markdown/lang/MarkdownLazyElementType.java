@@ -1,20 +1,25 @@
 package org.intellij.plugins.markdown.lang;
 
 import com.intellij.lang.ASTNode;
+import com.intellij.lang.Language;
 import com.intellij.lang.PsiBuilder;
 import com.intellij.lang.PsiBuilderFactory;
 import com.intellij.lexer.Lexer;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.tree.ILazyParseableElementType;
+import com.intellij.psi.tree.IReparseableElementType;
 import org.intellij.markdown.parser.MarkdownParser;
 import org.intellij.plugins.markdown.lang.lexer.MarkdownLexerAdapter;
 import org.intellij.plugins.markdown.lang.parser.MarkdownParserManager;
 import org.intellij.plugins.markdown.lang.parser.PsiBuilderFillingVisitor;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-public class MarkdownLazyElementType extends ILazyParseableElementType {
+import java.util.List;
+
+public class MarkdownLazyElementType extends IReparseableElementType {
   public MarkdownLazyElementType(@NotNull @NonNls String debugName) {
     super(debugName, MarkdownLanguage.INSTANCE);
   }
@@ -35,4 +40,29 @@ public class MarkdownLazyElementType extends ILazyParseableElementType {
 
     return builder.getTreeBuilt().getFirstChildNode();
   }
+
+  /**
+   * Top-level paragraphs are reparsed alone while the changed text is still one paragraph. The block structure
+   * around it stays the same unless the first line could continue the previous block: indented lines may belong
+   * to a list item and lines with pipes to a table, such changes are left to the full reparse.
+   */
+  @Override
+  public boolean isParsable(@Nullable ASTNode parent, @NotNull CharSequence buffer, @NotNull Language fileLanguage, @NotNull Project project) {
+    if (parent == null || parent.getElementType() != MarkdownElementTypes.MARKDOWN_FILE ||
+        MarkdownElementType.markdownType(this) != org.intellij.markdown.MarkdownElementTypes.PARAGRAPH) {
+      return false;
+    }
+    if (buffer.length() == 0 || Character.isWhitespace(buffer.charAt(0)) || Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
+      return false;
+    }
+    final int firstLineEnd = StringUtil.indexOf(buffer, '\n');
+    if (StringUtil.indexOf(buffer, '|', 0, firstLineEnd < 0 ? buffer.length() : firstLineEnd) >= 0) return false;
+
+    final List<org.intellij.markdown.ast.ASTNode> blocks = new MarkdownParser(MarkdownParserManager.FLAVOUR)
+      .parse(org.intellij.markdown.MarkdownElementTypes.MARKDOWN_FILE, buffer.toString(), false).getChildren();
+    if (blocks.size() != 1) return false;
+    final org.intellij.markdown.ast.ASTNode block = blocks.get(0);
+    return block.getType() == org.intellij.markdown.MarkdownElementTypes.PARAGRAPH &&
+           block.getStartOffset() == 0 && block.getEndOffset() == buffer.length();
+  }
 }
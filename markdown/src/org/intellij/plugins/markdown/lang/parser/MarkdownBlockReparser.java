@@ -0,0 +1,158 @@
+package org.intellij.plugins.markdown.lang.parser;
+
+import org.intellij.markdown.IElementType;
+import org.intellij.markdown.MarkdownElementTypes;
+import org.intellij.markdown.MarkdownTokenTypes;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.ast.CompositeASTNode;
+import org.intellij.markdown.ast.LeafASTNode;
+import org.intellij.markdown.ast.impl.ListCompositeNode;
+import org.intellij.markdown.ast.impl.ListItemCompositeNode;
+import org.intellij.markdown.flavours.MarkdownFlavourDescriptor;
+import org.intellij.markdown.parser.MarkdownParser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Updates the top-level tree of a document after an edit by parsing only the top-level blocks touched by the change
+ * together with one unchanged block on each side. The result is accepted only if those neighbours are parsed
+ * exactly as before: then the edit has not changed the block structure around the range and the rest of the old
+ * tree is reused, shifted by the length change.
+ */
+class MarkdownBlockReparser {
+  private MarkdownBlockReparser() {
+  }
+
+  /**
+   * @param oldTree the tree of {@code oldText} parsed with the same flavour and {@code parseInlines}
+   * @return the tree of {@code newText}, or null if the change can't be handled locally and the whole text should be parsed
+   */
+  @Nullable
+  static ASTNode reparse(@NotNull CharSequence oldText,
+                         @NotNull ASTNode oldTree,
+                         @NotNull CharSequence newText,
+                         @NotNull MarkdownFlavourDescriptor flavour,
+                         boolean parseInlines) {
+    final List<ASTNode> children = oldTree.getChildren();
+    if (children.isEmpty() || oldTree.getStartOffset() != 0 || oldTree.getEndOffset() != oldText.length()) return null;
+
+    final int oldLength = oldText.length();
+    final int newLength = newText.length();
+    final int maxCommon = Math.min(oldLength, newLength);
+    int prefix = 0;
+    while (prefix < maxCommon && oldText.charAt(prefix) == newText.charAt(prefix)) prefix++;
+    int suffix = 0;
+    while (suffix < maxCommon - prefix && oldText.charAt(oldLength - suffix - 1) == newText.charAt(newLength - suffix - 1)) suffix++;
+    final int changeStart = prefix;
+    final int changeEnd = oldLength - suffix;
+    final int delta = newLength - oldLength;
+
+    // the blocks touched by the change and one block before and after them
+    int first = 0;
+    while (first < children.size() - 1 && children.get(first).getEndOffset() < changeStart) first++;
+    final int before = findBlock(children, first - 1, -1);
+    int last = children.size() - 1;
+    while (last > 0 && children.get(last).getStartOffset() > changeEnd) last--;
+    final int after = findBlock(children, last + 1, 1);
+
+    final int regionStart = before < 0 ? 0 : lineStart(oldText, children.get(before).getStartOffset());
+    final int regionEnd = after < 0 ? oldLength : lineEnd(oldText, children.get(after).getEndOffset());
+    final int firstIndex = findChildStartingAt(children, regionStart);
+    final int lastIndex = findChildEndingAt(children, regionEnd);
+    if (firstIndex < 0 || lastIndex < firstIndex) return null;
+
+    // the region is parsed together with the line break before it: some inline elements (e.g. header content)
+    // are parsed differently at the very start of a text
+    final int contextStart = regionStart > 0 ? regionStart - 1 : 0;
+    final String regionText = newText.subSequence(contextStart, regionEnd + delta).toString();
+    final ASTNode region = new MarkdownParser(flavour).parse(MarkdownElementTypes.MARKDOWN_FILE, regionText, parseInlines);
+    List<ASTNode> regionChildren = region.getChildren();
+    if (regionChildren.isEmpty() || region.getStartOffset() != 0 || region.getEndOffset() != regionText.length()) return null;
+    if (contextStart < regionStart) {
+      final ASTNode lineBreak = regionChildren.get(0);
+      if (lineBreak.getType() != MarkdownTokenTypes.EOL || lineBreak.getEndOffset() != 1) return null;
+      regionChildren = regionChildren.subList(1, regionChildren.size());
+    }
+
+    final int newFirstBlock = findBlock(regionChildren, 0, 1);
+    final int newLastBlock = findBlock(regionChildren, regionChildren.size() - 1, -1);
+    if (before >= 0 && (newFirstBlock < 0 || !sameBlock(children.get(before), 0, regionChildren.get(newFirstBlock), contextStart))) {
+      return null;
+    }
+    if (after >= 0 && (newLastBlock < 0 || !sameBlock(children.get(after), delta, regionChildren.get(newLastBlock), contextStart))) {
+      return null;
+    }
+
+    final List<ASTNode> result = new ArrayList<>(children.size() + regionChildren.size());
+    result.addAll(children.subList(0, firstIndex));
+    for (ASTNode child : regionChildren) {
+      result.add(shift(child, contextStart));
+    }
+    for (ASTNode child : children.subList(lastIndex + 1, children.size())) {
+      result.add(shift(child, delta));
+    }
+    return new CompositeASTNode(oldTree.getType(), result);
+  }
+
+  private static int findBlock(@NotNull List<ASTNode> children, int from, int step) {
+    for (int i = from; i >= 0 && i < children.size(); i += step) {
+      final IElementType type = children.get(i).getType();
+      if (type != MarkdownTokenTypes.EOL && type != MarkdownTokenTypes.WHITE_SPACE) return i;
+    }
+    return -1;
+  }
+
+  private static int findChildStartingAt(@NotNull List<ASTNode> children, int offset) {
+    for (int i = 0; i < children.size(); i++) {
+      final int start = children.get(i).getStartOffset();
+      if (start == offset) return i;
+      if (start > offset) break;
+    }
+    return -1;
+  }
+
+  private static int findChildEndingAt(@NotNull List<ASTNode> children, int offset) {
+    for (int i = children.size() - 1; i >= 0; i--) {
+      final int end = children.get(i).getEndOffset();
+      if (end == offset) return i;
+      if (end < offset) break;
+    }
+    return -1;
+  }
+
+  private static boolean sameBlock(@NotNull ASTNode oldBlock, int oldShift, @NotNull ASTNode newBlock, int newShift) {
+    return oldBlock.getType() == newBlock.getType() &&
+           oldBlock.getStartOffset() + oldShift == newBlock.getStartOffset() + newShift &&
+           oldBlock.getEndOffset() + oldShift == newBlock.getEndOffset() + newShift;
+  }
+
+  private static int lineStart(@NotNull CharSequence text, int offset) {
+    while (offset > 0 && text.charAt(offset - 1) != '\n') offset--;
+    return offset;
+  }
+
+  private static int lineEnd(@NotNull CharSequence text, int offset) {
+    while (offset < text.length() && text.charAt(offset) != '\n') offset++;
+    return offset;
+  }
+
+  @NotNull
+  private static ASTNode shift(@NotNull ASTNode node, int delta) {
+    if (delta == 0) return node;
+
+    final List<ASTNode> children = node.getChildren();
+    if (children.isEmpty()) {
+      return new LeafASTNode(node.getType(), node.getStartOffset() + delta, node.getEndOffset() + delta);
+    }
+    final List<ASTNode> shifted = new ArrayList<>(children.size());
+    for (ASTNode child : children) {
+      shifted.add(shift(child, delta));
+    }
+    if (node instanceof ListItemCompositeNode) return new ListItemCompositeNode(shifted);
+    if (node instanceof ListCompositeNode) return new ListCompositeNode(node.getType(), shifted);
+    return new CompositeASTNode(node.getType(), shifted);
+  }
+}
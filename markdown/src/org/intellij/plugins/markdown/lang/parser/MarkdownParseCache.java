@@ -0,0 +1,212 @@
+package org.intellij.plugins.markdown.lang.parser;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.text.StringUtil;
+import org.intellij.markdown.MarkdownElementTypes;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.flavours.MarkdownFlavourDescriptor;
+import org.intellij.markdown.parser.MarkdownParser;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed trees of recently seen texts, shared by the lexer, the parser and the preview, so a version of a document
+ * is parsed once however many of them ask for it and on whatever threads.
+ * <p/>
+ * Trees are looked up by the hash of the text, the flavour and whether inline elements are parsed; the texts are
+ * compared on a hit. A text which is not in the cache is parsed incrementally from the last text parsed
+ * the same way on the current thread if possible, see {@link MarkdownBlockReparser}. The least recently used trees
+ * are dropped when the total length of their texts or their number exceeds the limit.
+ * <p/>
+ * The counters are logged in debug mode on every eviction.
+ */
+public class MarkdownParseCache {
+  private static final Logger LOG = Logger.getInstance(MarkdownParseCache.class);
+
+  private static final int MAX_TOTAL_LENGTH = 1024 * 1024;
+  private static final int MAX_ENTRIES = 16;
+  private static final MarkdownParseCache ourInstance = new MarkdownParseCache(MAX_TOTAL_LENGTH, MAX_ENTRIES);
+
+  private final int myMaxTotalLength;
+  private final int myMaxEntries;
+  private final Map<Key, Entry> myEntries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ThreadLocal<Map<Kind, Entry>> myLastEntries = ThreadLocal.withInitial(() -> new HashMap<>(4));
+  private long myTotalLength;
+
+  private long myHits;
+  private long myMisses;
+  private long myIncrementalParses;
+  private long myEvictions;
+
+  MarkdownParseCache(int maxTotalLength, int maxEntries) {
+    myMaxTotalLength = maxTotalLength;
+    myMaxEntries = maxEntries;
+  }
+
+  public static MarkdownParseCache getInstance() {
+    return ourInstance;
+  }
+
+  /**
+   * @param parseInlines whether the tree should contain inline elements (emphasis, links etc.) or only blocks
+   */
+  @NotNull
+  public ASTNode getTree(@NotNull CharSequence text, @NotNull MarkdownFlavourDescriptor flavour, boolean parseInlines) {
+    final Kind kind = new Kind(flavour, parseInlines);
+    final Key key = new Key(kind, StringUtil.stringHashCode(text), text.length());
+    final Map<Kind, Entry> lastEntries = myLastEntries.get();
+
+    Entry entry;
+    synchronized (this) {
+      entry = myEntries.get(key);
+      if (entry != null && StringUtil.equals(entry.myText, text)) {
+        myHits++;
+        lastEntries.put(kind, entry);
+        return entry.myTree;
+      }
+      myMisses++;
+    }
+
+    final String textCopy = text.toString();
+    final Entry lastEntry = lastEntries.get(kind);
+    ASTNode tree = lastEntry != null ? MarkdownBlockReparser.reparse(lastEntry.myText, lastEntry.myTree, textCopy, flavour, parseInlines) : null;
+    if (tree != null) {
+      synchronized (this) {
+        myIncrementalParses++;
+      }
+    }
+    else {
+      tree = new MarkdownParser(flavour).parse(MarkdownElementTypes.MARKDOWN_FILE, textCopy, parseInlines);
+    }
+
+    entry = new Entry(textCopy, tree);
+    lastEntries.put(kind, entry);
+    if (textCopy.length() <= myMaxTotalLength) {
+      put(key, entry);
+    }
+    return tree;
+  }
+
+  private synchronized void put(@NotNull Key key, @NotNull Entry entry) {
+    final Entry old = myEntries.put(key, entry);
+    if (old != null) {
+      myTotalLength -= old.myText.length();
+    }
+    myTotalLength += entry.myText.length();
+
+    boolean evicted = false;
+    for (Iterator<Entry> it = myEntries.values().iterator();
+         it.hasNext() && (myTotalLength > myMaxTotalLength || myEntries.size() > myMaxEntries); ) {
+      myTotalLength -= it.next().myText.length();
+      it.remove();
+      myEvictions++;
+      evicted = true;
+    }
+    if (evicted && LOG.isDebugEnabled()) {
+      LOG.debug(getStatistics().toString());
+    }
+  }
+
+  @NotNull
+  public synchronized Statistics getStatistics() {
+    return new Statistics(myHits, myMisses, myIncrementalParses, myEvictions, myEntries.size(), myTotalLength);
+  }
+
+  public synchronized void clear() {
+    myEntries.clear();
+    myTotalLength = 0;
+  }
+
+  public static final class Statistics {
+    public final long hits;
+    public final long misses;
+    /**
+     * Misses handled by reparsing the changed blocks of the previous text
+     */
+    public final long incrementalParses;
+    public final long evictions;
+    public final int entries;
+    public final long totalLength;
+
+    Statistics(long hits, long misses, long incrementalParses, long evictions, int entries, long totalLength) {
+      this.hits = hits;
+      this.misses = misses;
+      this.incrementalParses = incrementalParses;
+      this.evictions = evictions;
+      this.entries = entries;
+      this.totalLength = totalLength;
+    }
+
+    @Override
+    public String toString() {
+      return "Markdown parse cache: " + hits + " hits, " + misses + " misses (" + incrementalParses + " incremental), " +
+             evictions + " evictions, " + entries + " trees of " + totalLength + " chars";
+    }
+  }
+
+  private static final class Kind {
+    @NotNull
+    private final MarkdownFlavourDescriptor myFlavour;
+    private final boolean myParseInlines;
+
+    Kind(@NotNull MarkdownFlavourDescriptor flavour, boolean parseInlines) {
+      myFlavour = flavour;
+      myParseInlines = parseInlines;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Kind)) return false;
+      final Kind kind = (Kind)o;
+      return myFlavour == kind.myFlavour && myParseInlines == kind.myParseInlines;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(myFlavour) + (myParseInlines ? 1 : 0);
+    }
+  }
+
+  private static final class Key {
+    @NotNull
+    private final Kind myKind;
+    private final int myHash;
+    private final int myLength;
+
+    Key(@NotNull Kind kind, int hash, int length) {
+      myKind = kind;
+      myHash = hash;
+      myLength = length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      final Key key = (Key)o;
+      return myHash == key.myHash && myLength == key.myLength && myKind.equals(key.myKind);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myKind.hashCode() + myHash;
+    }
+  }
+
+  private static final class Entry {
+    @NotNull
+    final String myText;
+    @NotNull
+    final ASTNode myTree;
+
+    Entry(@NotNull String text, @NotNull ASTNode tree) {
+      myText = text;
+      myTree = tree;
+    }
+  }
+}
@@ -1,39 +1,24 @@
 package org.intellij.plugins.markdown.lang.parser;
 
-import org.intellij.markdown.MarkdownElementTypes;
 import org.intellij.markdown.ast.ASTNode;
 import org.intellij.markdown.flavours.gfm.GFMFlavourDescriptor;
-import org.intellij.markdown.parser.MarkdownParser;
 import org.jetbrains.annotations.NotNull;
 
 public class MarkdownParserManager {
   public static final GFMFlavourDescriptor FLAVOUR = new GFMFlavourDescriptor();
 
-  private static final ThreadLocal<ParsingInfo> ourLastParsingResult = new ThreadLocal<>();
-
+  /**
+   * Parses the top-level structure of the text. Recent results are shared between threads, and the text following
+   * the last one parsed on this thread (e.g. after typing) is parsed incrementally, see {@link MarkdownParseCache}.
+   */
   public static ASTNode parseContent(@NotNull CharSequence buffer) {
-    final ParsingInfo info = ourLastParsingResult.get();
-    if (info != null && info.myBufferHash == buffer.hashCode() && info.myBuffer.equals(buffer)) {
-      return info.myParseResult;
-    }
-
-    final ASTNode parseResult = new MarkdownParser(FLAVOUR)
-      .parse(MarkdownElementTypes.MARKDOWN_FILE, buffer.toString(), false);
-    ourLastParsingResult.set(new ParsingInfo(buffer, parseResult));
-    return parseResult;
+    return parseContent(buffer, false);
   }
 
-  private static class ParsingInfo {
-    @NotNull
-    final CharSequence myBuffer;
-    final int myBufferHash;
-    @NotNull
-    final ASTNode myParseResult;
-
-    public ParsingInfo(@NotNull CharSequence buffer, @NotNull ASTNode parseResult) {
-      myBuffer = buffer;
-      myBufferHash = myBuffer.hashCode();
-      myParseResult = parseResult;
-    }
+  /**
+   * @param parseInlines whether inline elements should be parsed too, as the HTML generator needs them
+   */
+  public static ASTNode parseContent(@NotNull CharSequence buffer, boolean parseInlines) {
+    return MarkdownParseCache.getInstance().getTree(buffer, FLAVOUR, parseInlines);
   }
 }
@@ -0,0 +1,199 @@
+package org.intellij.plugins.markdown.ui.preview;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.intellij.markdown.IElementType;
+import org.intellij.markdown.MarkdownElementTypes;
+import org.intellij.markdown.MarkdownTokenTypes;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.html.GeneratingProvider;
+import org.intellij.markdown.html.HtmlGenerator;
+import org.intellij.markdown.parser.LinkMap;
+import org.intellij.plugins.markdown.lang.parser.MarkdownParserManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.URI;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a Markdown document to sanitized HTML fragments, one per top-level block.
+ * <p/>
+ * Source positions inside a fragment are stored relative to the start of its block, so the fragment of a block doesn't
+ * change when the text before it is edited. Fragments of blocks with the same source as in the previous call are reused
+ * without running the generator, unless the link definitions of the document or its base URI have changed.
+ * <p/>
+ * Raw HTML whose tags are opened in one block and closed in another (e.g. a {@code <div>} around a paragraph) can't be
+ * sanitized block by block, such documents are rendered and sanitized as a whole, as a single block.
+ */
+final class MarkdownBlockRenderer {
+  private static final Pattern SRC_POSITION_PATTERN =
+    Pattern.compile(" " + Pattern.quote(HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME()) + "=\"(\\d+)\\.\\.(\\d+)\"");
+  private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<(/?)([a-zA-Z][a-zA-Z0-9-]*)[^>]*?(/?)>");
+  private static final Set<String> VOID_ELEMENTS = ContainerUtil.newHashSet(
+    "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr");
+
+  @NotNull
+  private Map<String, String> myLastFragments = Collections.emptyMap();
+  @NotNull
+  private String myLastLinkDefinitions = "";
+  @Nullable
+  private URI myLastBaseUri;
+
+  @NotNull
+  synchronized RenderedDocument render(@NotNull String text, @Nullable URI baseUri) {
+    final ASTNode parsedTree = MarkdownParserManager.parseContent(text, true);
+
+    final StringBuilder linkDefinitions = new StringBuilder();
+    collectLinkDefinitions(parsedTree, text, linkDefinitions);
+    if (!myLastLinkDefinitions.contentEquals(linkDefinitions) || !Objects.equals(myLastBaseUri, baseUri)) {
+      myLastFragments = Collections.emptyMap();
+      myLastLinkDefinitions = linkDefinitions.toString();
+      myLastBaseUri = baseUri;
+    }
+
+    Map<IElementType, GeneratingProvider> providers = null;
+    final Map<String, String> fragments = new HashMap<>();
+    final List<Block> blocks = new ArrayList<>();
+    for (ASTNode child : parsedTree.getChildren()) {
+      final IElementType type = child.getType();
+      if (type == MarkdownTokenTypes.EOL || type == MarkdownTokenTypes.WHITE_SPACE) continue;
+
+      if (!hasBalancedHtml(child, text)) {
+        myLastFragments = Collections.emptyMap();
+        return renderWholeDocument(parsedTree, text, baseUri);
+      }
+
+      final int start = child.getStartOffset();
+      final String source = type + "\n" + text.substring(start, child.getEndOffset());
+      String html = fragments.get(source);
+      if (html == null) {
+        html = myLastFragments.get(source);
+      }
+      if (html == null) {
+        if (providers == null) {
+          providers = MarkdownParserManager.FLAVOUR.createHtmlGeneratingProviders(LinkMap.Builder.buildLinkMap(parsedTree, text), baseUri);
+        }
+        final String generated = new HtmlGenerator(text, child, providers, true).generateHtml();
+        html = shiftSrcPositions(MarkdownPreviewFileEditor.SANITIZER_VALUE.getValue().sanitize(generated), -start);
+      }
+      fragments.put(source, html);
+      blocks.add(new Block(start, child.getEndOffset(), html));
+    }
+
+    myLastFragments = fragments;
+    return new RenderedDocument(text.length(), blocks);
+  }
+
+  @NotNull
+  private static RenderedDocument renderWholeDocument(@NotNull ASTNode parsedTree, @NotNull String text, @Nullable URI baseUri) {
+    final Map<IElementType, GeneratingProvider> providers =
+      MarkdownParserManager.FLAVOUR.createHtmlGeneratingProviders(LinkMap.Builder.buildLinkMap(parsedTree, text), baseUri);
+    final StringBuilder generated = new StringBuilder();
+    for (ASTNode child : parsedTree.getChildren()) {
+      generated.append(new HtmlGenerator(text, child, providers, true).generateHtml());
+    }
+    final String html = MarkdownPreviewFileEditor.SANITIZER_VALUE.getValue().sanitize(generated.toString());
+    return new RenderedDocument(text.length(), Collections.singletonList(new Block(0, text.length(), html)));
+  }
+
+  /**
+   * @return false if the raw HTML of the block closes a tag it hasn't opened or leaves a tag open
+   */
+  private static boolean hasBalancedHtml(@NotNull ASTNode block, @NotNull String text) {
+    final Deque<String> openTags = new ArrayDeque<>();
+    return collectHtmlTags(block, text, openTags) && openTags.isEmpty();
+  }
+
+  private static boolean collectHtmlTags(@NotNull ASTNode node, @NotNull String text, @NotNull Deque<String> openTags) {
+    final IElementType type = node.getType();
+    if (type == MarkdownElementTypes.HTML_BLOCK || type == MarkdownTokenTypes.HTML_TAG) {
+      final Matcher matcher = HTML_TAG_PATTERN.matcher(text).region(node.getStartOffset(), node.getEndOffset());
+      while (matcher.find()) {
+        final String name = StringUtil.toLowerCase(matcher.group(2));
+        if (!matcher.group(3).isEmpty() || VOID_ELEMENTS.contains(name)) continue;
+        if (matcher.group(1).isEmpty()) {
+          openTags.push(name);
+        }
+        else if (!name.equals(openTags.poll())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    for (ASTNode child : node.getChildren()) {
+      if (!collectHtmlTags(child, text, openTags)) return false;
+    }
+    return true;
+  }
+
+  private static void collectLinkDefinitions(@NotNull ASTNode node, @NotNull String text, @NotNull StringBuilder result) {
+    for (ASTNode child : node.getChildren()) {
+      final IElementType type = child.getType();
+      if (type == MarkdownElementTypes.LINK_DEFINITION) {
+        result.append(text, child.getStartOffset(), child.getEndOffset()).append('\n');
+      }
+      else if (type == MarkdownElementTypes.BLOCK_QUOTE || type == MarkdownElementTypes.LIST_ITEM ||
+               type == MarkdownElementTypes.UNORDERED_LIST || type == MarkdownElementTypes.ORDERED_LIST) {
+        collectLinkDefinitions(child, text, result);
+      }
+    }
+  }
+
+  /**
+   * Adds {@code delta} to all source position attributes in {@code html}.
+   */
+  @NotNull
+  static String shiftSrcPositions(@NotNull String html, int delta) {
+    if (delta == 0) return html;
+
+    final Matcher matcher = SRC_POSITION_PATTERN.matcher(html);
+    if (!matcher.find()) return html;
+
+    final StringBuilder result = new StringBuilder(html.length() + 16);
+    int processed = 0;
+    do {
+      result.append(html, processed, matcher.start(1))
+        .append(Integer.parseInt(matcher.group(1)) + delta)
+        .append("..")
+        .append(Integer.parseInt(matcher.group(2)) + delta)
+        .append('"');
+      processed = matcher.end();
+    }
+    while (matcher.find());
+    return result.append(html, processed, html.length()).toString();
+  }
+
+  static final class RenderedDocument {
+    final int myLength;
+    @NotNull
+    final List<Block> myBlocks;
+
+    RenderedDocument(int length, @NotNull List<Block> blocks) {
+      myLength = length;
+      myBlocks = blocks;
+    }
+  }
+
+  static final class Block {
+    final int myStart;
+    final int myEnd;
+    /**
+     * Sanitized HTML with source positions relative to {@link #myStart}
+     */
+    @NotNull
+    final String myHtml;
+    /**
+     * Assigned when the block is shown in a panel, see {@link MarkdownHtmlPatch#diff}
+     */
+    int myKey;
+
+    Block(int start, int end, @NotNull String html) {
+      myStart = start;
+      myEnd = end;
+      myHtml = html;
+    }
+  }
+}
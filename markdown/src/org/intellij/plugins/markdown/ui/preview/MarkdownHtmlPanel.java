@@ -14,7 +14,7 @@ import java.util.Arrays;
 import java.util.List;
 
 public abstract class MarkdownHtmlPanel implements Disposable {
-  protected static final List<String> SCRIPTS = Arrays.asList("processLinks.js", "scrollToElement.js");
+  protected static final List<String> SCRIPTS = Arrays.asList("processLinks.js", "scrollToElement.js", "applyPatch.js");
 
   protected static final List<String> STYLES = Arrays.asList("default.css", "darcula.css", PreviewStaticServer.INLINE_CSS_FILENAME);
 
@@ -23,6 +23,15 @@ public abstract class MarkdownHtmlPanel implements Disposable {
 
   public abstract void setHtml(@NotNull String html);
 
+  /**
+   * Updates the shown page to {@link MarkdownHtmlPatch#getFullHtml()}. Panels which can't modify the loaded page
+   * reload it completely.
+   */
+  public void applyPatch(@NotNull MarkdownHtmlPatch patch) {
+    setHtml(patch.getFullHtml());
+    render();
+  }
+
   public abstract void setCSS(@Nullable String inlineCss, @NotNull String... fileUris);
 
   public abstract void render();
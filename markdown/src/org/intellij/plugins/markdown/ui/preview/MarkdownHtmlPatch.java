@@ -0,0 +1,189 @@
+package org.intellij.plugins.markdown.ui.preview;
+
+import org.intellij.markdown.html.HtmlGenerator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Changes between two renderings of a document by {@link MarkdownBlockRenderer}.
+ * <p/>
+ * Every top-level block is shown in a {@code <div>} with the {@link #BLOCK_ATTRIBUTE_NAME} attribute holding its key.
+ * The blocks before and after the edited range keep their keys and fragments; the blocks in between are removed and
+ * the new ones are inserted. The blocks after the range only need their source positions shifted.
+ */
+public final class MarkdownHtmlPatch {
+  public static final String BLOCK_ATTRIBUTE_NAME = "md-block";
+
+  private static final AtomicInteger ourNextKey = new AtomicInteger();
+
+  private final boolean myFull;
+  private final int myLength;
+  @NotNull
+  private final List<Operation> myOperations;
+  @NotNull
+  private final List<MarkdownBlockRenderer.Block> myBlocks;
+  @Nullable
+  private volatile String myFullHtml;
+
+  private MarkdownHtmlPatch(boolean full, int length, @NotNull List<Operation> operations, @NotNull List<MarkdownBlockRenderer.Block> blocks) {
+    myFull = full;
+    myLength = length;
+    myOperations = operations;
+    myBlocks = blocks;
+  }
+
+  /**
+   * Assigns keys to the blocks of {@code current}, reusing the keys of unchanged blocks of {@code previous}.
+   *
+   * @param previous the document currently shown, null if nothing has been shown yet
+   */
+  @NotNull
+  static MarkdownHtmlPatch diff(@Nullable MarkdownBlockRenderer.RenderedDocument previous,
+                                @NotNull MarkdownBlockRenderer.RenderedDocument current) {
+    final List<MarkdownBlockRenderer.Block> newBlocks = current.myBlocks;
+    if (previous == null) {
+      for (MarkdownBlockRenderer.Block block : newBlocks) {
+        block.myKey = ourNextKey.incrementAndGet();
+      }
+      return new MarkdownHtmlPatch(true, current.myLength, Collections.emptyList(), newBlocks);
+    }
+
+    final List<MarkdownBlockRenderer.Block> oldBlocks = previous.myBlocks;
+    final int common = Math.min(oldBlocks.size(), newBlocks.size());
+    int prefix = 0;
+    while (prefix < common && isSameBlock(oldBlocks.get(prefix), newBlocks.get(prefix), 0)) {
+      newBlocks.get(prefix).myKey = oldBlocks.get(prefix).myKey;
+      prefix++;
+    }
+    final int delta = current.myLength - previous.myLength;
+    int suffix = 0;
+    while (suffix < common - prefix &&
+           isSameBlock(oldBlocks.get(oldBlocks.size() - suffix - 1), newBlocks.get(newBlocks.size() - suffix - 1), delta)) {
+      newBlocks.get(newBlocks.size() - suffix - 1).myKey = oldBlocks.get(oldBlocks.size() - suffix - 1).myKey;
+      suffix++;
+    }
+
+    final List<Operation> operations = new ArrayList<>();
+    for (MarkdownBlockRenderer.Block block : oldBlocks.subList(prefix, oldBlocks.size() - suffix)) {
+      operations.add(new Operation(Operation.Kind.REMOVE, block.myKey, 0, null));
+    }
+    int anchor = prefix > 0 ? newBlocks.get(prefix - 1).myKey : 0;
+    for (MarkdownBlockRenderer.Block block : newBlocks.subList(prefix, newBlocks.size() - suffix)) {
+      block.myKey = ourNextKey.incrementAndGet();
+      operations.add(new Operation(Operation.Kind.INSERT, anchor, 0, getBlockHtml(block)));
+      anchor = block.myKey;
+    }
+    if (suffix > 0 && delta != 0) {
+      operations.add(new Operation(Operation.Kind.SHIFT, newBlocks.get(newBlocks.size() - suffix).myKey, delta, null));
+    }
+    return new MarkdownHtmlPatch(false, current.myLength, operations, newBlocks);
+  }
+
+  private static boolean isSameBlock(@NotNull MarkdownBlockRenderer.Block oldBlock, @NotNull MarkdownBlockRenderer.Block newBlock, int delta) {
+    return oldBlock.myStart + delta == newBlock.myStart && oldBlock.myEnd + delta == newBlock.myEnd && oldBlock.myHtml.equals(newBlock.myHtml);
+  }
+
+  /**
+   * @return true if the panel has nothing shown the patch could be applied to and {@link #getFullHtml()} should be loaded
+   */
+  public boolean isFull() {
+    return myFull;
+  }
+
+  public boolean isEmpty() {
+    return !myFull && myOperations.isEmpty();
+  }
+
+  /**
+   * @return the length of the document, the source range of {@code <body>} is {@code 0..length}
+   */
+  public int getLength() {
+    return myLength;
+  }
+
+  /**
+   * Operations in the order they should be applied: removals, insertions, then the shift of the following blocks.
+   */
+  @NotNull
+  public List<Operation> getOperations() {
+    return myOperations;
+  }
+
+  /**
+   * @return the page the patched page is equal to
+   */
+  @NotNull
+  public String getFullHtml() {
+    if (myFullHtml == null) {
+      final StringBuilder result = new StringBuilder("<html><head></head><body ");
+      result.append(HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME()).append("=\"0..").append(myLength).append("\">");
+      for (MarkdownBlockRenderer.Block block : myBlocks) {
+        result.append(getBlockHtml(block));
+      }
+      myFullHtml = result.append("</body></html>").toString();
+    }
+    return myFullHtml;
+  }
+
+  @NotNull
+  private static String getBlockHtml(@NotNull MarkdownBlockRenderer.Block block) {
+    return "<div " + BLOCK_ATTRIBUTE_NAME + "=\"" + block.myKey + "\" " +
+           HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME() + "=\"" + block.myStart + ".." + block.myEnd + "\">" +
+           MarkdownBlockRenderer.shiftSrcPositions(block.myHtml, block.myStart) +
+           "</div>";
+  }
+
+  public static final class Operation {
+    public enum Kind {
+      /**
+       * Remove the block with the {@link #getKey() key}
+       */
+      REMOVE,
+      /**
+       * Insert the {@link #getHtml() html} after the block with the {@link #getKey() key}, or at the start if the key is 0
+       */
+      INSERT,
+      /**
+       * Add the {@link #getDelta() delta} to the source positions in the block with the {@link #getKey() key} and all blocks after it
+       */
+      SHIFT
+    }
+
+    @NotNull
+    private final Kind myKind;
+    private final int myKey;
+    private final int myDelta;
+    @Nullable
+    private final String myHtml;
+
+    Operation(@NotNull Kind kind, int key, int delta, @Nullable String html) {
+      myKind = kind;
+      myKey = key;
+      myDelta = delta;
+      myHtml = html;
+    }
+
+    @NotNull
+    public Kind getKind() {
+      return myKind;
+    }
+
+    public int getKey() {
+      return myKey;
+    }
+
+    public int getDelta() {
+      return myDelta;
+    }
+
+    @Nullable
+    public String getHtml() {
+      return myHtml;
+    }
+  }
+}
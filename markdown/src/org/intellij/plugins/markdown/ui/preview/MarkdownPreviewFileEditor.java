@@ -20,13 +20,7 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Alarm;
 import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.ui.UIUtil;
-import org.intellij.markdown.IElementType;
-import org.intellij.markdown.ast.ASTNode;
-import org.intellij.markdown.html.GeneratingProvider;
 import org.intellij.markdown.html.HtmlGenerator;
-import org.intellij.markdown.parser.LinkMap;
-import org.intellij.markdown.parser.MarkdownParser;
-import org.intellij.plugins.markdown.lang.parser.MarkdownParserManager;
 import org.intellij.plugins.markdown.settings.MarkdownApplicationSettings;
 import org.intellij.plugins.markdown.settings.MarkdownCssSettings;
 import org.intellij.plugins.markdown.settings.MarkdownPreviewSettings;
@@ -42,7 +36,6 @@ import java.awt.*;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.net.URI;
-import java.util.Map;
 
 public class MarkdownPreviewFileEditor extends UserDataHolderBase implements FileEditor {
   private final static long PARSING_CALL_TIMEOUT_MS = 50L;
@@ -96,8 +89,15 @@ public class MarkdownPreviewFileEditor extends UserDataHolderBase implements Fil
   private Runnable myLastHtmlOrRefreshRequest = null;
 
   private volatile int myLastScrollOffset;
+  /**
+   * The page shown in the panel, its full HTML is built only when the panel is replaced
+   */
+  @Nullable
+  private MarkdownHtmlPatch myLastPatch = null;
   @NotNull
-  private String myLastRenderedHtml = "";
+  private final MarkdownBlockRenderer myRenderer = new MarkdownBlockRenderer();
+  @Nullable
+  private MarkdownBlockRenderer.RenderedDocument myLastRenderedDocument = null;
 
   public MarkdownPreviewFileEditor(@NotNull VirtualFile file) {
     myFile = file;
@@ -229,7 +229,9 @@ public class MarkdownPreviewFileEditor extends UserDataHolderBase implements Fil
       return;
     }
 
-    final String html = generateMarkdownHtml(myFile, myDocument.getText());
+    final VirtualFile parent = myFile.getParent();
+    final URI baseUri = parent != null ? new File(parent.getPath()).toURI() : null;
+    final MarkdownBlockRenderer.RenderedDocument document = myRenderer.render(myDocument.getText(), baseUri);
 
     // EA-75860: The lines to the top may be processed slowly; Since we're in pooled thread, we can be disposed already.
     if (!myFile.isValid() || Disposer.isDisposed(this)) {
@@ -241,17 +243,21 @@ public class MarkdownPreviewFileEditor extends UserDataHolderBase implements Fil
         mySwingAlarm.cancelRequest(myLastHtmlOrRefreshRequest);
       }
       myLastHtmlOrRefreshRequest = () -> {
-        final String currentHtml = "<html><head></head>" + SANITIZER_VALUE.getValue().sanitize(html) + "</html>";
-        if (!currentHtml.equals(myLastRenderedHtml)) {
-          myLastRenderedHtml = currentHtml;
-          myPanel.setHtml(myLastRenderedHtml);
+        // the patch is made against the shown document, a cancelled request doesn't break the chain
+        final MarkdownHtmlPatch patch = MarkdownHtmlPatch.diff(myLastRenderedDocument, document);
+        myLastRenderedDocument = document;
+        if (!patch.isEmpty()) {
+          myLastPatch = patch;
+          myPanel.applyPatch(patch);
 
           if (preserveScrollOffset) {
             myPanel.scrollToMarkdownSrcOffset(myLastScrollOffset);
           }
         }
+        else {
+          myPanel.render();
+        }
 
-        myPanel.render();
         synchronized (REQUESTS_LOCK) {
           myLastHtmlOrRefreshRequest = null;
         }
@@ -295,18 +301,6 @@ public class MarkdownPreviewFileEditor extends UserDataHolderBase implements Fil
     Disposer.dispose(myPanel);
   }
 
-  @NotNull
-  private static String generateMarkdownHtml(@NotNull VirtualFile file, @NotNull String text) {
-    final VirtualFile parent = file.getParent();
-    final URI baseUri = parent != null ? new File(parent.getPath()).toURI() : null;
-
-    final ASTNode parsedTree = new MarkdownParser(MarkdownParserManager.FLAVOUR).buildMarkdownTreeFromString(text);
-    final Map<IElementType, GeneratingProvider> htmlGeneratingProviders =
-      MarkdownParserManager.FLAVOUR.createHtmlGeneratingProviders(LinkMap.Builder.buildLinkMap(parsedTree, text), baseUri);
-
-    return new HtmlGenerator(text, parsedTree, htmlGeneratingProviders, true).generateHtml();
-  }
-
   @Contract("_, null, null -> fail")
   @NotNull
   private static MarkdownHtmlPanel detachOldPanelAndCreateAndAttachNewOne(@NotNull JPanel panelWrapper,
@@ -352,7 +346,7 @@ public class MarkdownPreviewFileEditor extends UserDataHolderBase implements Fil
 
       mySwingAlarm.addRequest(() -> {
         myPanel = detachOldPanelAndCreateAndAttachNewOne(myHtmlPanelWrapper, myPanel, newPanelProvider);
-        myPanel.setHtml(myLastRenderedHtml);
+        myPanel.setHtml(myLastPatch != null ? myLastPatch.getFullHtml() : "");
         updatePanelCssSettings(myPanel, settings.getMarkdownCssSettings());
       }, 0, ModalityState.stateForComponent(getComponent()));
     }
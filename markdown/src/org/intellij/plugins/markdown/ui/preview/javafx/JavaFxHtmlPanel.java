@@ -23,6 +23,7 @@ import netscape.javascript.JSObject;
 import org.intellij.markdown.html.HtmlGenerator;
 import org.intellij.plugins.markdown.settings.MarkdownApplicationSettings;
 import org.intellij.plugins.markdown.ui.preview.MarkdownHtmlPanel;
+import org.intellij.plugins.markdown.ui.preview.MarkdownHtmlPatch;
 import org.intellij.plugins.markdown.ui.preview.PreviewStaticServer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -59,6 +60,11 @@ public class JavaFxHtmlPanel extends MarkdownHtmlPanel {
   private String myCSP = "";
   @NotNull
   private String myLastRawHtml = "";
+  /**
+   * The last patch applied instead of setting {@link #myLastRawHtml}, its full page is built only if it is needed
+   */
+  @Nullable
+  private MarkdownHtmlPatch myLastPatch;
   @NotNull
   private final ScrollPreservingListener myScrollPreservingListener = new ScrollPreservingListener();
   @NotNull
@@ -153,11 +159,71 @@ public class JavaFxHtmlPanel extends MarkdownHtmlPanel {
   @Override
   public void setHtml(@NotNull String html) {
     myLastRawHtml = html;
+    myLastPatch = null;
     final String htmlToRender = prepareHtml(html);
 
     runInPlatformWhenAvailable(() -> getWebViewGuaranteed().getEngine().loadContent(htmlToRender));
   }
 
+  @Override
+  public void applyPatch(@NotNull MarkdownHtmlPatch patch) {
+    if (patch.isFull()) {
+      super.applyPatch(patch);
+      return;
+    }
+
+    myLastPatch = patch;
+    final String script = "'__IntelliJTools' in window && 'applyPatch' in __IntelliJTools && " +
+                          "__IntelliJTools.applyPatch(" + createOperationsLiteral(patch) + ", " + patch.getLength() + ", " +
+                          "'" + MarkdownHtmlPatch.BLOCK_ATTRIBUTE_NAME + "', '" + HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME() + "')";
+
+    runInPlatformWhenAvailable(() -> {
+      final WebEngine engine = getWebViewGuaranteed().getEngine();
+      // the page is still loading or isn't the one the patch was made for
+      if (engine.getLoadWorker().getState() != State.SUCCEEDED || !Boolean.TRUE.equals(engine.executeScript(script))) {
+        engine.loadContent(prepareHtml(patch.getFullHtml()));
+      }
+    });
+  }
+
+  @NotNull
+  private static String createOperationsLiteral(@NotNull MarkdownHtmlPatch patch) {
+    final StringBuilder result = new StringBuilder("[");
+    for (MarkdownHtmlPatch.Operation operation : patch.getOperations()) {
+      if (result.length() > 1) {
+        result.append(", ");
+      }
+      result.append("{kind: '").append(operation.getKind()).append("', key: ").append(operation.getKey())
+        .append(", delta: ").append(operation.getDelta()).append(", html: ");
+      final String html = operation.getHtml();
+      if (html == null) {
+        result.append("null");
+      }
+      else {
+        appendStringLiteral(ImageRefreshFix.setStamps(html), result);
+      }
+      result.append('}');
+    }
+    return result.append(']').toString();
+  }
+
+  private static void appendStringLiteral(@NotNull String value, @NotNull StringBuilder result) {
+    result.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        result.append('\\').append(c);
+      }
+      else if (c < ' ' || c == '\u2028' || c == '\u2029') {
+        result.append(String.format("\\u%04x", (int)c));
+      }
+      else {
+        result.append(c);
+      }
+    }
+    result.append('"');
+  }
+
   @NotNull
   private String prepareHtml(@NotNull String html) {
     return ImageRefreshFix.setStamps(html
@@ -176,7 +242,7 @@ public class JavaFxHtmlPanel extends MarkdownHtmlPanel {
                                             ContainerUtil.map(STYLES, s -> PreviewStaticServer.getStyleUrl(s)),
                                             ContainerUtil.filter(fileUris, s -> s.startsWith("http://") || s.startsWith("https://"))
                                           ));
-    setHtml(myLastRawHtml);
+    setHtml(myLastPatch != null ? myLastPatch.getFullHtml() : myLastRawHtml);
   }
 
   @Override
@@ -0,0 +1,122 @@
+package org.intellij.plugins.markdown.lang.parser;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.testFramework.UsefulTestCase;
+import org.intellij.markdown.MarkdownElementTypes;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.parser.MarkdownParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+public class MarkdownParseCacheTest extends UsefulTestCase {
+  private static final Logger LOG = Logger.getInstance(MarkdownParseCacheTest.class);
+
+  public void testSharedBetweenThreads() throws Exception {
+    final MarkdownParseCache cache = new MarkdownParseCache(1024 * 1024, 16);
+    final String text = "# Header\n\nParagraph with *emphasis*\n";
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final ASTNode tree = executor.submit(() -> cache.getTree(text, MarkdownParserManager.FLAVOUR, false)).get();
+      assertSame(tree, cache.getTree(new StringBuilder(text), MarkdownParserManager.FLAVOUR, false));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    final MarkdownParseCache.Statistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.hits);
+    assertEquals(1, statistics.misses);
+  }
+
+  public void testInlineTreesAreSeparate() {
+    final MarkdownParseCache cache = new MarkdownParseCache(1024 * 1024, 16);
+    final String text = "Paragraph with *emphasis*\n";
+    final ASTNode blocks = cache.getTree(text, MarkdownParserManager.FLAVOUR, false);
+    final ASTNode inlines = cache.getTree(text, MarkdownParserManager.FLAVOUR, true);
+    assertNotSame(blocks, inlines);
+    assertSame(inlines, cache.getTree(text, MarkdownParserManager.FLAVOUR, true));
+    assertEquals(2, cache.getStatistics().misses);
+  }
+
+  public void testEviction() {
+    final MarkdownParseCache cache = new MarkdownParseCache(100, 3);
+    final ASTNode first = cache.getTree("first\n", MarkdownParserManager.FLAVOUR, false);
+    cache.getTree("second\n", MarkdownParserManager.FLAVOUR, false);
+    cache.getTree("third\n", MarkdownParserManager.FLAVOUR, false);
+    assertSame(first, cache.getTree("first\n", MarkdownParserManager.FLAVOUR, false));
+
+    cache.getTree("fourth\n", MarkdownParserManager.FLAVOUR, false);
+    MarkdownParseCache.Statistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.evictions);
+    assertEquals(3, statistics.entries);
+    assertSame("Recently used tree should be kept", first, cache.getTree("first\n", MarkdownParserManager.FLAVOUR, false));
+
+    cache.getTree(generateText(200), MarkdownParserManager.FLAVOUR, false);
+    statistics = cache.getStatistics();
+    assertEquals("Too long text should not be cached", 3, statistics.entries);
+    assertTrue(statistics.totalLength <= 100);
+  }
+
+  /**
+   * The editor lexes every version of the document, the highlighting pass and the preview follow it on other threads.
+   */
+  public void testConcurrentConsumersBenchmark() throws Exception {
+    final List<String> versions = new ArrayList<>();
+    String text = generateText(3000);
+    final int offset = text.indexOf("Paragraph 1500") + "Paragraph".length();
+    for (int i = 0; i < 50; i++) {
+      text = text.substring(0, offset) + 'x' + text.substring(offset);
+      versions.add(text);
+    }
+
+    final MarkdownParseCache cache = new MarkdownParseCache(16 * 1024 * 1024, 64);
+    final long cachedTime = replay(versions, (version, parseInlines) -> cache.getTree(version, MarkdownParserManager.FLAVOUR, parseInlines));
+    final long uncachedTime = replay(versions, (version, parseInlines) ->
+      new MarkdownParser(MarkdownParserManager.FLAVOUR).parse(MarkdownElementTypes.MARKDOWN_FILE, version, parseInlines));
+
+    final MarkdownParseCache.Statistics statistics = cache.getStatistics();
+    LOG.info(versions.size() + " versions of " + text.length() + " chars: cached " + cachedTime + "ms, uncached " + uncachedTime + "ms; " + statistics);
+    assertTrue(statistics.toString(), statistics.hits >= versions.size() / 2);
+    assertTrue(statistics.toString(), statistics.misses <= 3 * versions.size());
+  }
+
+  private static long replay(List<String> versions, BiFunction<String, Boolean, ASTNode> parser) throws Exception {
+    final ExecutorService editor = Executors.newSingleThreadExecutor();
+    final ExecutorService highlighting = Executors.newSingleThreadExecutor();
+    final ExecutorService preview = Executors.newSingleThreadExecutor();
+    try {
+      final long start = System.currentTimeMillis();
+      for (String version : versions) {
+        editor.submit(() -> parser.apply(version, false)).get();
+        final Future<ASTNode> highlightingTree = highlighting.submit(() -> parser.apply(version, false));
+        final Future<ASTNode> previewTree = preview.submit(() -> parser.apply(version, true));
+        highlightingTree.get();
+        previewTree.get();
+      }
+      return System.currentTimeMillis() - start;
+    }
+    finally {
+      for (ExecutorService executor : new ExecutorService[]{editor, highlighting, preview}) {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static String generateText(int paragraphs) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < paragraphs; i++) {
+      if (i % 10 == 0) {
+        result.append("# Header ").append(i).append("\n\n");
+      }
+      result.append("Paragraph ").append(i).append(" with a [link](http://example.com) and `code`\n\n");
+    }
+    return result.toString();
+  }
+}
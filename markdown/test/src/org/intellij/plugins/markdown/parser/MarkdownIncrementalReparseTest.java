@@ -0,0 +1,147 @@
+package org.intellij.plugins.markdown.parser;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.PsiTestUtil;
+import com.intellij.testFramework.fixtures.LightPlatformCodeInsightFixtureTestCase;
+import org.intellij.markdown.MarkdownElementTypes;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.parser.MarkdownParser;
+import org.intellij.plugins.markdown.lang.parser.MarkdownParserManager;
+
+import java.util.Random;
+
+public class MarkdownIncrementalReparseTest extends LightPlatformCodeInsightFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(MarkdownIncrementalReparseTest.class);
+
+  public void testTypingInParagraph() {
+    String text = generateDocument(200);
+    final int offset = text.indexOf("Paragraph 100") + "Paragraph".length();
+    for (char c : " typed text".toCharArray()) {
+      text = doTest(text, offset, offset, String.valueOf(c));
+    }
+  }
+
+  public void testStructuralChanges() {
+    final String text = generateDocument(50);
+    final int paragraph = text.indexOf("Paragraph 20");
+    doTest(text, paragraph, paragraph, "# ");
+    doTest(text, paragraph, paragraph, "```\n");
+    doTest(text, paragraph, paragraph, "    ");
+    doTest(text, paragraph, paragraph, "| a | b |\n");
+    doTest(text, paragraph, paragraph, "- ");
+    doTest(text, paragraph, paragraph, "> ");
+    doTest(text, paragraph - 1, paragraph, "");
+    final int lineEnd = text.indexOf('\n', paragraph);
+    doTest(text, lineEnd, lineEnd, "\n===");
+    doTest(text, lineEnd, lineEnd, "\n---");
+    doTest(text, 0, 0, "Title\n");
+    doTest(text, text.length(), text.length(), "\n    code");
+    doTest(text, 0, text.length(), "replaced");
+  }
+
+  public void testInlineTrees() {
+    final Random random = new Random(7);
+    final String[] insertions = {"x", "*", "`", "[a]", "(b)", "\n", "\n\n", "# ", "- ", "> ", "```\n", "<b>"};
+    String text = generateDocument(30);
+    MarkdownParserManager.parseContent(text, true);
+    for (int i = 0; i < 200; i++) {
+      final int offset = random.nextInt(text.length() + 1);
+      text = text.substring(0, offset) + insertions[random.nextInt(insertions.length)] + text.substring(offset);
+      assertEquals(dump(parseFully(text, true)), dump(MarkdownParserManager.parseContent(text, true)));
+    }
+  }
+
+  public void testPsiAfterTyping() {
+    myFixture.configureByText("sample.md", generateDocument(30).replace("Paragraph 15", "Paragraph<caret> 15"));
+    for (String typed : new String[]{" more", "\n\n", "# header", "\n", "- item"}) {
+      myFixture.type(typed);
+      PsiDocumentManager.getInstance(getProject()).commitAllDocuments();
+      PsiTestUtil.checkFileStructure(myFixture.getFile());
+    }
+  }
+
+  public void testTypingBenchmark() {
+    final String document = generateDocument(1000);
+    final int offset = document.indexOf("Paragraph 500") + "Paragraph".length();
+    final int keystrokes = 100;
+
+    MarkdownParserManager.parseContent(document);
+    String text = document;
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < keystrokes; i++) {
+      text = text.substring(0, offset) + 'x' + text.substring(offset);
+      MarkdownParserManager.parseContent(text);
+    }
+    final long incrementalTime = System.currentTimeMillis() - start;
+
+    text = document;
+    start = System.currentTimeMillis();
+    for (int i = 0; i < keystrokes; i++) {
+      text = text.substring(0, offset) + 'x' + text.substring(offset);
+      parseFully(text);
+    }
+    final long fullTime = System.currentTimeMillis() - start;
+
+    LOG.info(keystrokes + " keystrokes in " + document.length() + " chars: incremental " + incrementalTime + "ms, full " + fullTime + "ms");
+  }
+
+  private static String doTest(String text, int start, int end, String replacement) {
+    MarkdownParserManager.parseContent(text);
+    final String newText = text.substring(0, start) + replacement + text.substring(end);
+    assertEquals(dump(parseFully(newText)), dump(MarkdownParserManager.parseContent(newText)));
+    return newText;
+  }
+
+  private static ASTNode parseFully(String text) {
+    return parseFully(text, false);
+  }
+
+  private static ASTNode parseFully(String text, boolean parseInlines) {
+    return new MarkdownParser(MarkdownParserManager.FLAVOUR).parse(MarkdownElementTypes.MARKDOWN_FILE, text, parseInlines);
+  }
+
+  private static String dump(ASTNode node) {
+    final StringBuilder result = new StringBuilder();
+    dump(node, 0, result);
+    return result.toString();
+  }
+
+  private static void dump(ASTNode node, int indent, StringBuilder result) {
+    for (int i = 0; i < indent; i++) result.append("  ");
+    result.append(node.getType()).append(' ').append(node.getStartOffset()).append('-').append(node.getEndOffset()).append('\n');
+    for (ASTNode child : node.getChildren()) {
+      dump(child, indent + 1, result);
+    }
+  }
+
+  /**
+   * Paragraphs alternating with headers, lists, quotes, code fences and tables, about five lines per section.
+   */
+  private static String generateDocument(int sections) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < sections; i++) {
+      switch (i % 6) {
+        case 0:
+          result.append("# Header ").append(i).append("\n\n");
+          break;
+        case 1:
+          result.append("- item ").append(i).append("\n- item with *emphasis*\n  continued\n\n");
+          break;
+        case 2:
+          result.append("> quote ").append(i).append("\nlazy continuation\n\n");
+          break;
+        case 3:
+          result.append("```java\nint i = ").append(i).append(";\n```\n\n");
+          break;
+        case 4:
+          result.append("| a | b |\n|---|---|\n| ").append(i).append(" | x |\n\n");
+          break;
+        default:
+          break;
+      }
+      result.append("Paragraph ").append(i).append(" with a [link](http://example.com) and `code`\nsecond line of it\n\n");
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,246 @@
+package org.intellij.plugins.markdown.ui.preview;
+
+import com.intellij.testFramework.UsefulTestCase;
+import org.intellij.markdown.IElementType;
+import org.intellij.markdown.ast.ASTNode;
+import org.intellij.markdown.html.GeneratingProvider;
+import org.intellij.markdown.html.HtmlGenerator;
+import org.intellij.markdown.parser.LinkMap;
+import org.intellij.markdown.parser.MarkdownParser;
+import org.intellij.plugins.markdown.lang.parser.MarkdownParserManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays edits through the block renderer, applies the patches to a model of the preview page the same way
+ * {@code applyPatch.js} does and compares the page with a full render of the text, and with the page rendered from
+ * the whole document at once.
+ */
+public class MarkdownHtmlPatchTest extends UsefulTestCase {
+  private static final Pattern BLOCK_KEY_PATTERN = Pattern.compile(" " + MarkdownHtmlPatch.BLOCK_ATTRIBUTE_NAME + "=\"(\\d+)\"");
+
+  private final MarkdownBlockRenderer myRenderer = new MarkdownBlockRenderer();
+  private MarkdownBlockRenderer.RenderedDocument myShownDocument;
+  private Page myPage;
+
+  public void testTypingInParagraph() {
+    String text = generateDocument(30);
+    show(text);
+    final int offset = text.indexOf("Paragraph 15") + "Paragraph".length();
+    for (char c : "depyt ".toCharArray()) {
+      text = text.substring(0, offset) + c + text.substring(offset);
+      final MarkdownHtmlPatch patch = edit(text);
+      assertEquals(patch.getOperations().toString(), 3, patch.getOperations().size());
+    }
+  }
+
+  public void testUnchangedText() {
+    final String text = generateDocument(10);
+    show(text);
+    assertTrue(edit(text).isEmpty());
+  }
+
+  public void testStructuralChanges() {
+    final String text = generateDocument(20);
+    final int paragraph = text.indexOf("Paragraph 10");
+    for (String inserted : new String[]{"# ", "```\n", "- ", "> ", "| a | b |\n|---|---|\n", "\n\n", "Title\n===\n"}) {
+      show(text);
+      edit(text.substring(0, paragraph) + inserted + text.substring(paragraph));
+    }
+    show(text);
+    edit(text.substring(0, paragraph) + text.substring(text.indexOf("Paragraph 12")));
+    edit("");
+    edit(text);
+  }
+
+  public void testLinkDefinitionChangesOtherBlocks() {
+    final String text = "See [the site][site] for details\n\nOther paragraph\n";
+    show(text);
+    final String withDefinition = text + "\n[site]: http://example.com\n";
+    final MarkdownHtmlPatch patch = edit(withDefinition);
+    assertTrue(patch.getFullHtml(), patch.getFullHtml().contains("http://example.com"));
+    edit(withDefinition.replace("example.com", "example.org"));
+  }
+
+  public void testHtmlUnbalancedAcrossBlocks() {
+    final String text = generateDocument(4);
+    final int paragraph = text.indexOf("Paragraph 2");
+    final String centered = text.substring(0, paragraph) + "<div align=\"center\">\n\n![logo](x)\n\n</div>\n\n" + text.substring(paragraph);
+    show(text);
+    edit(centered);
+    assertEquals(1, myShownDocument.myBlocks.size());
+    edit(centered.replace("![logo](x)", "![logo](y)"));
+    edit(text);
+    assertTrue(edit(text).isEmpty());
+  }
+
+  public void testRandomEdits() {
+    final Random random = new Random(42);
+    final String[] insertions = {"x", " ", "\n", "\n\n", "# ", "- ", "> ", "`", "*", "```\n", "[a](b)", "    ", "|"};
+    String text = generateDocument(15);
+    show(text);
+    for (int i = 0; i < 300; i++) {
+      final int start = random.nextInt(text.length() + 1);
+      final int end = Math.min(text.length(), start + (random.nextInt(4) == 0 ? random.nextInt(20) : 0));
+      text = text.substring(0, start) + insertions[random.nextInt(insertions.length)] + text.substring(end);
+      edit(text);
+    }
+  }
+
+  private void show(String text) {
+    myShownDocument = myRenderer.render(text, null);
+    final MarkdownHtmlPatch patch = MarkdownHtmlPatch.diff(null, myShownDocument);
+    assertTrue(patch.isFull());
+    myPage = new Page(patch.getFullHtml());
+  }
+
+  private MarkdownHtmlPatch edit(String text) {
+    final MarkdownBlockRenderer.RenderedDocument document = myRenderer.render(text, null);
+    final MarkdownHtmlPatch patch = MarkdownHtmlPatch.diff(myShownDocument, document);
+    myShownDocument = document;
+    assertFalse(patch.isFull());
+
+    myPage.apply(patch);
+    assertEquals(patch.getFullHtml(), myPage.toString());
+
+    final MarkdownBlockRenderer.RenderedDocument fullRender = new MarkdownBlockRenderer().render(text, null);
+    assertEquals(text, removeKeys(MarkdownHtmlPatch.diff(null, fullRender).getFullHtml()), removeKeys(myPage.toString()));
+    assertEquals(text, removeWhiteSpaceBetweenTags(renderWholeDocument(text)), removeWhiteSpaceBetweenTags(myPage.toUnwrappedString()));
+    return patch;
+  }
+
+  private static String removeKeys(String html) {
+    return BLOCK_KEY_PATTERN.matcher(html).replaceAll("");
+  }
+
+  private static String removeWhiteSpaceBetweenTags(String html) {
+    return html.replaceAll(">\\s+<", "><");
+  }
+
+  /**
+   * The page as it was rendered before the preview was split into blocks: the whole document by one {@link HtmlGenerator}.
+   */
+  private static String renderWholeDocument(String text) {
+    final ASTNode parsedTree = new MarkdownParser(MarkdownParserManager.FLAVOUR).buildMarkdownTreeFromString(text);
+    final Map<IElementType, GeneratingProvider> providers =
+      MarkdownParserManager.FLAVOUR.createHtmlGeneratingProviders(LinkMap.Builder.buildLinkMap(parsedTree, text), null);
+    final String html = new HtmlGenerator(text, parsedTree, providers, true).generateHtml();
+    return "<html><head></head>" + MarkdownPreviewFileEditor.SANITIZER_VALUE.getValue().sanitize(html) + "</html>";
+  }
+
+  private static String generateDocument(int sections) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < sections; i++) {
+      switch (i % 4) {
+        case 0:
+          result.append("# Header ").append(i).append("\n\n");
+          break;
+        case 1:
+          result.append("- item ").append(i).append("\n- item with *emphasis*\n\n");
+          break;
+        case 2:
+          result.append("```java\nint i = ").append(i).append(";\n```\n\n");
+          break;
+        default:
+          result.append("> quote ").append(i).append("\n\n");
+          break;
+      }
+      result.append("Paragraph ").append(i).append(" with a [link](http://example.com) and `code`\nsecond line\n\n");
+    }
+    return result.toString();
+  }
+
+  /**
+   * Top-level blocks of the preview page.
+   */
+  private static class Page {
+    private final String myHead;
+    private final String myTail;
+    private final List<String> myBlocks = new ArrayList<>();
+    private final List<Integer> myKeys = new ArrayList<>();
+    private int myLength;
+
+    Page(String html) {
+      final int bodyStart = html.indexOf("<body ");
+      myHead = html.substring(0, bodyStart);
+      myTail = "</body></html>";
+      final Matcher length = Pattern.compile("=\"0\\.\\.(\\d+)\">").matcher(html);
+      assertTrue(length.find(bodyStart));
+      myLength = Integer.parseInt(length.group(1));
+
+      // fragments never contain divs with keys, so a block ends before the next key
+      final Matcher key = BLOCK_KEY_PATTERN.matcher(html);
+      int blockStart = -1;
+      while (key.find()) {
+        final int nextStart = html.lastIndexOf("<div", key.start());
+        if (blockStart >= 0) {
+          myBlocks.add(html.substring(blockStart, nextStart));
+        }
+        myKeys.add(Integer.parseInt(key.group(1)));
+        blockStart = nextStart;
+      }
+      if (blockStart >= 0) {
+        myBlocks.add(html.substring(blockStart, html.length() - myTail.length()));
+      }
+    }
+
+    void apply(MarkdownHtmlPatch patch) {
+      for (MarkdownHtmlPatch.Operation operation : patch.getOperations()) {
+        final int index = myKeys.indexOf(operation.getKey());
+        if (operation.getKey() != 0) {
+          assertTrue("No block " + operation.getKey(), index >= 0);
+        }
+        switch (operation.getKind()) {
+          case REMOVE:
+            myKeys.remove(index);
+            myBlocks.remove(index);
+            break;
+          case INSERT:
+            final String html = operation.getHtml();
+            assertNotNull(html);
+            final Matcher key = BLOCK_KEY_PATTERN.matcher(html);
+            assertTrue(key.find());
+            myKeys.add(index + 1, Integer.parseInt(key.group(1)));
+            myBlocks.add(index + 1, html);
+            break;
+          case SHIFT:
+            for (int i = index; i < myBlocks.size(); i++) {
+              myBlocks.set(i, MarkdownBlockRenderer.shiftSrcPositions(myBlocks.get(i), operation.getDelta()));
+            }
+            break;
+        }
+      }
+      myLength = patch.getLength();
+    }
+
+    /**
+     * @return the page without the {@code <div>} elements wrapping each block
+     */
+    String toUnwrappedString() {
+      final StringBuilder result = new StringBuilder(myHead);
+      result.append("<body ").append(HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME())
+        .append("=\"0..").append(myLength).append("\">");
+      for (String block : myBlocks) {
+        assertTrue(block, block.endsWith("</div>"));
+        result.append(block, block.indexOf('>') + 1, block.length() - "</div>".length());
+      }
+      return result.append(myTail).toString();
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder result = new StringBuilder(myHead);
+      result.append("<body ").append(HtmlGenerator.Companion.getSRC_ATTRIBUTE_NAME())
+        .append("=\"0..").append(myLength).append("\">");
+      for (String block : myBlocks) {
+        result.append(block);
+      }
+      return result.append(myTail).toString();
+    }
+  }
+}
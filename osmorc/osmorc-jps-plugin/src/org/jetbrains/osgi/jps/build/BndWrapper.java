@@ -32,6 +32,7 @@ import aQute.service.reporter.Report;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -40,9 +41,21 @@ import org.jetbrains.osgi.jps.util.OrderedProperties;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -53,6 +66,14 @@ import java.util.stream.Collectors;
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thomä</a>
  */
 public class BndWrapper {
+  private static final int WRAP_VERSION = 1;  // a change of wrapping logic should invalidate bundles wrapped before
+  private static final int MAX_WRAP_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static final int MAX_CONTENT_HASHES = 10000;
+  private static final long UNUSED_BUNDLE_TTL = TimeUnit.DAYS.toMillis(1);
+  private static final Pattern CACHE_KEY = Pattern.compile("[0-9a-fA-F]{40}");
+
+  private static final ConcurrentMap<String, ContentHash> ourContentHashes = ContainerUtil.newConcurrentMap();
+
   private final Reporter myReporter;
 
   public BndWrapper(Reporter reporter) {
@@ -61,66 +82,188 @@ public class BndWrapper {
 
   /**
    * Wraps .jar files using Bnd analyzer. Uses bundlification rules defined in Settings/OSGi/Library Bundling.
+   * <p/>
+   * Libraries are wrapped in parallel, so the reporter may be called from several threads. A wrapped bundle is kept in
+   * the output directory under the hash of the library's content and of the properties applied to it, and is reused
+   * as long as both stay the same, wherever the library is located and whichever module asks for it. Bundles no module
+   * used for a day are deleted.
    */
   @NotNull
   public List<String> bundlifyLibraries(@NotNull Collection<File> dependencies,
                                         @NotNull File outputDir,
                                         @NotNull List<LibraryBundlificationRule> rules) {
     List<String> result = ContainerUtil.newArrayListWithCapacity(dependencies.size());
+    List<Future<File>> bundles = ContainerUtil.newArrayListWithCapacity(dependencies.size());
+    Set<File> usedDirs = new HashSet<>();
+    ExecutorService executor = null;
+
+    try {
+      for (File dependency : dependencies) {
+        String path = dependency.getPath();
+        if (CachingBundleInfoProvider.canBeBundlified(path)) {
+          if (executor == null) {
+            int threads = Math.min(MAX_WRAP_THREADS, dependencies.size());
+            executor = Executors.newFixedThreadPool(threads, ConcurrencyUtil.newNamedThreadFactory("OSGi library bundlification"));
+          }
+          bundles.add(executor.submit(() -> {
+            myReporter.progress(path);
+            return wrap(dependency, outputDir, rules);
+          }));
+        }
+        else if (CachingBundleInfoProvider.isBundle(path)) {
+          bundles.add(CompletableFuture.completedFuture(dependency));
+        }
+      }
 
-    for (File dependency : dependencies) {
-      String path = dependency.getPath();
-      if (CachingBundleInfoProvider.canBeBundlified(path)) {
-        myReporter.progress(path);
+      for (Future<File> bundle : bundles) {
         try {
-          File bundledDependency = wrap(dependency, outputDir, rules);
+          File bundledDependency = bundle.get();
           if (bundledDependency != null) {
             result.add(bundledDependency.getPath());
+            usedDirs.add(bundledDependency.getParentFile());
           }
         }
-        catch (OsgiBuildException e) {
-          myReporter.warning(e.getMessage(), e.getCause(), e.getSourcePath(), -1);
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof OsgiBuildException) {
+            myReporter.warning(cause.getMessage(), cause.getCause(), ((OsgiBuildException)cause).getSourcePath(), -1);
+          }
+          else {
+            myReporter.warning("There was an unexpected problem when trying to bundlify", cause, null, -1);
+          }
         }
       }
-      else if (CachingBundleInfoProvider.isBundle(path)) {
-        result.add(path);
+
+      pruneUnusedBundles(outputDir, usedDirs);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    finally {
+      if (executor != null) {
+        executor.shutdownNow();
       }
     }
 
     return result;
   }
 
+  /**
+   * Deletes the bundles of libraries which changed or are no longer used. The output directory is shared by the modules
+   * of a project, so a bundle is kept while any of them used it within {@link #UNUSED_BUNDLE_TTL}. Bundles wrapped
+   * before they were kept under their hash lie directly in the output directory and are never used again.
+   */
+  private static void pruneUnusedBundles(@NotNull File outputDir, @NotNull Set<File> usedDirs) {
+    File[] files = outputDir.listFiles();
+    if (files == null) return;
+
+    long threshold = System.currentTimeMillis() - UNUSED_BUNDLE_TTL;
+    for (File file : files) {
+      if (file.isDirectory() && CACHE_KEY.matcher(file.getName()).matches() && !usedDirs.contains(file) && file.lastModified() < threshold ||
+          file.isFile() && FileUtil.extensionEquals(file.getName(), "jar")) {
+        FileUtil.delete(file);
+      }
+    }
+  }
+
   @Nullable
   private File wrap(@NotNull File sourceFile, @NotNull File outputDir, @NotNull List<LibraryBundlificationRule> rules) throws OsgiBuildException {
     if (!sourceFile.isFile()) {
       throw new OsgiBuildException("The library '" + sourceFile + "' does not exist - please check module dependencies.");
     }
 
-    File targetFile = new File(outputDir, sourceFile.getName());
-    Map<String, String> additionalProperties = ContainerUtil.newHashMap();
+    Map<String, String> additionalProperties = new TreeMap<>();
 
-    long lastModified = Long.MIN_VALUE;
     for (LibraryBundlificationRule bundlificationRule : rules) {
       if (bundlificationRule.appliesTo(sourceFile.getName())) {
         if (bundlificationRule.isDoNotBundle()) {
           return null;
         }
         additionalProperties.putAll(bundlificationRule.getAdditionalPropertiesMap());
-        lastModified = Math.max(lastModified, bundlificationRule.getLastModified());
         if (bundlificationRule.isStopAfterThisRule()) {
           break;
         }
       }
     }
 
-    if (targetFile.exists() && targetFile.lastModified() >= sourceFile.lastModified() && targetFile.lastModified() >= lastModified) {
+    File targetFile = new File(new File(outputDir, getCacheKey(sourceFile, additionalProperties)), sourceFile.getName());
+    if (targetFile.isFile()) {
+      // marks the bundle as used, see pruneUnusedBundles()
+      targetFile.getParentFile().setLastModified(System.currentTimeMillis());
       return targetFile;
     }
 
-    doWrap(sourceFile, targetFile, additionalProperties);
+    // the same library may be wrapped on several threads (or by several processes), only a complete bundle is moved in place
+    File tempFile = new File(targetFile.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+    try {
+      doWrap(sourceFile, tempFile, additionalProperties);
+      try {
+        Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (FileAlreadyExistsException e) {
+        // wrapped concurrently, the bundles are the same
+        if (!targetFile.isFile()) throw e;
+      }
+    }
+    catch (IOException e) {
+      throw new OsgiBuildException("Can't write bundle '" + targetFile + "'", e, null);
+    }
+    finally {
+      FileUtil.delete(tempFile);
+    }
     return targetFile;
   }
 
+  /**
+   * The hash of the wrapped library's name (the default symbolic name comes from it), its content and the bnd properties.
+   */
+  @NotNull
+  private static String getCacheKey(@NotNull File sourceFile, @NotNull Map<String, String> properties) throws OsgiBuildException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      StringBuilder key = new StringBuilder().append(WRAP_VERSION).append('\n')
+        .append(sourceFile.getName()).append('\n')
+        .append(getContentHash(sourceFile)).append('\n');
+      properties.forEach((name, value) -> key.append(name).append('=').append(value).append('\n'));
+      return StringUtil.toHexString(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+    catch (IOException | NoSuchAlgorithmException e) {
+      throw new OsgiBuildException("Can't read the library '" + sourceFile + "'", e, null);
+    }
+  }
+
+  /**
+   * Hashes are kept while the size and the time stamp of the library stay the same, so the content is read once per session.
+   * The cache is dropped when it grows past {@link #MAX_CONTENT_HASHES} libraries.
+   */
+  @NotNull
+  private static String getContentHash(@NotNull File file) throws IOException, NoSuchAlgorithmException {
+    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    long size = attributes.size(), lastModified = attributes.lastModifiedTime().toMillis();
+    String path = file.getAbsolutePath();
+
+    ContentHash hash = ourContentHashes.get(path);
+    if (hash == null || hash.mySize != size || hash.myLastModified != lastModified) {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      try (InputStream stream = new FileInputStream(file)) {
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+        while ((read = stream.read(buffer)) > 0) {
+          digest.update(buffer, 0, read);
+        }
+      }
+      hash = new ContentHash(size, lastModified, StringUtil.toHexString(digest.digest()));
+      if (ourContentHashes.size() >= MAX_CONTENT_HASHES) {
+        ourContentHashes.clear();
+      }
+      ourContentHashes.put(path, hash);
+    }
+    return hash.myHash;
+  }
+
   // internal function which does the actual wrapping. 90% borrowed from the Bnd source code.
   private void doWrap(@NotNull File inputJar, @NotNull File outputJar, @NotNull Map<String, String> properties) throws OsgiBuildException {
     if (!FileUtil.delete(outputJar)) {
@@ -163,9 +306,10 @@ public class BndWrapper {
         analyzer.setProperty(Constants.BUNDLE_VERSION, version);
       }
 
-      analyzer.calcManifest();
+      Manifest manifest = analyzer.calcManifest();
 
       try (Jar jar = analyzer.getJar()) {
+        jar.setManifest(manifest);
         jar.write(outputJar);
       }
 
@@ -313,4 +457,16 @@ public class BndWrapper {
 
     return Collections.emptyList();
   }
-}
\ No newline at end of file
+
+  private static class ContentHash {
+    private final long mySize;
+    private final long myLastModified;
+    private final String myHash;
+
+    private ContentHash(long size, long lastModified, String hash) {
+      mySize = size;
+      myLastModified = lastModified;
+      myHash = hash;
+    }
+  }
+}
@@ -25,26 +25,43 @@
 package org.jetbrains.osgi.jps.build;
 
 import aQute.bnd.osgi.Constants;
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.ShutDownTracker;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 /**
  * This is a helper class which helps providing information about bundles (that do not necessarily belong to the project).
+ * <p/>
+ * Manifest headers are cached by bundle path along with the size and the modification time of the .jar file
+ * (or of the manifest of an exploded bundle), and are read again when either changes. The headers used by the IDE and
+ * the build are read from a manifest at once; any other header is read on the first request and cached with them.
+ * The cache is lock-free for readers, shared by the IDE and the build process, and saved to the system directory
+ * on exit.
  *
  * @author <a href="mailto:janthomae@janthomae.de">Jan Thomä</a>
  */
 public class CachingBundleInfoProvider {
-  private static final Map<String, Pair<Long, Manifest>> ourCache = new WeakHashMap<String, Pair<Long, Manifest>>();
+  private static final Logger LOG = Logger.getInstance(CachingBundleInfoProvider.class);
+
+  private static final String[] HEADERS = {Constants.BUNDLE_SYMBOLICNAME, Constants.BUNDLE_VERSION, Constants.FRAGMENT_HOST};
+  private static final int CACHE_VERSION = 1;
 
   /**
    * True for .jar files or exploded directories with Bundle-SymbolicName in their manifests.
@@ -83,51 +100,194 @@ public class CachingBundleInfoProvider {
   }
 
   @Nullable
-  public synchronized static String getBundleAttribute(@NotNull String path, @NotNull String attribute) {
-    Pair<Long, Manifest> pair = ourCache.remove(path);
+  public static String getBundleAttribute(@NotNull String path, @NotNull String attribute) {
+    ConcurrentMap<String, BundleInfo> cache = Cache.ourEntries;
+    BundleInfo info = cache.get(path);
 
     try {
       File bundleFile = new File(path);
-      if (bundleFile.isDirectory()) {
-        File manifestFile = new File(bundleFile, JarFile.MANIFEST_NAME);
-        if (pair == null || pair.first != manifestFile.lastModified()) {
-          pair = null;
-          FileInputStream stream = new FileInputStream(manifestFile);
-          try {
-            Manifest manifest = new Manifest(stream);
-            pair = Pair.create(manifestFile.lastModified(), manifest);
-          }
-          finally {
-            stream.close();
-          }
+      BasicFileAttributes attributes = readAttributes(bundleFile);
+      boolean exploded = attributes != null && attributes.isDirectory();
+      if (exploded) {
+        bundleFile = new File(bundleFile, JarFile.MANIFEST_NAME);
+        attributes = readAttributes(bundleFile);
+      }
+      if (attributes == null || !attributes.isRegularFile()) {
+        if (info != null) cache.remove(path);
+        return null;
+      }
+
+      long size = attributes.size(), lastModified = attributes.lastModifiedTime().toMillis();
+      if (info == null || info.mySize != size || info.myLastModified != lastModified) {
+        info = readInfo(bundleFile, exploded, size, lastModified, attribute, null);
+        cache.put(path, info);
+        Cache.ourModified.set(true);
+      }
+      else if (!info.myHeaders.containsKey(attribute)) {
+        info = readInfo(bundleFile, exploded, size, lastModified, attribute, info);
+        cache.put(path, info);
+        Cache.ourModified.set(true);
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+      cache.remove(path);
+      return null;
+    }
+
+    return info.myHeaders.get(attribute);
+  }
+
+  @Nullable
+  private static BasicFileAttributes readAttributes(File file) {
+    try {
+      return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+    catch (IOException | InvalidPathException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads the standard headers, the requested one and the ones cached before with an older stamp.
+   */
+  private static BundleInfo readInfo(File file, boolean isManifest, long size, long lastModified, String attribute, @Nullable BundleInfo previous)
+    throws IOException {
+    Manifest manifest;
+    if (isManifest) {
+      try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+        manifest = new Manifest(stream);
+      }
+    }
+    else {
+      try (JarFile jar = new JarFile(file, false)) {
+        manifest = jar.getManifest();
+      }
+    }
+
+    Set<String> names = new LinkedHashSet<>(Arrays.asList(HEADERS));
+    names.add(attribute);
+    if (previous != null) names.addAll(previous.myHeaders.keySet());
+
+    Map<String, String> headers = new HashMap<>();
+    Attributes mainAttributes = manifest != null ? manifest.getMainAttributes() : null;
+    for (String name : names) {
+      headers.put(name, mainAttributes != null ? mainAttributes.getValue(name) : null);
+    }
+    return new BundleInfo(size, lastModified, headers);
+  }
+
+  @TestOnly
+  public static void clearCache() {
+    Cache.ourEntries.clear();
+  }
+
+  @TestOnly
+  public static void saveCache(@NotNull File file) throws IOException {
+    writeCache(file, Cache.ourEntries);
+  }
+
+  @TestOnly
+  public static void loadCache(@NotNull File file) {
+    readCache(file, Cache.ourEntries);
+  }
+
+  private static void readCache(File file, Map<String, BundleInfo> entries) {
+    if (!file.isFile()) return;
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (DataInputOutputUtil.readINT(in) != CACHE_VERSION) return;
+      int count = DataInputOutputUtil.readINT(in);
+      for (int i = 0; i < count; i++) {
+        String path = IOUtil.readUTF(in);
+        long size = DataInputOutputUtil.readLONG(in);
+        long lastModified = DataInputOutputUtil.readLONG(in);
+        int headerCount = DataInputOutputUtil.readINT(in);
+        Map<String, String> headers = new HashMap<>();
+        for (int j = 0; j < headerCount; j++) {
+          String name = IOUtil.readUTF(in);
+          headers.put(name, in.readBoolean() ? IOUtil.readUTF(in) : null);
         }
+        entries.putIfAbsent(path, new BundleInfo(size, lastModified, headers));
       }
-      else if (bundleFile.isFile()) {
-        if (pair == null || pair.first != bundleFile.lastModified()) {
-          pair = null;
-          JarFile jar = new JarFile(bundleFile);
-          try {
-            Manifest manifest = jar.getManifest();
-            if (manifest != null) {
-              pair = Pair.create(bundleFile.lastModified(), manifest);
-            }
-          }
-          finally {
-            jar.close();
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read bundle cache " + file, e);
+    }
+  }
+
+  /**
+   * Bundles which no longer exist are dropped. The file is replaced at once, since the IDE and the build process
+   * may save it at the same time.
+   */
+  private static void writeCache(File file, Map<String, BundleInfo> entries) throws IOException {
+    List<Map.Entry<String, BundleInfo>> existing = new ArrayList<>();
+    for (Map.Entry<String, BundleInfo> entry : entries.entrySet()) {
+      if (new File(entry.getKey()).exists()) {
+        existing.add(entry);
+      }
+    }
+
+    FileUtil.createParentDirs(file);
+    File tempFile = FileUtil.createTempFile(file.getParentFile(), file.getName(), ".tmp", true, false);
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        DataInputOutputUtil.writeINT(out, CACHE_VERSION);
+        DataInputOutputUtil.writeINT(out, existing.size());
+        for (Map.Entry<String, BundleInfo> entry : existing) {
+          BundleInfo info = entry.getValue();
+          IOUtil.writeUTF(out, entry.getKey());
+          DataInputOutputUtil.writeLONG(out, info.mySize);
+          DataInputOutputUtil.writeLONG(out, info.myLastModified);
+          DataInputOutputUtil.writeINT(out, info.myHeaders.size());
+          for (Map.Entry<String, String> header : info.myHeaders.entrySet()) {
+            IOUtil.writeUTF(out, header.getKey());
+            out.writeBoolean(header.getValue() != null);
+            if (header.getValue() != null) IOUtil.writeUTF(out, header.getValue());
           }
         }
       }
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
     }
-    catch (IOException e) {
-      Logger.getInstance(CachingBundleInfoProvider.class).debug(e);
+    finally {
+      FileUtil.delete(tempFile);
     }
+  }
 
-    if (pair != null) {
-      ourCache.put(path, pair);
-      return pair.second.getMainAttributes().getValue(attribute);
+  private static class Cache {
+    private static final File FILE = new File(PathManager.getSystemPath(), "osmorc/bundle-info.dat");
+    private static final ConcurrentMap<String, BundleInfo> ourEntries = ContainerUtil.newConcurrentMap();
+    private static final AtomicBoolean ourModified = new AtomicBoolean();
+
+    static {
+      readCache(FILE, ourEntries);
+      ShutDownTracker.getInstance().registerShutdownTask(() -> {
+        if (ourModified.get()) {
+          try {
+            writeCache(FILE, ourEntries);
+          }
+          catch (IOException e) {
+            LOG.info("Cannot save bundle cache " + FILE, e);
+          }
+        }
+      });
     }
-    else {
-      return null;
+  }
+
+  private static class BundleInfo {
+    private final long mySize;
+    private final long myLastModified;
+    private final Map<String, String> myHeaders;
+
+    private BundleInfo(long size, long lastModified, Map<String, String> headers) {
+      mySize = size;
+      myLastModified = lastModified;
+      myHeaders = headers;
     }
   }
 }
@@ -65,7 +65,10 @@ public class OsgiBuildSession implements Reporter {
   private BndWrapper myBndWrapper;
   private String mySourceToReport = null;
 
-  public void build(@NotNull OsmorcBuildTarget target, @NotNull CompileContext context) throws IOException {
+  /**
+   * Builds the bundle(s) of the target, unless they were built from the same inputs before and {@code forced} is not set.
+   */
+  public void build(@NotNull OsmorcBuildTarget target, @NotNull CompileContext context, boolean forced) throws IOException {
     myTarget = target;
     myContext = context;
     myExtension = target.getExtension();
@@ -74,8 +77,23 @@ public class OsgiBuildSession implements Reporter {
 
     progress("Building OSGi bundle");
 
+    File dataRoot = context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target);
+    OsgiBuildState previousState = OsgiBuildState.load(dataRoot);
+    OsgiBuildState.clear(dataRoot);
+    OsgiBuildState state;
+
     try {
       prepare();
+
+      state = OsgiBuildState.collect(previousState, getConfiguration(), getInputs(), myOutputJarFiles);
+      if (!forced && previousState != null && previousState.isUpToDate(state)) {
+        progress("OSGi bundle is up to date");
+        state.setOutputs(myOutputJarFiles);
+        state.save(dataRoot);
+        return;
+      }
+
+      deleteOutputs();
       doBuild();
     }
     catch (OsgiBuildException e) {
@@ -90,6 +108,9 @@ public class OsgiBuildSession implements Reporter {
       }
     }
 
+    state.setOutputs(myOutputJarFiles);
+    state.save(dataRoot);
+
     ProjectBuilderLogger logger = context.getLoggingManager().getProjectBuilderLogger();
     if (logger.isEnabled()) {
       logger.logCompiledFiles(myOutputJarFiles, OsmorcBuilder.ID, "Built OSGi bundles:");
@@ -112,15 +133,6 @@ public class OsgiBuildSession implements Reporter {
     myOutputJarFile = new File(jarFileLocation);
     myOutputJarFiles = myTarget.getOutputRoots(myContext);
 
-    for (File jarFile : myOutputJarFiles) {
-      if (!FileUtil.delete(jarFile)) {
-        throw new OsgiBuildException("Can't delete bundle file '" + jarFile + "'.");
-      }
-    }
-    if (!FileUtil.createParentDirs(myOutputJarFile)) {
-      throw new OsgiBuildException("Cannot create a directory for bundles '" + myOutputJarFile.getParent() + "'.");
-    }
-
     List<File> classes = ContainerUtil.newSmartList();
     if (myModuleOutputDir.exists()) {
       classes.add(myModuleOutputDir);
@@ -150,6 +162,79 @@ public class OsgiBuildSession implements Reporter {
     myBndWrapper = new BndWrapper(this);
   }
 
+  private void deleteOutputs() throws OsgiBuildException {
+    for (File jarFile : myOutputJarFiles) {
+      if (!FileUtil.delete(jarFile)) {
+        throw new OsgiBuildException("Can't delete bundle file '" + jarFile + "'.");
+      }
+    }
+    if (!FileUtil.createParentDirs(myOutputJarFile)) {
+      throw new OsgiBuildException("Cannot create a directory for bundles '" + myOutputJarFile.getParent() + "'.");
+    }
+  }
+
+  /**
+   * Settings the bundle depends on besides the input files: the build method, facet properties and paths.
+   */
+  @NotNull
+  private String getConfiguration() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(((JpsOsmorcModuleExtensionImpl)myExtension).getProperties().myManifestGenerationMode).append('\n');
+    builder.append(myExtension.getBndFileLocation()).append('\n');
+    builder.append(myExtension.getBundlorFileLocation()).append('\n');
+    builder.append(myExtension.getManifestLocation()).append('\n');
+    builder.append(myExtension.getBundleSymbolicName()).append('\n');
+    builder.append(myExtension.getBundleVersion()).append('\n');
+    builder.append(myExtension.getBundleActivator()).append('\n');
+    builder.append(new TreeMap<>(myExtension.getAdditionalProperties())).append('\n');
+    for (OsmorcJarContentEntry contentEntry : myExtension.getAdditionalJarContents()) {
+      builder.append(contentEntry.myDestination).append('=').append(contentEntry.mySource).append('\n');
+    }
+    builder.append(myExtension.getIgnoreFilePattern()).append('\n');
+    builder.append(Arrays.toString(myClasses)).append(Arrays.toString(mySources)).append(myOutputJarFiles).append('\n');
+    if (myExtension.isUseBundlorFile()) {
+      builder.append(new TreeMap<>(OsgiBuildUtil.getMavenProjectProperties(myContext, myModule)));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Files the bundle is built from: classes, sources and resources, the build instructions and additional JAR contents.
+   * Resources included only by bnd instructions (e.g. Include-Resource) outside of these are not tracked.
+   */
+  @NotNull
+  private List<File> getInputs() {
+    List<File> inputs = ContainerUtil.newArrayList(myClasses);
+    Collections.addAll(inputs, mySources);
+
+    if (myExtension.isUseBndFile()) {
+      File bndFile = OsgiBuildUtil.findFileInModuleContentRoots(myModule, myExtension.getBndFileLocation());
+      if (bndFile != null) {
+        // included and sub-bundle instruction files, and a bndtools workspace
+        File[] bndFiles = bndFile.getParentFile().listFiles((dir, name) -> name.endsWith(".bnd"));
+        if (bndFiles != null) {
+          Collections.addAll(inputs, bndFiles);
+        }
+        File workspaceDir = bndFile.getParentFile().getParentFile();
+        if (workspaceDir != null) {
+          inputs.add(new File(workspaceDir, "cnf"));
+        }
+      }
+    }
+    else if (myExtension.isUseBundlorFile()) {
+      ContainerUtil.addIfNotNull(inputs, OsgiBuildUtil.findFileInModuleContentRoots(myModule, myExtension.getBundlorFileLocation()));
+    }
+    else if (myExtension.isManifestManuallyEdited()) {
+      ContainerUtil.addIfNotNull(inputs, OsgiBuildUtil.findFileInModuleContentRoots(myModule, myExtension.getManifestLocation()));
+    }
+
+    for (OsmorcJarContentEntry contentEntry : myExtension.getAdditionalJarContents()) {
+      inputs.add(new File(contentEntry.mySource));
+    }
+
+    return inputs;
+  }
+
   private void doBuild() throws OsgiBuildException {
     progress("Running Bnd to build the bundle");
 
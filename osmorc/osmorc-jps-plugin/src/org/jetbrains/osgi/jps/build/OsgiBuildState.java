@@ -0,0 +1,228 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.osgi.jps.build;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.IOUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Fingerprints of what a bundle was built from: the configuration of the build, the hashes of its input files
+ * (classes, resources, sources, the .bnd file, manifest or Bundlor template, additional JAR contents) and the time
+ * stamps of the bundles built. Kept in the build target's data directory, so a bundle is not packaged again
+ * when its inputs are dirty but have the same content, e.g. after classes were recompiled to the same bytes.
+ * <p/>
+ * A file is hashed again only when its size or time stamp changes.
+ */
+class OsgiBuildState {
+  private static final Logger LOG = Logger.getInstance(OsgiBuildState.class);
+
+  private static final int VERSION = 1;
+  private static final String FILE_NAME = "osgi-build-state.dat";
+
+  private final String myConfiguration;
+  private final Map<String, Fingerprint> myInputs;
+  private final Map<String, Fingerprint> myOutputs;
+
+  private OsgiBuildState(@NotNull String configuration, @NotNull Map<String, Fingerprint> inputs, @NotNull Map<String, Fingerprint> outputs) {
+    myConfiguration = configuration;
+    myInputs = inputs;
+    myOutputs = outputs;
+  }
+
+  /**
+   * @param previous  the state of the last build; hashes of files which did not change since are taken from it
+   * @param inputs    input files and directories; missing ones are skipped
+   * @param outputs   the bundles, they are not read even if they are under an input directory
+   */
+  @NotNull
+  static OsgiBuildState collect(@Nullable OsgiBuildState previous,
+                                @NotNull String configuration,
+                                @NotNull Collection<File> inputs,
+                                @NotNull Collection<File> outputs) throws IOException {
+    Set<String> outputPaths = ContainerUtil.newHashSet();
+    for (File output : outputs) {
+      outputPaths.add(output.getAbsolutePath());
+    }
+
+    Map<String, Fingerprint> fingerprints = ContainerUtil.newHashMap();
+    Map<String, Fingerprint> previousInputs = previous != null ? previous.myInputs : ContainerUtil.newHashMap();
+    for (File input : inputs) {
+      if (!input.exists()) continue;
+      Files.walkFileTree(input.toPath(), new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+          String path = file.toAbsolutePath().toString();
+          if (attributes.isRegularFile() && !outputPaths.contains(path) && !fingerprints.containsKey(path)) {
+            long size = attributes.size(), lastModified = attributes.lastModifiedTime().toMillis();
+            Fingerprint fingerprint = previousInputs.get(path);
+            if (fingerprint == null || fingerprint.mySize != size || fingerprint.myLastModified != lastModified) {
+              fingerprint = new Fingerprint(size, lastModified, hash(file));
+            }
+            fingerprints.put(path, fingerprint);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+
+    return new OsgiBuildState(configuration, fingerprints, ContainerUtil.newHashMap());
+  }
+
+  /**
+   * Whether a bundle built from the given inputs would be the same as the existing one, and the existing one
+   * was not changed or removed since it was built.
+   */
+  boolean isUpToDate(@NotNull OsgiBuildState current) {
+    if (!myConfiguration.equals(current.myConfiguration) || myInputs.size() != current.myInputs.size() || myOutputs.isEmpty()) {
+      return false;
+    }
+
+    for (Map.Entry<String, Fingerprint> entry : current.myInputs.entrySet()) {
+      Fingerprint fingerprint = myInputs.get(entry.getKey());
+      if (fingerprint == null || !Objects.equals(fingerprint.myHash, entry.getValue().myHash)) {
+        return false;
+      }
+    }
+
+    for (Map.Entry<String, Fingerprint> entry : myOutputs.entrySet()) {
+      File output = new File(entry.getKey());
+      if (!output.isFile() || output.length() != entry.getValue().mySize || output.lastModified() != entry.getValue().myLastModified) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  void setOutputs(@NotNull Collection<File> outputs) {
+    myOutputs.clear();
+    for (File output : outputs) {
+      myOutputs.put(output.getAbsolutePath(), new Fingerprint(output.length(), output.lastModified(), ""));
+    }
+  }
+
+  @Nullable
+  static OsgiBuildState load(@NotNull File dataRoot) {
+    File file = new File(dataRoot, FILE_NAME);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (DataInputOutputUtil.readINT(input) != VERSION) {
+        return null;
+      }
+      String configuration = IOUtil.readUTF(input);
+      Map<String, Fingerprint> inputs = readFingerprints(input);
+      Map<String, Fingerprint> outputs = readFingerprints(input);
+      return new OsgiBuildState(configuration, inputs, outputs);
+    }
+    catch (IOException e) {
+      LOG.info("Cannot read OSGi build state " + file, e);
+      return null;
+    }
+  }
+
+  void save(@NotNull File dataRoot) throws IOException {
+    File file = new File(dataRoot, FILE_NAME);
+    if (!FileUtil.createParentDirs(file)) {
+      throw new IOException("Cannot create directory " + dataRoot);
+    }
+
+    try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+      DataInputOutputUtil.writeINT(output, VERSION);
+      IOUtil.writeUTF(output, myConfiguration);
+      writeFingerprints(output, myInputs);
+      writeFingerprints(output, myOutputs);
+    }
+  }
+
+  static void clear(@NotNull File dataRoot) {
+    FileUtil.delete(new File(dataRoot, FILE_NAME));
+  }
+
+  private static Map<String, Fingerprint> readFingerprints(DataInput input) throws IOException {
+    int count = DataInputOutputUtil.readINT(input);
+    Map<String, Fingerprint> result = ContainerUtil.newHashMap();
+    for (int i = 0; i < count; i++) {
+      String path = IOUtil.readUTF(input);
+      long size = DataInputOutputUtil.readLONG(input);
+      long lastModified = DataInputOutputUtil.readLONG(input);
+      result.put(path, new Fingerprint(size, lastModified, IOUtil.readUTF(input)));
+    }
+    return result;
+  }
+
+  private static void writeFingerprints(DataOutput output, Map<String, Fingerprint> fingerprints) throws IOException {
+    DataInputOutputUtil.writeINT(output, fingerprints.size());
+    for (Map.Entry<String, Fingerprint> entry : fingerprints.entrySet()) {
+      IOUtil.writeUTF(output, entry.getKey());
+      DataInputOutputUtil.writeLONG(output, entry.getValue().mySize);
+      DataInputOutputUtil.writeLONG(output, entry.getValue().myLastModified);
+      IOUtil.writeUTF(output, entry.getValue().myHash);
+    }
+  }
+
+  private static String hash(Path file) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    try (InputStream stream = Files.newInputStream(file)) {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = stream.read(buffer)) > 0) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    return StringUtil.toHexString(digest.digest());
+  }
+
+  private static class Fingerprint {
+    private final long mySize;
+    private final long myLastModified;
+    private final String myHash;
+
+    private Fingerprint(long size, long lastModified, String hash) {
+      mySize = size;
+      myLastModified = lastModified;
+      myHash = hash;
+    }
+  }
+}
@@ -15,12 +15,17 @@
  */
 package org.jetbrains.osgi.jps
 
+import com.intellij.openapi.diagnostic.Logger
 import org.jetbrains.jps.model.module.JpsModule
 import org.jetbrains.osgi.jps.model.ManifestGenerationMode
 import org.jetbrains.osgi.jps.model.OsmorcJarContentEntry
 import java.io.File
 
 class OsgiBuildTest : OsgiBuildTestCase() {
+  companion object {
+    private val LOG = Logger.getInstance(OsgiBuildTest::class.java)
+  }
+
   private lateinit var myModule: JpsModule
 
   override fun setUp() {
@@ -146,6 +151,87 @@ class OsgiBuildTest : OsgiBuildTestCase() {
     buildAllModules().assertBundleCompiled(myModule)
   }
 
+  fun testUnchangedInputs() {
+    bndBuild(myModule)
+    createFile("main/bnd.bnd", "Bundle-SymbolicName: main\nBundle-Version: 1.0.0\nExport-Package: main")
+    createFile("main/src/main/Main.java", "package main;\n\npublic interface Main { String greeting(); }")
+    createFile("main/res/readme.txt", "Hiya there.")
+    buildAllModules().assertBundleCompiled(myModule)
+    val bundle = File(extension(myModule).jarFileLocation)
+    val lastModified = bundle.lastModified()
+
+    changeFile("main/bnd.bnd", "Bundle-SymbolicName: main\nBundle-Version: 1.0.0\nExport-Package: main")
+    buildAllModules().assertUpToDate()
+    changeFile("main/res/readme.txt", "Hiya there.")
+    buildAllModules().assertUpToDate()
+    assertEquals(lastModified, bundle.lastModified())
+
+    changeFile("main/res/readme.txt", "Hi there.")
+    buildAllModules().assertBundleCompiled(myModule)
+    assertJar(myModule, setOf("META-INF/MANIFEST.MF", "main/Main.class", "readme.txt"))
+
+    assertTrue(bundle.delete())
+    changeFile("main/bnd.bnd", "Bundle-SymbolicName: main\nBundle-Version: 1.0.0\nExport-Package: main")
+    buildAllModules().assertBundleCompiled(myModule)
+  }
+
+  fun testSingleClassChange() {
+    ideaBuild(myModule)
+    for (i in 0 until 10) {
+      createFile("main/src/main/Main$i.java", "package main;\n\npublic class Main$i { }")
+    }
+    buildAllModules().assertBundleCompiled(myModule)
+
+    changeFile("main/src/main/Main5.java", "package main;\n\npublic class Main5 { public void main() { } }")
+    buildAllModules().assertBundleCompiled(myModule)
+    buildAllModules().assertUpToDate()
+    assertJar(myModule, setOf("META-INF/MANIFEST.MF") + (0 until 10).map { "main/Main$it.class" })
+  }
+
+  fun testInstructionFileChange() {
+    bndBuild(myModule)
+    createFile("main/bnd.bnd", "-include: common.bnd\nBundle-SymbolicName: main\nExport-Package: main")
+    createFile("main/common.bnd", "Bundle-Version: 1.0.0")
+    createFile("main/src/main/Main.java", "package main;\n\npublic interface Main { String greeting(); }")
+    buildAllModules().assertBundleCompiled(myModule)
+
+    changeFile("main/common.bnd", "Bundle-Version: 1.0.1")
+    buildAllModules().assertBundleCompiled(myModule)
+    assertManifest(myModule, setOf("Bundle-Name=main", "Bundle-SymbolicName=main", "Bundle-Version=1.0.1", "Export-Package=main;version=\"1.0.1\""))
+    buildAllModules().assertUpToDate()
+  }
+
+  /**
+   * Build times of a bundle of a few hundred classes: the first build, a build after touching the resources
+   * without changing them and a build after changing a single class.
+   */
+  fun testBuildTime() {
+    ideaBuild(myModule)
+    val classes = 300
+    for (i in 0 until classes) {
+      createFile("main/src/main/p${i % 10}/Main$i.java", "package main.p${i % 10};\n\npublic class Main$i { public int value() { return $i; } }")
+      createFile("main/res/main/p${i % 10}/main$i.properties", "value=$i")
+    }
+
+    var start = System.currentTimeMillis()
+    buildAllModules().assertBundleCompiled(myModule)
+    val fullTime = System.currentTimeMillis() - start
+
+    start = System.currentTimeMillis()
+    for (i in 0 until classes) {
+      changeFile("main/res/main/p${i % 10}/main$i.properties", "value=$i")
+    }
+    buildAllModules().assertUpToDate()
+    val unchangedTime = System.currentTimeMillis() - start
+
+    start = System.currentTimeMillis()
+    changeFile("main/src/main/p0/Main0.java", "package main.p0;\n\npublic class Main0 { public int value() { return -1; } }")
+    buildAllModules().assertBundleCompiled(myModule)
+    val changedTime = System.currentTimeMillis() - start
+
+    LOG.info("$classes classes: full build ${fullTime}ms, unchanged inputs ${unchangedTime}ms, single class change ${changedTime}ms")
+  }
+
   fun testRebuildOnDependencyChange() {
     bndBuild(myModule)
     val subModule = module("sub", false)
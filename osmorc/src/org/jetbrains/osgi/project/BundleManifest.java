@@ -20,7 +20,6 @@ import aQute.bnd.osgi.Constants;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiNameHelper;
 import com.intellij.util.containers.ContainerUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -37,6 +36,12 @@ public class BundleManifest {
   private final Map<String, String> myMap;
   private final PsiFile mySource;
 
+  // headers are parsed on first use, manifests themselves are cached by BundleManifestCache
+  private volatile PackageTrie myExports;
+  private volatile PackageTrie myImports;
+  private volatile PackageTrie myPrivatePackages;
+  private volatile Set<String> myRequiredBundles;
+
   public BundleManifest(@NotNull Map<String, String> map) {
     this(map, null);
   }
@@ -68,48 +73,57 @@ public class BundleManifest {
 
   @Nullable
   public String getExportedPackage(@NotNull String packageName) {
-    for (String exported : getValues(Constants.EXPORT_PACKAGE)) {
-      exported = StringUtil.trimEnd(exported, ".*");
-      if (PsiNameHelper.isSubpackageOf(packageName, exported)) {
-        return exported;
-      }
-    }
-
-    return null;
+    PackageTrie.Entry exported = getExportedPackages().find(packageName);
+    return exported != null ? exported.getName() : null;
   }
 
   public boolean isPackageImported(@NotNull String packageName) {
-    for (String imported : getValues(Constants.IMPORT_PACKAGE)) {
-      if (PsiNameHelper.isSubpackageOf(packageName, imported)) {
-        return true;
-      }
-    }
-
-    return false;
+    return getImportedPackages().contains(packageName);
   }
 
   public boolean isBundleRequired(@NotNull String bsn) {
-    for (String bundleName : getValues(Constants.REQUIRE_BUNDLE)) {
-      if (bsn.equals(bundleName)) {
-        return true;
-      }
-    }
-
-    return false;
+    return getRequiredBundles().contains(bsn);
   }
 
   public boolean isPrivatePackage(@NotNull String packageName) {
-    for (String privatePkg : getValues(Constants.PRIVATE_PACKAGE)) {
-      if (PsiNameHelper.isSubpackageOf(packageName, privatePkg)) {
-        return true;
-      }
+    return getPrivatePackages().contains(packageName);
+  }
+
+  @NotNull
+  public PackageTrie getExportedPackages() {
+    PackageTrie exports = myExports;
+    if (exports == null) {
+      myExports = exports = PackageTrie.parse(get(Constants.EXPORT_PACKAGE), true);
     }
+    return exports;
+  }
 
-    return false;
+  @NotNull
+  public PackageTrie getImportedPackages() {
+    PackageTrie imports = myImports;
+    if (imports == null) {
+      myImports = imports = PackageTrie.parse(get(Constants.IMPORT_PACKAGE), false);
+    }
+    return imports;
   }
 
-  private Set<String> getValues(String header) {
-    String value = get(header);
-    return StringUtil.isEmptyOrSpaces(value) ? Collections.emptySet() : new Parameters(value).keySet();
+  @NotNull
+  public PackageTrie getPrivatePackages() {
+    PackageTrie privatePackages = myPrivatePackages;
+    if (privatePackages == null) {
+      myPrivatePackages = privatePackages = PackageTrie.parse(get(Constants.PRIVATE_PACKAGE), false);
+    }
+    return privatePackages;
+  }
+
+  @NotNull
+  private Set<String> getRequiredBundles() {
+    Set<String> bundles = myRequiredBundles;
+    if (bundles == null) {
+      String value = get(Constants.REQUIRE_BUNDLE);
+      bundles = StringUtil.isEmptyOrSpaces(value) ? Collections.emptySet() : ContainerUtil.newHashSet(new Parameters(value).keySet());
+      myRequiredBundles = bundles;
+    }
+    return bundles;
   }
 }
\ No newline at end of file
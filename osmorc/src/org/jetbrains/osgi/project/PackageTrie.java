@@ -0,0 +1,151 @@
+/*
+ * Copyright 2000-2016 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.osgi.project;
+
+import aQute.bnd.header.Attrs;
+import aQute.bnd.header.Parameters;
+import aQute.bnd.osgi.Constants;
+import aQute.bnd.osgi.Processor;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Packages listed in a manifest header (Export-Package, Import-Package etc.), parsed once into a tree of package name
+ * segments. A package matches an entry if it is the entry's package or its subpackage; the most specific entry wins.
+ * Immutable once built.
+ */
+public final class PackageTrie {
+  public static final PackageTrie EMPTY = new PackageTrie(new Node());
+
+  private final Node myRoot;
+
+  private PackageTrie(@NotNull Node root) {
+    myRoot = root;
+  }
+
+  /**
+   * @param trimWildcards whether {@code pkg.*} should be read as {@code pkg} (as bnd instructions in Export-Package are)
+   */
+  @NotNull
+  public static PackageTrie parse(@Nullable String header, boolean trimWildcards) {
+    if (StringUtil.isEmptyOrSpaces(header)) {
+      return EMPTY;
+    }
+
+    Node root = new Node();
+    for (Map.Entry<String, Attrs> entry : new Parameters(header).entrySet()) {
+      String name = Processor.removeDuplicateMarker(entry.getKey());
+      if (trimWildcards) {
+        name = StringUtil.trimEnd(name, ".*");
+      }
+      if (name.isEmpty()) continue;
+
+      Node node = root;
+      for (String segment : StringUtil.split(name, ".")) {
+        node = node.getOrCreateChild(segment);
+      }
+      if (node.myEntry == null) {
+        node.myEntry = new Entry(name, entry.getValue());
+      }
+    }
+    return new PackageTrie(root);
+  }
+
+  @Nullable
+  public Entry find(@NotNull String packageName) {
+    Entry result = null;
+    Node node = myRoot;
+    int start = 0;
+    while (node.myChildren != null) {
+      int end = packageName.indexOf('.', start);
+      if (end < 0) end = packageName.length();
+      node = node.myChildren.get(packageName.substring(start, end));
+      if (node == null) break;
+      if (node.myEntry != null) result = node.myEntry;
+      if (end == packageName.length()) break;
+      start = end + 1;
+    }
+    return result;
+  }
+
+  public boolean contains(@NotNull String packageName) {
+    return find(packageName) != null;
+  }
+
+  /**
+   * A package clause of the header: the package name (without a wildcard, if trimmed), its attributes and directives.
+   */
+  public static final class Entry {
+    private final String myName;
+    private final Map<String, String> myAttributes;
+
+    private Entry(@NotNull String name, @NotNull Attrs attrs) {
+      myName = name;
+      myAttributes = attrs.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(ContainerUtil.newHashMap(attrs));
+    }
+
+    @NotNull
+    public String getName() {
+      return myName;
+    }
+
+    /**
+     * The version of an exported package or the version range of an imported one, as written in the header.
+     */
+    @Nullable
+    public String getVersion() {
+      String version = myAttributes.get(Constants.VERSION_ATTRIBUTE);
+      return version != null ? version : myAttributes.get(Constants.SPECIFICATION_VERSION);
+    }
+
+    @Nullable
+    public String getAttribute(@NotNull String name) {
+      return myAttributes.get(name);
+    }
+
+    @Nullable
+    public String getDirective(@NotNull String name) {
+      return myAttributes.get(name + ':');
+    }
+
+    @Override
+    public String toString() {
+      return myName + myAttributes;
+    }
+  }
+
+  private static final class Node {
+    private Map<String, Node> myChildren;
+    private Entry myEntry;
+
+    @NotNull
+    private Node getOrCreateChild(@NotNull String segment) {
+      if (myChildren == null) {
+        myChildren = ContainerUtil.newHashMap();
+      }
+      Node child = myChildren.get(segment);
+      if (child == null) {
+        myChildren.put(segment, child = new Node());
+      }
+      return child;
+    }
+  }
+}
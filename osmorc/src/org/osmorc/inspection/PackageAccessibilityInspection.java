@@ -51,6 +51,7 @@ import org.osmorc.util.OsgiPsiUtil;
 import javax.swing.*;
 import java.lang.annotation.RetentionPolicy;
 import java.util.List;
+import java.util.Map;
 
 import static org.osmorc.i18n.OsmorcBundle.message;
 
@@ -80,12 +81,15 @@ public class PackageAccessibilityInspection extends BaseJavaBatchLocalInspection
       return null;
     }
 
+    final BundleManifestCache cache = BundleManifestCache.getInstance(file.getProject());
+    final BundleManifest importer = cache.getManifest(facet.getModule());
+    final Map<PsiFile, BundleManifest> exporters = ContainerUtil.newHashMap();
     final List<ProblemDescriptor> problems = ContainerUtil.newSmartList();
     DependenciesBuilder.analyzeFileDependencies(file, new DependenciesBuilder.DependencyProcessor() {
       @Override
       public void process(PsiElement place, PsiElement dependency) {
         if (dependency instanceof PsiClass) {
-          Problem problem = checkAccessibility((PsiClass)dependency, facet);
+          Problem problem = checkAccessibility((PsiClass)dependency, facet, importer, cache, exporters);
           if (problem != null) {
             problems.add(manager.createProblemDescriptor(place, problem.message, isOnTheFly, problem.fixes, problem.type));
           }
@@ -116,7 +120,11 @@ public class PackageAccessibilityInspection extends BaseJavaBatchLocalInspection
   }
 
   // OSGi Core Spec 3.5 "Class Loading Architecture"
-  private static Problem checkAccessibility(PsiClass targetClass, OsmorcFacet facet) {
+  private static Problem checkAccessibility(PsiClass targetClass,
+                                            OsmorcFacet facet,
+                                            @Nullable BundleManifest importer,
+                                            BundleManifestCache cache,
+                                            Map<PsiFile, BundleManifest> exporters) {
     // ignores annotations invisible at runtime
     if (targetClass.isAnnotationType()) {
       RetentionPolicy retention = AnnotationsHighlightUtil.getRetentionPolicy(targetClass);
@@ -144,13 +152,15 @@ public class PackageAccessibilityInspection extends BaseJavaBatchLocalInspection
       return null;
     }
 
-    BundleManifest importer = BundleManifestCache.getInstance(targetClass.getProject()).getManifest(requestorModule);
     if (importer != null && (importer.isPrivatePackage(packageName) || importer.getExportedPackage(packageName) != null)) {
       return null;
     }
 
     // rejects non-exported classes (manifest missing, or a package isn't listed as exported)
-    BundleManifest exporter = BundleManifestCache.getInstance(targetClass.getProject()).getManifest(targetClass);
+    BundleManifest exporter = exporters.get(targetFile);
+    if (exporter == null && !exporters.containsKey(targetFile)) {
+      exporters.put(targetFile, exporter = cache.getManifest(targetFile));
+    }
     if (exporter == null || exporter.getBundleSymbolicName() == null) {
       return Problem.weak(message("PackageAccessibilityInspection.non.osgi", packageName));
     }
@@ -67,4 +67,30 @@ class BundleManifestTest {
     assertTrue(manifest.isPrivatePackage("org.apache.felix.framework.impl"))
     assertFalse(manifest.isPrivatePackage("org.apache.felix"))
   }
-}
\ No newline at end of file
+
+  @Test fun mostSpecificExportedPackage() {
+    val manifest = BundleManifest(mapOf("Export-Package" to "foo.bar;version=1.0.0,foo.bar.baz;version=2.0.0;uses:=\"foo.bar\""))
+    assertEquals("foo.bar.baz", manifest.getExportedPackage("foo.bar.baz.impl"))
+    assertEquals("foo.bar", manifest.getExportedPackage("foo.bar.bam"))
+    assertNull(manifest.getExportedPackage("foo.barbaz"))
+
+    val exported = manifest.exportedPackages.find("foo.bar.baz")!!
+    assertEquals("2.0.0", exported.version)
+    assertEquals("foo.bar", exported.getDirective("uses"))
+  }
+
+  @Test fun importedPackageAttributes() {
+    val manifest = BundleManifest(mapOf("Import-Package" to "foo.bar;version=\"[1,2)\";resolution:=optional,foo.baz"))
+    val imported = manifest.importedPackages.find("foo.bar")!!
+    assertEquals("[1,2)", imported.version)
+    assertEquals("optional", imported.getDirective("resolution"))
+    assertNull(manifest.importedPackages.find("foo.baz")!!.version)
+    assertNull(manifest.importedPackages.find("foo"))
+  }
+
+  @Test fun duplicatePackages() {
+    val manifest = BundleManifest(mapOf("Import-Package" to "foo.bar;version=1,foo.bar;version=2"))
+    assertTrue(manifest.isPackageImported("foo.bar"))
+    assertEquals("1", manifest.importedPackages.find("foo.bar")!!.version)
+  }
+}
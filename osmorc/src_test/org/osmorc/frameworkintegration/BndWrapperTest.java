@@ -0,0 +1,222 @@
+package org.osmorc.frameworkintegration;
+
+import com.intellij.openapi.application.PluginPathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.osgi.jps.build.BndWrapper;
+import org.jetbrains.osgi.jps.build.CachingBundleInfoProvider;
+import org.jetbrains.osgi.jps.build.Reporter;
+import org.jetbrains.osgi.jps.model.LibraryBundlificationRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BndWrapperTest {
+  private static final Logger LOG = Logger.getInstance(BndWrapperTest.class);
+
+  private File myTempDir;
+  private File myOutputDir;
+  private List<String> myWarnings;
+  private BndWrapper myWrapper;
+
+  @Before
+  public void setUp() throws Exception {
+    myTempDir = FileUtil.createTempDirectory("osgi.", ".test");
+    myOutputDir = new File(myTempDir, "bundles");
+    myWarnings = Collections.synchronizedList(new ArrayList<>());
+    myWrapper = new BndWrapper(new TestReporter());
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myTempDir);
+  }
+
+  @Test
+  public void testCacheReuse() throws Exception {
+    File library = createLibrary("library.jar", "org.example.lib");
+    List<String> bundles = bundlify(library);
+    assertThat(bundles.size(), equalTo(1));
+    File bundle = new File(bundles.get(0));
+    assertThat(CachingBundleInfoProvider.getBundleSymbolicName(bundle.getPath()), equalTo("library"));
+    assertThat(CachingBundleInfoProvider.getBundleAttribute(bundle.getPath(), "Export-Package"), containsString("org.example.lib"));
+
+    long lastModified = bundle.lastModified();
+    assertThat(bundlify(library), equalTo(bundles));
+
+    File copy = new File(myTempDir, "other/library.jar");
+    FileUtil.copy(library, copy);
+    assertThat("The same library at another location should not be wrapped again", bundlify(copy), equalTo(bundles));
+    assertThat(bundle.lastModified(), equalTo(lastModified));
+    assertThat(myWarnings, empty());
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    File library = createLibrary("library.jar", "org.example.lib");
+    String first = single(bundlify(library));
+
+    createLibrary("library.jar", "org.example.lib.changed");
+    String changed = single(bundlify(library));
+    assertThat(changed, not(equalTo(first)));
+    assertThat(CachingBundleInfoProvider.getBundleAttribute(changed, "Export-Package"), containsString("org.example.lib.changed"));
+
+    LibraryBundlificationRule rule = new LibraryBundlificationRule();
+    rule.setAdditionalProperties("Bundle-Version: 2.0.0");
+    String versioned = single(bundlify(library, rule));
+    assertThat(versioned, not(equalTo(changed)));
+    assertThat(CachingBundleInfoProvider.getBundleVersion(versioned), equalTo("2.0.0"));
+
+    rule.setRuleRegex("other.*");
+    String unversioned = single(bundlify(library, rule));
+    assertThat(unversioned, not(equalTo(versioned)));
+    assertThat(CachingBundleInfoProvider.getBundleVersion(unversioned), equalTo("0"));
+
+    rule.setRuleRegex(".*");
+    rule.setDoNotBundle(true);
+    assertThat(bundlify(library, rule), empty());
+    assertThat(myWarnings, empty());
+  }
+
+  @Test
+  public void testPruning() throws Exception {
+    File library = createLibrary("library.jar", "org.example.lib");
+    File first = new File(single(bundlify(library))).getParentFile();
+    File other = new File(single(bundlify(createLibrary("other.jar", "org.example.other")))).getParentFile();
+
+    createLibrary("library.jar", "org.example.lib.changed");
+    File changed = new File(single(bundlify(library))).getParentFile();
+    assertThat("Bundles used recently should be kept", first.isDirectory(), equalTo(true));
+
+    long longAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2);
+    assertThat(first.setLastModified(longAgo) && other.setLastModified(longAgo) && changed.setLastModified(longAgo), equalTo(true));
+    assertThat(single(bundlify(library)), equalTo(new File(changed, "library.jar").getPath()));
+    assertThat(first.exists(), equalTo(false));
+    assertThat(other.exists(), equalTo(false));
+    assertThat(changed.isDirectory(), equalTo(true));
+  }
+
+  @Test
+  public void testPruningFlatBundles() throws Exception {
+    File flatBundle = new File(myOutputDir, "library.jar");
+    FileUtil.writeToFile(flatBundle, "wrapped before the bundles were kept under their hash");
+    String bundle = single(bundlify(createLibrary("library.jar", "org.example.lib")));
+    assertThat(flatBundle.exists(), equalTo(false));
+    assertThat(new File(bundle).isFile(), equalTo(true));
+  }
+
+  @Test
+  public void testBundlesAndMissingLibraries() throws Exception {
+    File library = createLibrary("library.jar", "org.example.lib");
+    File missing = new File(myTempDir, "missing.jar");
+    File notAJar = new File(myTempDir, "classes");
+    assertThat(notAJar.mkdirs(), equalTo(true));
+    String bundle = single(bundlify(library));
+
+    List<String> bundles = bundlify(library, new File(bundle), missing, notAJar, library);
+    assertThat("The order of dependencies should be kept", bundles, equalTo(Arrays.asList(bundle, bundle, bundle)));
+  }
+
+  /**
+   * Wrapping copies of a real library one by one and all at once, then again with all of them wrapped before.
+   */
+  @Test
+  public void testParallelBundlification() throws Exception {
+    File source = new File(PluginPathManager.getPluginHomePath("osmorc") + "/lib", "plexus-utils-3.0.10.jar");
+    assertThat(source.getPath(), source.isFile(), equalTo(true));
+    int libraries = 12;
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < libraries; i++) {
+      File copy = new File(myTempDir, "libraries/plexus" + i + ".jar");
+      FileUtil.copy(source, copy);
+      files.add(copy);
+    }
+
+    long start = System.currentTimeMillis();
+    for (File file : files) {
+      assertThat(myWrapper.bundlifyLibraries(Collections.singletonList(file), new File(myTempDir, "sequential"), rules()).size(), equalTo(1));
+    }
+    long sequentialTime = System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    List<String> bundles = myWrapper.bundlifyLibraries(files, myOutputDir, rules());
+    long parallelTime = System.currentTimeMillis() - start;
+    assertThat(bundles.size(), equalTo(libraries));
+
+    start = System.currentTimeMillis();
+    assertThat(myWrapper.bundlifyLibraries(files, myOutputDir, rules()), equalTo(bundles));
+    long cachedTime = System.currentTimeMillis() - start;
+
+    LOG.info(libraries + " libraries: sequential " + sequentialTime + "ms, parallel " + parallelTime + "ms, cached " + cachedTime + "ms");
+  }
+
+  private List<String> bundlify(File... libraries) {
+    return myWrapper.bundlifyLibraries(Arrays.asList(libraries), myOutputDir, rules());
+  }
+
+  private List<String> bundlify(File library, LibraryBundlificationRule rule) {
+    return myWrapper.bundlifyLibraries(Collections.singletonList(library), myOutputDir, Collections.singletonList(rule));
+  }
+
+  private static List<LibraryBundlificationRule> rules() {
+    return Collections.singletonList(new LibraryBundlificationRule());
+  }
+
+  private static String single(List<String> bundles) {
+    assertThat(bundles.size(), equalTo(1));
+    return bundles.get(0);
+  }
+
+  private File createLibrary(String name, String packageName) throws IOException {
+    File library = new File(myTempDir, name);
+    FileUtil.createParentDirs(library);
+    try (ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(library))) {
+      stream.putNextEntry(new ZipEntry(packageName.replace('.', '/') + "/messages.properties"));
+      stream.write(("library=" + packageName + '\n').getBytes(StandardCharsets.UTF_8));
+      stream.closeEntry();
+    }
+    return library;
+  }
+
+  private class TestReporter implements Reporter {
+    @Override
+    public void progress(@NotNull String message) { }
+
+    @Override
+    public void warning(@NotNull String message, @Nullable Throwable t, @Nullable String sourcePath, int lineNum) {
+      myWarnings.add(message);
+    }
+
+    @Override
+    public void error(@NotNull String message, @Nullable Throwable t, @Nullable String sourcePath, int lineNum) {
+      myWarnings.add(message);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+      return false;
+    }
+
+    @Override
+    public void debug(@NotNull String message) { }
+
+    @Override
+    public String setReportSource(String source) {
+      return null;
+    }
+  }
+}
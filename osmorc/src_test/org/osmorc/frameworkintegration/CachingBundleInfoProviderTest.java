@@ -24,6 +24,7 @@
  */
 package org.osmorc.frameworkintegration;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import org.jetbrains.osgi.jps.build.CachingBundleInfoProvider;
 import org.junit.After;
@@ -32,6 +33,18 @@ import org.junit.Test;
 import org.osmorc.OsgiTestUtil;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
@@ -40,6 +53,8 @@ import static org.junit.Assert.assertThat;
  * @author <a href="mailto:robert@beeger.net">Robert F. Beeger</a>
  */
 public class CachingBundleInfoProviderTest {
+  private static final Logger LOG = Logger.getInstance(CachingBundleInfoProviderTest.class);
+
   private File myTempDir;
   private String myDirBundle;
   private String myInvalidDirBundle;
@@ -56,6 +71,7 @@ public class CachingBundleInfoProviderTest {
 
   @After
   public void tearDown() {
+    CachingBundleInfoProvider.clearCache();
     FileUtil.delete(myTempDir);
   }
 
@@ -86,4 +102,117 @@ public class CachingBundleInfoProviderTest {
     assertThat(CachingBundleInfoProvider.isFragmentBundle(myJarBundle), equalTo(false));
     assertThat(CachingBundleInfoProvider.isFragmentBundle(myInvalidDirBundle), equalTo(false));
   }
+
+  @Test
+  public void testModifiedBundle() throws Exception {
+    File jar = new File(myTempDir, "modified.jar");
+    createBundle(jar, "modified", "1.0.0", null);
+    assertThat(CachingBundleInfoProvider.getBundleVersion(jar.getPath()), equalTo("1.0.0"));
+    assertThat(CachingBundleInfoProvider.isFragmentBundle(jar.getPath()), equalTo(false));
+
+    long lastModified = jar.lastModified();
+    createBundle(jar, "modified", "2.0.0", "host");
+    assertThat(jar.setLastModified(lastModified + 2000), equalTo(true));
+    assertThat(CachingBundleInfoProvider.getBundleVersion(jar.getPath()), equalTo("2.0.0"));
+    assertThat(CachingBundleInfoProvider.isFragmentBundle(jar.getPath()), equalTo(true));
+
+    FileUtil.delete(jar);
+    assertThat(CachingBundleInfoProvider.isBundle(jar.getPath()), equalTo(false));
+  }
+
+  @Test
+  public void testOtherAttributes() {
+    assertThat(CachingBundleInfoProvider.getBundleAttribute(myJarBundle, "Manifest-Version"), equalTo("1.0"));
+    assertThat(CachingBundleInfoProvider.getBundleAttribute(myJarBundle, "No-Such-Header"), equalTo(null));
+    assertThat(CachingBundleInfoProvider.getBundleSymbolicName(myJarBundle), equalTo("jarbundle"));
+  }
+
+  @Test
+  public void testPersistentCache() throws Exception {
+    File cacheFile = new File(myTempDir, "bundle-info.dat");
+    assertThat(CachingBundleInfoProvider.getBundleSymbolicName(myDirBundle), equalTo("dirbundle"));
+    CachingBundleInfoProvider.saveCache(cacheFile);
+    CachingBundleInfoProvider.clearCache();
+
+    // the same size and time stamp, so the manifest is not read again
+    File manifest = new File(myDirBundle, JarFile.MANIFEST_NAME);
+    long lastModified = manifest.lastModified();
+    FileUtil.writeToFile(manifest, FileUtil.loadFile(manifest).replace("dirbundle", "otherdirb"));
+    assertThat(manifest.setLastModified(lastModified), equalTo(true));
+
+    CachingBundleInfoProvider.loadCache(cacheFile);
+    assertThat(CachingBundleInfoProvider.getBundleSymbolicName(myDirBundle), equalTo("dirbundle"));
+    CachingBundleInfoProvider.clearCache();
+    assertThat(CachingBundleInfoProvider.getBundleSymbolicName(myDirBundle), equalTo("otherdirb"));
+  }
+
+  /**
+   * Lookups from several threads over a few hundred bundle jars, compared with the same lookups serialized
+   * on one lock as they were before.
+   */
+  @Test
+  public void testConcurrentLookupsBenchmark() throws Exception {
+    int bundles = 300, threads = 8, rounds = 50;
+    List<String> paths = new ArrayList<>();
+    for (int i = 0; i < bundles; i++) {
+      File jar = new File(myTempDir, "bundles/bundle" + i + ".jar");
+      createBundle(jar, "bundle" + i, "1." + i + ".0", i % 10 == 0 ? "host" : null);
+      paths.add(jar.getPath());
+    }
+
+    Consumer<String> lookup = path -> {
+      String name = CachingBundleInfoProvider.getBundleSymbolicName(path);
+      assertThat(name, equalTo(new File(path).getName().replace(".jar", "")));
+      assertThat(CachingBundleInfoProvider.getBundleVersion(path), equalTo("1." + name.substring("bundle".length()) + ".0"));
+      CachingBundleInfoProvider.isFragmentBundle(path);
+    };
+    long concurrentTime = runLookups(paths, threads, rounds, lookup);
+
+    Object lock = new Object();
+    CachingBundleInfoProvider.clearCache();
+    long serializedTime = runLookups(paths, threads, rounds, path -> {
+      synchronized (lock) {
+        lookup.accept(path);
+      }
+    });
+
+    LOG.info(threads + " threads, " + rounds + " rounds over " + bundles + " bundles: " +
+             "concurrent " + concurrentTime + "ms, serialized " + serializedTime + "ms");
+  }
+
+  private static long runLookups(List<String> paths, int threads, int rounds, Consumer<String> lookup) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.currentTimeMillis();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int offset = t * paths.size() / threads;
+        futures.add(executor.submit(() -> {
+          for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < paths.size(); i++) {
+              lookup.accept(paths.get((offset + i) % paths.size()));
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return System.currentTimeMillis() - start;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void createBundle(File jar, String symbolicName, String version, String fragmentHost) throws IOException {
+    Manifest manifest = new Manifest();
+    Attributes attributes = manifest.getMainAttributes();
+    attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    attributes.putValue("Bundle-SymbolicName", symbolicName + ";singleton:=true");
+    attributes.putValue("Bundle-Version", version);
+    if (fragmentHost != null) attributes.putValue("Fragment-Host", fragmentHost);
+    FileUtil.createParentDirs(jar);
+    new JarOutputStream(new FileOutputStream(jar), manifest).close();
+  }
 }
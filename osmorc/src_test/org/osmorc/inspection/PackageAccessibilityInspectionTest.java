@@ -16,12 +16,20 @@
 package org.osmorc.inspection;
 
 import com.intellij.codeInsight.intention.IntentionAction;
+import com.intellij.codeInspection.InspectionManager;
+import com.intellij.codeInspection.ProblemDescriptor;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.psi.PsiFile;
 import org.jetbrains.osgi.jps.model.ManifestGenerationMode;
 import org.osmorc.LightOsgiFixtureTestCase;
 import org.osmorc.i18n.OsmorcBundle;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class PackageAccessibilityInspectionTest extends LightOsgiFixtureTestCase {
+  private static final Logger LOG = Logger.getInstance(PackageAccessibilityInspectionTest.class);
+
   public void testEmpty() {
     doTest(
       "package pkg;\n" +
@@ -132,6 +140,50 @@ public class PackageAccessibilityInspectionTest extends LightOsgiFixtureTestCase
       " javax.swing\n");
   }
 
+  /**
+   * The inspection over a few hundred classes of a bundle with long Import-Package and Private-Package lists.
+   */
+  public void testPerformance() {
+    int classes = 300, packages = 500;
+    StringBuilder manifest = new StringBuilder("Bundle-SymbolicName: test\nImport-Package: org.osgi.framework;version=\"[1.6,2)\",\n org.osgi.framework.launch");
+    for (int i = 0; i < packages; i++) {
+      manifest.append(",\n com.example.p").append(i).append(".api;version=\"[1.").append(i).append(",2)\";resolution:=optional");
+    }
+    manifest.append("\nPrivate-Package: pkg");
+    for (int i = 0; i < classes; i++) {
+      manifest.append(",\n pkg.p").append(i);
+    }
+    myFixture.addFileToProject("META-INF/MANIFEST.MF", manifest.append('\n').toString());
+
+    List<PsiFile> files = new ArrayList<>();
+    for (int i = 0; i < classes; i++) {
+      int next = (i + 1) % classes;
+      files.add(myFixture.addFileToProject(
+        "pkg/p" + i + "/C" + i + ".java",
+        "package pkg.p" + i + ";\n" +
+        "import org.osgi.framework.*;\n" +
+        "import org.osgi.framework.launch.Framework;\n" +
+        "public abstract class C" + i + " implements BundleActivator {\n" +
+        "  BundleContext context;\n" +
+        "  Framework framework;\n" +
+        "  ServiceReference<?> reference;\n" +
+        "  pkg.p" + next + ".C" + next + " next;\n" +
+        "  org.apache.felix.framework.Felix felix;\n" +
+        "}"));
+    }
+
+    PackageAccessibilityInspection inspection = new PackageAccessibilityInspection();
+    InspectionManager manager = InspectionManager.getInstance(getProject());
+    int problems = 0;
+    long start = System.currentTimeMillis();
+    for (PsiFile file : files) {
+      ProblemDescriptor[] descriptors = inspection.checkFile(file, manager, false);
+      if (descriptors != null) problems += descriptors.length;
+    }
+    LOG.info(classes + " classes checked in " + (System.currentTimeMillis() - start) + " ms");
+    assertEquals("Only Felix should be reported as not exported", classes, problems);
+  }
+
   private void doTest(String classText) {
     doTest(classText, "");
   }
@@ -17,10 +17,12 @@ package com.intellij.struts2.dom.struts.strutspackage;
 
 import com.intellij.util.Processor;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Walks StrutsPackage hierarchically via {@code "extends"}.
+ * Walks StrutsPackage hierarchically via {@code "extends"}, visiting each package once.
  *
  * @author Yann C&eacute;bron
  */
@@ -28,6 +30,7 @@ public class StrutsPackageHierarchyWalker {
 
   private final StrutsPackage start;
   private final Processor<StrutsPackage> processor;
+  private final Set<StrutsPackage> visited = new HashSet<>();
 
   public StrutsPackageHierarchyWalker(final StrutsPackage start,
                                       final Processor<StrutsPackage> processor) {
@@ -40,6 +43,10 @@ public class StrutsPackageHierarchyWalker {
   }
 
   private boolean walkPackage(final StrutsPackage startPackage) {
+    if (!visited.add(startPackage)) {
+      return true; // cyclic or diamond-shaped hierarchy
+    }
+
     if (!processor.process(startPackage)) {
       return false;
     }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for {@link ActionPathMatcher}.
+ */
+public class ActionPathMatcherTest {
+
+  @Test
+  public void exactPath() {
+    final ActionPathMatcher matcher = ActionPathMatcher.create("myPath");
+    assertNotNull(matcher);
+    assertEquals("myPath", matcher.getExactPath());
+    assertTrue(matcher.matches("myPath"));
+    assertFalse(matcher.matches("myPath!method"));
+  }
+
+  @Test
+  public void wildcardPath() {
+    final ActionPathMatcher matcher = ActionPathMatcher.create("some*Action*Stuff");
+    assertNotNull(matcher);
+    assertNull(matcher.getExactPath());
+    assertTrue(matcher.matches("someXActionXStuff"));
+    assertFalse(matcher.matches("some/Action/Stuff"));
+
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(matcher.matches("some" + i + "Action" + i + "Stuff"));
+    }
+  }
+
+  @Test
+  public void invalidWildcardPath() {
+    assertNull(ActionPathMatcher.create("some*[Path"));
+    assertFalse(ActionUtil.matchesPath("some*[Path", "some[Path"));
+  }
+
+  @Test
+  public void stripBang() {
+    assertEquals("myPath", ActionPathMatcher.stripBang("myPath"));
+    assertEquals("myPath", ActionPathMatcher.stripBang("myPath!myAction"));
+    assertEquals("", ActionPathMatcher.stripBang("!myAction"));
+  }
+}
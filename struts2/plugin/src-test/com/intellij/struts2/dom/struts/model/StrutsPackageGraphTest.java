@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.model;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import com.intellij.struts2.BasicLightHighlightingTestCase;
+import com.intellij.struts2.dom.struts.strutspackage.InterceptorOrStackBase;
+import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.xml.DomElement;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link StrutsPackageGraph}.
+ */
+public class StrutsPackageGraphTest extends BasicLightHighlightingTestCase {
+
+  private static final String BASE_XML = "struts-package-graph-base.xml";
+  private static final String PACKAGES_XML = "struts-package-graph.xml";
+
+  @Override
+  @NotNull
+  protected String getTestDataLocation() {
+    return "strutsXml/packageGraph";
+  }
+
+  @Override
+  protected void performSetUp() {
+    createStrutsFileSet(BASE_XML, PACKAGES_XML);
+  }
+
+  public void testPackageHierarchy() {
+    final StrutsModel model = getModel();
+    assertEquals(Arrays.asList("child", "left", "base", "right"),
+                 getNames(model.getPackageHierarchy(getPackage(model, "child"))));
+    assertSame(getPackage(model, "base"), model.findStrutsPackage("base"));
+    assertNull(model.findStrutsPackage("INVALID_VALUE"));
+  }
+
+  public void testCyclicExtends() {
+    final StrutsModel model = getModel();
+    assertEquals(Arrays.asList("cycleA", "cycleB"), getNames(model.getPackageHierarchy(getPackage(model, "cycleA"))));
+  }
+
+  public void testInterceptorsAndStacks() {
+    final StrutsModel model = getModel();
+    final StrutsPackage child = getPackage(model, "child");
+    assertEquals(Arrays.asList("childStack", "leftInterceptor", "overridden", "leftStack",
+                               "baseInterceptor", "overridden", "rightInterceptor"),
+                 getNames(model.getInterceptorsAndStacks(child)));
+
+    final InterceptorOrStackBase overridden = model.findInterceptorOrStack(child, "overridden");
+    assertNotNull(overridden);
+    assertSame(getPackage(model, "left"), overridden.getParentOfType(StrutsPackage.class, true));
+
+    assertNull(model.findInterceptorOrStack(getPackage(model, "base"), "leftInterceptor"));
+    assertNull(model.findInterceptorOrStack(child, "INVALID_VALUE"));
+    assertEquals(7, model.getAllInterceptorsAndStacks().size());
+  }
+
+  public void testUpdatedOnFileChange() {
+    final StrutsModel model = getModel();
+    final InterceptorOrStackBase baseInterceptor = model.findInterceptorOrStack(getPackage(model, "child"), "baseInterceptor");
+    assertNotNull(baseInterceptor);
+
+    final XmlTag tag = baseInterceptor.getXmlTag();
+    assertNotNull(tag);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      tag.setAttribute("name", "renamedInterceptor");
+    });
+
+    final StrutsModel updatedModel = getModel();
+    final StrutsPackage child = getPackage(updatedModel, "child");
+    assertNull(updatedModel.findInterceptorOrStack(child, "baseInterceptor"));
+    assertNotNull(updatedModel.findInterceptorOrStack(child, "renamedInterceptor"));
+  }
+
+  @NotNull
+  private StrutsModel getModel() {
+    final VirtualFile virtualFile = myFixture.findFileInTempDir(PACKAGES_XML);
+    assertNotNull(virtualFile);
+    final PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(virtualFile);
+    assertInstanceOf(psiFile, XmlFile.class);
+
+    final StrutsModel model = StrutsManager.getInstance(getProject()).getModelByFile((XmlFile)psiFile);
+    assertNotNull(model);
+    return model;
+  }
+
+  @NotNull
+  private static StrutsPackage getPackage(final StrutsModel model, @NonNls final String name) {
+    final StrutsPackage strutsPackage =
+      ContainerUtil.find(model.getStrutsPackages(), each -> name.equals(each.getName().getStringValue()));
+    assertNotNull(name, strutsPackage);
+    return strutsPackage;
+  }
+
+  private static List<String> getNames(final List<? extends DomElement> elements) {
+    return ContainerUtil.map(elements, element -> element.getGenericInfo().getElementName(element));
+  }
+}
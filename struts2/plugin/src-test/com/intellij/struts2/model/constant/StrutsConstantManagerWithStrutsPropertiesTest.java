@@ -15,7 +15,13 @@
 
 package com.intellij.struts2.model.constant;
 
+import com.intellij.lang.properties.IProperty;
+import com.intellij.lang.properties.psi.PropertiesFile;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
 import com.intellij.struts2.model.constant.contributor.StrutsCoreConstantContributor;
 import org.jetbrains.annotations.NotNull;
 
@@ -28,6 +34,7 @@ import java.util.Arrays;
  * @author Yann C&eacute;bron
  */
 public class StrutsConstantManagerWithStrutsPropertiesTest extends StrutsConstantManagerTestCase {
+  private static final Logger LOG = Logger.getInstance(StrutsConstantManagerWithStrutsPropertiesTest.class);
 
   @NotNull
   @Override
@@ -45,4 +52,45 @@ public class StrutsConstantManagerWithStrutsPropertiesTest extends StrutsConstan
     final VirtualFile strutsXmlFile = myFixture.findFileInTempDir(STRUTS_XML);
     performResolveTest(strutsXmlFile, StrutsCoreConstantContributor.ACTION_EXTENSION, Arrays.asList("foo"));
   }
+
+  /**
+   * Cached values must be updated when struts.properties changes.
+   */
+  public void testStrutsPropertiesChange() {
+    final VirtualFile strutsPropertiesFile = myFixture.copyFileToProject("struts.properties");
+    createStrutsFileSet(STRUTS_XML);
+
+    final VirtualFile strutsXmlFile = myFixture.findFileInTempDir(STRUTS_XML);
+    performResolveTest(strutsXmlFile, StrutsCoreConstantContributor.ACTION_EXTENSION, Arrays.asList("foo"));
+
+    final PsiFile psiFile = PsiManager.getInstance(getProject()).findFile(strutsPropertiesFile);
+    assertInstanceOf(psiFile, PropertiesFile.class);
+    final IProperty property = ((PropertiesFile)psiFile).findPropertyByKey("struts.action.extension");
+    assertNotNull(property);
+    WriteCommandAction.runWriteCommandAction(getProject(), () -> {
+      property.setValue("bar");
+    });
+
+    performResolveTest(strutsXmlFile, StrutsCoreConstantContributor.ACTION_EXTENSION, Arrays.asList("bar"));
+  }
+
+  /**
+   * Lookups during highlighting must not rescan properties files and struts.xml for every call.
+   */
+  public void testRepeatedLookupPerformance() {
+    myFixture.copyFileToProject("struts.properties");
+    createStrutsFileSet(STRUTS_XML);
+
+    final VirtualFile strutsXmlFile = myFixture.findFileInTempDir(STRUTS_XML);
+    final PsiFile strutsXmlPsiFile = PsiManager.getInstance(getProject()).findFile(strutsXmlFile);
+    assertNotNull(strutsXmlPsiFile);
+
+    final StrutsConstantManager constantManager = StrutsConstantManager.getInstance(getProject());
+    final long start = System.currentTimeMillis();
+    for (int i = 0; i < 20000; i++) {
+      assertEquals(Arrays.asList("foo"),
+                   constantManager.getConvertedValue(strutsXmlPsiFile, StrutsCoreConstantContributor.ACTION_EXTENSION));
+    }
+    LOG.info("20000 constant lookups: " + (System.currentTimeMillis() - start) + "ms");
+  }
 }
\ No newline at end of file
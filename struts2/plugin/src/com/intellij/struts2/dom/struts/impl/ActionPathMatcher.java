@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.impl;
+
+import com.intellij.openapi.util.text.StringUtil;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Precompiled matcher for an Action path (including support for wildcards and bang notation).
+ */
+public final class ActionPathMatcher {
+
+  @Nullable
+  private final String myExactPath;
+
+  @Nullable
+  private final Pattern myPattern;
+
+  private ActionPathMatcher(@Nullable final String exactPath, @Nullable final Pattern pattern) {
+    myExactPath = exactPath;
+    myPattern = pattern;
+  }
+
+  /**
+   * Creates matcher for the given Action path.
+   *
+   * @param actionPath Path of Action.
+   * @return {@code null} if the path is not a valid wildcard pattern.
+   */
+  @Nullable
+  public static ActionPathMatcher create(@NotNull @NonNls final String actionPath) {
+    // do we have any wildcard-markers in our path? no --> exact compare
+    if (actionPath.indexOf('*') == -1) {
+      return new ActionPathMatcher(actionPath, null);
+    }
+
+    try {
+      return new ActionPathMatcher(null, Pattern.compile(StringUtil.replace(actionPath, "*", "[^/]*")));
+    }
+    catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Strips everything behind "!" (bang notation).
+   *
+   * @param checkPath Path to check.
+   * @return Path without method name.
+   */
+  @NotNull
+  public static String stripBang(@NotNull @NonNls final String checkPath) {
+    final int bangIdx = checkPath.indexOf('!');
+    return bangIdx == -1 ? checkPath : checkPath.substring(0, bangIdx);
+  }
+
+  /**
+   * @return Path for exact matching, {@code null} for wildcard path.
+   */
+  @Nullable
+  public String getExactPath() {
+    return myExactPath;
+  }
+
+  /**
+   * Does the given path (already stripped via {@link #stripBang(String)}) match.
+   *
+   * @param strippedCheckPath Path to check.
+   * @return true if matched.
+   */
+  public boolean matches(@NotNull @NonNls final String strippedCheckPath) {
+    if (myPattern == null) {
+      return strippedCheckPath.equals(myExactPath);
+    }
+    return myPattern.matcher(strippedCheckPath).matches();
+  }
+}
@@ -19,7 +19,6 @@ import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Condition;
-import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.psi.*;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PropertyUtil;
@@ -31,8 +30,6 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Helper methods for {@link ActionImpl}.
@@ -53,21 +50,8 @@ final class ActionUtil {
    */
   static boolean matchesPath(@NotNull @NonNls final String actionPath,
                              @NotNull @NonNls final String checkPath) {
-    // strip everything behind "!"
-    final int bangIdx = checkPath.indexOf('!');
-    final String strippedCheckPath = bangIdx == -1 ? checkPath : checkPath.substring(0, bangIdx);
-
-    // do we have any wildcard-markers in our path? no --> exact compare
-    if (actionPath.indexOf('*') == -1) {
-      return Comparing.equal(strippedCheckPath, actionPath);
-    }
-
-    try {
-      return Pattern.matches(StringUtil.replace(actionPath, "*", "[^/]*"), strippedCheckPath);
-    }
-    catch (PatternSyntaxException e) {
-      return false;
-    }
+    final ActionPathMatcher matcher = ActionPathMatcher.create(actionPath);
+    return matcher != null && matcher.matches(ActionPathMatcher.stripBang(checkPath));
   }
 
   /**
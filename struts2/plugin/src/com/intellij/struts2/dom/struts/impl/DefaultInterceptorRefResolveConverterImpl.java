@@ -17,6 +17,8 @@ package com.intellij.struts2.dom.struts.impl;
 
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Ref;
+import com.intellij.struts2.dom.ConverterUtil;
+import com.intellij.struts2.dom.struts.model.StrutsModel;
 import com.intellij.struts2.dom.struts.strutspackage.DefaultInterceptorRefResolveConverter;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorStack;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
@@ -41,6 +43,14 @@ public class DefaultInterceptorRefResolveConverterImpl extends DefaultIntercepto
   @NotNull
   public Collection<? extends InterceptorStack> getVariants(final ConvertContext context) {
     final List<InterceptorStack> results = new SmartList<>();
+    final StrutsModel strutsModel = ConverterUtil.getStrutsModel(context);
+    if (strutsModel != null) {
+      for (final StrutsPackage strutsPackage : strutsModel.getPackageHierarchy(getCurrentStrutsPackage(context))) {
+        results.addAll(strutsPackage.getInterceptorStacks());
+      }
+      return results;
+    }
+
     final Processor<StrutsPackage> processor = strutsPackage -> {
       results.addAll(strutsPackage.getInterceptorStacks());
       return true;
@@ -60,6 +70,17 @@ public class DefaultInterceptorRefResolveConverterImpl extends DefaultIntercepto
 
     final Condition<InterceptorStack> nameCondition = interceptorStack -> name.equals(interceptorStack.getName().getStringValue());
 
+    final StrutsModel strutsModel = ConverterUtil.getStrutsModel(context);
+    if (strutsModel != null) {
+      for (final StrutsPackage strutsPackage : strutsModel.getPackageHierarchy(getCurrentStrutsPackage(context))) {
+        final InterceptorStack result = ContainerUtil.find(strutsPackage.getInterceptorStacks(), nameCondition);
+        if (result != null) {
+          return result;
+        }
+      }
+      return null;
+    }
+
     final Ref<InterceptorStack> resolveResult = new Ref<>();
     final Processor<StrutsPackage> processor = strutsPackage -> {
       final InterceptorStack result = ContainerUtil.find(strutsPackage.getInterceptorStacks(), nameCondition);
@@ -18,6 +18,7 @@ package com.intellij.struts2.dom.struts.impl;
 import com.intellij.openapi.util.Condition;
 import com.intellij.openapi.util.Ref;
 import com.intellij.struts2.dom.ConverterUtil;
+import com.intellij.struts2.dom.struts.model.StrutsModel;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorOrStackBase;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorRefResolveConverter;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
@@ -40,6 +41,11 @@ public class InterceptorRefResolveConverterImpl extends InterceptorRefResolveCon
 
   @NotNull
   public Collection<? extends InterceptorOrStackBase> getVariants(final ConvertContext context) {
+    final StrutsModel strutsModel = ConverterUtil.getStrutsModel(context);
+    if (strutsModel != null) {
+      return strutsModel.getInterceptorsAndStacks(ConverterUtil.getCurrentStrutsPackage(context));
+    }
+
     final List<InterceptorOrStackBase> results = new SmartList<>();
     final Processor<StrutsPackage> processor = strutsPackage -> {
       final List<InterceptorOrStackBase> allInterceptors = getAllInterceptors(strutsPackage);
@@ -58,6 +64,11 @@ public class InterceptorRefResolveConverterImpl extends InterceptorRefResolveCon
       return null;
     }
 
+    final StrutsModel strutsModel = ConverterUtil.getStrutsModel(context);
+    if (strutsModel != null) {
+      return strutsModel.findInterceptorOrStack(ConverterUtil.getCurrentStrutsPackage(context), name);
+    }
+
     final Condition<InterceptorOrStackBase> nameCondition =
       interceptorOrStackBase -> name.equals(interceptorOrStackBase.getName().getStringValue());
 
@@ -15,15 +15,12 @@
 
 package com.intellij.struts2.dom.struts.impl;
 
-import com.intellij.openapi.util.Comparing;
-import com.intellij.openapi.util.Condition;
 import com.intellij.psi.PsiElement;
 import com.intellij.struts2.dom.ConverterUtil;
 import com.intellij.struts2.dom.struts.model.StrutsModel;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackageExtendsResolveConverter;
 import com.intellij.util.ArrayUtil;
-import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.xml.ConvertContext;
 import com.intellij.util.xml.DomUtil;
 import com.intellij.util.xml.ElementPresentationManager;
@@ -50,8 +47,7 @@ public class StrutsPackageExtendsResolveConverterImpl extends StrutsPackageExten
       return null;
     }
 
-    return ContainerUtil.find(strutsModel.getStrutsPackages(),
-                              strutsPackage -> Comparing.equal(name, strutsPackage.getName().getStringValue()));
+    return strutsModel.findStrutsPackage(name);
   }
 
   @Override
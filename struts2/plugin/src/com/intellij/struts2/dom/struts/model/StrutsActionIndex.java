@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.model;
+
+import com.intellij.openapi.util.Comparing;
+import com.intellij.psi.PsiClass;
+import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.impl.ActionPathMatcher;
+import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.MultiMap;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Lookup tables for Actions of one {@link StrutsModel}: Actions by class FQN, namespace and path.
+ */
+class StrutsActionIndex {
+
+  private final List<Action> myAllActions = new ArrayList<>();
+  private final MultiMap<String, ActionClassEntry> myActionsByClass = MultiMap.createSmart();
+
+  private final ActionPathTable myAllActionsTable;
+  private final Map<String, ActionPathTable> myNamespaceTables = new HashMap<>();
+
+  StrutsActionIndex(@NotNull final List<StrutsPackage> strutsPackages) {
+    final Map<String, List<StrutsPackage>> packagesByNamespace = new LinkedHashMap<>();
+    for (final StrutsPackage strutsPackage : strutsPackages) {
+      packagesByNamespace.computeIfAbsent(strutsPackage.searchNamespace(), namespace -> new SmartList<>()).add(strutsPackage);
+
+      for (final Action action : strutsPackage.getActions()) {
+        myAllActions.add(action);
+
+        final PsiClass actionClass = action.searchActionClass();
+        if (actionClass != null) {
+          final String qualifiedName = actionClass.getQualifiedName();
+          if (qualifiedName != null) {
+            myActionsByClass.putValue(qualifiedName, new ActionClassEntry(actionClass, action));
+          }
+        }
+      }
+    }
+
+    myAllActionsTable = new ActionPathTable(myAllActions);
+    for (final Map.Entry<String, List<StrutsPackage>> entry : packagesByNamespace.entrySet()) {
+      final List<Action> actions = new ArrayList<>();
+      for (final StrutsPackage strutsPackage : entry.getValue()) {
+        actions.addAll(strutsPackage.getActions());
+      }
+      myNamespaceTables.put(entry.getKey(), new ActionPathTable(actions));
+    }
+  }
+
+  @NotNull
+  List<Action> getActionsForNamespace(@Nullable @NonNls final String namespace) {
+    if (namespace == null) {
+      return new SmartList<>(myAllActions);
+    }
+
+    final ActionPathTable table = myNamespaceTables.get(namespace);
+    return table == null ? new SmartList<>() : new SmartList<>(table.myActions);
+  }
+
+  @NotNull
+  List<Action> findActionsByName(@NotNull @NonNls final String name,
+                                 @Nullable @NonNls final String namespace) {
+    final ActionPathTable table = namespace == null ? myAllActionsTable : myNamespaceTables.get(namespace);
+    return table == null ? new SmartList<>() : table.findActions(ActionPathMatcher.stripBang(name));
+  }
+
+  @NotNull
+  List<Action> findActionsByClass(@NotNull final PsiClass clazz, final boolean skipOnFirst) {
+    final String qualifiedName = clazz.getQualifiedName();
+    if (qualifiedName == null) {
+      return new SmartList<>();
+    }
+
+    final List<Action> actionResultList = new SmartList<>();
+    for (final ActionClassEntry entry : myActionsByClass.get(qualifiedName)) {
+      if (Comparing.equal(clazz, entry.myActionClass)) {
+        actionResultList.add(entry.myAction);
+        if (skipOnFirst) {
+          break;
+        }
+      }
+    }
+    return actionResultList;
+  }
+
+  private static class ActionClassEntry {
+    private final PsiClass myActionClass;
+    private final Action myAction;
+
+    private ActionClassEntry(final PsiClass actionClass, final Action action) {
+      myActionClass = actionClass;
+      myAction = action;
+    }
+  }
+
+  /**
+   * Actions by exact path plus precompiled wildcard paths, results keep the order of declaration.
+   */
+  private static class ActionPathTable {
+    private final List<Action> myActions;
+    private final MultiMap<String, Integer> myExactPaths = MultiMap.createSmart();
+    private final List<Integer> myWildcardIndices = new ArrayList<>();
+    private final List<ActionPathMatcher> myWildcardMatchers = new ArrayList<>();
+
+    private ActionPathTable(final List<Action> actions) {
+      myActions = actions;
+      for (int i = 0; i < actions.size(); i++) {
+        final String path = actions.get(i).getName().getRawText();
+        if (path == null) {
+          continue;
+        }
+
+        final ActionPathMatcher matcher = ActionPathMatcher.create(path);
+        if (matcher == null) {
+          continue;
+        }
+
+        final String exactPath = matcher.getExactPath();
+        if (exactPath != null) {
+          myExactPaths.putValue(exactPath, i);
+        }
+        else {
+          myWildcardIndices.add(i);
+          myWildcardMatchers.add(matcher);
+        }
+      }
+    }
+
+    private List<Action> findActions(final String strippedPath) {
+      final Collection<Integer> exactIndices = myExactPaths.get(strippedPath);
+
+      final List<Integer> indices = new ArrayList<>(exactIndices);
+      for (int i = 0; i < myWildcardMatchers.size(); i++) {
+        if (myWildcardMatchers.get(i).matches(strippedPath)) {
+          indices.add(myWildcardIndices.get(i));
+        }
+      }
+      if (indices.size() > exactIndices.size()) {
+        Collections.sort(indices);
+      }
+
+      final List<Action> actionResultList = new SmartList<>();
+      for (final Integer index : indices) {
+        actionResultList.add(myActions.get(index));
+      }
+      return actionResultList;
+    }
+  }
+}
@@ -18,7 +18,9 @@ package com.intellij.struts2.dom.struts.model;
 import com.intellij.psi.PsiClass;
 import com.intellij.struts2.dom.struts.StrutsRoot;
 import com.intellij.struts2.dom.struts.action.Action;
+import com.intellij.struts2.dom.struts.strutspackage.Interceptor;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorOrStackBase;
+import com.intellij.struts2.dom.struts.strutspackage.InterceptorStack;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
 import com.intellij.util.Processor;
 import com.intellij.util.xml.model.DomModel;
@@ -60,6 +62,43 @@ public interface StrutsModel extends DomModel<StrutsRoot> {
   @NotNull
   Set<InterceptorOrStackBase> getAllInterceptorsAndStacks();
 
+  /**
+   * Gets the first package with the given name.
+   *
+   * @param name Name of the package.
+   * @return {@code null} if not found.
+   */
+  @Nullable
+  StrutsPackage findStrutsPackage(@NotNull @NonNls String name);
+
+  /**
+   * Gets the given package and all packages it inherits from via {@code "extends"}, each package only once.
+   *
+   * @param strutsPackage Package to start from.
+   * @return List in lookup order, starting with the given package.
+   */
+  @NotNull
+  List<StrutsPackage> getPackageHierarchy(@NotNull StrutsPackage strutsPackage);
+
+  /**
+   * Gets all {@link Interceptor}/{@link InterceptorStack}s visible from the given package, including inherited ones.
+   *
+   * @param strutsPackage Package to start from.
+   * @return List in lookup order.
+   */
+  @NotNull
+  List<InterceptorOrStackBase> getInterceptorsAndStacks(@NotNull StrutsPackage strutsPackage);
+
+  /**
+   * Resolves the Interceptor/InterceptorStack with the given name visible from the given package.
+   *
+   * @param strutsPackage Package to start from.
+   * @param name          Name of the Interceptor/InterceptorStack.
+   * @return {@code null} if not found.
+   */
+  @Nullable
+  InterceptorOrStackBase findInterceptorOrStack(@NotNull StrutsPackage strutsPackage, @NotNull @NonNls String name);
+
   /**
    * Gets all Actions for the given name and optionally namespace.
    *
@@ -15,20 +15,21 @@
 
 package com.intellij.struts2.dom.struts.model;
 
-import com.intellij.openapi.util.Comparing;
-import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.struts2.dom.struts.StrutsRoot;
 import com.intellij.struts2.dom.struts.action.Action;
-import com.intellij.struts2.dom.struts.strutspackage.Interceptor;
 import com.intellij.struts2.dom.struts.strutspackage.InterceptorOrStackBase;
-import com.intellij.struts2.dom.struts.strutspackage.InterceptorStack;
 import com.intellij.struts2.dom.struts.strutspackage.StrutsPackage;
+import com.intellij.util.ArrayUtil;
 import com.intellij.util.Function;
 import com.intellij.util.NotNullFunction;
 import com.intellij.util.Processor;
-import com.intellij.util.SmartList;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.xml.DomFileElement;
 import com.intellij.util.xml.model.impl.DomModelImpl;
@@ -52,9 +53,22 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
   private static final Function<StrutsRoot, Collection<? extends StrutsPackage>> STRUTS_PACKAGE_COLLECTOR =
     strutsRoot -> strutsRoot.getPackages();
 
+  private final CachedValue<StrutsActionIndex> myActionIndex;
+  private final CachedValue<StrutsPackageGraph> myPackageGraph;
+
   StrutsModelImpl(@NotNull final DomFileElement<StrutsRoot> strutsRootDomFileElement,
                   @NotNull final Set<XmlFile> xmlFiles) {
     super(strutsRootDomFileElement, xmlFiles);
+
+    final Project project = strutsRootDomFileElement.getFile().getProject();
+    myActionIndex = CachedValuesManager.getManager(project).createCachedValue(
+      () -> CachedValueProvider.Result.create(new StrutsActionIndex(getStrutsPackages()),
+                                              PsiModificationTracker.OUT_OF_CODE_BLOCK_MODIFICATION_COUNT), false);
+
+    // package graph only depends on the config files themselves
+    myPackageGraph = CachedValuesManager.getManager(project).createCachedValue(
+      () -> CachedValueProvider.Result.create(new StrutsPackageGraph(getRoots()),
+                                              ArrayUtil.toObjectArray(getConfigFiles())), false);
   }
 
   @NotNull
@@ -69,20 +83,38 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
 
   @NotNull
   public Set<InterceptorOrStackBase> getAllInterceptorsAndStacks() {
-    final Set<InterceptorOrStackBase> interceptorOrStackBases = new HashSet<>();
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      final List<InterceptorStack> interceptorList = strutsPackage.getInterceptorStacks();
-      interceptorOrStackBases.addAll(interceptorList);
-      final List<Interceptor> interceptors = strutsPackage.getInterceptors();
-      interceptorOrStackBases.addAll(interceptors);
-    }
-    return interceptorOrStackBases;
+    return new HashSet<>(myPackageGraph.getValue().getAllInterceptorsAndStacks());
+  }
+
+  @Nullable
+  @Override
+  public StrutsPackage findStrutsPackage(@NotNull @NonNls final String name) {
+    return myPackageGraph.getValue().findPackage(name);
+  }
+
+  @NotNull
+  @Override
+  public List<StrutsPackage> getPackageHierarchy(@NotNull final StrutsPackage strutsPackage) {
+    return myPackageGraph.getValue().getHierarchy(strutsPackage);
+  }
+
+  @NotNull
+  @Override
+  public List<InterceptorOrStackBase> getInterceptorsAndStacks(@NotNull final StrutsPackage strutsPackage) {
+    return myPackageGraph.getValue().getInterceptorsAndStacks(strutsPackage);
+  }
+
+  @Nullable
+  @Override
+  public InterceptorOrStackBase findInterceptorOrStack(@NotNull final StrutsPackage strutsPackage,
+                                                       @NotNull @NonNls final String name) {
+    return myPackageGraph.getValue().findInterceptorOrStack(strutsPackage, name);
   }
 
   @NotNull
   public List<Action> findActionsByName(@NotNull @NonNls final String name,
                                         @Nullable @NonNls final String namespace) {
-    return ContainerUtil.findAll(getActionsForNamespace(namespace), action -> action.matchesPath(name));
+    return myActionIndex.getValue().findActionsByName(name, namespace);
   }
 
   @NotNull
@@ -92,21 +124,7 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
 
   private List<Action> findActionsByClassInner(final PsiClass clazz,
                                                final boolean skipOnFirst) {
-    final List<Action> actionResultList = new SmartList<>();
-
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      for (final Action action : strutsPackage.getActions()) {
-        final PsiClass actionClassValue = action.searchActionClass();
-        if (Comparing.equal(clazz, actionClassValue)) {
-          actionResultList.add(action);
-          if (skipOnFirst) {
-            return actionResultList;
-          }
-        }
-      }
-    }
-
-    return actionResultList;
+    return myActionIndex.getValue().findActionsByClass(clazz, skipOnFirst);
   }
 
   @Override
@@ -115,15 +133,7 @@ class StrutsModelImpl extends DomModelImpl<StrutsRoot> implements StrutsModel {
   }
 
   public List<Action> getActionsForNamespace(@Nullable @NonNls final String namespace) {
-    final List<Action> actionResultList = new SmartList<>();
-
-    for (final StrutsPackage strutsPackage : getStrutsPackages()) {
-      if (namespace == null ||
-          Comparing.equal(namespace, strutsPackage.searchNamespace())) {
-        actionResultList.addAll(strutsPackage.getActions());
-      }
-    }
-    return actionResultList;
+    return myActionIndex.getValue().getActionsForNamespace(namespace);
   }
 
   public boolean processActions(final Processor<Action> processor) {
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 The authors
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.intellij.struts2.dom.struts.model;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.struts2.dom.struts.StrutsRoot;
+import com.intellij.struts2.dom.struts.strutspackage.*;
+import com.intellij.util.SmartList;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.xml.DomFileElement;
+import com.intellij.util.xml.DomManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolved {@code extends} graph of all packages of one {@link StrutsModel}: the effective inheritance chain of each
+ * package and the Interceptors/InterceptorStacks visible from it.
+ * <p/>
+ * The packages of each config file are read once per file modification and cached on the file, so rebuilding the
+ * graph after editing one file does not re-read the others. Results are memoized lazily per package.
+ */
+class StrutsPackageGraph {
+
+  private static final Key<CachedValue<List<PackageInfo>>> FILE_PACKAGES_KEY = Key.create("STRUTS_FILE_PACKAGES");
+
+  private final Map<String, PackageInfo> myPackagesByName = new HashMap<>();
+  private final Map<StrutsPackage, PackageInfo> myPackageInfos = new HashMap<>();
+  private final Set<InterceptorOrStackBase> myAllInterceptorsAndStacks = new HashSet<>();
+
+  private final ConcurrentMap<StrutsPackage, List<StrutsPackage>> myHierarchies = ContainerUtil.newConcurrentMap();
+  private final ConcurrentMap<StrutsPackage, VisibleInterceptors> myVisibleInterceptors = ContainerUtil.newConcurrentMap();
+
+  StrutsPackageGraph(@NotNull final Collection<DomFileElement<StrutsRoot>> roots) {
+    for (final DomFileElement<StrutsRoot> root : roots) {
+      for (final PackageInfo info : getFilePackages(root.getFile())) {
+        myPackageInfos.put(info.myPackage, info);
+        if (info.myName != null) {
+          myPackagesByName.putIfAbsent(info.myName, info);
+        }
+        myAllInterceptorsAndStacks.addAll(info.myInterceptorsAndStacks);
+      }
+    }
+  }
+
+  private static List<PackageInfo> getFilePackages(@NotNull final XmlFile xmlFile) {
+    return CachedValuesManager.getManager(xmlFile.getProject()).getCachedValue(xmlFile, FILE_PACKAGES_KEY, () -> {
+      final DomFileElement<StrutsRoot> root =
+        DomManager.getDomManager(xmlFile.getProject()).getFileElement(xmlFile, StrutsRoot.class);
+      final List<PackageInfo> infos = new ArrayList<>();
+      if (root != null) {
+        for (final StrutsPackage strutsPackage : root.getRootElement().getPackages()) {
+          infos.add(new PackageInfo(strutsPackage));
+        }
+      }
+      return CachedValueProvider.Result.create(infos, xmlFile);
+    }, false);
+  }
+
+  @NotNull
+  Set<InterceptorOrStackBase> getAllInterceptorsAndStacks() {
+    return myAllInterceptorsAndStacks;
+  }
+
+  @Nullable
+  StrutsPackage findPackage(@NotNull final String name) {
+    final PackageInfo info = myPackagesByName.get(name);
+    return info != null ? info.myPackage : null;
+  }
+
+  @NotNull
+  List<StrutsPackage> getHierarchy(@NotNull final StrutsPackage strutsPackage) {
+    return myHierarchies.computeIfAbsent(strutsPackage, key -> {
+      final List<StrutsPackage> hierarchy = new ArrayList<>();
+      collectHierarchy(getPackageInfo(key), new HashSet<>(), hierarchy);
+      return Collections.unmodifiableList(hierarchy);
+    });
+  }
+
+  /**
+   * Depth-first via {@code extends} in declaration order like {@link StrutsPackageHierarchyWalker}, but visits each
+   * package once so cyclic or diamond-shaped hierarchies terminate.
+   */
+  private void collectHierarchy(final PackageInfo info, final Set<StrutsPackage> visited, final List<StrutsPackage> hierarchy) {
+    if (!visited.add(info.myPackage)) {
+      return;
+    }
+
+    hierarchy.add(info.myPackage);
+    for (final String extendsName : info.myExtends) {
+      final PackageInfo parent = myPackagesByName.get(extendsName);
+      if (parent != null) {
+        collectHierarchy(parent, visited, hierarchy);
+      }
+    }
+  }
+
+  @NotNull
+  List<InterceptorOrStackBase> getInterceptorsAndStacks(@NotNull final StrutsPackage strutsPackage) {
+    return getVisibleInterceptors(strutsPackage).myAll;
+  }
+
+  @Nullable
+  InterceptorOrStackBase findInterceptorOrStack(@NotNull final StrutsPackage strutsPackage, @NotNull final String name) {
+    return getVisibleInterceptors(strutsPackage).myByName.get(name);
+  }
+
+  private VisibleInterceptors getVisibleInterceptors(final StrutsPackage strutsPackage) {
+    return myVisibleInterceptors.computeIfAbsent(strutsPackage, key -> {
+      final List<InterceptorOrStackBase> all = new ArrayList<>();
+      for (final StrutsPackage hierarchyPackage : getHierarchy(key)) {
+        all.addAll(getPackageInfo(hierarchyPackage).myInterceptorsAndStacks);
+      }
+      return new VisibleInterceptors(all);
+    });
+  }
+
+  private PackageInfo getPackageInfo(final StrutsPackage strutsPackage) {
+    final PackageInfo info = myPackageInfos.get(strutsPackage);
+    return info != null ? info : new PackageInfo(strutsPackage);
+  }
+
+
+  private static final class PackageInfo {
+
+    private final StrutsPackage myPackage;
+    private final String myName;
+    private final List<String> myExtends = new SmartList<>();
+    private final List<InterceptorOrStackBase> myInterceptorsAndStacks;
+
+    private PackageInfo(final StrutsPackage strutsPackage) {
+      myPackage = strutsPackage;
+      myName = strutsPackage.getName().getStringValue();
+
+      final String extendsValue = strutsPackage.getExtends().getStringValue();
+      if (extendsValue != null) {
+        final StringTokenizer tokenizer = new StringTokenizer(extendsValue, ", ");
+        while (tokenizer.hasMoreTokens()) {
+          myExtends.add(tokenizer.nextToken());
+        }
+      }
+
+      myInterceptorsAndStacks = ContainerUtil.concat(strutsPackage.getInterceptors(), strutsPackage.getInterceptorStacks());
+    }
+  }
+
+
+  private static final class VisibleInterceptors {
+
+    private final List<InterceptorOrStackBase> myAll;
+    private final Map<String, InterceptorOrStackBase> myByName = new HashMap<>();
+
+    private VisibleInterceptors(final List<InterceptorOrStackBase> all) {
+      myAll = Collections.unmodifiableList(all);
+      for (final InterceptorOrStackBase interceptorOrStack : all) {
+        final String name = interceptorOrStack.getName().getStringValue();
+        if (name != null) {
+          myByName.putIfAbsent(name, interceptorOrStack);
+        }
+      }
+    }
+  }
+}
@@ -22,19 +22,31 @@ import com.intellij.javaee.web.WebUtil;
 import com.intellij.javaee.web.facet.WebFacet;
 import com.intellij.lang.properties.IProperty;
 import com.intellij.lang.properties.PropertiesImplUtil;
+import com.intellij.lang.properties.psi.PropertiesFile;
 import com.intellij.openapi.extensions.Extensions;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
 import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.JarFileSystem;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.FilenameIndex;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.util.InheritanceUtil;
+import com.intellij.psi.util.ParameterizedCachedValue;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.struts2.StrutsConstants;
 import com.intellij.struts2.dom.struts.StrutsRoot;
@@ -47,14 +59,13 @@ import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.xml.ConvertContext;
 import com.intellij.util.xml.Converter;
 import com.intellij.util.xml.DomFileElement;
+import com.intellij.util.xml.DomUtil;
 import com.intellij.util.xml.impl.ConvertContextFactory;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 /**
  * @author Yann C&eacute;bron
@@ -64,9 +75,31 @@ public class StrutsConstantManagerImpl extends StrutsConstantManager {
   @NonNls
   private static final String STRUTS_DEFAULT_PROPERTIES = "/org/apache/struts2/default.properties";
 
+  @NonNls
+  private static final String STRUTS_DEFAULT_PROPERTIES_FILENAME = "default.properties";
+
   @NonNls
   private static final String STRUTS_PROPERTIES_FILENAME = "struts.properties";
 
+  /**
+   * Caches constant definitions by name per module.
+   */
+  private static final Key<CachedValue<Map<String, StrutsConstant>>> KEY_CONSTANTS =
+    Key.create("STRUTS2_CONSTANTS");
+
+  /**
+   * Caches constant values from properties and struts.xml files per module for each StrutsModel,
+   * dropped together with the model (the cached value gets the model as parameter, so it doesn't keep it alive).
+   */
+  private static final Key<Map<StrutsModel, ParameterizedCachedValue<Map<String, String>, StrutsModel>>> KEY_CONSTANT_VALUES =
+    Key.create("STRUTS2_CONSTANT_VALUES");
+
+  /**
+   * Caches Struts filter init-params from web.xml per web facet.
+   */
+  private static final Key<CachedValue<Map<String, String>>> KEY_WEB_XML_CONSTANT_VALUES =
+    Key.create("STRUTS2_WEB_XML_CONSTANT_VALUES");
+
   private static final Condition<Filter> WEB_XML_STRUTS_FILTER_CONDITION = filter -> {
     final PsiClass filterClass = filter.getFilterClass().getValue();
     return InheritanceUtil.isInheritor(filterClass, StrutsConstants.STRUTS_2_0_FILTER_CLASS) ||
@@ -97,12 +130,35 @@ public class StrutsConstantManagerImpl extends StrutsConstantManager {
       return null;
     }
 
-    final StrutsConstant strutsConstant = ContainerUtil.find(getConstants(module), strutsConstant1 -> Comparing.equal(strutsConstant1.getName(), strutsConstantKey.getKey()));
+    final StrutsConstant strutsConstant = getConstantsByName(module).get(strutsConstantKey.getKey());
 
     //noinspection unchecked
     return strutsConstant != null ? strutsConstant.getConverter() : null;
   }
 
+  @NotNull
+  private Map<String, StrutsConstant> getConstantsByName(@NotNull final Module module) {
+    CachedValue<Map<String, StrutsConstant>> cachedValue = module.getUserData(KEY_CONSTANTS);
+    if (cachedValue == null) {
+      final Project project = module.getProject();
+      cachedValue = CachedValuesManager.getManager(project).createCachedValue(
+        () -> {
+          final Map<String, StrutsConstant> constants = new HashMap<>();
+          for (final StrutsConstant strutsConstant : getConstants(module)) {
+            if (!constants.containsKey(strutsConstant.getName())) {
+              constants.put(strutsConstant.getName(), strutsConstant);
+            }
+          }
+          // contributors are available depending on the plugin classes in the module
+          return CachedValueProvider.Result.create(constants,
+                                                   PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT,
+                                                   ProjectRootManager.getInstance(project));
+        }, false);
+      cachedValue = module.putUserDataIfAbsent(KEY_CONSTANTS, cachedValue);
+    }
+    return cachedValue.getValue();
+  }
+
   @Override
   @Nullable
   public <T> T getConvertedValue(@NotNull final PsiElement context,
@@ -145,74 +201,177 @@ public class StrutsConstantManagerImpl extends StrutsConstantManager {
   private static String getStringValue(@NotNull final PsiFile context,
                                        @NotNull final StrutsModel strutsModel,
                                        @NotNull @NonNls final String name) {
-    final Project project = context.getProject();
     final Module module = ModuleUtilCore.findModuleForPsiElement(context);
     assert module != null : context;
 
-    // collect all properties with matching key
-    final List<IProperty> properties = PropertiesImplUtil.findPropertiesByKey(project, name);
+    // web.xml overrides all other layers, even with an empty value
+    final WebFacet webFacet = WebUtil.getWebFacet(context);
+    if (webFacet != null) {
+      final Map<String, String> webXmlValues = getWebXmlValues(webFacet);
+      if (webXmlValues.containsKey(name)) {
+        return webXmlValues.get(name);
+      }
+    }
+
+    return getConstantValues(module, strutsModel).get(name);
+  }
+
+  /**
+   * Returns constant values from default.properties, struts.xml files and struts.properties, cached per module and StrutsModel.
+   *
+   * @param module      Module.
+   * @param strutsModel StrutsModel.
+   * @return Constant values by name.
+   */
+  @NotNull
+  private static Map<String, String> getConstantValues(@NotNull final Module module,
+                                                       @NotNull final StrutsModel strutsModel) {
+    Map<StrutsModel, ParameterizedCachedValue<Map<String, String>, StrutsModel>> valuesByModel = module.getUserData(KEY_CONSTANT_VALUES);
+    if (valuesByModel == null) {
+      valuesByModel = module.putUserDataIfAbsent(KEY_CONSTANT_VALUES, ContainerUtil.createConcurrentWeakMap());
+    }
+
+    ParameterizedCachedValue<Map<String, String>, StrutsModel> cachedValue = valuesByModel.get(strutsModel);
+    if (cachedValue == null) {
+      cachedValue = CachedValuesManager.getManager(module.getProject()).createParameterizedCachedValue(
+        model -> computeConstantValues(module, model), false);
+      valuesByModel.put(strutsModel, cachedValue);
+    }
+    return cachedValue.getValue(strutsModel);
+  }
 
-    String value = null;
+  /**
+   * Builds the constant table, each layer overrides the previous ones.
+   *
+   * @param module      Module.
+   * @param strutsModel StrutsModel.
+   * @return Constant values by name, depending on all files they were read from.
+   */
+  @NotNull
+  private static CachedValueProvider.Result<Map<String, String>> computeConstantValues(@NotNull final Module module,
+                                                                                      @NotNull final StrutsModel strutsModel) {
+    final Project project = module.getProject();
+    final Map<String, String> values = new HashMap<>();
+    final List<Object> dependencies = new ArrayList<>();
+    dependencies.add(VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+    dependencies.add(ProjectRootManager.getInstance(project));
 
     // 1. default.properties from struts2-core.jar
-    final IProperty strutsDefaultProperty = ContainerUtil.find(properties, property -> {
-      final VirtualFile virtualFile = property.getPropertiesFile().getVirtualFile();
-      return virtualFile != null &&
-             virtualFile.getFileSystem() instanceof JarFileSystem &&
-             StringUtil.endsWith(virtualFile.getPath(), STRUTS_DEFAULT_PROPERTIES) &&
-             ModuleUtilCore.moduleContainsFile(module, virtualFile, true);
-    });
-    if (strutsDefaultProperty != null) {
-      value = strutsDefaultProperty.getValue();
+    final Collection<VirtualFile> defaultPropertiesFiles =
+      FilenameIndex.getVirtualFilesByName(project, STRUTS_DEFAULT_PROPERTIES_FILENAME,
+                                          GlobalSearchScope.moduleWithLibrariesScope(module));
+    final VirtualFile strutsDefaultProperties = ContainerUtil.find(defaultPropertiesFiles, virtualFile ->
+      virtualFile.getFileSystem() instanceof JarFileSystem &&
+      StringUtil.endsWith(virtualFile.getPath(), STRUTS_DEFAULT_PROPERTIES) &&
+      ModuleUtilCore.moduleContainsFile(module, virtualFile, true));
+    if (strutsDefaultProperties != null) {
+      addProperties(values, Collections.singletonList(strutsDefaultProperties), project, dependencies);
     }
 
     // 2. <constant> from StrutsModel
-    final Condition<Constant> constantNameCondition = constant -> Comparing.equal(constant.getName().getStringValue(), name);
-
+    for (final DomFileElement<StrutsRoot> root : strutsModel.getRoots()) {
+      dependencies.add(root.getFile());
+    }
     final List<DomFileElement<StrutsRoot>> domFileElements = new ArrayList<>();
     collectStrutsXmls(domFileElements, strutsModel, "struts-default.xml", true);
     collectStrutsXmls(domFileElements, strutsModel, "struts-plugin.xml", true);
     collectStrutsXmls(domFileElements, strutsModel, "struts.xml", false);
     for (final DomFileElement<StrutsRoot> domFileElement : domFileElements) {
-      final Constant constant = ContainerUtil.find(domFileElement.getRootElement().getConstants(),
-                                                   constantNameCondition);
-      final String strutsXmlValue = constant != null ? constant.getValue().getStringValue() : null;
-      if (strutsXmlValue != null) {
-        value = strutsXmlValue;
+      final Map<String, String> fileValues = new HashMap<>();
+      for (final Constant constant : domFileElement.getRootElement().getConstants()) {
+        final String name = constant.getName().getStringValue();
+        if (name != null && !fileValues.containsKey(name)) {
+          fileValues.put(name, constant.getValue().getStringValue());
+        }
       }
+      putNotNullValues(values, fileValues);
     }
 
     // 3. struts.properties in current module
-    final IProperty strutsProperty = ContainerUtil.find(properties, property -> {
-      final VirtualFile virtualFile = property.getPropertiesFile().getVirtualFile();
-      return virtualFile != null &&
-             Comparing.equal(virtualFile.getName(), STRUTS_PROPERTIES_FILENAME) &&
-             ModuleUtilCore.moduleContainsFile(module, virtualFile, false);
-    });
-    if (strutsProperty != null) {
-      value = strutsProperty.getValue();
-    }
+    final Collection<VirtualFile> strutsPropertiesFiles =
+      ContainerUtil.filter(FilenameIndex.getVirtualFilesByName(project, STRUTS_PROPERTIES_FILENAME,
+                                                               GlobalSearchScope.moduleScope(module)),
+                           virtualFile -> ModuleUtilCore.moduleContainsFile(module, virtualFile, false));
+    addProperties(values, strutsPropertiesFiles, project, dependencies);
 
-    // 4. web.xml
-    final WebFacet webFacet = WebUtil.getWebFacet(context);
-    if (webFacet == null) {
-      return value; // should not happen in real projects..
-    }
-    final WebApp webApp = webFacet.getRoot();
-    if (webApp == null) {
-      return value; // no web.xml
+    return CachedValueProvider.Result.create(values, dependencies);
+  }
+
+  /**
+   * Returns the init-params of the Struts filter in web.xml, including those without value.
+   *
+   * @param webFacet Web facet of context.
+   * @return Constant values by name.
+   */
+  @NotNull
+  private static Map<String, String> getWebXmlValues(@NotNull final WebFacet webFacet) {
+    CachedValue<Map<String, String>> cachedValue = webFacet.getUserData(KEY_WEB_XML_CONSTANT_VALUES);
+    if (cachedValue == null) {
+      final Project project = webFacet.getModule().getProject();
+      cachedValue = CachedValuesManager.getManager(project).createCachedValue(() -> {
+        final Map<String, String> initParams = new HashMap<>();
+        final List<Object> dependencies = new ArrayList<>();
+        dependencies.add(VirtualFileManager.VFS_STRUCTURE_MODIFICATIONS);
+        dependencies.add(ProjectRootManager.getInstance(project));
+        // the filter is found by its class hierarchy
+        dependencies.add(PsiModificationTracker.JAVA_STRUCTURE_MODIFICATION_COUNT);
+
+        final WebApp webApp = webFacet.getRoot();
+        if (webApp == null) {
+          return CachedValueProvider.Result.create(initParams, dependencies); // no web.xml
+        }
+        ContainerUtil.addIfNotNull(dependencies, DomUtil.getFile(webApp));
+
+        final Filter filter = ContainerUtil.find(webApp.getFilters(), WEB_XML_STRUTS_FILTER_CONDITION);
+        if (filter != null) {
+          for (final ParamValue initParam : filter.getInitParams()) {
+            final String name = initParam.getParamName().getStringValue();
+            if (name != null && !initParams.containsKey(name)) {
+              initParams.put(name, initParam.getParamValue().getStringValue());
+            }
+          }
+        }
+        return CachedValueProvider.Result.create(initParams, dependencies);
+      }, false);
+      cachedValue = webFacet.putUserDataIfAbsent(KEY_WEB_XML_CONSTANT_VALUES, cachedValue);
     }
+    return cachedValue.getValue();
+  }
 
-    final Filter filter = ContainerUtil.find(webApp.getFilters(), WEB_XML_STRUTS_FILTER_CONDITION);
-    if (filter != null) {
-      final ParamValue initParam = ContainerUtil.find(filter.getInitParams(),
-                                                      (Condition<ParamValue>)paramValue -> Comparing.equal(paramValue.getParamName().getStringValue(), name));
-      if (initParam != null) {
-        value = initParam.getParamValue().getStringValue();
+  /**
+   * Adds all properties, for duplicate keys the first property wins. A property without value overrides the previous layers.
+   */
+  private static void addProperties(@NotNull final Map<String, String> values,
+                                    @NotNull final Collection<VirtualFile> virtualFiles,
+                                    @NotNull final Project project,
+                                    @NotNull final List<Object> dependencies) {
+    final PsiManager psiManager = PsiManager.getInstance(project);
+    final Map<String, String> fileValues = new HashMap<>();
+    for (final VirtualFile virtualFile : virtualFiles) {
+      final PsiFile psiFile = psiManager.findFile(virtualFile);
+      ContainerUtil.addIfNotNull(dependencies, psiFile);
+      final PropertiesFile propertiesFile = psiFile != null ? PropertiesImplUtil.getPropertiesFile(psiFile) : null;
+      if (propertiesFile == null) {
+        continue;
+      }
+
+      for (final IProperty property : propertiesFile.getProperties()) {
+        final String key = property.getKey();
+        if (key != null && !fileValues.containsKey(key)) {
+          fileValues.put(key, property.getValue());
+        }
       }
     }
+    values.putAll(fileValues);
+  }
 
-    return value;
+  private static void putNotNullValues(@NotNull final Map<String, String> values,
+                                       @NotNull final Map<String, String> layer) {
+    for (final Map.Entry<String, String> entry : layer.entrySet()) {
+      if (entry.getValue() != null) {
+        values.put(entry.getKey(), entry.getValue());
+      }
+    }
   }
 
   /**